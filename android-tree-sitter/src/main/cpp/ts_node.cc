@@ -15,6 +15,9 @@
  *  along with android-tree-sitter.  If not, see <https://www.gnu.org/licenses/>.
  */
 
+#include <string>
+#include <vector>
+
 #include "utils/ts_obj_utils.h"
 #include "utils/ts_preconditions.h"
 #include "ts__log.h"
@@ -205,6 +208,179 @@ static jstring TSNode_getNodeString(JNIEnv *env, jclass clazz, jobject self) {
   return result;
 }
 
+/**
+ * Writes the S-expression of a node in chunks of bounded size to a Java
+ * sink object.
+ */
+class SExpressionWriter {
+ public:
+  SExpressionWriter(JNIEnv *env, jobject sink, jint chunkSize)
+      : env(env), sink(sink), chunkSize(chunkSize > 0 ? chunkSize : 8192) {
+    buffer.reserve(this->chunkSize);
+  }
+
+  bool write(const char *str) {
+    buffer.append(str);
+    return buffer.size() < (size_t) chunkSize || flush();
+  }
+
+  bool write_quoted(const char *str) {
+    buffer.push_back('"');
+    for (const char *c = str; *c != 0; c++) {
+      switch (*c) {
+        case '"':
+          buffer.append("\\\"");
+          break;
+        case '\\':
+          buffer.append("\\\\");
+          break;
+        case '\n':
+          buffer.append("\\n");
+          break;
+        default:
+          buffer.push_back(*c);
+      }
+    }
+    buffer.push_back('"');
+    return buffer.size() < (size_t) chunkSize || flush();
+  }
+
+  bool write_point(TSPoint point) {
+    std::string str = "[" + std::to_string(point.row) + ", " +
+        std::to_string(point.column) + "]";
+    return write(str.c_str());
+  }
+
+  bool flush() {
+    if (buffer.empty()) {
+      return true;
+    }
+
+    jstring chunk = env->NewStringUTF(buffer.c_str());
+    buffer.clear();
+    jboolean result = _appendSExpressionChunk(env, sink, chunk);
+    env->DeleteLocalRef(chunk);
+    return !env->ExceptionCheck() && result;
+  }
+
+ private:
+  JNIEnv *env;
+  jobject sink;
+  jint chunkSize;
+  std::string buffer;
+};
+
+static bool write_node_start(SExpressionWriter &writer, TSTreeCursor *cursor,
+                             TSNode node, bool separate, bool positions) {
+  if (separate && !writer.write(" ")) {
+    return false;
+  }
+
+  const char *field = ts_tree_cursor_current_field_name(cursor);
+  if (field != nullptr && (!writer.write(field) || !writer.write(": "))) {
+    return false;
+  }
+
+  if (ts_node_is_missing(node)) {
+    // like ts_node_string, missing nodes are written even if they are
+    // anonymous
+    if (!writer.write("(MISSING ")) {
+      return false;
+    }
+    if (ts_node_is_named(node) ? !writer.write(ts_node_type(node))
+                               : !writer.write_quoted(ts_node_type(node))) {
+      return false;
+    }
+  } else if (ts_node_is_named(node)) {
+    if (!writer.write("(") || !writer.write(ts_node_type(node))) {
+      return false;
+    }
+  } else if (!writer.write_quoted(ts_node_type(node))) {
+    return false;
+  }
+
+  if (positions) {
+    return writer.write(" ") && writer.write_point(ts_node_start_point(node))
+        && writer.write(" - ") && writer.write_point(ts_node_end_point(node));
+  }
+
+  return true;
+}
+
+static void TSNode_writeSExpression(JNIEnv *env,
+                                    jclass clazz,
+                                    jobject self,
+                                    jint maxDepth,
+                                    jboolean positions,
+                                    jboolean anonymous,
+                                    jint chunkSize,
+                                    jobject sink) {
+  req_nnp(env, sink, "sink");
+  SExpressionWriter writer(env, sink, chunkSize);
+  TSNode root = _unmarshalNode(env, self);
+  TSTreeCursor cursor = ts_tree_cursor_new(root);
+
+  // for each level of the cursor, whether a parenthesis was opened
+  std::vector<bool> opened;
+  uint32_t depth = 0;
+  bool separate = false;
+  bool ok = true;
+
+  while (ok) {
+    TSNode node = ts_tree_cursor_current_node(&cursor);
+    bool missing = ts_node_is_missing(node);
+    bool visible = ts_node_is_named(node) || anonymous || missing;
+    if (visible) {
+      ok = write_node_start(writer, &cursor, node, separate, positions);
+      separate = true;
+    }
+    opened.push_back(visible && (ts_node_is_named(node) || missing));
+
+    if (!ok) {
+      break;
+    }
+
+    if (maxDepth < 0 || depth < (uint32_t) maxDepth) {
+      if (ts_tree_cursor_goto_first_child(&cursor)) {
+        ++depth;
+        continue;
+      }
+    } else if (visible && ts_node_child_count(node) > 0) {
+      ok = writer.write(" ...");
+    }
+
+    // close the current node and all the ancestors without next sibling
+    bool moved = false;
+    while (ok) {
+      if (opened.back()) {
+        ok = writer.write(")");
+      }
+      opened.pop_back();
+
+      if (!ok || depth == 0) {
+        break;
+      }
+
+      if (ts_tree_cursor_goto_next_sibling(&cursor)) {
+        moved = true;
+        break;
+      }
+
+      ts_tree_cursor_goto_parent(&cursor);
+      --depth;
+    }
+
+    if (!moved) {
+      break;
+    }
+  }
+
+  ts_tree_cursor_delete(&cursor);
+  if (ok) {
+    writer.flush();
+  }
+}
+
 static jint TSNode_getEndByte(JNIEnv *env, jclass clazz, jobject self) {
   return (jint) ts_node_end_byte(_unmarshalNode(env, self));
 }
@@ -329,6 +505,7 @@ void TSNode_Native__SetJniMethods(JNINativeMethod *methods, int count) {
   SET_JNI_METHOD(methods, TSNode_Native_getChildCount, TSNode_getChildCount);
   SET_JNI_METHOD(methods, TSNode_Native_getNamedChildCount, TSNode_getNamedChildCount);
   SET_JNI_METHOD(methods, TSNode_Native_getNodeString, TSNode_getNodeString);
+  SET_JNI_METHOD(methods, TSNode_Native_writeSExpression, TSNode_writeSExpression);
   SET_JNI_METHOD(methods, TSNode_Native_getStartByte, TSNode_getStartByte);
   SET_JNI_METHOD(methods, TSNode_Native_getEndByte, TSNode_getEndByte);
   SET_JNI_METHOD(methods, TSNode_Native_getStartPoint, TSNode_getStartPoint);
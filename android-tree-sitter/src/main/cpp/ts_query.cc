@@ -15,15 +15,67 @@
  *  along with android-tree-sitter.  If not, see <https://www.gnu.org/licenses/>.
  */
 
+#include <algorithm>
+#include <string>
+#include <vector>
+
 #include "utils/ts_exceptions.h"
 #include "utils/ts_obj_utils.h"
 #include "utils/ts_preconditions.h"
+#include "utils/ts_text_predicates.h"
 
 #include "ts_query.h"
 
 void fillQuery(JNIEnv *, jobject, uint32_t, TSQueryError);
 int query_quantifier_id(JNIEnv *env, TSQuantifier quantifier);
 jint getErrorType(TSQueryError);
+jint getPredicateTypeId(TSQueryPredicateStepType type);
+
+/**
+ * Encodes the given Java string as standard UTF-8, the same way
+ * String.getBytes(StandardCharsets.UTF_8) does. Unlike GetStringUTFChars, this
+ * encodes supplementary characters as 4-byte sequences and NUL as a single
+ * byte, so that the byte offsets reported by tree-sitter match the offsets
+ * computed on the Java side. Unpaired surrogates are replaced with '?'.
+ *
+ * Returns false if an exception is pending.
+ */
+static bool to_utf8(JNIEnv *env, jstring string, std::string &out) {
+  jsize length = env->GetStringLength(string);
+  std::vector<jchar> chars(length);
+  env->GetStringRegion(string, 0, length, chars.data());
+  if (env->ExceptionCheck()) {
+    return false;
+  }
+
+  out.reserve(length);
+  for (jsize i = 0; i < length; ++i) {
+    uint32_t c = chars[i];
+    if (c >= 0xD800 && c <= 0xDBFF && i + 1 < length
+        && chars[i + 1] >= 0xDC00 && chars[i + 1] <= 0xDFFF) {
+      c = 0x10000 + ((c - 0xD800) << 10) + (chars[++i] - 0xDC00);
+    } else if (c >= 0xD800 && c <= 0xDFFF) {
+      c = '?';
+    }
+
+    if (c < 0x80) {
+      out.push_back((char) c);
+    } else if (c < 0x800) {
+      out.push_back((char) (0xC0 | (c >> 6)));
+      out.push_back((char) (0x80 | (c & 0x3F)));
+    } else if (c < 0x10000) {
+      out.push_back((char) (0xE0 | (c >> 12)));
+      out.push_back((char) (0x80 | ((c >> 6) & 0x3F)));
+      out.push_back((char) (0x80 | (c & 0x3F)));
+    } else {
+      out.push_back((char) (0xF0 | (c >> 18)));
+      out.push_back((char) (0x80 | ((c >> 12) & 0x3F)));
+      out.push_back((char) (0x80 | ((c >> 6) & 0x3F)));
+      out.push_back((char) (0x80 | (c & 0x3F)));
+    }
+  }
+  return true;
+}
 
 static jlong TSQuery_newQuery(JNIEnv *env,
                               jclass self,
@@ -31,18 +83,19 @@ static jlong TSQuery_newQuery(JNIEnv *env,
                               jlong language,
                               jstring source) {
   req_nnp(env, language);
-  const char *c_source;
-  uint32_t source_length = env->GetStringLength(source);
-  c_source = env->GetStringUTFChars(source, nullptr);
-  auto error_offset = new uint32_t;
-  auto error_type = new TSQueryError;
+  std::string c_source;
+  if (!to_utf8(env, source, c_source)) {
+    return 0;
+  }
+
+  uint32_t error_offset = 0;
+  TSQueryError error_type = TSQueryErrorNone;
   TSQuery *query = ts_query_new((TSLanguage *) language,
-                                c_source,
-                                source_length,
-                                error_offset,
-                                error_type);
-  fillQuery(env, queryObject, *error_offset, *error_type);
-  env->ReleaseStringUTFChars(source, c_source);
+                                c_source.data(),
+                                (uint32_t) c_source.size(),
+                                &error_offset,
+                                &error_type);
+  fillQuery(env, queryObject, error_offset, error_type);
   return (jlong) query;
 }
 
@@ -51,89 +104,149 @@ static void TSQuery_delete(JNIEnv *env, jclass self, jlong query) {
   ts_query_delete((TSQuery *) query);
 }
 
-static jint TSQuery_captureCount(JNIEnv *env, jclass self, jlong query) {
+static jboolean TSQuery_patternGuaranteedAtStep(JNIEnv *env,
+                                                jclass self,
+                                                jlong query,
+                                                jint offset) {
   req_nnp(env, query);
-  return (jint) ts_query_capture_count((TSQuery *) query);
+  return (jboolean) ts_query_is_pattern_guaranteed_at_step((TSQuery *) query,
+                                                           offset);
 }
 
-static jint TSQuery_patternCount(JNIEnv *env, jclass self, jlong query) {
-  req_nnp(env, query);
-  return (jint) ts_query_pattern_count((TSQuery *) query);
-}
+static jobjectArray new_string_array(JNIEnv *env,
+                                     uint32_t count,
+                                     const char *(*value_for_id)(const TSQuery *,
+                                                                 uint32_t,
+                                                                 uint32_t *),
+                                     const TSQuery *query) {
+  jobjectArray result = createStringArr(env, (jint) count);
+  if (result == nullptr) {
+    // OutOfMemoryError is pending
+    return nullptr;
+  }
 
-static jint TSQuery_stringCount(JNIEnv *env, jclass self, jlong query) {
-  req_nnp(env, query);
-  return (jint) ts_query_string_count((TSQuery *) query);
+  uint32_t length;
+  for (uint32_t i = 0; i < count; ++i) {
+    jstring value = env->NewStringUTF(value_for_id(query, i, &length));
+    if (value == nullptr) {
+      return nullptr;
+    }
+    env->SetObjectArrayElement(result, (jsize) i, value);
+    env->DeleteLocalRef(value);
+  }
+  return result;
 }
 
-static jint TSQuery_startByteForPattern(JNIEnv *env,
-                                        jclass self,
-                                        jlong query,
-                                        jint pattern) {
+static void
+TSQuery_fillInfo(JNIEnv *env, jclass self, jlong query, jobject info) {
   req_nnp(env, query);
-  return (jint) ts_query_start_byte_for_pattern((TSQuery *) query, pattern);
-}
+  req_nnp(env, info, "TSQueryInfo");
+  auto *ts_query = (TSQuery *) query;
+  const uint32_t capture_count = ts_query_capture_count(ts_query);
+  const uint32_t pattern_count = ts_query_pattern_count(ts_query);
+  const uint32_t string_count = ts_query_string_count(ts_query);
 
-static jobjectArray TSQuery_predicatesForPattern(JNIEnv *env,
-                                                 jclass self,
-                                                 jlong query,
-                                                 jint pattern) {
-  req_nnp(env, query);
+  jobjectArray capture_names = new_string_array(env,
+                                                capture_count,
+                                                ts_query_capture_name_for_id,
+                                                ts_query);
+  if (capture_names == nullptr) {
+    // OutOfMemoryError is pending
+    return;
+  }
+
+  jobjectArray string_values = new_string_array(env,
+                                                string_count,
+                                                ts_query_string_value_for_id,
+                                                ts_query);
+  if (string_values == nullptr) {
+    return;
+  }
+
+  std::vector<jint> start_bytes(pattern_count);
+  std::vector<jboolean> rooted(pattern_count);
+  std::vector<jboolean> non_local(pattern_count);
+  std::vector<jbyte> quantifiers((size_t) pattern_count * capture_count);
+  std::vector<jint> predicate_offsets(pattern_count + 1);
+  std::vector<jint> predicate_steps;
 
-  uint32_t count;
-  const TSQueryPredicateStep *predicates =
-      ts_query_predicates_for_pattern((TSQuery *) query, pattern, &count);
-  jobjectArray result = createQueryPredicateStepArr(env, (jint) count);
-  req_nnp(env, result, "TSQueryPredicateStep[] from factory");
+  for (uint32_t pattern = 0; pattern < pattern_count; ++pattern) {
+    start_bytes[pattern] =
+        (jint) ts_query_start_byte_for_pattern(ts_query, pattern);
+    rooted[pattern] = (jboolean) ts_query_is_pattern_rooted(ts_query, pattern);
+    non_local[pattern] =
+        (jboolean) ts_query_is_pattern_non_local(ts_query, pattern);
 
-  for (uint32_t i = 0; i < count; i++) {
-    const TSQueryPredicateStep *predicate = (predicates + i);
-    jobject obj = _marshalQueryPredicateStep(env, predicate);
-    env->SetObjectArrayElement(result, i, obj);
+    for (uint32_t capture = 0; capture < capture_count; ++capture) {
+      auto quantifier =
+          ts_query_capture_quantifier_for_id(ts_query, pattern, capture);
+      quantifiers[(size_t) pattern * capture_count + capture] =
+          (jbyte) query_quantifier_id(env, quantifier);
+    }
+
+    uint32_t step_count;
+    const TSQueryPredicateStep *steps =
+        ts_query_predicates_for_pattern(ts_query, pattern, &step_count);
+    predicate_offsets[pattern] = (jint) predicate_steps.size();
+    for (uint32_t i = 0; i < step_count; ++i) {
+      predicate_steps.push_back(getPredicateTypeId(steps[i].type));
+      predicate_steps.push_back((jint) steps[i].value_id);
+    }
   }
+  predicate_offsets[pattern_count] = (jint) predicate_steps.size();
 
-  return result;
-}
+  jintArray start_bytes_arr = env->NewIntArray((jsize) pattern_count);
+  if (start_bytes_arr == nullptr) {
+    return;
+  }
+  env->SetIntArrayRegion(start_bytes_arr, 0, (jsize) pattern_count, start_bytes.data());
 
-static jboolean
-TSQuery_patternRooted(JNIEnv *env, jclass self, jlong query, jint pattern) {
-  req_nnp(env, query);
-  return (jboolean) ts_query_is_pattern_rooted((TSQuery *) query, pattern);
-}
+  jbooleanArray rooted_arr = env->NewBooleanArray((jsize) pattern_count);
+  if (rooted_arr == nullptr) {
+    return;
+  }
+  env->SetBooleanArrayRegion(rooted_arr, 0, (jsize) pattern_count, rooted.data());
 
-static jboolean TSQuery_patternNonLocal(JNIEnv *env,
-                                        jclass self,
-                                        jlong query,
-                                        jint pattern_index) {
-  req_nnp(env, query);
-  return (jboolean) ts_query_is_pattern_non_local((TSQuery *) query,
-                                                  pattern_index);
-}
+  jbooleanArray non_local_arr = env->NewBooleanArray((jsize) pattern_count);
+  if (non_local_arr == nullptr) {
+    return;
+  }
+  env->SetBooleanArrayRegion(non_local_arr, 0, (jsize) pattern_count, non_local.data());
 
-static jboolean TSQuery_patternGuaranteedAtStep(JNIEnv *env,
-                                                jclass self,
-                                                jlong query,
-                                                jint offset) {
-  req_nnp(env, query);
-  return (jboolean) ts_query_is_pattern_guaranteed_at_step((TSQuery *) query,
-                                                           offset);
-}
+  jbyteArray quantifiers_arr = env->NewByteArray((jsize) quantifiers.size());
+  if (quantifiers_arr == nullptr) {
+    return;
+  }
+  env->SetByteArrayRegion(quantifiers_arr, 0, (jsize) quantifiers.size(), quantifiers.data());
 
-static jstring
-TSQuery_captureNameForId(JNIEnv *env, jclass self, jlong query, jint id) {
-  req_nnp(env, query);
-  uint32_t count;
-  const char
-      *name = ts_query_capture_name_for_id((TSQuery *) query, id, &count);
-  return (jstring) env->NewStringUTF(name);
-}
+  jintArray offsets_arr = env->NewIntArray((jsize) predicate_offsets.size());
+  if (offsets_arr == nullptr) {
+    return;
+  }
+  env->SetIntArrayRegion(offsets_arr,
+                         0,
+                         (jsize) predicate_offsets.size(),
+                         predicate_offsets.data());
 
-static jstring
-TSQuery_stringValueForId(JNIEnv *env, jclass self, jlong query, jint id) {
-  req_nnp(env, query);
-  uint32_t count;
-  const char *str = ts_query_string_value_for_id((TSQuery *) query, id, &count);
-  return env->NewStringUTF(str);
+  jintArray steps_arr = env->NewIntArray((jsize) predicate_steps.size());
+  if (steps_arr == nullptr) {
+    return;
+  }
+  env->SetIntArrayRegion(steps_arr,
+                         0,
+                         (jsize) predicate_steps.size(),
+                         predicate_steps.data());
+
+  _fillQueryInfo(env,
+                 info,
+                 capture_names,
+                 string_values,
+                 start_bytes_arr,
+                 rooted_arr,
+                 non_local_arr,
+                 quantifiers_arr,
+                 offsets_arr,
+                 steps_arr);
 }
 
 void fillQuery(JNIEnv *env,
@@ -167,16 +280,43 @@ jint getErrorType(TSQueryError error) {
       return 6;
   }
 }
-static jint TSQuery_captureQuantifierForId(JNIEnv *env,
-                                           jclass clazz,
-                                           jlong query,
-                                           jint pattern,
-                                           jint capture) {
+static void
+TSQuery_disablePattern(JNIEnv *env, jclass self, jlong query, jint pattern) {
+  req_nnp(env, query);
+  ts_query_disable_pattern((TSQuery *) query, pattern);
+}
+
+static void
+TSQuery_disableCapture(JNIEnv *env, jclass self, jlong query, jstring name) {
+  req_nnp(env, query);
+  const char *chars = env->GetStringUTFChars(name, nullptr);
+  ts_query_disable_capture((TSQuery *) query,
+                           chars,
+                           (uint32_t) env->GetStringUTFLength(name));
+  env->ReleaseStringUTFChars(name, chars);
+}
+
+static jlong TSQuery_newTextPredicates(JNIEnv *env,
+                                       jclass clazz,
+                                       jlong query,
+                                       jbooleanArray evaluated) {
   req_nnp(env, query);
-  auto ts_query = (TSQuery *) query;
-  auto quantifier =
-      ts_query_capture_quantifier_for_id(ts_query, pattern, capture);
-  return query_quantifier_id(env, quantifier);
+  std::vector<bool> flags;
+  auto *predicates = new TextPredicates((TSQuery *) query, flags);
+
+  const auto count = std::min((size_t) env->GetArrayLength(evaluated), flags.size());
+  jboolean *elements = env->GetBooleanArrayElements(evaluated, nullptr);
+  for (size_t i = 0; i < count; ++i) {
+    elements[i] = (jboolean) flags[i];
+  }
+  env->ReleaseBooleanArrayElements(evaluated, elements, 0);
+
+  return (jlong) predicates;
+}
+
+static void TSQuery_deleteTextPredicates(JNIEnv *env, jclass clazz, jlong predicates) {
+  req_nnp(env, predicates, "TextPredicates*");
+  delete (TextPredicates *) predicates;
 }
 
 int query_quantifier_id(JNIEnv *env, TSQuantifier quantifier) {
@@ -200,19 +340,12 @@ int query_quantifier_id(JNIEnv *env, TSQuantifier quantifier) {
 void TSQuery_Native__SetJniMethods(JNINativeMethod *methods, int count) {
   SET_JNI_METHOD(methods, TSQuery_Native_newQuery, TSQuery_newQuery);
   SET_JNI_METHOD(methods, TSQuery_Native_delete, TSQuery_delete);
-  SET_JNI_METHOD(methods, TSQuery_Native_captureCount, TSQuery_captureCount);
-  SET_JNI_METHOD(methods, TSQuery_Native_patternCount, TSQuery_patternCount);
-  SET_JNI_METHOD(methods, TSQuery_Native_stringCount, TSQuery_stringCount);
-  SET_JNI_METHOD(methods, TSQuery_Native_startByteForPattern,
-                 TSQuery_startByteForPattern);
-  SET_JNI_METHOD(methods, TSQuery_Native_predicatesForPattern,
-                 TSQuery_predicatesForPattern);
-  SET_JNI_METHOD(methods, TSQuery_Native_patternRooted, TSQuery_patternRooted);
-  SET_JNI_METHOD(methods, TSQuery_Native_patternNonLocal, TSQuery_patternNonLocal);
+  SET_JNI_METHOD(methods, TSQuery_Native_fillInfo, TSQuery_fillInfo);
   SET_JNI_METHOD(methods, TSQuery_Native_patternGuaranteedAtStep,
                  TSQuery_patternGuaranteedAtStep);
-  SET_JNI_METHOD(methods, TSQuery_Native_captureNameForId, TSQuery_captureNameForId);
-  SET_JNI_METHOD(methods, TSQuery_Native_stringValueForId, TSQuery_stringValueForId);
-  SET_JNI_METHOD(methods, TSQuery_Native_captureQuantifierForId,
-                 TSQuery_captureQuantifierForId);
+  SET_JNI_METHOD(methods, TSQuery_Native_disablePattern, TSQuery_disablePattern);
+  SET_JNI_METHOD(methods, TSQuery_Native_disableCapture, TSQuery_disableCapture);
+  SET_JNI_METHOD(methods, TSQuery_Native_newTextPredicates, TSQuery_newTextPredicates);
+  SET_JNI_METHOD(methods, TSQuery_Native_deleteTextPredicates,
+                 TSQuery_deleteTextPredicates);
 }
\ No newline at end of file
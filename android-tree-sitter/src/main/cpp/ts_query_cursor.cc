@@ -15,10 +15,15 @@
  *  along with android-tree-sitter.  If not, see <https://www.gnu.org/licenses/>.
  */
 
+#include <algorithm>
 #include <iostream>
+#include <vector>
 
+#include "utils/ts_deadline.h"
 #include "utils/ts_obj_utils.h"
 #include "utils/ts_preconditions.h"
+#include "utils/ts_text_predicates.h"
+#include "utf16str/UTF16String.h"
 
 #include "ts_query_cursor.h"
 
@@ -31,6 +36,17 @@ static void TSQueryCursor_delete(JNIEnv *env, jclass self, jlong cursor) {
   ts_query_cursor_delete((TSQueryCursor *) cursor);
 }
 
+static void TSQueryCursor_reset(JNIEnv *env, jclass self, jlong cursor) {
+  req_nnp(env, cursor);
+  auto *ts_cursor = (TSQueryCursor *) cursor;
+  ts_query_cursor_set_byte_range(ts_cursor, 0, UINT32_MAX);
+  ts_query_cursor_set_point_range(ts_cursor,
+                                  TSPoint{0, 0},
+                                  TSPoint{UINT32_MAX, UINT32_MAX});
+  ts_query_cursor_set_match_limit(ts_cursor, UINT32_MAX);
+  ts_query_cursor_set_max_start_depth(ts_cursor, UINT32_MAX);
+}
+
 static void TSQueryCursor_exec(JNIEnv *env,
                                jclass self,
                                jlong cursor,
@@ -82,6 +98,15 @@ static void TSQueryCursor_setPointRange(JNIEnv *env,
                                   _unmarshalPoint(env, end));
 }
 
+static void TSQueryCursor_setMaxStartDepth(JNIEnv *env,
+                                           jclass self,
+                                           jlong cursor,
+                                           jint depth) {
+  req_nnp(env, cursor);
+  ts_query_cursor_set_max_start_depth((TSQueryCursor *) cursor,
+                                      depth < 0 ? UINT32_MAX : (uint32_t) depth);
+}
+
 static jobject TSQueryCursor_nextMatch(JNIEnv *env, jclass self, jlong cursor) {
   req_nnp(env, cursor);
   TSQueryMatch m;
@@ -92,6 +117,305 @@ static jobject TSQueryCursor_nextMatch(JNIEnv *env, jclass self, jlong cursor) {
   return _marshalMatch(env, m);
 }
 
+/**
+ * Count a match rejected by the text predicates in the per-pattern rejection
+ * counts of a `TSQueryProfile`.
+ */
+static void count_rejection(JNIEnv *env, jintArray rejections, uint16_t pattern) {
+  if (rejections == nullptr) {
+    return;
+  }
+
+  jint count;
+  env->GetIntArrayRegion(rejections, pattern, 1, &count);
+  ++count;
+  env->SetIntArrayRegion(rejections, pattern, 1, &count);
+}
+
+static jobject TSQueryCursor_nextMatchWithText(JNIEnv *env,
+                                               jclass self,
+                                               jlong cursor,
+                                               jlong predicates,
+                                               jlong source,
+                                               jlong deadline,
+                                               jintArray rejections) {
+  req_nnp(env, cursor);
+  req_nnp(env, predicates, "TextPredicates*");
+  auto *ts_cursor = (TSQueryCursor *) cursor;
+  auto *text_predicates = (TextPredicates *) predicates;
+  auto *text = as_str(env, source);
+
+  std::vector<jchar> buffer;
+  TSQueryMatch m;
+  while (ts_query_cursor_next_match(ts_cursor, &m)) {
+    if (text_predicates->matches(m, text, buffer)) {
+      return _marshalMatch(env, m);
+    }
+
+    // the match does not satisfy the text predicates
+    // drop it without marshalling it to Java
+    ts_query_cursor_remove_match(ts_cursor, m.id);
+    count_rejection(env, rejections, m.pattern_index);
+    if (ts_deadline_exceeded(deadline)) {
+      break;
+    }
+  }
+  return nullptr;
+}
+
+/**
+ * The IDs of the matches for which the predicates have already been evaluated
+ * by `nextCapture`. The IDs are stored in a Java `int[]`, after the number of
+ * IDs. When the array is full, the oldest ID is dropped.
+ */
+class EvaluatedMatches {
+ public:
+  EvaluatedMatches(JNIEnv *env, jintArray array) : env(env), array(array) {
+    if (array == nullptr) {
+      return;
+    }
+
+    capacity = (size_t) env->GetArrayLength(array) - 1;
+    jint count;
+    env->GetIntArrayRegion(array, 0, 1, &count);
+    ids.resize(std::min((size_t) count, capacity));
+    if (!ids.empty()) {
+      env->GetIntArrayRegion(array, 1, (jsize) ids.size(), ids.data());
+    }
+  }
+
+  bool contains(uint32_t id) const {
+    return std::find(ids.begin(), ids.end(), (jint) id) != ids.end();
+  }
+
+  void add(uint32_t id) {
+    if (capacity == 0 || contains(id)) {
+      return;
+    }
+    if (ids.size() == capacity) {
+      ids.erase(ids.begin());
+    }
+    ids.push_back((jint) id);
+    changed = true;
+  }
+
+  void remove(uint32_t id) {
+    auto it = std::find(ids.begin(), ids.end(), (jint) id);
+    if (it != ids.end()) {
+      ids.erase(it);
+      changed = true;
+    }
+  }
+
+  void store() {
+    if (!changed) {
+      return;
+    }
+
+    const auto count = (jint) ids.size();
+    env->SetIntArrayRegion(array, 0, 1, &count);
+    if (!ids.empty()) {
+      env->SetIntArrayRegion(array, 1, count, ids.data());
+    }
+    changed = false;
+  }
+
+ private:
+  JNIEnv *env;
+  jintArray array;
+  size_t capacity = 0;
+  std::vector<jint> ids;
+  bool changed = false;
+};
+
+static jobject TSQueryCursor_nextCapture(JNIEnv *env,
+                                        jclass self,
+                                        jlong cursor,
+                                        jlong predicates,
+                                        jlong source,
+                                        jintArray state,
+                                        jintArray evaluated_matches,
+                                        jbooleanArray match_patterns,
+                                        jobjectArray match_out,
+                                        jlong deadline,
+                                        jintArray rejections) {
+  req_nnp(env, cursor);
+  auto *ts_cursor = (TSQueryCursor *) cursor;
+  auto *text_predicates = (TextPredicates *) predicates;
+  auto *text = text_predicates == nullptr ? nullptr : as_str(env, source);
+  const jsize pattern_count =
+      match_patterns == nullptr ? 0 : env->GetArrayLength(match_patterns);
+
+  EvaluatedMatches evaluated(env, evaluated_matches);
+  std::vector<jchar> buffer;
+  TSQueryMatch m;
+  uint32_t capture_index;
+  while (ts_query_cursor_next_capture(ts_cursor, &m, &capture_index)) {
+    // the predicates are evaluated once per match
+    // a match which is rejected is removed, so none of its captures are
+    // returned afterwards
+    const bool was_evaluated = evaluated.contains(m.id);
+    if (!was_evaluated && text_predicates != nullptr
+        && !text_predicates->matches(m, text, buffer)) {
+      ts_query_cursor_remove_match(ts_cursor, m.id);
+      count_rejection(env, rejections, m.pattern_index);
+      if (ts_deadline_exceeded(deadline)) {
+        break;
+      }
+      continue;
+    }
+
+    const jint values[] = {(jint) m.id, (jint) m.pattern_index, (jint) capture_index};
+    env->SetIntArrayRegion(state, 0, 3, values);
+
+    // the match is marshalled only if the predicate handlers must be applied
+    if (!was_evaluated && (jsize) m.pattern_index < pattern_count) {
+      jboolean needs_match;
+      env->GetBooleanArrayRegion(match_patterns, (jsize) m.pattern_index, 1, &needs_match);
+      if (needs_match) {
+        env->SetObjectArrayElement(match_out, 0, _marshalMatch(env, m));
+      }
+    }
+
+    if (capture_index + 1 < m.capture_count) {
+      evaluated.add(m.id);
+    } else {
+      evaluated.remove(m.id);
+    }
+    evaluated.store();
+
+    return _marshalCapture(env, m.captures[capture_index]);
+  }
+  return nullptr;
+}
+
+static void TSQueryCursor_forEachMatch(JNIEnv *env,
+                                       jclass self,
+                                       jlong cursor,
+                                       jlong predicates,
+                                       jlong source,
+                                       jbooleanArray match_patterns,
+                                       jobject match_info,
+                                       jlong deadline,
+                                       jintArray rejections) {
+  req_nnp(env, cursor);
+  auto *ts_cursor = (TSQueryCursor *) cursor;
+  auto *text_predicates = (TextPredicates *) predicates;
+  auto *text = text_predicates == nullptr ? nullptr : as_str(env, source);
+
+  std::vector<jboolean> needs_match;
+  if (match_patterns != nullptr) {
+    needs_match.resize(env->GetArrayLength(match_patterns));
+    env->GetBooleanArrayRegion(match_patterns, 0, (jsize) needs_match.size(), needs_match.data());
+  }
+
+  std::vector<jchar> buffer;
+  TSQueryMatch m;
+  while (!ts_deadline_exceeded(deadline) && ts_query_cursor_next_match(ts_cursor, &m)) {
+    if (text_predicates != nullptr && !text_predicates->matches(m, text, buffer)) {
+      ts_query_cursor_remove_match(ts_cursor, m.id);
+      count_rejection(env, rejections, m.pattern_index);
+      continue;
+    }
+
+    // the match is marshalled only if the predicate handlers must be applied
+    jobject match = nullptr;
+    if (m.pattern_index < needs_match.size() && needs_match[m.pattern_index]) {
+      match = _marshalMatch(env, m);
+    }
+
+    const bool accepted = _visitMatch(env, match_info, m, match);
+    if (match != nullptr) {
+      env->DeleteLocalRef(match);
+    }
+    if (env->ExceptionCheck()) {
+      return;
+    }
+    if (!accepted) {
+      continue;
+    }
+
+    for (uint16_t i = 0; i < m.capture_count; ++i) {
+      const bool next = _visitCapture(env, match_info, (jint) i, m.captures[i]);
+      if (env->ExceptionCheck() || !next) {
+        return;
+      }
+    }
+
+    const bool next = _visitMatchEnd(env, match_info);
+    if (env->ExceptionCheck() || !next) {
+      return;
+    }
+  }
+}
+
+static jint TSQueryCursor_nextMatches(JNIEnv *env,
+                                      jclass self,
+                                      jlong cursor,
+                                      jlong predicates,
+                                      jlong source,
+                                      jobject buffer,
+                                      jint max,
+                                      jlong deadline,
+                                      jintArray rejections) {
+  req_nnp(env, cursor);
+  auto *ts_cursor = (TSQueryCursor *) cursor;
+  auto *text_predicates = (TextPredicates *) predicates;
+  auto *text = text_predicates == nullptr ? nullptr : as_str(env, source);
+
+  std::vector<jint> arrays[QUERY_MATCH_BUFFER_ARRAY_COUNT];
+  auto &match_ids = arrays[MATCH_IDS];
+  auto &pattern_indices = arrays[PATTERN_INDICES];
+  auto &capture_starts = arrays[MATCH_CAPTURE_STARTS];
+  auto &capture_counts = arrays[MATCH_CAPTURE_COUNTS];
+  auto &capture_indices = arrays[CAPTURE_INDICES];
+  auto &symbols = arrays[SYMBOLS];
+  auto &start_bytes = arrays[START_BYTES];
+  auto &end_bytes = arrays[END_BYTES];
+  auto &start_rows = arrays[START_ROWS];
+  auto &start_columns = arrays[START_COLUMNS];
+  auto &end_rows = arrays[END_ROWS];
+  auto &end_columns = arrays[END_COLUMNS];
+
+  std::vector<jchar> text_buffer;
+  TSQueryMatch m;
+  jint count = 0;
+  while (count < max && !ts_deadline_exceeded(deadline)
+      && ts_query_cursor_next_match(ts_cursor, &m)) {
+    if (text_predicates != nullptr && !text_predicates->matches(m, text, text_buffer)) {
+      ts_query_cursor_remove_match(ts_cursor, m.id);
+      count_rejection(env, rejections, m.pattern_index);
+      continue;
+    }
+
+    match_ids.push_back((jint) m.id);
+    pattern_indices.push_back((jint) m.pattern_index);
+    capture_starts.push_back((jint) capture_indices.size());
+    capture_counts.push_back((jint) m.capture_count);
+
+    for (uint16_t i = 0; i < m.capture_count; ++i) {
+      const auto &capture = m.captures[i];
+      const auto start = ts_node_start_point(capture.node);
+      const auto end = ts_node_end_point(capture.node);
+      capture_indices.push_back((jint) capture.index);
+      symbols.push_back((jint) ts_node_symbol(capture.node));
+      start_bytes.push_back((jint) ts_node_start_byte(capture.node));
+      end_bytes.push_back((jint) ts_node_end_byte(capture.node));
+      start_rows.push_back((jint) start.row);
+      start_columns.push_back((jint) start.column);
+      end_rows.push_back((jint) end.row);
+      end_columns.push_back((jint) end.column);
+    }
+
+    ++count;
+  }
+
+  if (!_fillQueryMatchBuffer(env, buffer, count, (jint) capture_indices.size(), arrays)) {
+    return 0;
+  }
+  return count;
+}
+
 static void
 TSQueryCursor_removeMatch(JNIEnv *env, jclass self, jlong cursor, jint id) {
   req_nnp(env, cursor);
@@ -101,6 +425,7 @@ TSQueryCursor_removeMatch(JNIEnv *env, jclass self, jlong cursor, jint id) {
 void TSQueryCursor_Native__SetJniMethods(JNINativeMethod *methods, int count) {
   SET_JNI_METHOD(methods, TSQueryCursor_Native_newCursor, TSQueryCursor_newCursor);
   SET_JNI_METHOD(methods, TSQueryCursor_Native_delete, TSQueryCursor_delete);
+  SET_JNI_METHOD(methods, TSQueryCursor_Native_reset, TSQueryCursor_reset);
   SET_JNI_METHOD(methods, TSQueryCursor_Native_exec, TSQueryCursor_exec);
   SET_JNI_METHOD(methods, TSQueryCursor_Native_exceededMatchLimit,
                  TSQueryCursor_exceededMatchLimit);
@@ -108,9 +433,16 @@ void TSQueryCursor_Native__SetJniMethods(JNINativeMethod *methods, int count) {
                  TSQueryCursor_setMatchLimit);
   SET_JNI_METHOD(methods, TSQueryCursor_Native_getMatchLimit,
                  TSQueryCursor_getMatchLimit);
+  SET_JNI_METHOD(methods, TSQueryCursor_Native_setMaxStartDepth,
+                 TSQueryCursor_setMaxStartDepth);
   SET_JNI_METHOD(methods, TSQueryCursor_Native_setByteRange, TSQueryCursor_setByteRange);
   SET_JNI_METHOD(methods, TSQueryCursor_Native_setPointRange,
                  TSQueryCursor_setPointRange);
   SET_JNI_METHOD(methods, TSQueryCursor_Native_nextMatch, TSQueryCursor_nextMatch);
+  SET_JNI_METHOD(methods, TSQueryCursor_Native_nextMatchWithText,
+                 TSQueryCursor_nextMatchWithText);
   SET_JNI_METHOD(methods, TSQueryCursor_Native_removeMatch, TSQueryCursor_removeMatch);
+  SET_JNI_METHOD(methods, TSQueryCursor_Native_nextCapture, TSQueryCursor_nextCapture);
+  SET_JNI_METHOD(methods, TSQueryCursor_Native_nextMatches, TSQueryCursor_nextMatches);
+  SET_JNI_METHOD(methods, TSQueryCursor_Native_forEachMatch, TSQueryCursor_forEachMatch);
 }
\ No newline at end of file
@@ -16,11 +16,49 @@
  * <https://www.gnu.org/licenses/>.
  */
 
+#include <unordered_map>
+#include <unordered_set>
+#include <vector>
+
 #include "ts_tree.h"
 
 #include "utils/ts_misc.h"
 #include "utils/ts_obj_utils.h"
 #include "utils/ts_preconditions.h"
+#include "utils/ts_tree_walk.h"
+
+// must be kept in sync with TSTreeDiff
+#define DIFF_KIND_REUSED 0
+#define DIFF_KIND_INSERTED 1
+#define DIFF_KIND_REMOVED 2
+
+static void push_node_position(std::vector<jint> &out, const TSNode *node) {
+  if (node == nullptr) {
+    for (int i = 0; i < 6; i++) {
+      out.push_back(-1);
+    }
+    return;
+  }
+
+  TSPoint start = ts_node_start_point(*node);
+  TSPoint end = ts_node_end_point(*node);
+  out.push_back((jint) ts_node_start_byte(*node));
+  out.push_back((jint) ts_node_end_byte(*node));
+  out.push_back((jint) start.row);
+  out.push_back((jint) start.column);
+  out.push_back((jint) end.row);
+  out.push_back((jint) end.column);
+}
+
+static void push_diff_entry(std::vector<jint> &out, jint kind,
+                            const TSNode *oldNode, const TSNode *newNode) {
+  const TSNode *node = newNode != nullptr ? newNode : oldNode;
+  out.push_back(kind);
+  out.push_back((jint) ts_node_symbol(*node));
+  out.push_back((jint) ts_node_is_named(*node));
+  push_node_position(out, oldNode);
+  push_node_position(out, newNode);
+}
 
 static void TSTree_edit(JNIEnv *env, __TS_ATTR_UNUSED jclass self, jlong tree,
                         jobject inputEdit) {
@@ -111,6 +149,187 @@ static jobjectArray TSTree_includedRanges(JNIEnv *env,
   return arr;
 }
 
+static jintArray TSTree_diff(JNIEnv *env, __TS_ATTR_UNUSED jclass self,
+                             jlong tree, jlong oldTree) {
+  req_nnp(env, tree, "thisTree");
+  req_nnp(env, oldTree, "oldTree");
+
+  TSNode oldRoot = ts_tree_root_node((TSTree *)oldTree);
+  TSNode newRoot = ts_tree_root_node((TSTree *)tree);
+
+  // index the subtrees of the old tree by their heap data
+  std::unordered_map<const void *, TSNode> oldNodes;
+  ts_walk_tree(oldRoot, [&](TSNode node, uint32_t) {
+    const void *data = ts_node_subtree_data(node);
+    if (data != nullptr) {
+      oldNodes.emplace(data, node);
+    }
+    return true;
+  });
+
+  std::vector<jint> entries;
+  std::unordered_set<const void *> reused;
+
+  // nodes of the new tree which share their subtree data with the old tree
+  // have been reused by the parser, along with all of their descendants
+  ts_walk_tree(newRoot, [&](TSNode node, uint32_t) {
+    const void *data = ts_node_subtree_data(node);
+    if (data != nullptr) {
+      auto found = oldNodes.find(data);
+      if (found != oldNodes.end()) {
+        reused.insert(data);
+        push_diff_entry(entries, DIFF_KIND_REUSED, &found->second, &node);
+        return false;
+      }
+    }
+
+    push_diff_entry(entries, DIFF_KIND_INSERTED, nullptr, &node);
+    return true;
+  });
+
+  // whatever has not been reused from the old tree has been removed
+  ts_walk_tree(oldRoot, [&](TSNode node, uint32_t) {
+    const void *data = ts_node_subtree_data(node);
+    if (data != nullptr && reused.count(data) > 0) {
+      return false;
+    }
+
+    push_diff_entry(entries, DIFF_KIND_REMOVED, &node, nullptr);
+    return true;
+  });
+
+  auto size = (jsize) entries.size();
+  jintArray result = env->NewIntArray(size);
+  if (result == nullptr) {
+    // OutOfMemoryError is pending
+    return nullptr;
+  }
+  env->SetIntArrayRegion(result, 0, size, entries.data());
+  return result;
+}
+
+static bool node_intersects_ranges(TSNode node, const jint *ranges,
+                                   jsize count) {
+  if (ranges == nullptr) {
+    return true;
+  }
+
+  auto start = (jint) ts_node_start_byte(node);
+  auto end = (jint) ts_node_end_byte(node);
+  for (jsize i = 0; i + 1 < count; i += 2) {
+    // zero-width nodes (e.g. MISSING nodes) are allowed at range boundaries
+    if (start <= ranges[i + 1] && end >= ranges[i]) {
+      return true;
+    }
+  }
+
+  return false;
+}
+
+static jintArray TSTree_collectErrors(JNIEnv *env,
+                                      __TS_ATTR_UNUSED jclass self, jlong tree,
+                                      jint limit, jintArray byteRanges) {
+  req_nnp(env, tree);
+
+  jsize rangeCount = 0;
+  jint *ranges = nullptr;
+  if (byteRanges != nullptr) {
+    rangeCount = env->GetArrayLength(byteRanges);
+    ranges = env->GetIntArrayElements(byteRanges, nullptr);
+  }
+
+  std::vector<jint> errors;
+  jint count = 0;
+  bool done = false;
+  ts_walk_tree(ts_tree_root_node((TSTree *)tree), [&](TSNode node, uint32_t) {
+    // only subtrees which contain errors are visited
+    if (!ts_node_has_error(node) ||
+        !node_intersects_ranges(node, ranges, rangeCount)) {
+      return false;
+    }
+
+    bool isMissing = ts_node_is_missing(node);
+    if (isMissing || ts_node_is_error(node)) {
+      TSPoint start = ts_node_start_point(node);
+      TSPoint end = ts_node_end_point(node);
+      errors.push_back((jint) isMissing);
+      errors.push_back((jint) ts_node_symbol(node));
+      errors.push_back((jint) ts_node_parse_state(node));
+      errors.push_back((jint) ts_node_start_byte(node));
+      errors.push_back((jint) ts_node_end_byte(node));
+      errors.push_back((jint) start.row);
+      errors.push_back((jint) start.column);
+      errors.push_back((jint) end.row);
+      errors.push_back((jint) end.column);
+
+      // stop the walk once the limit is reached
+      done = limit > 0 && ++count >= limit;
+    }
+
+    return true;
+  }, done);
+
+  if (ranges != nullptr) {
+    env->ReleaseIntArrayElements(byteRanges, ranges, JNI_ABORT);
+  }
+
+  auto size = (jsize) errors.size();
+  jintArray result = env->NewIntArray(size);
+  if (result == nullptr) {
+    // OutOfMemoryError is pending
+    return nullptr;
+  }
+  env->SetIntArrayRegion(result, 0, size, errors.data());
+  return result;
+}
+
+// must be kept in sync with TSFlatTree
+#define FLAT_FLAG_NAMED 1
+#define FLAT_FLAG_EXTRA (1 << 1)
+#define FLAT_FLAG_MISSING (1 << 2)
+#define FLAT_FLAG_ERROR (1 << 3)
+#define FLAT_FLAG_HAS_ERROR (1 << 4)
+
+static jintArray TSTree_flatten(JNIEnv *env, __TS_ATTR_UNUSED jclass self,
+                                jlong tree) {
+  req_nnp(env, tree);
+
+  TSNode root = ts_tree_root_node((TSTree *)tree);
+  std::vector<jint> nodes;
+  nodes.reserve(ts_node_descendant_count(root) * 9);
+
+  ts_walk_tree(root, [&](TSNode node, uint32_t) {
+    jint flags = 0;
+    if (ts_node_is_named(node)) flags |= FLAT_FLAG_NAMED;
+    if (ts_node_is_extra(node)) flags |= FLAT_FLAG_EXTRA;
+    if (ts_node_is_missing(node)) flags |= FLAT_FLAG_MISSING;
+    if (ts_node_is_error(node)) flags |= FLAT_FLAG_ERROR;
+    if (ts_node_has_error(node)) flags |= FLAT_FLAG_HAS_ERROR;
+
+    TSPoint start = ts_node_start_point(node);
+    TSPoint end = ts_node_end_point(node);
+    nodes.push_back((jint) ts_node_symbol(node));
+    nodes.push_back(flags);
+    nodes.push_back((jint) ts_node_child_count(node));
+    nodes.push_back((jint) ts_node_start_byte(node));
+    nodes.push_back((jint) ts_node_end_byte(node));
+    nodes.push_back((jint) start.row);
+    nodes.push_back((jint) start.column);
+    nodes.push_back((jint) end.row);
+    nodes.push_back((jint) end.column);
+    return true;
+  });
+
+  auto size = (jsize) nodes.size();
+  jintArray result = env->NewIntArray(size);
+  if (result == nullptr) {
+    // OutOfMemoryError is pending
+    return nullptr;
+  }
+  env->SetIntArrayRegion(result, 0, size, nodes.data());
+  return result;
+}
+
 static jlong TSTree_getLanguage(JNIEnv *env, __TS_ATTR_UNUSED jclass self,
                                 jlong tree) {
   req_nnp(env, tree);
@@ -128,4 +347,7 @@ void TSTree_Native__SetJniMethods(JNINativeMethod *methods,
   SET_JNI_METHOD(methods, TSTree_Native_changedRanges, TSTree_changedRanges)
   SET_JNI_METHOD(methods, TSTree_Native_includedRanges, TSTree_includedRanges)
   SET_JNI_METHOD(methods, TSTree_Native_getLanguage, TSTree_getLanguage)
+  SET_JNI_METHOD(methods, TSTree_Native_diff, TSTree_diff)
+  SET_JNI_METHOD(methods, TSTree_Native_collectErrors, TSTree_collectErrors)
+  SET_JNI_METHOD(methods, TSTree_Native_flatten, TSTree_flatten)
 }
\ No newline at end of file
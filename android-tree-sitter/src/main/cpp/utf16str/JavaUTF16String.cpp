@@ -144,6 +144,19 @@ UTF16String_chatAt(JNIEnv *env, jclass clazz, jlong pointer, jint index) {
   return as_str(env, pointer)->char_at(index);
 }
 
+static void UTF16String_getChars(JNIEnv *env,
+                                 jclass clazz,
+                                 jlong pointer,
+                                 jint start,
+                                 jint end,
+                                 jcharArray dst,
+                                 jint dst_begin) {
+  auto *str = as_str(env, pointer);
+  auto *chars = (jchar *) env->GetPrimitiveArrayCritical(dst, nullptr);
+  str->get_chars(start, end, chars + dst_begin);
+  env->ReleasePrimitiveArrayCritical(dst, chars, 0);
+}
+
 static void UTF16String_setCharAt(JNIEnv *env,
                                   jclass clazz,
                                   jlong pointer,
@@ -161,6 +174,7 @@ void UTF16String_Native__SetJniMethods(JNINativeMethod *methods, int count) {
   SET_JNI_METHOD(methods, UTF16String_Native_setByteAt, UTF16String_setByteAt);
   SET_JNI_METHOD(methods, UTF16String_Native_chatAt, UTF16String_chatAt);
   SET_JNI_METHOD(methods, UTF16String_Native_setCharAt, UTF16String_setCharAt);
+  SET_JNI_METHOD(methods, UTF16String_Native_getChars, UTF16String_getChars);
   SET_JNI_METHOD(methods, UTF16String_Native_append, UTF16String_append);
   SET_JNI_METHOD(methods, UTF16String_Native_appendPart, UTF16String_appendPart);
   SET_JNI_METHOD(methods, UTF16String_Native_insert, UTF16String_insert);
@@ -63,6 +63,14 @@ jchar UTF16String::char_at(jint index) {
     return (jchar) (hi | lo);
 }
 
+void UTF16String::get_chars(jint start, jint end, jchar *dst) {
+    for (jint idx = start << CODER, last = end << CODER; idx < last; idx += 2) {
+        jint hi = (_string[idx] & 0xff) << HI_BYTE_SHIFT;
+        jint lo = (_string[idx + 1] & 0xff) << LO_BYTE_SHIFT;
+        *dst++ = (jchar) (hi | lo);
+    }
+}
+
 UTF16String *UTF16String::set_char_at(jint index, jchar c) {
     jint idx = index << CODER;
     _string[idx++] = (jbyte) (c >> HI_BYTE_SHIFT);
@@ -49,6 +49,15 @@ public:
      */
     jchar char_at(jint index);
 
+    /**
+     * Copy the Java 'char's between the given indices to the given buffer.
+     * @param start The index of the first character to copy.
+     * @param end The index after the last character to copy.
+     * @param dst The destination buffer. Must have space for at least
+     *            <code>end - start</code> characters.
+     */
+    void get_chars(jint start, jint end, jchar *dst);
+
     /**
      * Set the Java 'byte' at the given index.
      * @param index The index of the byte to set.
@@ -0,0 +1,43 @@
+/*
+ *  This file is part of android-tree-sitter.
+ *
+ *  android-tree-sitter library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  android-tree-sitter library is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *  along with android-tree-sitter.  If not, see
+ * <https://www.gnu.org/licenses/>.
+ */
+
+#ifndef ATS_TS_DEADLINE_H
+#define ATS_TS_DEADLINE_H
+
+#include <jni.h>
+#include <ctime>
+
+/**
+ * Check whether the given deadline has passed.
+ *
+ * @param deadline The deadline in nanoseconds, on the same clock as Java's
+ *                 `System.nanoTime()` (`CLOCK_MONOTONIC`), or `0` if there is
+ *                 no deadline.
+ * @return `true` if the deadline has passed, `false` otherwise.
+ */
+inline bool ts_deadline_exceeded(jlong deadline) {
+  if (deadline == 0) {
+    return false;
+  }
+
+  timespec now{};
+  clock_gettime(CLOCK_MONOTONIC, &now);
+  return (jlong) now.tv_sec * 1000000000LL + now.tv_nsec >= deadline;
+}
+
+#endif  // ATS_TS_DEADLINE_H
@@ -20,8 +20,6 @@
 
 #include "ts_obj_utils.h"
 
-jint getPredicateTypeId(TSQueryPredicateStepType type);
-
 // Node
 static jclass nodeClass;
 static jfieldID nodeContext0Field;
@@ -70,10 +68,33 @@ static jclass captureClass;
 static jfieldID captureClassIndexField;
 static jfieldID captureClassNodeField;
 
-// TSQueryPredicateStep
-static jclass queryPredicateStepClass;
-static jfieldID queryPredicateStepTypeField;
-static jfieldID queryPredicateStepValueIdField;
+// TSNode.SExpressionSink
+static jclass sExpressionSinkClass;
+static jmethodID sExpressionSinkAppendMethod;
+
+// TSQueryInfo
+static jclass queryInfoClass;
+static jfieldID queryInfoCaptureNamesField;
+static jfieldID queryInfoStringValuesField;
+static jfieldID queryInfoPatternStartBytesField;
+static jfieldID queryInfoRootedPatternsField;
+static jfieldID queryInfoNonLocalPatternsField;
+static jfieldID queryInfoCaptureQuantifiersField;
+static jfieldID queryInfoPredicateOffsetsField;
+static jfieldID queryInfoPredicateStepsField;
+
+// TSQueryMatchBuffer
+static jclass matchBufferClass;
+static jmethodID matchBufferSetSizeMethod;
+static jfieldID matchBufferArrayFields[QUERY_MATCH_BUFFER_ARRAY_COUNT];
+
+// TSQueryMatchVisitor.Match
+static jclass visitorMatchClass;
+static jmethodID visitorMatchOnMatchMethod;
+static jmethodID visitorMatchOnCaptureMethod;
+static jmethodID visitorMatchOnMatchEndMethod;
+
+static jclass stringClass;
 
 static jclass objectFactoryClass;
 static jmethodID factory_createNode;
@@ -84,8 +105,6 @@ static jmethodID factory_createRangeArr;
 static jmethodID factory_createInputEdit;
 static jmethodID factory_createQueryMatch;
 static jmethodID factory_createQueryCapture;
-static jmethodID factory_createQueryPredicateStep;
-static jmethodID factory_createQueryPredicateStepArr;
 
 void onLoad(JNIEnv *env) {
 
@@ -132,16 +151,6 @@ void onLoad(JNIEnv *env) {
                     "createQueryCapture",
                     "(IIIIIJJ)Lcom/itsaky/androidide/treesitter/TSQueryCapture;")
 
-  _loadStaticMethod(factory_createQueryPredicateStep,
-                    objectFactoryClass,
-                    "createQueryPredicateStep",
-                    "(II)Lcom/itsaky/androidide/treesitter/TSQueryPredicateStep;")
-
-  _loadStaticMethod(factory_createQueryPredicateStepArr,
-                    objectFactoryClass,
-                    "createQueryPredicateStepArr",
-                    "(I)[Lcom/itsaky/androidide/treesitter/TSQueryPredicateStep;")
-
   // Node
   _loadClass(nodeClass, "com/itsaky/androidide/treesitter/TSNode")
   _loadField(nodeContext0Field, nodeClass, "context0", "I")
@@ -151,6 +160,57 @@ void onLoad(JNIEnv *env) {
   _loadField(nodeIdField, nodeClass, "id", "J")
   _loadField(nodeTreeField, nodeClass, "tree", "J")
 
+  // TSNode.SExpressionSink
+  _loadClass(sExpressionSinkClass,
+             "com/itsaky/androidide/treesitter/TSNode$SExpressionSink")
+  _loadMethod(sExpressionSinkAppendMethod, sExpressionSinkClass, "append",
+              "(Ljava/lang/String;)Z")
+
+  // TSQueryInfo
+  _loadClass(queryInfoClass, "com/itsaky/androidide/treesitter/TSQueryInfo")
+  _loadField(queryInfoCaptureNamesField, queryInfoClass, "captureNames",
+             "[Ljava/lang/String;")
+  _loadField(queryInfoStringValuesField, queryInfoClass, "stringValues",
+             "[Ljava/lang/String;")
+  _loadField(queryInfoPatternStartBytesField, queryInfoClass,
+             "patternStartBytes", "[I")
+  _loadField(queryInfoRootedPatternsField, queryInfoClass, "rootedPatterns",
+             "[Z")
+  _loadField(queryInfoNonLocalPatternsField, queryInfoClass,
+             "nonLocalPatterns", "[Z")
+  _loadField(queryInfoCaptureQuantifiersField, queryInfoClass,
+             "captureQuantifiers", "[B")
+  _loadField(queryInfoPredicateOffsetsField, queryInfoClass,
+             "predicateOffsets", "[I")
+  _loadField(queryInfoPredicateStepsField, queryInfoClass, "predicateSteps",
+             "[I")
+
+  // TSQueryMatchBuffer
+  _loadClass(matchBufferClass,
+             "com/itsaky/androidide/treesitter/TSQueryMatchBuffer")
+  _loadMethod(matchBufferSetSizeMethod, matchBufferClass, "setSize", "(II)V")
+  {
+    const char *names[QUERY_MATCH_BUFFER_ARRAY_COUNT] = {
+        "matchIds", "patternIndices", "matchCaptureStarts",
+        "matchCaptureCounts", "captureIndices", "symbols", "startBytes",
+        "endBytes", "startRows", "startColumns", "endRows", "endColumns"};
+    for (int i = 0; i < QUERY_MATCH_BUFFER_ARRAY_COUNT; ++i) {
+      _loadField(matchBufferArrayFields[i], matchBufferClass, names[i], "[I")
+    }
+  }
+
+  // TSQueryMatchVisitor.Match
+  _loadClass(visitorMatchClass,
+             "com/itsaky/androidide/treesitter/TSQueryMatchVisitor$Match")
+  _loadMethod(visitorMatchOnMatchMethod, visitorMatchClass, "onMatch",
+              "(IIILcom/itsaky/androidide/treesitter/TSQueryMatch;)Z")
+  _loadMethod(visitorMatchOnCaptureMethod, visitorMatchClass, "onCapture",
+              "(IIIII)Z")
+  _loadMethod(visitorMatchOnMatchEndMethod, visitorMatchClass, "onMatchEnd",
+              "()Z")
+
+  _loadClass(stringClass, "java/lang/String")
+
   // TreeCursorNode
   _loadClass(treeCursorNodeClass,
              "com/itsaky/androidide/treesitter/TSTreeCursorNode")
@@ -200,25 +260,21 @@ void onLoad(JNIEnv *env) {
   _loadField(captureClassIndexField, captureClass, "index", "I")
   _loadField(captureClassNodeField, captureClass, "node",
              "Lcom/itsaky/androidide/treesitter/TSNode;")
-
-  // TSQueryPredicateStep
-  _loadClass(queryPredicateStepClass,
-             "com/itsaky/androidide/treesitter/TSQueryPredicateStep")
-  _loadField(queryPredicateStepTypeField, queryPredicateStepClass, "type",
-             "I")
-  _loadField(queryPredicateStepValueIdField, queryPredicateStepClass,
-             "valueId", "I")
 }
 
 void onUnload(JNIEnv *env) {
   env->DeleteGlobalRef(nodeClass);
+  env->DeleteGlobalRef(sExpressionSinkClass);
+  env->DeleteGlobalRef(queryInfoClass);
+  env->DeleteGlobalRef(matchBufferClass);
+  env->DeleteGlobalRef(visitorMatchClass);
+  env->DeleteGlobalRef(stringClass);
   env->DeleteGlobalRef(treeCursorNodeClass);
   env->DeleteGlobalRef(pointClass);
   env->DeleteGlobalRef(rangeClass);
   env->DeleteGlobalRef(inputEditClass);
   env->DeleteGlobalRef(matchClass);
   env->DeleteGlobalRef(captureClass);
-  env->DeleteGlobalRef(queryPredicateStepClass);
   env->DeleteGlobalRef(objectFactoryClass);
 }
 
@@ -246,6 +302,92 @@ TSNode _unmarshalNode(JNIEnv *env, jobject javaObject) {
       (const TSTree *) env->GetLongField(javaObject, nodeTreeField)};
 }
 
+// TSNode.SExpressionSink
+jboolean _appendSExpressionChunk(JNIEnv *env, jobject sink, jstring chunk) {
+  return env->CallBooleanMethod(sink, sExpressionSinkAppendMethod, chunk);
+}
+
+jobjectArray createStringArr(JNIEnv *env, jint size) {
+  return env->NewObjectArray(size, stringClass, nullptr);
+}
+
+// TSQueryInfo
+static void setInfoField(JNIEnv *env, jobject info, jfieldID field, jobject value) {
+  env->SetObjectField(info, field, value);
+  env->DeleteLocalRef(value);
+}
+
+void _fillQueryInfo(JNIEnv *env,
+                    jobject info,
+                    jobjectArray captureNames,
+                    jobjectArray stringValues,
+                    jintArray patternStartBytes,
+                    jbooleanArray rootedPatterns,
+                    jbooleanArray nonLocalPatterns,
+                    jbyteArray captureQuantifiers,
+                    jintArray predicateOffsets,
+                    jintArray predicateSteps) {
+  setInfoField(env, info, queryInfoCaptureNamesField, captureNames);
+  setInfoField(env, info, queryInfoStringValuesField, stringValues);
+  setInfoField(env, info, queryInfoPatternStartBytesField, patternStartBytes);
+  setInfoField(env, info, queryInfoRootedPatternsField, rootedPatterns);
+  setInfoField(env, info, queryInfoNonLocalPatternsField, nonLocalPatterns);
+  setInfoField(env, info, queryInfoCaptureQuantifiersField, captureQuantifiers);
+  setInfoField(env, info, queryInfoPredicateOffsetsField, predicateOffsets);
+  setInfoField(env, info, queryInfoPredicateStepsField, predicateSteps);
+}
+
+// TSQueryMatchBuffer
+bool _fillQueryMatchBuffer(JNIEnv *env,
+                           jobject buffer,
+                           jint matchCount,
+                           jint captureCount,
+                           const std::vector<jint> *arrays) {
+  // grow the arrays in the buffer (if required), then copy the data
+  env->CallVoidMethod(buffer, matchBufferSetSizeMethod, matchCount, captureCount);
+  if (env->ExceptionCheck()) {
+    return false;
+  }
+
+  for (int i = 0; i < QUERY_MATCH_BUFFER_ARRAY_COUNT; ++i) {
+    const auto &values = arrays[i];
+    auto array = (jintArray) env->GetObjectField(buffer, matchBufferArrayFields[i]);
+    env->SetIntArrayRegion(array, 0, (jsize) values.size(), values.data());
+    env->DeleteLocalRef(array);
+  }
+  return true;
+}
+
+// TSQueryMatchVisitor.Match
+jboolean _visitMatch(JNIEnv *env,
+                     jobject visitor,
+                     const TSQueryMatch &match,
+                     jobject javaMatch) {
+  return env->CallBooleanMethod(visitor,
+                                visitorMatchOnMatchMethod,
+                                (jint) match.id,
+                                (jint) match.pattern_index,
+                                (jint) match.capture_count,
+                                javaMatch);
+}
+
+jboolean _visitCapture(JNIEnv *env,
+                       jobject visitor,
+                       jint index,
+                       const TSQueryCapture &capture) {
+  return env->CallBooleanMethod(visitor,
+                                visitorMatchOnCaptureMethod,
+                                index,
+                                (jint) capture.index,
+                                (jint) ts_node_symbol(capture.node),
+                                (jint) ts_node_start_byte(capture.node),
+                                (jint) ts_node_end_byte(capture.node));
+}
+
+jboolean _visitMatchEnd(JNIEnv *env, jobject visitor) {
+  return env->CallBooleanMethod(visitor, visitorMatchOnMatchEndMethod);
+}
+
 // TreeCursorNode
 jobject _marshalTreeCursorNode(JNIEnv *env, TreeCursorNode node) {
   return env->CallStaticObjectMethod(objectFactoryClass,
@@ -341,21 +483,6 @@ jobjectArray createRangeArr(JNIEnv *env, jint size) {
       size);
 }
 
-jobject _marshalQueryPredicateStep(JNIEnv *env,
-                                   const TSQueryPredicateStep *predicate) {
-  return env->CallStaticObjectMethod(objectFactoryClass,
-                                     factory_createQueryPredicateStep,
-                                     (jint) getPredicateTypeId(predicate->type),
-                                     (jint) predicate->value_id);
-}
-
-jobjectArray createQueryPredicateStepArr(JNIEnv *env, jint size) {
-  return (jobjectArray) env->CallStaticObjectMethod(
-      objectFactoryClass,
-      factory_createQueryPredicateStepArr,
-      size);
-}
-
 jint getPredicateTypeId(TSQueryPredicateStepType type) {
   switch (type) {
     case TSQueryPredicateStepTypeDone:
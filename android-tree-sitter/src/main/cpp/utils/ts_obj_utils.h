@@ -16,6 +16,7 @@
  */
 
 #include <jni.h>
+#include <vector>
 #include "tree_sitter/api.h"
 
 struct TreeCursorNode {
@@ -37,6 +38,9 @@ struct TreeCursorNode {
   { VARIABLE = env->GetFieldID(CLASS, NAME, TYPE); }
 
 
+#define _loadMethod(VARIABLE, CLASS, NAME, SIGNATURE) \
+  { VARIABLE = env->GetMethodID(CLASS, NAME, SIGNATURE); }
+
 #define _loadStaticMethod(VARIABLE, CLASS, NAME, SIGNATURE) \
   {                                                   \
     VARIABLE = env->GetStaticMethodID(CLASS, NAME, SIGNATURE);                                                  \
@@ -60,8 +64,54 @@ jobject _marshalCapture(JNIEnv *env, TSQueryCapture capture);
 
 jobject _marshalTreeCursorNode(JNIEnv *env, TreeCursorNode node);
 
-TSInputEdit _unmarshalInputEdit(JNIEnv *env, jobject inputEdit);
+jboolean _appendSExpressionChunk(JNIEnv *env, jobject sink, jstring chunk);
+
+jobjectArray createStringArr(JNIEnv *env, jint size);
+
+void _fillQueryInfo(JNIEnv *env,
+                    jobject info,
+                    jobjectArray captureNames,
+                    jobjectArray stringValues,
+                    jintArray patternStartBytes,
+                    jbooleanArray rootedPatterns,
+                    jbooleanArray nonLocalPatterns,
+                    jbyteArray captureQuantifiers,
+                    jintArray predicateOffsets,
+                    jintArray predicateSteps);
+
+/**
+ * The int arrays of a `TSQueryMatchBuffer`.
+ */
+enum QueryMatchBufferArray {
+  MATCH_IDS,
+  PATTERN_INDICES,
+  MATCH_CAPTURE_STARTS,
+  MATCH_CAPTURE_COUNTS,
+  CAPTURE_INDICES,
+  SYMBOLS,
+  START_BYTES,
+  END_BYTES,
+  START_ROWS,
+  START_COLUMNS,
+  END_ROWS,
+  END_COLUMNS,
+  QUERY_MATCH_BUFFER_ARRAY_COUNT
+};
+
+bool _fillQueryMatchBuffer(JNIEnv *env,
+                           jobject buffer,
+                           jint matchCount,
+                           jint captureCount,
+                           const std::vector<jint> *arrays);
 
-jobject
-_marshalQueryPredicateStep(JNIEnv *env, const TSQueryPredicateStep *predicate);
-jobjectArray createQueryPredicateStepArr(JNIEnv *env, jint size);
\ No newline at end of file
+jboolean _visitMatch(JNIEnv *env,
+                     jobject visitor,
+                     const TSQueryMatch &match,
+                     jobject javaMatch);
+jboolean _visitCapture(JNIEnv *env,
+                       jobject visitor,
+                       jint index,
+                       const TSQueryCapture &capture);
+jboolean _visitMatchEnd(JNIEnv *env, jobject visitor);
+
+TSInputEdit _unmarshalInputEdit(JNIEnv *env, jobject inputEdit);
@@ -0,0 +1,629 @@
+/*
+ *  This file is part of android-tree-sitter.
+ *
+ *  android-tree-sitter library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  android-tree-sitter library is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *  along with android-tree-sitter.  If not, see
+ * <https://www.gnu.org/licenses/>.
+ */
+
+#include <algorithm>
+
+#include "ts_text_predicates.h"
+
+// must be kept in sync with TextPredicateHandler.java
+#define PREDICATE_EQ "eq?"
+#define PREDICATE_NOT_EQ "not-eq?"
+#define PREDICATE_MATCH "match?"
+#define PREDICATE_NOT_MATCH "not-match?"
+#define PREDICATE_ANY_OF "any-of?"
+#define PREDICATE_NOT_ANY_OF "not-any-of?"
+
+static std::u16string utf8_to_utf16(const char *str, uint32_t len) {
+  std::u16string result;
+  result.reserve(len);
+  uint32_t i = 0;
+  while (i < len) {
+    auto c = (uint8_t) str[i];
+    uint32_t code_point;
+    uint32_t extra;
+    if (c < 0x80) {
+      code_point = c;
+      extra = 0;
+    } else if ((c & 0xE0) == 0xC0) {
+      code_point = c & 0x1F;
+      extra = 1;
+    } else if ((c & 0xF0) == 0xE0) {
+      code_point = c & 0x0F;
+      extra = 2;
+    } else {
+      code_point = c & 0x07;
+      extra = 3;
+    }
+
+    ++i;
+    for (uint32_t j = 0; j < extra && i < len; ++j, ++i) {
+      code_point = (code_point << 6) | ((uint8_t) str[i] & 0x3F);
+    }
+
+    if (code_point >= 0x10000) {
+      code_point -= 0x10000;
+      result.push_back((char16_t) (0xD800 + (code_point >> 10)));
+      result.push_back((char16_t) (0xDC00 + (code_point & 0x3FF)));
+    } else {
+      result.push_back((char16_t) code_point);
+    }
+  }
+  return result;
+}
+
+static void add_escape_ranges(jchar escape,
+                              std::vector<std::pair<jchar, jchar>> &ranges) {
+  switch (escape) {
+    case 'd':
+      ranges.emplace_back('0', '9');
+      break;
+    case 'w':
+      ranges.emplace_back('a', 'z');
+      ranges.emplace_back('A', 'Z');
+      ranges.emplace_back('0', '9');
+      ranges.emplace_back('_', '_');
+      break;
+    case 's':
+      ranges.emplace_back('\t', '\r');
+      ranges.emplace_back(' ', ' ');
+      break;
+    default:
+      break;
+  }
+}
+
+static bool is_class_escape(jchar c) {
+  return c == 'd' || c == 'w' || c == 's';
+}
+
+static bool is_ascii_alnum(jchar c) {
+  return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9');
+}
+
+/**
+ * Parse the escape sequence at the given index (after the backslash).
+ *
+ * @return `true` if the escape is a literal character (written to `out`),
+ * `false` if the escape is not supported.
+ */
+static bool parse_literal_escape(jchar c, jchar &out) {
+  switch (c) {
+    case 'n':
+      out = '\n';
+      return true;
+    case 't':
+      out = '\t';
+      return true;
+    case 'r':
+      out = '\r';
+      return true;
+    case 'f':
+      out = '\f';
+      return true;
+    default:
+      if (is_ascii_alnum(c)) {
+        // \b, \p, \u, back references, etc.
+        return false;
+      }
+      out = c;
+      return true;
+  }
+}
+
+static bool is_high_surrogate(jchar c) {
+  return c >= 0xD800 && c <= 0xDBFF;
+}
+
+static bool is_low_surrogate(jchar c) {
+  return c >= 0xDC00 && c <= 0xDFFF;
+}
+
+static bool is_line_terminator(jchar c) {
+  return c == '\n' || c == '\r' || c == 0x0085 || c == 0x2028 || c == 0x2029;
+}
+
+/**
+ * @return The number of code units of the code point at the given index.
+ */
+static size_t code_point_length(const jchar *text, size_t pos, size_t len) {
+  return is_high_surrogate(text[pos]) && pos + 1 < len && is_low_surrogate(text[pos + 1]) ? 2 : 1;
+}
+
+/**
+ * @return Whether `$` matches at the given index. Like in `java.util.regex`,
+ * `$` matches at the end of the input and before a line terminator at the end
+ * of the input, but not between `\r` and `\n`.
+ */
+static bool matches_end(const jchar *text, size_t pos, size_t len) {
+  if (pos == len) {
+    return true;
+  }
+
+  if (pos + 2 == len) {
+    return text[pos] == '\r' && text[pos + 1] == '\n';
+  }
+
+  if (pos + 1 == len) {
+    if (text[pos] == '\n') {
+      return pos == 0 || text[pos - 1] != '\r';
+    }
+    return is_line_terminator(text[pos]);
+  }
+
+  return false;
+}
+
+TextRegex *TextRegex::compile(const std::u16string &pattern) {
+  for (auto c: pattern) {
+    if (c >= 0xD800 && c <= 0xDFFF) {
+      // supplementary characters are matched as code points by java.util.regex
+      return nullptr;
+    }
+  }
+
+  auto *regex = new TextRegex;
+  size_t i = 0;
+  const size_t len = pattern.size();
+  while (i < len) {
+    jchar c = pattern[i++];
+    Node node{CHAR, ONE, 0, false, {}};
+    switch (c) {
+      case '^':
+        node.type = BOL;
+        break;
+      case '$':
+        node.type = EOL;
+        break;
+      case '.':
+        node.type = ANY;
+        break;
+      case '\\': {
+        if (i >= len) {
+          delete regex;
+          return nullptr;
+        }
+        jchar e = pattern[i++];
+        jchar lower = e | 0x20;
+        if (is_class_escape(lower)) {
+          node.type = CLASS;
+          node.negated = e != lower;
+          add_escape_ranges(lower, node.ranges);
+        } else if (!parse_literal_escape(e, node.c)) {
+          delete regex;
+          return nullptr;
+        }
+        break;
+      }
+      case '[': {
+        node.type = CLASS;
+        if (i < len && pattern[i] == '^') {
+          node.negated = true;
+          ++i;
+        }
+
+        bool closed = false;
+        bool first = true;
+        while (i < len) {
+          jchar start = pattern[i++];
+          if (start == ']' && !first) {
+            closed = true;
+            break;
+          }
+          first = false;
+
+          if (start == '[' || start == '&') {
+            // nested classes, unions and intersections
+            delete regex;
+            return nullptr;
+          }
+
+          if (start == '\\') {
+            if (i >= len) {
+              break;
+            }
+            jchar e = pattern[i++];
+            if (is_class_escape(e)) {
+              add_escape_ranges(e, node.ranges);
+              continue;
+            }
+            if (!parse_literal_escape(e, start)) {
+              delete regex;
+              return nullptr;
+            }
+          }
+
+          jchar end = start;
+          if (i + 1 < len && pattern[i] == '-' && pattern[i + 1] != ']') {
+            end = pattern[i + 1];
+            i += 2;
+            if (end == '\\' || end == '[') {
+              delete regex;
+              return nullptr;
+            }
+          }
+          node.ranges.emplace_back(start, end);
+        }
+
+        if (!closed) {
+          delete regex;
+          return nullptr;
+        }
+        break;
+      }
+      case '(':
+      case ')':
+      case '|':
+      case '{':
+      case '}':
+      case '*':
+      case '+':
+      case '?':
+        // groups, alternations, bounded repetitions and dangling quantifiers
+        delete regex;
+        return nullptr;
+      default:
+        node.c = c;
+        break;
+    }
+
+    if (i < len && (pattern[i] == '*' || pattern[i] == '+' || pattern[i] == '?')) {
+      if (node.type == BOL || node.type == EOL) {
+        delete regex;
+        return nullptr;
+      }
+
+      jchar q = pattern[i++];
+      node.quantifier = q == '*' ? STAR : q == '+' ? PLUS : OPTIONAL;
+
+      if (i < len && (pattern[i] == '?' || pattern[i] == '+' || pattern[i] == '*' ||
+                      pattern[i] == '{')) {
+        // lazy and possessive quantifiers
+        delete regex;
+        return nullptr;
+      }
+    }
+
+    regex->nodes.push_back(std::move(node));
+  }
+
+  return regex;
+}
+
+size_t TextRegex::Node::match(const jchar *text, size_t pos, size_t len) const {
+  if (pos >= len) {
+    return 0;
+  }
+
+  const jchar ch = text[pos];
+  switch (type) {
+    case CHAR:
+      return ch == c ? 1 : 0;
+    case ANY:
+      return is_line_terminator(ch) ? 0 : code_point_length(text, pos, len);
+    case CLASS: {
+      // the ranges never contain supplementary characters
+      const size_t length = code_point_length(text, pos, len);
+      bool in_class = false;
+      for (size_t i = 0; length == 1 && i < ranges.size(); ++i) {
+        if (ch >= ranges[i].first && ch <= ranges[i].second) {
+          in_class = true;
+          break;
+        }
+      }
+      return in_class != negated ? length : 0;
+    }
+    default:
+      return 0;
+  }
+}
+
+bool TextRegex::match_here(size_t node_index,
+                           const jchar *text,
+                           size_t pos,
+                           size_t len) const {
+  if (node_index == nodes.size()) {
+    return true;
+  }
+
+  const auto &node = nodes[node_index];
+  if (node.type == BOL) {
+    return pos == 0 && match_here(node_index + 1, text, pos, len);
+  }
+
+  if (node.type == EOL) {
+    return matches_end(text, pos, len) && match_here(node_index + 1, text, pos, len);
+  }
+
+  switch (node.quantifier) {
+    case ONE: {
+      const size_t length = node.match(text, pos, len);
+      return length > 0 && match_here(node_index + 1, text, pos + length, len);
+    }
+    case OPTIONAL: {
+      const size_t length = node.match(text, pos, len);
+      if (length > 0 && match_here(node_index + 1, text, pos + length, len)) {
+        return true;
+      }
+      return match_here(node_index + 1, text, pos, len);
+    }
+    default: {
+      // greedy repetition
+      size_t end = pos;
+      size_t length;
+      while ((length = node.match(text, end, len)) > 0) {
+        end += length;
+      }
+
+      if (node.quantifier == PLUS && end == pos) {
+        return false;
+      }
+
+      const size_t min = node.quantifier == PLUS ? pos + node.match(text, pos, len) : pos;
+      while (true) {
+        if (match_here(node_index + 1, text, end, len)) {
+          return true;
+        }
+        if (end <= min) {
+          return false;
+        }
+
+        // back off by one code point, a surrogate pair is always matched as a whole
+        end -= end >= pos + 2 && is_high_surrogate(text[end - 2])
+               && is_low_surrogate(text[end - 1]) ? 2 : 1;
+      }
+    }
+  }
+}
+
+bool TextRegex::find(const jchar *text, size_t len) const {
+  if (!nodes.empty() && nodes[0].type == BOL) {
+    return match_here(0, text, 0, len);
+  }
+
+  for (size_t start = 0; start <= len; ++start) {
+    if (match_here(0, text, start, len)) {
+      return true;
+    }
+  }
+  return false;
+}
+
+static std::u16string string_value(const TSQuery *query, uint32_t id) {
+  uint32_t len;
+  const char *value = ts_query_string_value_for_id(query, id, &len);
+  return utf8_to_utf16(value, len);
+}
+
+static bool compile_predicate(const TSQuery *query,
+                              const TSQueryPredicateStep *steps,
+                              uint32_t count,
+                              TextPredicate &predicate) {
+  // [name, @capture, args..., Done]
+  if (count < 3 || steps[0].type != TSQueryPredicateStepTypeString
+      || steps[1].type != TSQueryPredicateStepTypeCapture) {
+    return false;
+  }
+
+  uint32_t name_len;
+  const char *name_chars = ts_query_string_value_for_id(query, steps[0].value_id, &name_len);
+  const std::string name(name_chars, name_len);
+
+  predicate.capture_id = steps[1].value_id;
+  predicate.other_capture_id = 0;
+  predicate.regex = nullptr;
+
+  if (name == PREDICATE_EQ || name == PREDICATE_NOT_EQ) {
+    if (count != 4) {
+      return false;
+    }
+
+    predicate.negate = name == PREDICATE_NOT_EQ;
+    if (steps[2].type == TSQueryPredicateStepTypeCapture) {
+      predicate.kind = TextPredicate::EQ_CAPTURE;
+      predicate.other_capture_id = steps[2].value_id;
+    } else {
+      predicate.kind = TextPredicate::EQ_STRING;
+      predicate.values.push_back(string_value(query, steps[2].value_id));
+    }
+    return true;
+  }
+
+  if (name == PREDICATE_MATCH || name == PREDICATE_NOT_MATCH) {
+    if (count != 4 || steps[2].type != TSQueryPredicateStepTypeString) {
+      return false;
+    }
+
+    predicate.kind = TextPredicate::MATCH;
+    predicate.negate = name == PREDICATE_NOT_MATCH;
+    predicate.regex = TextRegex::compile(string_value(query, steps[2].value_id));
+    return predicate.regex != nullptr;
+  }
+
+  if (name == PREDICATE_ANY_OF || name == PREDICATE_NOT_ANY_OF) {
+    predicate.kind = TextPredicate::ANY_OF;
+    predicate.negate = name == PREDICATE_NOT_ANY_OF;
+    for (uint32_t i = 2; i < count - 1; ++i) {
+      if (steps[i].type == TSQueryPredicateStepTypeString) {
+        predicate.values.push_back(string_value(query, steps[i].value_id));
+      }
+    }
+    return true;
+  }
+
+  return false;
+}
+
+TextPredicates::TextPredicates(const TSQuery *query, std::vector<bool> &evaluated) {
+  const uint32_t pattern_count = ts_query_pattern_count(query);
+  patterns.resize(pattern_count);
+  for (uint32_t pattern = 0; pattern < pattern_count; ++pattern) {
+    uint32_t step_count;
+    const TSQueryPredicateStep *steps = ts_query_predicates_for_pattern(query,
+                                                                        pattern,
+                                                                        &step_count);
+    uint32_t start = 0;
+    for (uint32_t i = 0; i < step_count; ++i) {
+      if (steps[i].type != TSQueryPredicateStepTypeDone) {
+        continue;
+      }
+
+      TextPredicate predicate{};
+      bool compiled = compile_predicate(query, steps + start, i - start + 1, predicate);
+      if (compiled) {
+        patterns[pattern].push_back(std::move(predicate));
+      }
+      evaluated.push_back(compiled);
+      start = i + 1;
+    }
+  }
+}
+
+TextPredicates::~TextPredicates() {
+  for (auto &predicates: patterns) {
+    for (auto &predicate: predicates) {
+      delete predicate.regex;
+    }
+  }
+}
+
+/**
+ * Read the text of the given node into the buffer, at the given offset.
+ *
+ * @return The length of the text, or -1 if the node is out of the bounds of
+ * the source.
+ */
+static jint read_text(TSNode node,
+                      UTF16String *source,
+                      std::vector<jchar> &buffer,
+                      size_t offset) {
+  // byte offsets in the syntax tree are UTF-16 based
+  auto start = (jint) (ts_node_start_byte(node) / 2);
+  auto end = (jint) (ts_node_end_byte(node) / 2);
+  if (end > source->length() || start > end) {
+    return -1;
+  }
+
+  const auto len = (size_t) (end - start);
+  if (buffer.size() < offset + len) {
+    buffer.resize(offset + len);
+  }
+  source->get_chars(start, end, buffer.data() + offset);
+  return (jint) len;
+}
+
+static bool text_equals(const jchar *text, size_t len, const std::u16string &str) {
+  if (len != str.size()) {
+    return false;
+  }
+
+  for (size_t i = 0; i < len; ++i) {
+    if (text[i] != (jchar) str[i]) {
+      return false;
+    }
+  }
+  return true;
+}
+
+static bool evaluate(const TextPredicate &predicate,
+                     const TSQueryMatch &match,
+                     UTF16String *source,
+                     std::vector<jchar> &buffer) {
+
+  // when comparing two captures, the first node of the second capture is compared
+  jint other_len = 0;
+  if (predicate.kind == TextPredicate::EQ_CAPTURE) {
+    bool found = false;
+    for (uint16_t i = 0; i < match.capture_count; ++i) {
+      if (match.captures[i].index == predicate.other_capture_id) {
+        other_len = read_text(match.captures[i].node, source, buffer, 0);
+        found = true;
+        break;
+      }
+    }
+
+    if (!found) {
+      return true;
+    }
+
+    if (other_len < 0) {
+      // the source is not in sync with the tree, the predicate cannot be
+      // satisfied
+      return false;
+    }
+  }
+
+  for (uint16_t i = 0; i < match.capture_count; ++i) {
+    const auto &capture = match.captures[i];
+    if (capture.index != predicate.capture_id) {
+      continue;
+    }
+
+    const auto offset = (size_t) other_len;
+    const jint len = read_text(capture.node, source, buffer, offset);
+    if (len < 0) {
+      // the source is not in sync with the tree
+      // the predicate is not handled in Java as it is evaluated natively, so
+      // reject the match instead of accepting it unchecked
+      return false;
+    }
+
+    const jchar *text = buffer.data() + offset;
+    bool satisfied = false;
+    switch (predicate.kind) {
+      case TextPredicate::EQ_STRING:
+        satisfied = text_equals(text, len, predicate.values[0]);
+        break;
+      case TextPredicate::EQ_CAPTURE:
+        satisfied = len == other_len
+                    && std::equal(text, text + len, buffer.data());
+        break;
+      case TextPredicate::MATCH:
+        satisfied = predicate.regex->find(text, len);
+        break;
+      case TextPredicate::ANY_OF:
+        for (const auto &value: predicate.values) {
+          if (text_equals(text, len, value)) {
+            satisfied = true;
+            break;
+          }
+        }
+        break;
+    }
+
+    if (satisfied == predicate.negate) {
+      return false;
+    }
+  }
+
+  return true;
+}
+
+bool TextPredicates::matches(const TSQueryMatch &match,
+                             UTF16String *source,
+                             std::vector<jchar> &buffer) const {
+  if (match.pattern_index >= patterns.size()) {
+    return true;
+  }
+
+  for (const auto &predicate: patterns[match.pattern_index]) {
+    if (!evaluate(predicate, match, source, buffer)) {
+      return false;
+    }
+  }
+  return true;
+}
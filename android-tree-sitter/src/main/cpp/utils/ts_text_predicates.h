@@ -0,0 +1,137 @@
+/*
+ *  This file is part of android-tree-sitter.
+ *
+ *  android-tree-sitter library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  android-tree-sitter library is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *  along with android-tree-sitter.  If not, see
+ * <https://www.gnu.org/licenses/>.
+ */
+
+#ifndef ATS_TS_TEXT_PREDICATES_H
+#define ATS_TS_TEXT_PREDICATES_H
+
+#include <jni.h>
+#include <string>
+#include <vector>
+
+#include "tree_sitter/api.h"
+#include "../utf16str/UTF16String.h"
+
+/**
+ * A minimal regular expression engine supporting the subset of the Java regex
+ * syntax which is commonly used in the `#match?` predicates of tree-sitter
+ * queries : literals, `.`, character classes (with ranges and negation), the
+ * `\d`, `\w`, `\s` escapes (and their negations), the `*`, `+` and `?`
+ * quantifiers and the `^` and `$` anchors.
+ *
+ * The semantics follow `java.util.regex` (without flags), so that a predicate
+ * gives the same result whether it is evaluated natively or by the
+ * `TextPredicateHandler` : `.` and the negated classes consume a code point,
+ * `.` does not match line terminators, and `$` also matches before a line
+ * terminator at the end of the input. Patterns which contain supplementary
+ * characters are not supported.
+ */
+class TextRegex {
+
+public:
+  /**
+   * Compile the given pattern.
+   *
+   * @return The compiled regex, or `nullptr` if the pattern uses syntax
+   * which is not supported.
+   */
+  static TextRegex *compile(const std::u16string &pattern);
+
+  /**
+   * @return Whether the pattern is found anywhere in the given text.
+   */
+  bool find(const jchar *text, size_t len) const;
+
+private:
+  enum NodeType {
+    CHAR, ANY, CLASS, BOL, EOL
+  };
+
+  enum Quantifier {
+    ONE, OPTIONAL, STAR, PLUS
+  };
+
+  struct Node {
+    NodeType type;
+    Quantifier quantifier;
+    jchar c;
+    bool negated;
+    std::vector<std::pair<jchar, jchar>> ranges;
+
+    /**
+     * @return The number of code units matched at the given index, or `0`
+     * if the node does not match.
+     */
+    size_t match(const jchar *text, size_t pos, size_t len) const;
+  };
+
+  std::vector<Node> nodes;
+
+  bool match_here(size_t node, const jchar *text, size_t pos, size_t len) const;
+};
+
+/**
+ * A text predicate (`#eq?`, `#match?` or `#any-of?`, or their negations)
+ * which can be evaluated natively.
+ */
+struct TextPredicate {
+
+  enum Kind {
+    EQ_STRING, EQ_CAPTURE, MATCH, ANY_OF
+  };
+
+  Kind kind;
+  bool negate;
+  uint32_t capture_id;
+  uint32_t other_capture_id;
+  std::vector<std::u16string> values;
+  TextRegex *regex;
+};
+
+/**
+ * The text predicates of a query which can be evaluated natively, against the
+ * UTF-16 source text.
+ */
+class TextPredicates {
+
+public:
+  /**
+   * Compile the text predicates of the given query.
+   *
+   * @param query The query.
+   * @param evaluated Receives one flag per predicate of the query, in the
+   *                  order of the patterns and the predicates in the
+   *                  pattern. The flag is `true` if the predicate is
+   *                  evaluated natively.
+   */
+  TextPredicates(const TSQuery *query, std::vector<bool> &evaluated);
+
+  ~TextPredicates();
+
+  /**
+   * @return Whether the given match satisfies the natively evaluated
+   * predicates of its pattern.
+   */
+  bool matches(const TSQueryMatch &match,
+               UTF16String *source,
+               std::vector<jchar> &buffer) const;
+
+private:
+  std::vector<std::vector<TextPredicate>> patterns;
+};
+
+#endif //ATS_TS_TEXT_PREDICATES_H
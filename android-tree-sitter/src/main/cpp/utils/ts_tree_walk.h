@@ -0,0 +1,94 @@
+/*
+ *  This file is part of android-tree-sitter.
+ *
+ *  android-tree-sitter library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  android-tree-sitter library is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *  along with android-tree-sitter.  If not, see
+ * <https://www.gnu.org/licenses/>.
+ */
+
+#ifndef ATS_TS_TREE_WALK_H
+#define ATS_TS_TREE_WALK_H
+
+#include "tree_sitter/api.h"
+#include "subtree.h"
+
+/**
+ * Walks the subtree rooted at the given node in pre-order using a
+ * `TSTreeCursor`.
+ *
+ * @param root The node to start walking from.
+ * @param visit The visitor. It receives the current node and the depth of the
+ *              node relative to `root`. The visitor must return `true` if the
+ *              children of the node should be visited, `false` otherwise.
+ * @param stop The walk stops as soon as the visitor sets this to `true`.
+ */
+template<typename Visitor>
+void ts_walk_tree(TSNode root, Visitor visit, const bool &stop) {
+  TSTreeCursor cursor = ts_tree_cursor_new(root);
+  uint32_t depth = 0;
+  bool descend = visit(ts_tree_cursor_current_node(&cursor), depth);
+  while (!stop) {
+    if (descend && ts_tree_cursor_goto_first_child(&cursor)) {
+      ++depth;
+      descend = visit(ts_tree_cursor_current_node(&cursor), depth);
+      continue;
+    }
+
+    bool moved = false;
+    while (depth > 0) {
+      if (ts_tree_cursor_goto_next_sibling(&cursor)) {
+        moved = true;
+        break;
+      }
+
+      ts_tree_cursor_goto_parent(&cursor);
+      --depth;
+    }
+
+    if (!moved) {
+      break;
+    }
+
+    descend = visit(ts_tree_cursor_current_node(&cursor), depth);
+  }
+  ts_tree_cursor_delete(&cursor);
+}
+
+/**
+ * Walks the whole subtree rooted at the given node in pre-order.
+ *
+ * @see ts_walk_tree(TSNode, Visitor, const bool &)
+ */
+template<typename Visitor>
+void ts_walk_tree(TSNode root, Visitor visit) {
+  const bool stop = false;
+  ts_walk_tree(root, visit, stop);
+}
+
+/**
+ * Get the pointer to the heap allocated subtree data of the given node. The
+ * data is shared between syntax trees when the parser reuses a subtree from
+ * the old tree, so it can be used to identify reused nodes.
+ *
+ * @return The heap data pointer, or `nullptr` if the subtree is inlined.
+ */
+inline const void *ts_node_subtree_data(TSNode node) {
+  const auto *subtree = (const Subtree *) node.id;
+  if (subtree == nullptr || subtree->data.is_inline) {
+    return nullptr;
+  }
+
+  return subtree->ptr;
+}
+
+#endif  // ATS_TS_TREE_WALK_H
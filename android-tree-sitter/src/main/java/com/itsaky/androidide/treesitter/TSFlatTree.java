@@ -0,0 +1,494 @@
+/*
+ *  This file is part of android-tree-sitter.
+ *
+ *  android-tree-sitter library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  android-tree-sitter library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *  along with android-tree-sitter.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.itsaky.androidide.treesitter;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * A read-only, flattened copy of a syntax tree which does not depend on any native object. Flat
+ * trees can be written to and read from a compact, versioned binary format. This can be used to
+ * cache syntax trees on disk or to transfer them to another process without parsing the source
+ * again.
+ * <p>
+ * The nodes are stored in pre-order and are identified by their index in this tree. The root
+ * node is always at index <code>0</code>.
+ *
+ * @author Akash Yadav
+ */
+public class TSFlatTree {
+
+  /**
+   * The magic number at the start of every serialized flat tree (<code>ATST</code>).
+   */
+  public static final int MAGIC = 0x41545354;
+
+  /**
+   * The current version of the binary format.
+   */
+  public static final int VERSION = 1;
+
+  // must be kept in sync with ts_tree.cc
+  private static final int FLAG_NAMED = 1;
+  private static final int FLAG_EXTRA = 1 << 1;
+  private static final int FLAG_MISSING = 1 << 2;
+  private static final int FLAG_ERROR = 1 << 3;
+  private static final int FLAG_HAS_ERROR = 1 << 4;
+  private static final int FLAGS_MASK =
+    FLAG_NAMED | FLAG_EXTRA | FLAG_MISSING | FLAG_ERROR | FLAG_HAS_ERROR;
+  private static final int NATIVE_STRIDE = 9;
+
+  // symbols are stored as unsigned shorts
+  private static final int MAX_SYMBOL_COUNT = 0x10000;
+
+  private final String languageName;
+  private final String[] symbolNames;
+
+  private final short[] symbols;
+  private final byte[] flags;
+  private final int[] childCounts;
+  private final int[] startBytes;
+  private final int[] endBytes;
+  private final int[] startRows;
+  private final int[] startColumns;
+  private final int[] endRows;
+  private final int[] endColumns;
+
+  private final int[] parents;
+  private final int[] subtreeSizes;
+
+  private TSFlatTree(String languageName, String[] symbolNames, int nodeCount) {
+    this.languageName = languageName;
+    this.symbolNames = symbolNames;
+    this.symbols = new short[nodeCount];
+    this.flags = new byte[nodeCount];
+    this.childCounts = new int[nodeCount];
+    this.startBytes = new int[nodeCount];
+    this.endBytes = new int[nodeCount];
+    this.startRows = new int[nodeCount];
+    this.startColumns = new int[nodeCount];
+    this.endRows = new int[nodeCount];
+    this.endColumns = new int[nodeCount];
+    this.parents = new int[nodeCount];
+    this.subtreeSizes = new int[nodeCount];
+  }
+
+  /**
+   * Create a flat copy of the given syntax tree.
+   *
+   * @param tree The syntax tree.
+   * @return The flat tree.
+   */
+  public static TSFlatTree from(TSTree tree) {
+    Objects.requireNonNull(tree, "TSTree cannot be null");
+    final var language = tree.getLanguage();
+    final var nodes = tree.flatten();
+    final var nodeCount = nodes.length / NATIVE_STRIDE;
+
+    var maxSymbol = 0;
+    for (int i = 0; i < nodeCount; i++) {
+      maxSymbol = Math.max(maxSymbol, nodes[i * NATIVE_STRIDE]);
+    }
+
+    final var symbolNames = new String[maxSymbol + 1];
+    if (language != null) {
+      for (int i = 0; i < nodeCount; i++) {
+        final var symbol = nodes[i * NATIVE_STRIDE];
+        if (symbolNames[symbol] == null) {
+          symbolNames[symbol] = language.getSymbolName(symbol);
+        }
+      }
+    }
+
+    final var flat = create(language == null ? null : language.getName(), symbolNames, nodes,
+      nodeCount);
+    flat.computeStructure();
+    return flat;
+  }
+
+  private static TSFlatTree create(String languageName, String[] symbolNames, int[] nodes,
+                                   int nodeCount
+  ) {
+    final var flat = new TSFlatTree(languageName, symbolNames, nodeCount);
+    for (int i = 0; i < nodeCount; i++) {
+      final var offset = i * NATIVE_STRIDE;
+      flat.symbols[i] = (short) nodes[offset];
+      flat.flags[i] = (byte) nodes[offset + 1];
+      flat.childCounts[i] = nodes[offset + 2];
+      flat.startBytes[i] = nodes[offset + 3];
+      flat.endBytes[i] = nodes[offset + 4];
+      flat.startRows[i] = nodes[offset + 5];
+      flat.startColumns[i] = nodes[offset + 6];
+      flat.endRows[i] = nodes[offset + 7];
+      flat.endColumns[i] = nodes[offset + 8];
+    }
+    return flat;
+  }
+
+  /**
+   * Read a flat tree which was written with {@link #writeTo(OutputStream)}.
+   *
+   * @param in The input stream to read from. The stream is not closed and it is not buffered by
+   *           this method, so that the data following the flat tree can still be read from it.
+   * @return The flat tree.
+   * @throws IOException If an I/O error occurs, or the data is not a supported flat tree.
+   */
+  public static TSFlatTree readFrom(InputStream in) throws IOException {
+    final var data = new DataInputStream(in);
+    if (data.readInt() != MAGIC) {
+      throw new IOException("Not a serialized flat tree");
+    }
+
+    final var version = readVarInt(data);
+    if (version != VERSION) {
+      throw new IOException("Unsupported flat tree version: " + version);
+    }
+
+    final var languageName = data.readBoolean() ? data.readUTF() : null;
+
+    // the counts and indices are validated, so that corrupted data results in an IOException
+    // instead of an out-of-bounds access or a huge allocation
+    final var symbolNames = new String[readCount(data, MAX_SYMBOL_COUNT, "symbol count")];
+    final var namedSymbols = readCount(data, symbolNames.length, "named symbol count");
+    for (int i = 0; i < namedSymbols; i++) {
+      final var symbol = readVarInt(data);
+      if (symbol < 0 || symbol >= symbolNames.length || symbolNames[symbol] != null) {
+        throw new IOException("Invalid symbol: " + symbol);
+      }
+      symbolNames[symbol] = data.readUTF();
+    }
+
+    // the nodes are read into a growing buffer, as the node count alone cannot be trusted
+    final var nodeCount = readCount(data, Integer.MAX_VALUE / NATIVE_STRIDE, "node count");
+    var nodes = new int[Math.min(nodeCount, 1024) * NATIVE_STRIDE];
+    var prevStartByte = 0;
+    var prevStartRow = 0;
+    for (int i = 0; i < nodeCount; i++) {
+      final var offset = i * NATIVE_STRIDE;
+      if (offset == nodes.length) {
+        nodes = Arrays.copyOf(nodes, Math.min(nodeCount, i * 2) * NATIVE_STRIDE);
+      }
+
+      final var symbol = readVarInt(data);
+      if (symbol < 0 || symbol >= symbolNames.length) {
+        throw new IOException("Invalid symbol of node " + i + ": " + symbol);
+      }
+
+      final var flags = data.readByte();
+      if ((flags & ~FLAGS_MASK) != 0) {
+        throw new IOException("Invalid flags of node " + i + ": " + flags);
+      }
+
+      nodes[offset] = symbol;
+      nodes[offset + 1] = flags;
+      nodes[offset + 2] = readCount(data, nodeCount - i - 1, "child count");
+      nodes[offset + 3] = prevStartByte = readPosition(data, prevStartByte);
+      nodes[offset + 4] = readPosition(data, prevStartByte);
+      nodes[offset + 5] = prevStartRow = readPosition(data, prevStartRow);
+      nodes[offset + 6] = readPosition(data, 0);
+      nodes[offset + 7] = readPosition(data, prevStartRow);
+      nodes[offset + 8] = readPosition(data, 0);
+    }
+
+    final var flat = create(languageName, symbolNames, nodes, nodeCount);
+    if (!flat.computeStructure()) {
+      throw new IOException("Invalid child counts, the nodes do not form a single tree");
+    }
+    return flat;
+  }
+
+  /**
+   * Write this flat tree to the given output stream. The nodes are streamed in pre-order with
+   * variable-length, delta-encoded positions.
+   *
+   * @param out The output stream to write to. The stream is flushed, but not closed.
+   * @throws IOException If an I/O error occurs.
+   */
+  public void writeTo(OutputStream out) throws IOException {
+    final var data = new DataOutputStream(new BufferedOutputStream(out));
+    data.writeInt(MAGIC);
+    writeVarInt(data, VERSION);
+
+    data.writeBoolean(languageName != null);
+    if (languageName != null) {
+      data.writeUTF(languageName);
+    }
+
+    var namedSymbols = 0;
+    for (final var name : symbolNames) {
+      if (name != null) {
+        ++namedSymbols;
+      }
+    }
+
+    writeVarInt(data, symbolNames.length);
+    writeVarInt(data, namedSymbols);
+    for (int i = 0; i < symbolNames.length; i++) {
+      if (symbolNames[i] != null) {
+        writeVarInt(data, i);
+        data.writeUTF(symbolNames[i]);
+      }
+    }
+
+    writeVarInt(data, getNodeCount());
+    var prevStartByte = 0;
+    var prevStartRow = 0;
+    for (int i = 0; i < getNodeCount(); i++) {
+      // start positions are non-decreasing in pre-order
+      writeVarInt(data, symbols[i] & 0xFFFF);
+      data.writeByte(flags[i]);
+      writeVarInt(data, childCounts[i]);
+      writeVarInt(data, startBytes[i] - prevStartByte);
+      writeVarInt(data, endBytes[i] - startBytes[i]);
+      writeVarInt(data, startRows[i] - prevStartRow);
+      writeVarInt(data, startColumns[i]);
+      writeVarInt(data, endRows[i] - startRows[i]);
+      writeVarInt(data, endColumns[i]);
+      prevStartByte = startBytes[i];
+      prevStartRow = startRows[i];
+    }
+
+    data.flush();
+  }
+
+  /**
+   * @return The name of the language of the syntax tree, or <code>null</code> if the language was
+   * not known.
+   */
+  public String getLanguageName() {
+    return languageName;
+  }
+
+  /**
+   * @return The number of nodes in this tree.
+   */
+  public int getNodeCount() {
+    return symbols.length;
+  }
+
+  public short getSymbol(int node) {
+    return symbols[node];
+  }
+
+  /**
+   * Get the type of the given node.
+   *
+   * @param node The index of the node.
+   * @return The type of the node, or <code>null</code> if the type is not known.
+   */
+  public String getType(int node) {
+    final var symbol = symbols[node] & 0xFFFF;
+    return symbol < symbolNames.length ? symbolNames[symbol] : null;
+  }
+
+  public boolean isNamed(int node) {
+    return (flags[node] & FLAG_NAMED) != 0;
+  }
+
+  public boolean isExtra(int node) {
+    return (flags[node] & FLAG_EXTRA) != 0;
+  }
+
+  public boolean isMissing(int node) {
+    return (flags[node] & FLAG_MISSING) != 0;
+  }
+
+  public boolean isError(int node) {
+    return (flags[node] & FLAG_ERROR) != 0;
+  }
+
+  public boolean hasErrors(int node) {
+    return (flags[node] & FLAG_HAS_ERROR) != 0;
+  }
+
+  public int getStartByte(int node) {
+    return startBytes[node];
+  }
+
+  public int getEndByte(int node) {
+    return endBytes[node];
+  }
+
+  public TSPoint getStartPoint(int node) {
+    return TSPoint.create(startRows[node], startColumns[node]);
+  }
+
+  public TSPoint getEndPoint(int node) {
+    return TSPoint.create(endRows[node], endColumns[node]);
+  }
+
+  public int getChildCount(int node) {
+    return childCounts[node];
+  }
+
+  /**
+   * @return The index of the parent of the given node, or <code>-1</code> for the root node.
+   */
+  public int getParent(int node) {
+    return parents[node];
+  }
+
+  /**
+   * @return The index of the first child of the given node, or <code>-1</code> if the node does
+   * not have any children.
+   */
+  public int getFirstChild(int node) {
+    return childCounts[node] == 0 ? -1 : node + 1;
+  }
+
+  /**
+   * @return The index of the next sibling of the given node, or <code>-1</code> if the node does
+   * not have a next sibling.
+   */
+  public int getNextSibling(int node) {
+    final var parent = parents[node];
+    if (parent == -1) {
+      return -1;
+    }
+
+    final var next = node + subtreeSizes[node];
+    return next < parent + subtreeSizes[parent] ? next : -1;
+  }
+
+  /**
+   * @return The number of descendants of the given node, including the node itself.
+   */
+  public int getDescendantCount(int node) {
+    return subtreeSizes[node];
+  }
+
+  /**
+   * Get the smallest node within the given node that spans the given range of bytes.
+   *
+   * @param node  The index of the node to start searching from.
+   * @param start The start byte.
+   * @param end   The end byte.
+   * @return The index of the smallest node spanning the range.
+   */
+  public int getDescendantForByteRange(int node, int start, int end) {
+    var current = node;
+    var found = true;
+    while (found) {
+      found = false;
+      for (var child = getFirstChild(current); child != -1; child = getNextSibling(child)) {
+        if (startBytes[child] > start) {
+          break;
+        }
+
+        if (endBytes[child] >= end) {
+          current = child;
+          found = true;
+          break;
+        }
+      }
+    }
+    return current;
+  }
+
+  /**
+   * Compute the parents and the subtree sizes of the nodes from their child counts.
+   *
+   * @return Whether the nodes form a single tree, i.e. every node except the root has a parent and
+   * every node has as many children as its child count.
+   */
+  private boolean computeStructure() {
+    final var count = getNodeCount();
+    final var stack = new int[Math.max(count, 1)];
+    final var remaining = new int[Math.max(count, 1)];
+    var top = -1;
+    var valid = true;
+
+    for (int i = 0; i < count; i++) {
+      while (top >= 0 && remaining[top] == 0) {
+        --top;
+      }
+
+      if (top >= 0) {
+        parents[i] = stack[top];
+        --remaining[top];
+      } else {
+        parents[i] = -1;
+        valid &= i == 0;
+      }
+
+      ++top;
+      stack[top] = i;
+      remaining[top] = childCounts[i];
+    }
+
+    for (int i = top; i >= 0; i--) {
+      valid &= remaining[i] == 0;
+    }
+
+    for (int i = count - 1; i >= 0; i--) {
+      subtreeSizes[i] += 1;
+      if (parents[i] != -1) {
+        subtreeSizes[parents[i]] += subtreeSizes[i];
+      }
+    }
+
+    return valid;
+  }
+
+  private static int readCount(DataInputStream in, int max, String name) throws IOException {
+    final var count = readVarInt(in);
+    if (count < 0 || count > max) {
+      throw new IOException("Invalid " + name + ": " + Integer.toUnsignedString(count));
+    }
+    return count;
+  }
+
+  private static int readPosition(DataInputStream in, int base) throws IOException {
+    final var position = base + readVarInt(in);
+    if (position < 0) {
+      throw new IOException("Invalid position: " + position);
+    }
+    return position;
+  }
+
+  private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+    while ((value & ~0x7F) != 0) {
+      out.writeByte((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.writeByte(value);
+  }
+
+  private static int readVarInt(DataInputStream in) throws IOException {
+    var value = 0;
+    for (int shift = 0; shift < 32; shift += 7) {
+      final var b = in.read();
+      if (b == -1) {
+        throw new EOFException();
+      }
+
+      value |= (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("Malformed variable-length integer");
+  }
+}
@@ -0,0 +1,249 @@
+/*
+ *  This file is part of android-tree-sitter.
+ *
+ *  android-tree-sitter library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  android-tree-sitter library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *  along with android-tree-sitter.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.itsaky.androidide.treesitter;
+
+import com.itsaky.androidide.treesitter.predicate.TSPredicateHandler;
+import com.itsaky.androidide.treesitter.string.UTF16String;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Incrementally computes highlight spans (the captures of a highlights query) for a syntax tree.
+ * <p>
+ * The spans for the whole tree are computed once with {@link #highlight(TSTree, UTF16String)}.
+ * After the tree is edited and re-parsed, {@link #update(TSTree, TSTree, TSInputEdit, UTF16String)}
+ * shifts the stored spans by the edit and re-runs the query only over the edited range and the
+ * ranges returned by {@link TSTree#getChangedRanges(TSTree)}. The new spans are then spliced into
+ * the stored spans. The spans are stored in a {@link TSSpanStore}.
+ * <p>
+ * Instances of this class are not thread safe.
+ *
+ * @author Akash Yadav
+ */
+public class TSHighlighter implements TSClosable {
+
+  private final TSQuery query;
+  private final TSQueryCursor cursor;
+  private final TSSpanStore spans = new TSSpanStore();
+  private final TSSpanStore queried = new TSSpanStore();
+  private final SpanCollector collector = new SpanCollector();
+
+  /**
+   * Create a new highlighter.
+   *
+   * @param query The highlights query. The query is not closed by the highlighter.
+   */
+  public TSHighlighter(TSQuery query) {
+    if (query == null || !query.canAccess()) {
+      throw new IllegalArgumentException("Cannot highlight with an invalid query");
+    }
+    this.query = query;
+    this.cursor = TSQueryCursor.create();
+  }
+
+  /**
+   * Add a predicate handler which is applied to the highlights query.
+   *
+   * @param handler The predicate handler.
+   * @see TSQueryCursor#addPredicateHandler(TSPredicateHandler)
+   */
+  public void addPredicateHandler(TSPredicateHandler handler) {
+    cursor.addPredicateHandler(handler);
+  }
+
+  /**
+   * @return The highlight spans, ordered by their start byte. The returned store must not be
+   * modified.
+   */
+  public TSSpanStore getSpans() {
+    return spans;
+  }
+
+  /**
+   * Visit the highlight spans which intersect the given byte range (for example, the viewport).
+   *
+   * @param startByte The start byte of the range.
+   * @param endByte   The end byte of the range.
+   * @param visitor   The visitor. The spans are visited in the order of their start bytes.
+   * @see TSSpanStore#forEach(int, int, TSSpanStore.Visitor)
+   */
+  public void forEachSpan(int startByte, int endByte, TSSpanStore.Visitor visitor) {
+    spans.forEach(startByte, endByte, visitor);
+  }
+
+  /**
+   * Compute the highlight spans for the whole syntax tree, discarding the stored spans.
+   *
+   * @param tree   The syntax tree.
+   * @param source The source text of the tree. Used to evaluate the text predicates natively.
+   */
+  public void highlight(TSTree tree, UTF16String source) {
+    Objects.requireNonNull(tree, "TSTree cannot be null");
+    final var root = tree.getRootNode();
+    spans.clear();
+    query(root, source, root.getStartByte(), root.getEndByte(), spans);
+  }
+
+  /**
+   * Update the highlight spans after an edit.
+   *
+   * @param oldTree The old syntax tree. The edit must have been applied to this tree (see
+   *                {@link TSTree#edit(TSInputEdit)}).
+   * @param newTree The new syntax tree, parsed from the old tree.
+   * @param edit    The edit.
+   * @param source  The new source text. Used to evaluate the text predicates natively.
+   */
+  public void update(TSTree oldTree, TSTree newTree, TSInputEdit edit, UTF16String source) {
+    Objects.requireNonNull(oldTree, "Old TSTree cannot be null");
+    Objects.requireNonNull(newTree, "New TSTree cannot be null");
+    Objects.requireNonNull(edit, "TSInputEdit cannot be null");
+
+    // 1. remove the spans intersecting the edit and shift the spans after the edit
+    final var editStart = edit.getStartByte();
+    final var oldEditEnd = edit.getOldEndByte();
+    final var newEditEnd = edit.getNewEndByte();
+    final var delta = newEditEnd - oldEditEnd;
+    final var invalid = new int[]{editStart, newEditEnd};
+
+    spans.forEach(editStart, oldEditEnd, (index, start, end, captureIndex, patternIndex) -> {
+      invalid[0] = Math.min(invalid[0], start);
+      invalid[1] = Math.max(invalid[1], end >= oldEditEnd ? end + delta : newEditEnd);
+      return true;
+    });
+    spans.removeIntersecting(editStart, oldEditEnd);
+    spans.shift(oldEditEnd, delta);
+
+    // 2. collect the ranges to re-query
+    final var changedRanges = newTree.getChangedRanges(oldTree);
+    final var ranges = new int[(changedRanges.length + 1) * 2];
+    ranges[0] = invalid[0];
+    ranges[1] = invalid[1];
+    for (int i = 0; i < changedRanges.length; i++) {
+      ranges[2 * i + 2] = changedRanges[i].getStartByte();
+      ranges[2 * i + 3] = changedRanges[i].getEndByte();
+    }
+
+    // 3. re-query the (merged) ranges
+    final var root = newTree.getRootNode();
+    for (final var range : mergeRanges(ranges)) {
+      requery(root, source, range[0], range[1]);
+    }
+  }
+
+  private void requery(TSNode root, UTF16String source, int start, int end) {
+    // expand the range to cover the spans which intersect it, and remove those spans
+    final var range = new int[]{start, end};
+    final var changed = new boolean[]{true};
+    while (changed[0]) {
+      changed[0] = false;
+      spans.forEach(range[0], range[1], (index, spanStart, spanEnd, captureIndex, patternIndex) -> {
+        if (spanStart < range[0] || spanEnd > range[1]) {
+          range[0] = Math.min(range[0], spanStart);
+          range[1] = Math.max(range[1], spanEnd);
+          changed[0] = true;
+        }
+        return true;
+      });
+    }
+
+    spans.removeIntersecting(range[0], range[1]);
+
+    queried.clear();
+    query(root, source, range[0], range[1], queried);
+
+    // spans extending beyond the range might already be present
+    final var result = new TSSpanStore(queried.size());
+    for (int i = 0; i < queried.size(); i++) {
+      final var spanStart = queried.getStartByte(i);
+      final var spanEnd = queried.getEndByte(i);
+      final var captureIndex = queried.getCaptureIndex(i);
+      final var patternIndex = queried.getPatternIndex(i);
+      if ((spanStart < range[0] || spanEnd > range[1])
+        && spans.indexOf(spanStart, spanEnd, captureIndex, patternIndex) != -1) {
+        continue;
+      }
+      result.add(spanStart, spanEnd, captureIndex, patternIndex);
+    }
+
+    spans.addAll(result);
+  }
+
+  private void query(TSNode root, UTF16String source, int start, int end, TSSpanStore result) {
+    cursor.setByteRange(start, end);
+    collector.result = result;
+    collector.startByte = start;
+    collector.endByte = end;
+    try {
+      cursor.forEachMatch(query, root, source, collector);
+    } finally {
+      collector.result = null;
+    }
+  }
+
+  private static List<int[]> mergeRanges(int[] ranges) {
+    final var sorted = new ArrayList<int[]>(ranges.length / 2);
+    for (int i = 0; i < ranges.length; i += 2) {
+      sorted.add(new int[]{ranges[i], ranges[i + 1]});
+    }
+    sorted.sort(Comparator.comparingInt(range -> range[0]));
+
+    final var result = new ArrayList<int[]>(sorted.size());
+    for (final var range : sorted) {
+      final var last = result.isEmpty() ? null : result.get(result.size() - 1);
+      if (last != null && range[0] <= last[1]) {
+        last[1] = Math.max(last[1], range[1]);
+      } else {
+        result.add(range);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Adds the captures of the visited matches to a span store, without creating a
+   * {@link TSQueryCapture} or {@link TSNode} for each capture. The matches are visited in the order
+   * in which they finish, so the spans are not necessarily added in the order of their start bytes;
+   * {@link TSSpanStore#add(int, int, int, int)} keeps the store ordered.
+   */
+  private static final class SpanCollector implements TSQueryMatchVisitor {
+
+    private TSSpanStore result;
+    private int startByte;
+    private int endByte;
+
+    @Override
+    public boolean visitCapture(Match match, int captureIndex, int captureId, int symbol,
+                                int startByte, int endByte
+    ) {
+      // like nextCapture(), skip the captures which do not intersect the queried range
+      if (startByte < endByte && startByte < this.endByte && endByte > this.startByte) {
+        result.add(startByte, endByte, captureId, match.getPatternIndex());
+      }
+      return true;
+    }
+  }
+
+  @Override
+  public void close() {
+    cursor.close();
+    spans.clear();
+    queried.clear();
+  }
+}
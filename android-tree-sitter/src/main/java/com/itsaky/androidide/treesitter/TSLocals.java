@@ -0,0 +1,680 @@
+/*
+ *  This file is part of android-tree-sitter.
+ *
+ *  android-tree-sitter library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  android-tree-sitter library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *  along with android-tree-sitter.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.itsaky.androidide.treesitter;
+
+import com.itsaky.androidide.treesitter.predicate.SetDirectiveHandler;
+import com.itsaky.androidide.treesitter.predicate.TSPredicateHandler;
+import com.itsaky.androidide.treesitter.string.UTF16String;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Resolves local scopes, definitions and references in a syntax tree using a locals query.
+ * <p>
+ * The query uses the following captures (the <code>local.</code> prefix is optional):
+ * <ul>
+ *   <li><code>@local.scope</code> - a node which introduces a new scope. A scope inherits the
+ *   definitions of its parent scope, unless the pattern sets <code>local.scope-inherits</code> to
+ *   <code>false</code> with the <code>#set!</code> directive.</li>
+ *   <li><code>@local.definition</code> or <code>@local.definition.&lt;kind&gt;</code> - a node which
+ *   defines a name in the innermost scope containing it.</li>
+ *   <li><code>@local.reference</code> - a node which references a name. Nodes which are also
+ *   captured as definitions are not references.</li>
+ * </ul>
+ * <p>
+ * The scopes form a tree, with a root scope which covers the whole source text. Each reference is
+ * linked to its definition when the tree is built: the nearest definition of the name which
+ * precedes the reference in the innermost scope (or its inherited parent scopes), or, if there is
+ * no such definition, the nearest definition which follows the reference.
+ * <p>
+ * After the syntax tree is edited and re-parsed,
+ * {@link #update(TSTree, TSTree, TSInputEdit, UTF16String)} re-runs the query only over the
+ * innermost scope which contains the edit and the changed ranges, and replaces that scope in the
+ * scope tree. Lookups by byte offset descend the scope tree with binary searches.
+ * <p>
+ * Instances of this class are not thread safe.
+ *
+ * @author Akash Yadav
+ */
+public class TSLocals implements TSClosable {
+
+  /**
+   * The key of the match metadata which controls whether a scope inherits the definitions of its
+   * parent scope.
+   */
+  public static final String SCOPE_INHERITS = "local.scope-inherits";
+
+  private static final int CAPTURE_NONE = 0;
+  private static final int CAPTURE_SCOPE = 1;
+  private static final int CAPTURE_DEFINITION = 2;
+  private static final int CAPTURE_REFERENCE = 3;
+
+  private static final Comparator<Scope> SCOPE_ORDER = Comparator.<Scope>comparingInt(
+    scope -> scope.startByte).thenComparing(scope -> scope.endByte, Comparator.reverseOrder());
+
+  private final TSQuery query;
+  private final TSQueryCursor cursor;
+  private final int[] captureTypes;
+  private final String[] captureKinds;
+
+  private Scope root = null;
+
+  /**
+   * Create a new locals resolver.
+   *
+   * @param query The locals query. The query is not closed by the resolver.
+   */
+  public TSLocals(TSQuery query) {
+    if (query == null || !query.canAccess()) {
+      throw new IllegalArgumentException("Cannot resolve locals with an invalid query");
+    }
+    this.query = query;
+    this.cursor = TSQueryCursor.create();
+    this.cursor.addPredicateHandler(new SetDirectiveHandler());
+
+    final var captureNames = query.getCaptureNames();
+    this.captureTypes = new int[captureNames.length];
+    this.captureKinds = new String[captureNames.length];
+    for (int i = 0; i < captureNames.length; i++) {
+      var name = captureNames[i];
+      if (name.startsWith("local.")) {
+        name = name.substring("local.".length());
+      }
+
+      if (name.equals("scope")) {
+        captureTypes[i] = CAPTURE_SCOPE;
+      } else if (name.equals("definition") || name.startsWith("definition.")) {
+        captureTypes[i] = CAPTURE_DEFINITION;
+        captureKinds[i] = name.length() > "definition".length()
+          ? name.substring("definition.".length()) : "";
+      } else if (name.equals("reference")) {
+        captureTypes[i] = CAPTURE_REFERENCE;
+      } else {
+        captureTypes[i] = CAPTURE_NONE;
+      }
+    }
+  }
+
+  /**
+   * Add a predicate handler which is applied to the locals query.
+   *
+   * @param handler The predicate handler.
+   * @see TSQueryCursor#addPredicateHandler(TSPredicateHandler)
+   */
+  public void addPredicateHandler(TSPredicateHandler handler) {
+    cursor.addPredicateHandler(handler);
+  }
+
+  /**
+   * @return The root scope, which covers the whole source text, or <code>null</code> if the locals
+   * have not been computed yet.
+   */
+  public Scope getRootScope() {
+    return root;
+  }
+
+  /**
+   * Compute the scopes, definitions and references for the whole syntax tree.
+   *
+   * @param tree   The syntax tree.
+   * @param source The source text of the tree. Used to read the names of the definitions and the
+   *               references.
+   */
+  public void compute(TSTree tree, UTF16String source) {
+    Objects.requireNonNull(tree, "TSTree cannot be null");
+    Objects.requireNonNull(source, "Source cannot be null");
+    final var rootNode = tree.getRootNode();
+    final var newRoot = new Scope(null, 0, Integer.MAX_VALUE, true);
+    build(newRoot, rootNode, source, rootNode.getStartByte(), rootNode.getEndByte());
+    root = newRoot;
+  }
+
+  /**
+   * Update the scopes, definitions and references after an edit. If the locals have not been
+   * computed yet, they are computed for the whole new tree.
+   *
+   * @param oldTree The old syntax tree. The edit must have been applied to this tree (see
+   *                {@link TSTree#edit(TSInputEdit)}).
+   * @param newTree The new syntax tree, parsed from the old tree.
+   * @param edit    The edit.
+   * @param source  The new source text.
+   */
+  public void update(TSTree oldTree, TSTree newTree, TSInputEdit edit, UTF16String source) {
+    Objects.requireNonNull(oldTree, "Old TSTree cannot be null");
+    Objects.requireNonNull(newTree, "New TSTree cannot be null");
+    Objects.requireNonNull(edit, "TSInputEdit cannot be null");
+    Objects.requireNonNull(source, "Source cannot be null");
+    if (root == null) {
+      compute(newTree, source);
+      return;
+    }
+
+    // 1. shift the stored scopes, definitions and references by the edit
+    final var editStart = edit.getStartByte();
+    final var newEditEnd = edit.getNewEndByte();
+    shift(root, editStart, edit.getOldEndByte(), newEditEnd);
+
+    // 2. find the range which must be re-queried
+    var start = editStart;
+    var end = newEditEnd;
+    for (final var range : newTree.getChangedRanges(oldTree)) {
+      start = Math.min(start, range.getStartByte());
+      end = Math.max(end, range.getEndByte());
+    }
+
+    // 3. rebuild the innermost scope containing the range, or its parent scope if the scope
+    // node itself has changed
+    final var rootNode = newTree.getRootNode();
+    var scope = findScope(root, start, end);
+    while (scope != root) {
+      final var parent = scope.parent;
+      // the parent must be linked before building, so that the references in the rebuilt scope
+      // can be resolved to the definitions in the outer scopes
+      final var rebuilt = new Scope(parent, scope.startByte, scope.endByte, true);
+      if (build(rebuilt, rootNode, source, scope.startByte, scope.endByte)) {
+        final var children = parent.children;
+        children.set(children.indexOf(scope), rebuilt);
+        return;
+      }
+      scope = parent;
+    }
+
+    compute(newTree, source);
+  }
+
+  /**
+   * Find the innermost scope which contains the given byte.
+   *
+   * @param byteOffset The byte offset.
+   * @return The scope, or <code>null</code> if the locals have not been computed yet.
+   */
+  public Scope getScopeAt(int byteOffset) {
+    return root == null ? null : findScope(root, byteOffset, byteOffset + 1);
+  }
+
+  /**
+   * Find the definition whose node contains the given byte.
+   *
+   * @param byteOffset The byte offset.
+   * @return The definition, or <code>null</code> if there is no such definition.
+   */
+  public Definition getDefinitionAt(int byteOffset) {
+    for (var scope = getScopeAt(byteOffset); scope != null; scope = scope.parent) {
+      final var definition = find(scope.definitions, byteOffset);
+      if (definition != null) {
+        return definition;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Find the reference whose node contains the given byte.
+   *
+   * @param byteOffset The byte offset.
+   * @return The reference, or <code>null</code> if there is no such reference.
+   */
+  public Reference getReferenceAt(int byteOffset) {
+    for (var scope = getScopeAt(byteOffset); scope != null; scope = scope.parent) {
+      final var reference = find(scope.references, byteOffset);
+      if (reference != null) {
+        return reference;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Find the definition for the name at the given byte (go to definition).
+   *
+   * @param byteOffset The byte offset.
+   * @return The definition of the reference at the given byte, the definition at the given byte,
+   * or <code>null</code> if the name at the byte cannot be resolved.
+   */
+  public Definition findDefinition(int byteOffset) {
+    final var reference = getReferenceAt(byteOffset);
+    if (reference != null) {
+      return reference.definition;
+    }
+    return getDefinitionAt(byteOffset);
+  }
+
+  /**
+   * Find the references which are resolved to the given definition.
+   *
+   * @param definition The definition.
+   * @return The references, ordered by their start bytes.
+   */
+  public List<Reference> findReferences(Definition definition) {
+    Objects.requireNonNull(definition, "Definition cannot be null");
+    final var result = new ArrayList<Reference>();
+    collectReferences(definition.scope, definition, result);
+    result.sort(Comparator.comparingInt(reference -> reference.startByte));
+    return result;
+  }
+
+  private static void collectReferences(Scope scope, Definition definition,
+                                        List<Reference> result
+  ) {
+    for (final var reference : scope.references) {
+      if (reference.definition == definition) {
+        result.add(reference);
+      }
+    }
+    for (final var child : scope.children) {
+      collectReferences(child, definition, result);
+    }
+  }
+
+  /**
+   * Query the given range and fill the given scope with the scopes, definitions and references
+   * inside the range.
+   *
+   * @return <code>false</code> if the range is not the root range and there is no scope node with
+   * exactly the same range.
+   */
+  private boolean build(Scope target, TSNode rootNode, UTF16String source, int start, int end) {
+    final var scopes = new ArrayList<Scope>();
+    final var definitions = new ArrayList<Definition>();
+    final var references = new ArrayList<Reference>();
+    final var isRoot = target.endByte == Integer.MAX_VALUE;
+    var foundTarget = isRoot;
+
+    cursor.setByteRange(start, end);
+    cursor.exec(query, rootNode, source);
+
+    TSQueryMatch match;
+    while ((match = cursor.nextMatch()) != null) {
+      for (final var capture : match.getCaptures()) {
+        final var type = captureTypes[capture.getIndex()];
+        if (type == CAPTURE_NONE) {
+          continue;
+        }
+
+        final var node = capture.getNode();
+        final var startByte = node.getStartByte();
+        final var endByte = node.getEndByte();
+        if (startByte < start || endByte > end) {
+          continue;
+        }
+
+        if (type == CAPTURE_SCOPE) {
+          if (!isRoot && startByte == start && endByte == end) {
+            target.inherits = inherits(match);
+            foundTarget = true;
+            continue;
+          }
+          scopes.add(new Scope(null, startByte, endByte, inherits(match)));
+        } else if (type == CAPTURE_DEFINITION) {
+          definitions.add(new Definition(source.substringBytes(startByte, endByte),
+            captureKinds[capture.getIndex()], startByte, endByte));
+        } else {
+          references.add(new Reference(source.substringBytes(startByte, endByte), startByte,
+            endByte));
+        }
+      }
+    }
+
+    if (!foundTarget) {
+      return false;
+    }
+
+    // build the scope tree
+    scopes.sort(SCOPE_ORDER);
+    final var stack = new ArrayList<Scope>();
+    stack.add(target);
+    Scope previous = null;
+    for (final var scope : scopes) {
+      if (previous != null && previous.startByte == scope.startByte
+        && previous.endByte == scope.endByte) {
+        // the same node captured by multiple patterns
+        continue;
+      }
+      previous = scope;
+
+      var parent = stack.get(stack.size() - 1);
+      while (!parent.contains(scope.startByte, scope.endByte)) {
+        stack.remove(stack.size() - 1);
+        parent = stack.get(stack.size() - 1);
+      }
+      scope.parent = parent;
+      parent.children.add(scope);
+      stack.add(scope);
+    }
+
+    // add the definitions to their scopes
+    definitions.sort(Comparator.comparingInt(definition -> definition.startByte));
+    final var definitionRanges = new HashSet<Long>(definitions.size());
+    for (final var definition : definitions) {
+      if (definitionRanges.add(range(definition.startByte, definition.endByte))) {
+        definition.scope = findScope(target, definition.startByte, definition.endByte);
+        definition.scope.definitions.add(definition);
+      }
+    }
+
+    // add the references to their scopes and resolve them
+    references.sort(Comparator.comparingInt(reference -> reference.startByte));
+    final var referenceRanges = new HashSet<Long>(references.size());
+    for (final var reference : references) {
+      final var range = range(reference.startByte, reference.endByte);
+      if (definitionRanges.contains(range) || !referenceRanges.add(range)) {
+        continue;
+      }
+      reference.scope = findScope(target, reference.startByte, reference.endByte);
+      reference.scope.references.add(reference);
+      reference.definition = resolve(reference);
+    }
+
+    return true;
+  }
+
+  private static Definition resolve(Reference reference) {
+    // the nearest preceding definition
+    for (var scope = reference.scope; scope != null; scope = scope.inherits ? scope.parent : null) {
+      final var definitions = scope.getDefinitions(reference.name);
+      var low = 0;
+      var high = definitions.size() - 1;
+      Definition result = null;
+      while (low <= high) {
+        final var mid = (low + high) >>> 1;
+        final var definition = definitions.get(mid);
+        if (definition.startByte <= reference.startByte) {
+          result = definition;
+          low = mid + 1;
+        } else {
+          high = mid - 1;
+        }
+      }
+      if (result != null) {
+        return result;
+      }
+    }
+
+    // the nearest following definition
+    for (var scope = reference.scope; scope != null; scope = scope.inherits ? scope.parent : null) {
+      final var definitions = scope.getDefinitions(reference.name);
+      if (!definitions.isEmpty()) {
+        return definitions.get(0);
+      }
+    }
+
+    return null;
+  }
+
+  private static boolean inherits(TSQueryMatch match) {
+    return !match.hasMetadata() || !"false".equals(match.getMetadata().getString(SCOPE_INHERITS));
+  }
+
+  private static long range(int startByte, int endByte) {
+    return ((long) startByte << 32) | (endByte & 0xFFFFFFFFL);
+  }
+
+  private static Scope findScope(Scope scope, int startByte, int endByte) {
+    while (true) {
+      final var child = find(scope.children, startByte);
+      if (child == null || !child.contains(startByte, endByte)) {
+        return scope;
+      }
+      scope = child;
+    }
+  }
+
+  /**
+   * Find the last range in the given list (sorted by start bytes) which starts at or before the
+   * given byte, if it contains the byte.
+   */
+  private static <T extends Range> T find(List<T> ranges, int byteOffset) {
+    var low = 0;
+    var high = ranges.size() - 1;
+    T result = null;
+    while (low <= high) {
+      final var mid = (low + high) >>> 1;
+      final var range = ranges.get(mid);
+      if (range.startByte <= byteOffset) {
+        result = range;
+        low = mid + 1;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return result != null && byteOffset < result.endByte ? result : null;
+  }
+
+  private static void shift(Scope scope, int editStart, int oldEditEnd, int newEditEnd) {
+    if (scope.parent != null) {
+      scope.shift(editStart, oldEditEnd, newEditEnd);
+    }
+    for (final var definition : scope.definitions) {
+      definition.shift(editStart, oldEditEnd, newEditEnd);
+    }
+    for (final var reference : scope.references) {
+      reference.shift(editStart, oldEditEnd, newEditEnd);
+    }
+    for (final var child : scope.children) {
+      shift(child, editStart, oldEditEnd, newEditEnd);
+    }
+  }
+
+  @Override
+  public void close() {
+    cursor.close();
+    root = null;
+  }
+
+  /**
+   * A byte range in the source text.
+   */
+  public abstract static class Range {
+
+    protected int startByte;
+    protected int endByte;
+
+    private Range(int startByte, int endByte) {
+      this.startByte = startByte;
+      this.endByte = endByte;
+    }
+
+    public int getStartByte() {
+      return startByte;
+    }
+
+    public int getEndByte() {
+      return endByte;
+    }
+
+    boolean contains(int startByte, int endByte) {
+      return this.startByte <= startByte && endByte <= this.endByte;
+    }
+
+    void shift(int editStart, int oldEditEnd, int newEditEnd) {
+      startByte = shift(startByte, editStart, oldEditEnd, newEditEnd);
+      endByte = shift(endByte, editStart, oldEditEnd, newEditEnd);
+    }
+
+    private static int shift(int byteOffset, int editStart, int oldEditEnd, int newEditEnd) {
+      if (byteOffset >= oldEditEnd) {
+        return byteOffset + newEditEnd - oldEditEnd;
+      }
+      if (byteOffset > editStart) {
+        return Math.min(byteOffset, newEditEnd);
+      }
+      return byteOffset;
+    }
+  }
+
+  /**
+   * A local scope.
+   */
+  public static final class Scope extends Range {
+
+    private boolean inherits;
+    private final List<Scope> children = new ArrayList<>(2);
+    private final List<Definition> definitions = new ArrayList<>(2);
+    private final List<Reference> references = new ArrayList<>(2);
+    private Scope parent;
+    private Map<String, List<Definition>> definitionsByName = null;
+
+    private Scope(Scope parent, int startByte, int endByte, boolean inherits) {
+      super(startByte, endByte);
+      this.parent = parent;
+      this.inherits = inherits;
+    }
+
+    /**
+     * @return The parent scope, or <code>null</code> if this is the root scope.
+     */
+    public Scope getParent() {
+      return parent;
+    }
+
+    /**
+     * @return Whether this scope inherits the definitions of its parent scope.
+     */
+    public boolean isInheriting() {
+      return inherits;
+    }
+
+    /**
+     * @return The child scopes, ordered by their start bytes.
+     */
+    public List<Scope> getChildren() {
+      return Collections.unmodifiableList(children);
+    }
+
+    /**
+     * @return The definitions in this scope (excluding the child scopes), ordered by their start
+     * bytes.
+     */
+    public List<Definition> getDefinitions() {
+      return Collections.unmodifiableList(definitions);
+    }
+
+    /**
+     * @return The references in this scope (excluding the child scopes), ordered by their start
+     * bytes.
+     */
+    public List<Reference> getReferences() {
+      return Collections.unmodifiableList(references);
+    }
+
+    private List<Definition> getDefinitions(String name) {
+      if (definitionsByName == null) {
+        definitionsByName = new HashMap<>(definitions.size());
+        for (final var definition : definitions) {
+          definitionsByName.computeIfAbsent(definition.name, k -> new ArrayList<>(1))
+            .add(definition);
+        }
+      }
+      final var result = definitionsByName.get(name);
+      return result == null ? Collections.emptyList() : result;
+    }
+
+    @Override
+    public String toString() {
+      return "Scope{" + "startByte=" + startByte + ", endByte=" + endByte + ", inherits=" +
+        inherits + '}';
+    }
+  }
+
+  /**
+   * A definition of a name.
+   */
+  public static final class Definition extends Range {
+
+    private final String name;
+    private final String kind;
+    private Scope scope;
+
+    private Definition(String name, String kind, int startByte, int endByte) {
+      super(startByte, endByte);
+      this.name = name;
+      this.kind = kind;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    /**
+     * @return The kind of the definition (for example, <code>var</code> for a
+     * <code>@local.definition.var</code> capture), or an empty string.
+     */
+    public String getKind() {
+      return kind;
+    }
+
+    /**
+     * @return The scope which contains this definition.
+     */
+    public Scope getScope() {
+      return scope;
+    }
+
+    @Override
+    public String toString() {
+      return "Definition{" + "name='" + name + '\'' + ", kind='" + kind + '\'' + ", startByte=" +
+        startByte + ", endByte=" + endByte + '}';
+    }
+  }
+
+  /**
+   * A reference to a name.
+   */
+  public static final class Reference extends Range {
+
+    private final String name;
+    private Scope scope;
+    private Definition definition;
+
+    private Reference(String name, int startByte, int endByte) {
+      super(startByte, endByte);
+      this.name = name;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    /**
+     * @return The scope which contains this reference.
+     */
+    public Scope getScope() {
+      return scope;
+    }
+
+    /**
+     * @return The definition of this reference, or <code>null</code> if the reference could not be
+     * resolved.
+     */
+    public Definition getDefinition() {
+      return definition;
+    }
+
+    @Override
+    public String toString() {
+      return "Reference{" + "name='" + name + '\'' + ", startByte=" + startByte + ", endByte=" +
+        endByte + '}';
+    }
+  }
+}
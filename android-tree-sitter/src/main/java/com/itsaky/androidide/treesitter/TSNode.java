@@ -20,6 +20,7 @@ package com.itsaky.androidide.treesitter;
 import com.itsaky.androidide.treesitter.annotations.GenerateNativeHeaders;
 import com.itsaky.androidide.treesitter.util.TSObjectFactoryProvider;
 import dalvik.annotation.optimization.FastNative;
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
@@ -451,6 +452,34 @@ public class TSNode extends TSNativeObject {
     return Native.getNodeString(this);
   }
 
+  /**
+   * Write the S-expression of this node to the given {@link Appendable}. Unlike
+   * {@link #getNodeString()}, the S-expression is never built as a whole. Instead, it is written
+   * natively in chunks of bounded size, so it is safe to use this method for very large trees.
+   *
+   * @param out     The {@link Appendable} to write to.
+   * @param options The options for the S-expression, or <code>null</code> to use the default
+   *                options.
+   * @throws IOException If the {@link Appendable} throws an {@link IOException}.
+   */
+  public void writeSExpression(Appendable out, SExpressionOptions options) throws IOException {
+    Objects.requireNonNull(out, "Appendable cannot be null");
+    checkAccess();
+    getTree().checkAccess();
+
+    if (options == null) {
+      options = new SExpressionOptions();
+    }
+
+    final var sink = new SExpressionSink(out);
+    Native.writeSExpression(this, options.maxDepth, options.includePositions,
+      options.includeAnonymous, options.chunkSize, sink);
+
+    if (sink.error != null) {
+      throw sink.error;
+    }
+  }
+
   /**
    * Get the start byte of this node. This returns the <code>context[0]</code> value.
    *
@@ -636,6 +665,83 @@ public class TSNode extends TSNativeObject {
     // no need to do anything
   }
 
+  /**
+   * Options for {@link #writeSExpression(Appendable, SExpressionOptions)}.
+   */
+  public static class SExpressionOptions {
+
+    protected int maxDepth = -1;
+    protected boolean includePositions = false;
+    protected boolean includeAnonymous = false;
+    protected int chunkSize = 8192;
+
+    /**
+     * Set the maximum depth of the nodes to write, relative to the node being written. Children of
+     * the nodes at the maximum depth are replaced with <code>...</code>. Negative values remove the
+     * limit. Defaults to <code>-1</code>.
+     */
+    public SExpressionOptions setMaxDepth(int maxDepth) {
+      this.maxDepth = maxDepth;
+      return this;
+    }
+
+    /**
+     * Set whether the start and end points of the nodes should be written. Defaults to
+     * <code>false</code>.
+     */
+    public SExpressionOptions setIncludePositions(boolean includePositions) {
+      this.includePositions = includePositions;
+      return this;
+    }
+
+    /**
+     * Set whether anonymous nodes should be written as quoted strings. Missing nodes are always
+     * written (as <code>(MISSING ";")</code> for anonymous nodes), like in
+     * {@link TSNode#getNodeString()}. Defaults to <code>false</code>.
+     */
+    public SExpressionOptions setIncludeAnonymous(boolean includeAnonymous) {
+      this.includeAnonymous = includeAnonymous;
+      return this;
+    }
+
+    /**
+     * Set the size (in bytes) of the chunks which are written to the {@link Appendable}. Defaults
+     * to <code>8192</code>.
+     */
+    public SExpressionOptions setChunkSize(int chunkSize) {
+      if (chunkSize <= 0) {
+        throw new IllegalArgumentException("chunkSize must be > 0");
+      }
+      this.chunkSize = chunkSize;
+      return this;
+    }
+  }
+
+  /**
+   * Receives the S-expression chunks from the native side.
+   */
+  private static final class SExpressionSink {
+
+    private final Appendable out;
+    private IOException error;
+
+    private SExpressionSink(Appendable out) {
+      this.out = out;
+    }
+
+    // called from native code
+    @SuppressWarnings("unused")
+    boolean append(String chunk) {
+      try {
+        out.append(chunk);
+        return true;
+      } catch (IOException e) {
+        error = e;
+        return false;
+      }
+    }
+  }
+
   @GenerateNativeHeaders(fileName = "node")
   private static final class Native {
 
@@ -702,6 +808,10 @@ public class TSNode extends TSNativeObject {
     @FastNative
     static native String getNodeString(TSNode self);
 
+    static native void writeSExpression(TSNode self, int maxDepth, boolean includePositions,
+                                        boolean includeAnonymous, int chunkSize,
+                                        SExpressionSink sink);
+
     @FastNative
     static native int getStartByte(TSNode self);
 
@@ -0,0 +1,377 @@
+/*
+ *  This file is part of android-tree-sitter.
+ *
+ *  android-tree-sitter library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  android-tree-sitter library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *  along with android-tree-sitter.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.itsaky.androidide.treesitter;
+
+import com.itsaky.androidide.treesitter.predicate.TSPredicateHandler;
+import com.itsaky.androidide.treesitter.string.UTF16String;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Runs a query over a syntax tree on multiple threads. The root node is split into byte ranges
+ * which are aligned to the boundaries of its children. Each range is queried on a separate copy of
+ * the tree (see {@link TSTree#copy()}) with its own {@link TSQueryCursor}, limited to the range with
+ * {@link TSQueryCursor#setByteRange(int, int)}. The cursors are reused from a
+ * {@link TSQueryCursorPool}, which is closed when this parallel query is closed.
+ * <p>
+ * Matches which intersect multiple ranges are reported only once, and the matches are returned in
+ * document order.
+ *
+ * @author Akash Yadav
+ */
+public class TSParallelQuery implements TSClosable {
+
+  private final Executor executor;
+  private final int parallelism;
+  private final TSQueryCursorPool cursorPool;
+  private final List<Function<? super UTF16String, ? extends TSPredicateHandler>> handlerFactories =
+    new CopyOnWriteArrayList<>();
+
+  /**
+   * Create a new parallel query.
+   *
+   * @param executor    The executor to run the queries on.
+   * @param parallelism The maximum number of ranges to split the root node into.
+   */
+  public TSParallelQuery(Executor executor, int parallelism) {
+    this.executor = Objects.requireNonNull(executor, "Executor cannot be null");
+    if (parallelism <= 0) {
+      throw new IllegalArgumentException("parallelism must be > 0");
+    }
+    this.parallelism = parallelism;
+    this.cursorPool = new TSQueryCursorPool(parallelism);
+  }
+
+  /**
+   * Add a predicate handler. As the predicate handlers are not required to be thread safe, the
+   * given factory is called to create a new handler for each byte range of every
+   * {@link #exec(TSQuery, TSTree, UTF16String)} call. The handlers are discarded when the range has
+   * been queried, so a handler never outlives the source it was created for.
+   *
+   * @param handlerFactory The factory for the predicate handler. It receives the source text which
+   *                       was passed to {@link #exec(TSQuery, TSTree, UTF16String)}, which may be
+   *                       <code>null</code>.
+   */
+  public void addPredicateHandler(
+    Function<? super UTF16String, ? extends TSPredicateHandler> handlerFactory
+  ) {
+    handlerFactories.add(Objects.requireNonNull(handlerFactory, "Handler factory cannot be null"));
+  }
+
+  /**
+   * Run the given query on the given syntax tree and wait for the results.
+   *
+   * @param query  The query to run.
+   * @param tree   The syntax tree.
+   * @param source The source text of the tree, used to evaluate the text predicates natively (see
+   *               {@link TSQueryCursor#exec(TSQuery, TSNode, UTF16String)}). May be
+   *               <code>null</code>.
+   * @return The result. The result must be closed when the matches are no longer needed.
+   * @throws InterruptedException If the current thread is interrupted while waiting for the
+   *                              results. The copies of the tree are closed when the ranges which
+   *                              are still being queried are finished.
+   */
+  public Result exec(TSQuery query, TSTree tree, UTF16String source) throws InterruptedException {
+    Objects.requireNonNull(tree, "TSTree cannot be null");
+    if (query == null || !query.canAccess()) {
+      throw new IllegalArgumentException("Cannot execute invalid query");
+    }
+
+    tree.checkAccess();
+
+    // compile the predicates before the query is shared between threads
+    if (query.getPatternCount() > 0) {
+      query.getPredicates(0);
+    }
+    if (source != null) {
+      query.getTextPredicates();
+    }
+
+    final var ranges = partition(tree.getRootNode());
+    final var count = ranges.length / 2;
+    final var copies = new TreeCopies(tree, count);
+    final List<List<TSQueryMatch>> results = new ArrayList<>(Collections.nCopies(count, null));
+    final var errors = new Throwable[count];
+    final var latch = new CountDownLatch(count);
+
+    var completed = false;
+    try {
+      for (int i = 0; i < count; i++) {
+        final var index = i;
+        final Runnable task = () -> {
+          try {
+            results.set(index,
+              run(query, copies.get(index), source, ranges[2 * index], ranges[2 * index + 1]));
+          } catch (Throwable err) {
+            errors[index] = err;
+          } finally {
+            latch.countDown();
+            copies.release();
+          }
+        };
+
+        copies.retain();
+        if (i == count - 1) {
+          // run the last range on the calling thread
+          task.run();
+        } else {
+          try {
+            executor.execute(task);
+          } catch (RuntimeException err) {
+            copies.release();
+            throw err;
+          }
+        }
+      }
+
+      latch.await();
+
+      for (final var error : errors) {
+        if (error != null) {
+          if (error instanceof RuntimeException) {
+            throw (RuntimeException) error;
+          }
+          throw new IllegalStateException("Failed to execute query", error);
+        }
+      }
+
+      final var result = new Result(merge(results), copies);
+      completed = true;
+      return result;
+    } finally {
+      if (!completed) {
+        // the copies are closed when the tasks which are still running are finished
+        copies.release();
+      }
+    }
+  }
+
+  private List<TSQueryMatch> run(TSQuery query, TSTree tree, UTF16String source, int start,
+                                 int end
+  ) {
+    try (final var cursorRef = cursorPool.acquire()) {
+      final var cursor = cursorRef.getCursor();
+
+      // the handlers are removed from the cursor when it is released to the pool
+      for (final var handlerFactory : handlerFactories) {
+        cursor.addPredicateHandler(handlerFactory.apply(source));
+      }
+
+      cursor.setByteRange(start, end);
+      cursor.exec(query, tree.getRootNode(), source);
+
+      final var matches = new ArrayList<TSQueryMatch>();
+      TSQueryMatch match;
+      while ((match = cursor.nextMatch()) != null) {
+        matches.add(match);
+      }
+      return matches;
+    }
+  }
+
+  @Override
+  public void close() {
+    cursorPool.close();
+  }
+
+  /**
+   * Split the given node into byte ranges aligned to the boundaries of its children.
+   *
+   * @return The start and end bytes of the ranges.
+   */
+  private int[] partition(TSNode root) {
+    final var start = root.getStartByte();
+    final var end = root.getEndByte();
+    final var childCount = root.getChildCount();
+    final var count = Math.max(1, Math.min(parallelism, childCount));
+    if (count == 1) {
+      return new int[]{start, end};
+    }
+
+    final var target = Math.max(1, (end - start) / count);
+    final var ranges = new ArrayList<Integer>(count * 2);
+    var rangeStart = start;
+    for (int i = 0; i < childCount - 1 && ranges.size() / 2 < count - 1; i++) {
+      final var childEnd = root.getChild(i).getEndByte();
+      if (childEnd - rangeStart >= target) {
+        ranges.add(rangeStart);
+        ranges.add(childEnd);
+        rangeStart = childEnd;
+      }
+    }
+    ranges.add(rangeStart);
+    ranges.add(end);
+
+    final var result = new int[ranges.size()];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = ranges.get(i);
+    }
+    return result;
+  }
+
+  private static List<TSQueryMatch> merge(List<List<TSQueryMatch>> results) {
+    var size = 0;
+    for (final var result : results) {
+      size += result.size();
+    }
+
+    final var merged = new ArrayList<TSQueryMatch>(size);
+    final var seen = new HashSet<MatchKey>(size * 2);
+    for (final var result : results) {
+      for (final var match : result) {
+        // matches which intersect more than one range are reported once for each range
+        if (seen.add(new MatchKey(match))) {
+          merged.add(match);
+        }
+      }
+    }
+
+    merged.sort(Comparator.comparingInt(TSParallelQuery::startByte)
+      .thenComparingInt(TSQueryMatch::getPatternIndex));
+    return merged;
+  }
+
+  private static int startByte(TSQueryMatch match) {
+    var start = Integer.MAX_VALUE;
+    for (final var capture : match.getCaptures()) {
+      start = Math.min(start, capture.getNode().getStartByte());
+    }
+    return start;
+  }
+
+  /**
+   * The result of a {@link TSParallelQuery}. The nodes in the matches belong to the copies of the
+   * syntax tree which are owned by this result, so the matches are valid until the result is
+   * closed.
+   */
+  public static final class Result implements TSClosable {
+
+    private final List<TSQueryMatch> matches;
+    private final TreeCopies trees;
+    private boolean closed;
+
+    private Result(List<TSQueryMatch> matches, TreeCopies trees) {
+      this.matches = Collections.unmodifiableList(matches);
+      this.trees = trees;
+    }
+
+    /**
+     * @return The matches, in document order.
+     */
+    public List<TSQueryMatch> getMatches() {
+      return matches;
+    }
+
+    @Override
+    public synchronized void close() {
+      if (!closed) {
+        closed = true;
+        trees.release();
+      }
+    }
+  }
+
+  /**
+   * The copies of a syntax tree which are queried by the tasks of an execution. The copies are
+   * closed when they are released by the last holder, so they are never closed while a task is
+   * still using them.
+   */
+  private static final class TreeCopies {
+
+    private final TSTree[] trees;
+    private final AtomicInteger holders = new AtomicInteger(1);
+
+    private TreeCopies(TSTree tree, int count) {
+      trees = new TSTree[count];
+      try {
+        for (int i = 0; i < count; i++) {
+          trees[i] = tree.copy();
+        }
+      } catch (RuntimeException err) {
+        closeAll();
+        throw err;
+      }
+    }
+
+    private TSTree get(int index) {
+      return trees[index];
+    }
+
+    private void retain() {
+      holders.incrementAndGet();
+    }
+
+    private void release() {
+      if (holders.decrementAndGet() == 0) {
+        closeAll();
+      }
+    }
+
+    private void closeAll() {
+      for (final var tree : trees) {
+        if (tree != null) {
+          tree.close();
+        }
+      }
+    }
+  }
+
+  /**
+   * Identifies a match by its pattern and the positions and symbols of its captures. Node IDs
+   * cannot be used, as the root node of each tree copy has a different ID.
+   */
+  private static final class MatchKey {
+
+    private final int[] data;
+    private final int hash;
+
+    private MatchKey(TSQueryMatch match) {
+      final var captures = match.getCaptures();
+      data = new int[1 + captures.length * 4];
+      data[0] = match.getPatternIndex();
+      for (int i = 0; i < captures.length; i++) {
+        final var node = captures[i].getNode();
+        data[1 + i * 4] = captures[i].getIndex();
+        data[2 + i * 4] = node.getStartByte();
+        data[3 + i * 4] = node.getEndByte();
+        data[4 + i * 4] = node.getSymbol();
+      }
+      hash = Arrays.hashCode(data);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return this == o || (o instanceof MatchKey && Arrays.equals(data, ((MatchKey) o).data));
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+}
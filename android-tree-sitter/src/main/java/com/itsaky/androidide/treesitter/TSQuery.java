@@ -19,8 +19,14 @@ package com.itsaky.androidide.treesitter;
 
 import android.text.TextUtils;
 import com.itsaky.androidide.treesitter.annotations.GenerateNativeHeaders;
+import com.itsaky.androidide.treesitter.predicate.TSPredicateHandler.PredicateStep;
 import com.itsaky.androidide.treesitter.util.TSObjectFactoryProvider;
 import dalvik.annotation.optimization.FastNative;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
 
 public class TSQuery extends TSNativeObject {
 
@@ -34,6 +40,13 @@ public class TSQuery extends TSNativeObject {
 
   protected String[] captureNames = null;
 
+  private volatile TSQueryInfo info = null;
+  private volatile List<List<TSQueryPredicate>> predicates = null;
+
+  private long textPredicates = 0;
+  // published once the text predicates are compiled, read without locking for every match
+  private volatile boolean[][] nativeTextPredicates = null;
+
   /**
    * For internal use only!
    * <p>
@@ -67,8 +80,7 @@ public class TSQuery extends TSNativeObject {
    * @return The count.
    */
   public int getCaptureCount() {
-    checkAccess();
-    return Native.captureCount(getNativeObject());
+    return getInfo().getCaptureCount();
   }
 
   /**
@@ -77,8 +89,7 @@ public class TSQuery extends TSNativeObject {
    * @return The count.
    */
   public int getPatternCount() {
-    checkAccess();
-    return Native.patternCount(getNativeObject());
+    return getInfo().getPatternCount();
   }
 
   /**
@@ -87,42 +98,168 @@ public class TSQuery extends TSNativeObject {
    * @return The count.
    */
   public int getStringCount() {
+    return getInfo().getStringCount();
+  }
+
+  /**
+   * Get the metadata of this query. The metadata is read in a single native call when the query is
+   * created, so the accessors of this query (like {@link #getCaptureNameForId(int)}) do not cross
+   * the JNI boundary.
+   *
+   * @return The metadata of this query.
+   */
+  public TSQueryInfo getInfo() {
     checkAccess();
-    return Native.stringCount(getNativeObject());
+    var info = this.info;
+    if (info == null) {
+      synchronized (this) {
+        info = this.info;
+        if (info == null) {
+          info = new TSQueryInfo();
+          Native.fillInfo(getNativeObject(), info);
+          this.info = info;
+        }
+      }
+    }
+    return info;
   }
 
   public String[] getCaptureNames() {
     if (captureNames == null) {
-      captureNames = new String[getCaptureCount()];
-      for (int i = 0; i < getCaptureCount(); i++) {
-        captureNames[i] = getCaptureNameForId(i);
-      }
+      captureNames = getInfo().getCaptureNames();
     }
     return captureNames;
   }
 
   public int getStartByteForPattern(int pattern) {
-    checkAccess();
-    validatePatternIndex(pattern);
-    return Native.startByteForPattern(getNativeObject(), pattern);
+    return getInfo().getStartByteForPattern(pattern);
   }
 
   public TSQueryPredicateStep[] getPredicatesForPattern(int pattern) {
+    return getInfo().getPredicateSteps(pattern);
+  }
+
+  /**
+   * Get the predicates of the given pattern. The predicates are compiled once for all the patterns
+   * on first access, so this method does not cross the JNI boundary afterwards.
+   *
+   * @param pattern The index of the pattern.
+   * @return The (unmodifiable) list of the predicates of the pattern.
+   */
+  public List<TSQueryPredicate> getPredicates(int pattern) {
+    var predicates = this.predicates;
+    if (predicates == null) {
+      synchronized (this) {
+        predicates = this.predicates;
+        if (predicates == null) {
+          this.predicates = predicates = compilePredicates();
+        }
+      }
+    }
+
+    if (pattern < 0 || pattern >= predicates.size()) {
+      throw new IndexOutOfBoundsException(
+        "pattern count: " + predicates.size() + ", pattern: " + pattern);
+    }
+
+    return predicates.get(pattern);
+  }
+
+  private List<List<TSQueryPredicate>> compilePredicates() {
+    final var info = getInfo();
+    final var patternCount = info.getPatternCount();
+    final var result = new ArrayList<List<TSQueryPredicate>>(patternCount);
+
+    for (int pattern = 0; pattern < patternCount; pattern++) {
+      final var stepCount = info.getPredicateStepCount(pattern);
+      if (stepCount == 0) {
+        result.add(Collections.emptyList());
+        continue;
+      }
+
+      final var predicates = new ArrayList<TSQueryPredicate>(1);
+      final var args = new ArrayList<PredicateStep>();
+      for (int step = 0; step < stepCount; step++) {
+        final var type = info.getPredicateStepType(pattern, step);
+        final var id = info.getPredicateStepValueId(pattern, step);
+        final String value;
+        if (type == TSQueryPredicateStep.Type.Capture) {
+          value = info.getCaptureName(id);
+        } else if (type == TSQueryPredicateStep.Type.String) {
+          value = info.getStringValue(id);
+        } else {
+          value = "";
+        }
+
+        args.add(new PredicateStep(type, value, id));
+        if (type == TSQueryPredicateStep.Type.Done) {
+          final var first = args.get(0);
+          final var name = first.type == TSQueryPredicateStep.Type.String ? first.value : null;
+          final var predicateSteps = Arrays.asList(args.toArray(new PredicateStep[0]));
+          predicates.add(
+            new TSQueryPredicate(pattern, name, Collections.unmodifiableList(predicateSteps)));
+          args.clear();
+        }
+      }
+
+      result.add(Collections.unmodifiableList(predicates));
+    }
+
+    return result;
+  }
+
+  /**
+   * Get the pointer to the text predicates of this query which are evaluated natively, compiling
+   * them if required.
+   *
+   * @return The pointer to the native text predicates.
+   * @see com.itsaky.androidide.treesitter.predicate.TextPredicateHandler
+   */
+  synchronized long getTextPredicates() {
     checkAccess();
-    validatePatternIndex(pattern);
-    return Native.predicatesForPattern(getNativeObject(), pattern);
+    if (textPredicates != 0) {
+      return textPredicates;
+    }
+
+    final var patternCount = getPatternCount();
+    var predicateCount = 0;
+    for (int i = 0; i < patternCount; i++) {
+      predicateCount += getPredicates(i).size();
+    }
+
+    final var evaluated = new boolean[predicateCount];
+    textPredicates = Native.newTextPredicates(getNativeObject(), evaluated);
+
+    final var flags = new boolean[patternCount][];
+    var offset = 0;
+    for (int i = 0; i < patternCount; i++) {
+      final var count = getPredicates(i).size();
+      flags[i] = Arrays.copyOfRange(evaluated, offset, offset + count);
+      offset += count;
+    }
+    nativeTextPredicates = flags;
+    return textPredicates;
+  }
+
+  /**
+   * Whether the given predicate is evaluated natively when a query cursor is executed with the
+   * source text. Must be called only after {@link #getTextPredicates()}.
+   *
+   * @param pattern   The index of the pattern.
+   * @param predicate The index of the predicate in the pattern.
+   * @return Whether the predicate is evaluated natively.
+   */
+  boolean isEvaluatedNatively(int pattern, int predicate) {
+    final var flags = nativeTextPredicates;
+    return flags != null && flags[pattern][predicate];
   }
 
   public boolean isPatternRooted(int pattern) {
-    checkAccess();
-    validatePatternIndex(pattern);
-    return Native.patternRooted(getNativeObject(), pattern);
+    return getInfo().isPatternRooted(pattern);
   }
 
   public boolean isPatternNonLocal(int pattern) {
-    checkAccess();
-    validatePatternIndex(pattern);
-    return Native.patternNonLocal(getNativeObject(), pattern);
+    return getInfo().isPatternNonLocal(pattern);
   }
 
   public boolean isPatternGuaranteedAtStep(int offset) {
@@ -130,24 +267,58 @@ public class TSQuery extends TSNativeObject {
     return Native.patternGuaranteedAtStep(getNativeObject(), offset);
   }
 
-  public String getCaptureNameForId(int id) {
+  /**
+   * Disable the given pattern. The pattern will not be matched by any query cursor executing this
+   * query, which avoids the work of matching it at all (unlike filtering its matches). This cannot
+   * be undone.
+   * <p>
+   * This modifies the query, so it must not be called while the query is being executed, or on a
+   * query which is shared with other consumers. Use
+   * {@link TSQueryCache#acquire(TSLanguage, String, java.util.Set, java.util.Set)} to get a separate variant of a
+   * shared query.
+   *
+   * @param pattern The index of the pattern to disable.
+   */
+  public void disablePattern(int pattern) {
     checkAccess();
-    return Native.captureNameForId(getNativeObject(), id);
+    validatePatternIndex(pattern);
+    Native.disablePattern(getNativeObject(), pattern);
   }
 
-  public String getStringValueForId(int id) {
+  /**
+   * Disable the capture with the given name. The capture is removed from all the patterns of this
+   * query, so the nodes are still matched but not captured. This cannot be undone. The same
+   * restrictions as {@link #disablePattern(int)} apply.
+   *
+   * @param captureName The name of the capture (without the <code>@</code> prefix).
+   */
+  public void disableCapture(String captureName) {
+    Objects.requireNonNull(captureName, "Capture name cannot be null");
     checkAccess();
-    return Native.stringValueForId(getNativeObject(), id);
+    Native.disableCapture(getNativeObject(), captureName);
+  }
+
+  public String getCaptureNameForId(int id) {
+    return getInfo().getCaptureName(id);
+  }
+
+  public String getStringValueForId(int id) {
+    return getInfo().getStringValue(id);
   }
 
   public TSQuantifier getCaptureQuantifierForId(int pattern, int capture) {
-    checkAccess();
-    validatePatternIndex(pattern);
-    return TSQuantifier.forId(Native.captureQuantifierForId(getNativeObject(), pattern, capture));
+    return getInfo().getCaptureQuantifier(pattern, capture);
   }
 
   @Override
   protected void closeNativeObj() {
+    synchronized (this) {
+      if (textPredicates != 0) {
+        Native.deleteTextPredicates(textPredicates);
+        textPredicates = 0;
+        nativeTextPredicates = null;
+      }
+    }
     Native.delete(getNativeObject());
   }
 
@@ -186,6 +357,10 @@ public class TSQuery extends TSNativeObject {
 
     final var query = TSObjectFactoryProvider.getFactory().createQuery(0);
     query.setNativeObject(Native.newQuery(query, language.getNativeObject(), querySource));
+    if (query.canAccess()) {
+      // read the metadata eagerly so that the query is not accessed natively afterwards
+      query.getInfo();
+    }
     return query;
   }
 
@@ -260,37 +435,22 @@ public class TSQuery extends TSNativeObject {
     @FastNative
     static native void delete(long query);
 
-    @FastNative
-    static native int captureCount(long query);
-
-    @FastNative
-    static native int patternCount(long query);
-
-    @FastNative
-    static native int stringCount(long query);
+    // not @FastNative as this allocates all the capture names and string values of the query
+    static native void fillInfo(long query, TSQueryInfo info);
 
     @FastNative
-    static native int startByteForPattern(long query, int pattern);
-
-    @FastNative
-    static native TSQueryPredicateStep[] predicatesForPattern(long query, int pattern);
-
-    @FastNative
-    static native boolean patternRooted(long query, int pattern);
-
-    @FastNative
-    static native boolean patternNonLocal(long query, int pattern);
+    static native boolean patternGuaranteedAtStep(long query, int byteOffset);
 
     @FastNative
-    static native boolean patternGuaranteedAtStep(long query, int byteOffset);
+    static native void disablePattern(long query, int pattern);
 
     @FastNative
-    static native String captureNameForId(long query, int id);
+    static native void disableCapture(long query, String captureName);
 
     @FastNative
-    static native String stringValueForId(long query, int id);
+    static native long newTextPredicates(long query, boolean[] evaluated);
 
     @FastNative
-    static native int captureQuantifierForId(long query, int pattern, int capture);
+    static native void deleteTextPredicates(long predicates);
   }
 }
\ No newline at end of file
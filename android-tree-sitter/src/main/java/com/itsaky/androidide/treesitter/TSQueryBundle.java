@@ -0,0 +1,357 @@
+/*
+ *  This file is part of android-tree-sitter.
+ *
+ *  android-tree-sitter library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  android-tree-sitter library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *  along with android-tree-sitter.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.itsaky.androidide.treesitter;
+
+import com.itsaky.androidide.treesitter.string.UTF16String;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.regex.Pattern;
+
+/**
+ * Compiles multiple query sources (for example, the highlights, injections, locals and folds
+ * queries of a language) into a single {@link TSQuery}, so that one query cursor traversal serves
+ * all of them.
+ * <p>
+ * Each source has a namespace. The captures of a source are prefixed with its namespace, so
+ * <code>@keyword</code> in the <code>highlights</code> source becomes
+ * <code>@highlights.keyword</code> in the compiled query. The patterns of the sources are
+ * compiled in the order of the sources, so the source of a match is known from its pattern index
+ * (see {@link #getSourceForPattern(int)} and
+ * {@link #forEachMatch(TSQueryCursor, TSNode, UTF16String, MatchVisitor)}).
+ * <p>
+ * This class is thread safe.
+ *
+ * @author Akash Yadav
+ */
+public class TSQueryBundle implements TSClosable {
+
+  private static final Pattern NAMESPACE = Pattern.compile("[A-Za-z0-9_\\-]+");
+
+  private final TSQuery query;
+  private final String[] namespaces;
+  private final int[] sourceOffsets;
+  private final int[] patternOffsets;
+  private final int[] patternSources;
+  private final int[] captureSources;
+  private final String[] localCaptureNames;
+  private final int errorSource;
+  private final int errorOffset;
+
+  private TSQueryBundle(TSQuery query, String[] namespaces, int[] sourceOffsets) {
+    this.query = query;
+    this.namespaces = namespaces;
+    this.sourceOffsets = sourceOffsets;
+
+    if (!query.canAccess()) {
+      this.patternOffsets = new int[namespaces.length + 1];
+      this.patternSources = new int[0];
+      this.captureSources = new int[0];
+      this.localCaptureNames = new String[0];
+      final var offset = query.getErrorOffset();
+      final var source = sourceForByte(offset);
+      this.errorSource = source;
+      this.errorOffset = source == -1 ? -1 : offset - sourceOffsets[source];
+      return;
+    }
+
+    this.errorSource = -1;
+    this.errorOffset = -1;
+
+    // the patterns of each source, from the start bytes of the patterns
+    final var info = query.getInfo();
+    final var patternCount = info.getPatternCount();
+    this.patternSources = new int[patternCount];
+    this.patternOffsets = new int[namespaces.length + 1];
+    Arrays.fill(patternOffsets, patternCount);
+    for (int i = patternCount - 1; i >= 0; i--) {
+      final var source = sourceForByte(info.getStartByteForPattern(i));
+      patternSources[i] = source;
+      patternOffsets[source] = i;
+    }
+    for (int i = namespaces.length - 1; i >= 0; i--) {
+      patternOffsets[i] = Math.min(patternOffsets[i], patternOffsets[i + 1]);
+    }
+
+    final var captureCount = info.getCaptureCount();
+    this.captureSources = new int[captureCount];
+    this.localCaptureNames = new String[captureCount];
+    for (int i = 0; i < captureCount; i++) {
+      final var name = info.getCaptureName(i);
+      final var dot = name.indexOf('.');
+      captureSources[i] = indexOf(namespaces, name.substring(0, dot));
+      localCaptureNames[i] = name.substring(dot + 1);
+    }
+  }
+
+  /**
+   * Compile the given query sources into a single query.
+   *
+   * @param language The language of the queries.
+   * @param sources  The query sources, by their namespaces, in the order in which they are
+   *                 compiled. A namespace may contain only letters, digits, <code>_</code> and
+   *                 <code>-</code>.
+   * @return The query bundle. If any of the sources is invalid, the query of the bundle is invalid
+   * (see {@link #getErrorSource()}).
+   */
+  public static TSQueryBundle create(TSLanguage language, Map<String, String> sources) {
+    Objects.requireNonNull(language, "TSLanguage cannot be null");
+    Objects.requireNonNull(sources, "Sources cannot be null");
+    if (sources.isEmpty()) {
+      throw new IllegalArgumentException("At least one query source is required");
+    }
+
+    final var namespaces = new String[sources.size()];
+    final var sourceOffsets = new int[sources.size() + 1];
+    final var combined = new StringBuilder();
+    var index = 0;
+    var offset = 0;
+    for (final var entry : new LinkedHashMap<>(sources).entrySet()) {
+      final var namespace = Objects.requireNonNull(entry.getKey(), "Namespace cannot be null");
+      final var source = Objects.requireNonNull(entry.getValue(), "Query source cannot be null");
+      if (!NAMESPACE.matcher(namespace).matches()) {
+        throw new IllegalArgumentException("Invalid namespace: " + namespace);
+      }
+
+      final var namespaced = namespaceCaptures(source, namespace) + "\n";
+      namespaces[index] = namespace;
+      sourceOffsets[index] = offset;
+      combined.append(namespaced);
+      offset += namespaced.getBytes(StandardCharsets.UTF_8).length;
+      ++index;
+    }
+    sourceOffsets[index] = offset;
+
+    return new TSQueryBundle(TSQuery.create(language, combined.toString()), namespaces,
+      sourceOffsets);
+  }
+
+  /**
+   * Prefix the capture names in the given query source with the given namespace, skipping the
+   * string literals and the comments.
+   */
+  static String namespaceCaptures(String source, String namespace) {
+    final var sb = new StringBuilder(source.length() + 32);
+    final var length = source.length();
+    for (int i = 0; i < length; i++) {
+      final var c = source.charAt(i);
+      sb.append(c);
+      if (c == '"') {
+        // string literal
+        while (++i < length) {
+          final var ch = source.charAt(i);
+          sb.append(ch);
+          if (ch == '\\' && i + 1 < length) {
+            sb.append(source.charAt(++i));
+          } else if (ch == '"') {
+            break;
+          }
+        }
+      } else if (c == ';') {
+        // comment
+        while (i + 1 < length && source.charAt(i + 1) != '\n') {
+          sb.append(source.charAt(++i));
+        }
+      } else if (c == '@') {
+        sb.append(namespace).append('.');
+      }
+    }
+    return sb.toString();
+  }
+
+  /**
+   * @return The compiled query. The query is owned by this bundle and must not be closed.
+   */
+  public TSQuery getQuery() {
+    return query;
+  }
+
+  /**
+   * @return The number of sources in this bundle.
+   */
+  public int getSourceCount() {
+    return namespaces.length;
+  }
+
+  /**
+   * @param source The index of the source.
+   * @return The namespace of the source.
+   */
+  public String getNamespace(int source) {
+    checkSource(source);
+    return namespaces[source];
+  }
+
+  /**
+   * @param namespace The namespace of the source.
+   * @return The index of the source with the given namespace, or <code>-1</code>.
+   */
+  public int getSourceIndex(String namespace) {
+    return indexOf(namespaces, namespace);
+  }
+
+  /**
+   * @param pattern The index of the pattern in the compiled query.
+   * @return The index of the source which the pattern belongs to.
+   */
+  public int getSourceForPattern(int pattern) {
+    if (pattern < 0 || pattern >= patternSources.length) {
+      throw new IndexOutOfBoundsException(
+        "pattern count: " + patternSources.length + ", pattern: " + pattern);
+    }
+    return patternSources[pattern];
+  }
+
+  /**
+   * @param source The index of the source.
+   * @return The index of the first pattern of the source in the compiled query. The pattern index
+   * of a match in the source is its pattern index in the compiled query minus this offset.
+   */
+  public int getPatternOffset(int source) {
+    checkSource(source);
+    return patternOffsets[source];
+  }
+
+  /**
+   * @param source The index of the source.
+   * @return The number of patterns in the source.
+   */
+  public int getPatternCount(int source) {
+    checkSource(source);
+    return patternOffsets[source + 1] - patternOffsets[source];
+  }
+
+  /**
+   * @param captureId The ID of the capture in the compiled query.
+   * @return The index of the source which the capture belongs to.
+   */
+  public int getSourceForCapture(int captureId) {
+    checkCapture(captureId);
+    return captureSources[captureId];
+  }
+
+  /**
+   * @param captureId The ID of the capture in the compiled query.
+   * @return The name of the capture without the namespace, as it is written in its source.
+   */
+  public String getLocalCaptureName(int captureId) {
+    checkCapture(captureId);
+    return localCaptureNames[captureId];
+  }
+
+  /**
+   * @return The index of the source which caused the compilation error, or <code>-1</code> if the
+   * query is valid.
+   */
+  public int getErrorSource() {
+    return errorSource;
+  }
+
+  /**
+   * @return The UTF-8 byte offset of the compilation error in the (namespaced) source returned by
+   * {@link #getErrorSource()}, or <code>-1</code> if the query is valid.
+   */
+  public int getErrorOffset() {
+    return errorOffset;
+  }
+
+  /**
+   * Execute the compiled query and visit each match with the source it belongs to.
+   *
+   * @param cursor  The query cursor to execute the query with.
+   * @param node    The node to execute the query on.
+   * @param source  The source text of the node, used to evaluate the text predicates natively (see
+   *                {@link TSQueryCursor#exec(TSQuery, TSNode, UTF16String)}). May be
+   *                <code>null</code>.
+   * @param visitor The visitor.
+   */
+  public void forEachMatch(TSQueryCursor cursor, TSNode node, UTF16String source,
+                           MatchVisitor visitor
+  ) {
+    Objects.requireNonNull(cursor, "TSQueryCursor cannot be null");
+    Objects.requireNonNull(visitor, "MatchVisitor cannot be null");
+    cursor.exec(query, node, source);
+
+    TSQueryMatch match;
+    while ((match = cursor.nextMatch()) != null) {
+      final var pattern = match.getPatternIndex();
+      final var sourceIndex = patternSources[pattern];
+      if (!visitor.visit(sourceIndex, pattern - patternOffsets[sourceIndex], match)) {
+        break;
+      }
+    }
+  }
+
+  private int sourceForByte(int byteOffset) {
+    if (byteOffset < 0) {
+      return -1;
+    }
+    for (int i = 0; i < namespaces.length - 1; i++) {
+      if (byteOffset < sourceOffsets[i + 1]) {
+        return i;
+      }
+    }
+    // errors may be reported at the end of the query
+    return namespaces.length - 1;
+  }
+
+  private void checkSource(int source) {
+    if (source < 0 || source >= namespaces.length) {
+      throw new IndexOutOfBoundsException("count=" + namespaces.length + ", index=" + source);
+    }
+  }
+
+  private void checkCapture(int captureId) {
+    if (captureId < 0 || captureId >= captureSources.length) {
+      throw new IndexOutOfBoundsException("count=" + captureSources.length + ", index=" + captureId);
+    }
+  }
+
+  private static int indexOf(String[] values, String value) {
+    for (int i = 0; i < values.length; i++) {
+      if (values[i].equals(value)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  @Override
+  public void close() {
+    query.close();
+  }
+
+  /**
+   * Visits the matches of a {@link TSQueryBundle}, routed to their sources.
+   */
+  public interface MatchVisitor {
+
+    /**
+     * Visit a match.
+     *
+     * @param source  The index of the source which the match belongs to.
+     * @param pattern The index of the pattern in the source (see
+     *                {@link TSQueryBundle#getPatternOffset(int)}).
+     * @param match   The match. The capture IDs are the IDs in the compiled query.
+     * @return <code>true</code> to continue visiting the matches, <code>false</code> to stop.
+     */
+    boolean visit(int source, int pattern, TSQueryMatch match);
+  }
+}
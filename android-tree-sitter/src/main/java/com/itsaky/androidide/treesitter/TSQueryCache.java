@@ -0,0 +1,411 @@
+/*
+ *  This file is part of android-tree-sitter.
+ *
+ *  android-tree-sitter library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  android-tree-sitter library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *  along with android-tree-sitter.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.itsaky.androidide.treesitter;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Caches compiled {@link TSQuery} instances per language and query source. Compiling a query is
+ * expensive, so queries which are used in multiple places (for example, the highlights query of a
+ * language used in multiple editors) should be shared using this cache.
+ * <p>
+ * Cached queries are reference counted. A query is acquired with
+ * {@link #acquire(TSLanguage, String)} and the returned {@link Ref} must be closed when the query
+ * is no longer needed. The query itself must NOT be closed by the callers. Queries which are no
+ * longer referenced are kept in the cache and are evicted in least-recently-used order when the
+ * number of unreferenced queries exceeds the configured limit.
+ * <p>
+ * This class is thread safe. Queries are compiled without holding the lock of the cache, so cached
+ * queries can be acquired while other queries are being compiled. Threads which acquire a query
+ * that is being compiled wait for that compilation instead of compiling the query again.
+ *
+ * @author Akash Yadav
+ */
+public class TSQueryCache {
+
+  private final int maxUnreferenced;
+  private final Map<Key, Entry> entries = new HashMap<>();
+
+  // unreferenced entries, in least-recently-used order
+  private final LinkedHashMap<Key, Entry> unreferenced = new LinkedHashMap<>();
+
+  private long hits = 0;
+  private long misses = 0;
+  private long evictions = 0;
+  private long compileTimeNanos = 0;
+
+  /**
+   * Creates a new query cache.
+   *
+   * @param maxUnreferenced The maximum number of queries to keep in the cache when they are not
+   *                        referenced.
+   */
+  public TSQueryCache(int maxUnreferenced) {
+    if (maxUnreferenced < 0) {
+      throw new IllegalArgumentException("maxUnreferenced must be >= 0");
+    }
+    this.maxUnreferenced = maxUnreferenced;
+  }
+
+  /**
+   * Acquire the compiled query for the given language and query source, compiling the query if it
+   * is not cached. If the query source is invalid, the returned {@link Ref} contains an invalid
+   * query (see {@link TSQuery#create(TSLanguage, String)}) which is not cached.
+   *
+   * @param language    The language of the query.
+   * @param querySource The query source.
+   * @return The reference to the query. This must be closed when the query is no longer needed.
+   */
+  public Ref acquire(TSLanguage language, String querySource) {
+    Objects.requireNonNull(language, "TSLanguage cannot be null");
+    Objects.requireNonNull(querySource, "Query source cannot be null");
+    return acquire(new Key(language.getNativeObject(), querySource),
+      () -> TSQuery.create(language, querySource));
+  }
+
+  /**
+   * Acquire a variant of the compiled query for the given language and query source, with the
+   * given patterns and captures disabled (see {@link TSQuery#disablePattern(int)} and
+   * {@link TSQuery#disableCapture(String)}). Disabling patterns modifies the query, so each
+   * variant is compiled and cached separately from the full query.
+   *
+   * @param language         The language of the query.
+   * @param querySource      The query source.
+   * @param disabledPatterns The indices of the patterns to disable.
+   * @param disabledCaptures The names of the captures to disable.
+   * @return The reference to the query. This must be closed when the query is no longer needed.
+   * @throws IndexOutOfBoundsException If any of the pattern indices is invalid.
+   */
+  public Ref acquire(TSLanguage language, String querySource, Set<Integer> disabledPatterns,
+                     Set<String> disabledCaptures
+  ) {
+    Objects.requireNonNull(language, "TSLanguage cannot be null");
+    Objects.requireNonNull(querySource, "Query source cannot be null");
+    Objects.requireNonNull(disabledPatterns, "Disabled patterns cannot be null");
+    Objects.requireNonNull(disabledCaptures, "Disabled captures cannot be null");
+    if (disabledPatterns.isEmpty() && disabledCaptures.isEmpty()) {
+      return acquire(language, querySource);
+    }
+
+    final var variant = new Variant(querySource, disabledPatterns, disabledCaptures);
+    return acquire(new Key(language.getNativeObject(), variant), () -> {
+      final var query = TSQuery.create(language, querySource);
+      if (!query.canAccess()) {
+        return query;
+      }
+
+      try {
+        for (final var pattern : variant.disabledPatterns) {
+          query.disablePattern(pattern);
+        }
+        for (final var capture : variant.disabledCaptures) {
+          query.disableCapture(capture);
+        }
+      } catch (RuntimeException err) {
+        query.close();
+        throw err;
+      }
+      return query;
+    });
+  }
+
+  protected Ref acquire(Key key, QueryCompiler compiler) {
+    Entry entry;
+    synchronized (this) {
+      var interrupted = false;
+      while ((entry = entries.get(key)) != null && entry.query == null) {
+        // the query is being compiled by another thread
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+
+      if (entry != null) {
+        ++hits;
+        if (entry.refCount++ == 0) {
+          unreferenced.remove(key);
+        }
+        return new Ref(this, entry);
+      }
+
+      // add a placeholder so that the other threads acquiring the same query wait for this
+      // compilation instead of compiling the query again
+      ++misses;
+      entry = new Entry(key);
+      entry.refCount = 1;
+      entries.put(key, entry);
+    }
+
+    // the query is compiled without holding the lock
+    final var start = System.nanoTime();
+    TSQuery query = null;
+    try {
+      query = compiler.compile();
+    } finally {
+      synchronized (this) {
+        compileTimeNanos += System.nanoTime() - start;
+        entry.query = query;
+        if (query == null || !query.canAccess()) {
+          // invalid queries are not cached, the waiting threads compile the query themselves
+          entries.remove(key);
+          entry.isCached = false;
+        }
+        notifyAll();
+      }
+    }
+
+    return new Ref(this, entry);
+  }
+
+  /**
+   * Close and remove all the queries which are not referenced.
+   */
+  public synchronized void trim() {
+    final var iterator = unreferenced.values().iterator();
+    while (iterator.hasNext()) {
+      evict(iterator.next());
+      iterator.remove();
+    }
+  }
+
+  /**
+   * @return The statistics of this cache.
+   */
+  public synchronized Stats getStats() {
+    return new Stats(hits, misses, evictions, compileTimeNanos, entries.size(),
+      entries.size() - unreferenced.size());
+  }
+
+  private synchronized void release(Entry entry) {
+    if (!entry.isCached) {
+      entry.query.close();
+      return;
+    }
+
+    if (--entry.refCount > 0) {
+      return;
+    }
+
+    unreferenced.put(entry.key, entry);
+    final Iterator<Entry> iterator = unreferenced.values().iterator();
+    while (unreferenced.size() > maxUnreferenced && iterator.hasNext()) {
+      evict(iterator.next());
+      iterator.remove();
+    }
+  }
+
+  private void evict(Entry entry) {
+    entries.remove(entry.key);
+    entry.query.close();
+    ++evictions;
+  }
+
+  /**
+   * Compiles a query for a cache miss.
+   */
+  protected interface QueryCompiler {
+
+    TSQuery compile();
+  }
+
+  /**
+   * A reference to a query acquired from {@link TSQueryCache}. Closing the reference releases the
+   * query. A reference can be closed only once.
+   */
+  public static final class Ref implements TSClosable {
+
+    private final TSQueryCache cache;
+    private final Entry entry;
+    private boolean isClosed = false;
+
+    private Ref(TSQueryCache cache, Entry entry) {
+      this.cache = cache;
+      this.entry = entry;
+    }
+
+    /**
+     * @return The query. The query must not be closed.
+     */
+    public TSQuery getQuery() {
+      if (isClosed) {
+        throw new IllegalStateException("Query reference has already been released");
+      }
+      return entry.query;
+    }
+
+    @Override
+    public synchronized void close() {
+      if (!isClosed) {
+        isClosed = true;
+        cache.release(entry);
+      }
+    }
+  }
+
+  /**
+   * Statistics of a {@link TSQueryCache}.
+   */
+  public static final class Stats {
+
+    /**
+     * The number of times a query was found in the cache.
+     */
+    public final long hits;
+
+    /**
+     * The number of times a query had to be compiled.
+     */
+    public final long misses;
+
+    /**
+     * The number of unreferenced queries which were closed and removed from the cache.
+     */
+    public final long evictions;
+
+    /**
+     * The total time (in nanoseconds) spent in compiling the queries.
+     */
+    public final long compileTimeNanos;
+
+    /**
+     * The number of queries in the cache.
+     */
+    public final int size;
+
+    /**
+     * The number of queries in the cache which are currently referenced.
+     */
+    public final int referenced;
+
+    private Stats(long hits, long misses, long evictions, long compileTimeNanos, int size,
+                  int referenced
+    ) {
+      this.hits = hits;
+      this.misses = misses;
+      this.evictions = evictions;
+      this.compileTimeNanos = compileTimeNanos;
+      this.size = size;
+      this.referenced = referenced;
+    }
+
+    @Override
+    public String toString() {
+      return "Stats{" + "hits=" + hits + ", misses=" + misses + ", evictions=" + evictions +
+        ", compileTimeNanos=" + compileTimeNanos + ", size=" + size + ", referenced=" + referenced +
+        '}';
+    }
+  }
+
+  private static final class Entry {
+
+    private final Key key;
+    private TSQuery query;
+    private int refCount = 0;
+    private boolean isCached = true;
+
+    private Entry(Key key) {
+      this.key = key;
+    }
+  }
+
+  /**
+   * Source of a query variant with disabled patterns and captures.
+   */
+  private static final class Variant {
+
+    private final String source;
+    private final Set<Integer> disabledPatterns;
+    private final Set<String> disabledCaptures;
+
+    private Variant(String source, Set<Integer> disabledPatterns, Set<String> disabledCaptures) {
+      this.source = source;
+      this.disabledPatterns = new HashSet<>(disabledPatterns);
+      this.disabledCaptures = new HashSet<>(disabledCaptures);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Variant)) {
+        return false;
+      }
+      Variant variant = (Variant) o;
+      return source.equals(variant.source) && disabledPatterns.equals(variant.disabledPatterns) &&
+        disabledCaptures.equals(variant.disabledCaptures);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(source, disabledPatterns, disabledCaptures);
+    }
+  }
+
+  /**
+   * Key of a cached query.
+   */
+  protected static class Key {
+
+    private final long language;
+    private final int sourceHash;
+    private final Object source;
+
+    /**
+     * @param language The pointer to the language of the query.
+     * @param source   The source of the query. This must implement
+     *                 {@link Object#equals(Object)} and {@link Object#hashCode()}.
+     */
+    protected Key(long language, Object source) {
+      this.language = language;
+      this.sourceHash = source.hashCode();
+      this.source = source;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key key = (Key) o;
+      // compare the hashes first to avoid comparing large query sources
+      return language == key.language && sourceHash == key.sourceHash &&
+        source.equals(key.source);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(language, sourceHash);
+    }
+  }
+}
@@ -19,18 +19,31 @@ package com.itsaky.androidide.treesitter;
 
 import com.itsaky.androidide.treesitter.annotations.GenerateNativeHeaders;
 import com.itsaky.androidide.treesitter.predicate.TSPredicateHandler;
-import com.itsaky.androidide.treesitter.predicate.TSPredicateHandler.PredicateStep;
 import com.itsaky.androidide.treesitter.predicate.TSPredicateHandler.Result;
+import com.itsaky.androidide.treesitter.string.UTF16String;
 import com.itsaky.androidide.treesitter.util.TSObjectFactoryProvider;
 import dalvik.annotation.optimization.FastNative;
+import java.util.Arrays;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.Set;
 
 /**
+ * A cursor which runs a {@link TSQuery} on a syntax tree.
+ * <p>
+ * <b>Time budget:</b> the time budget set with {@link #setTimeoutMicros(long)} is enforced only
+ * between the matches (and between the matches rejected natively by the text predicates). The
+ * native query cursor cannot be interrupted while it searches for a single match, so the
+ * pathological case of a pattern which takes very long to produce (or to rule out) one match is
+ * <b>not</b> covered by the budget. Use {@link #setMatchLimit(int)},
+ * {@link #setMaxStartDepth(int)} or {@link #setByteRange(int, int)} to bound such queries.
+ *
  * @author Akash Yadav
  */
 public class TSQueryCursor extends TSNativeObject implements Iterable<TSQueryMatch> {
@@ -39,7 +52,30 @@ public class TSQueryCursor extends TSNativeObject implements Iterable<TSQueryMat
   private boolean allowChangedNodes = false;
   protected TSNode targetNode = null;
   protected TSQuery execQuery = null;
-  protected final Set<TSPredicateHandler> predicateHandlers = new HashSet<>();
+  protected UTF16String execSource = null;
+  private long execTextPredicates = 0;
+  private boolean[] captureMatchPatterns = null;
+  private final int[] captureState = new int[3];
+  // the number of matches followed by the IDs of the matches for which the predicates have already
+  // been evaluated by nextCapture()
+  private final int[] captureEvaluatedMatches = new int[1 + 32];
+  private final TSQueryMatch[] captureMatch = new TSQueryMatch[1];
+  private long timeoutMicros = 0;
+  private long deadlineNanos = 0;
+  private boolean exceededTimeout = false;
+  private int maxStartDepth = -1;
+  private TSQueryProfile profile = null;
+  private boolean matchLimitRecorded = false;
+  protected final Set<TSPredicateHandler> predicateHandlers = new LinkedHashSet<>();
+
+  // predicate handlers by the names of the predicates they support, and the handlers which do not
+  // declare the supported predicates (those are tried for every predicate)
+  private final Map<String, List<TSPredicateHandler>> predicateHandlersByName = new HashMap<>();
+  private final List<TSPredicateHandler> genericPredicateHandlers = new ArrayList<>();
+
+  // the predicate handlers resolved for each predicate of each pattern of dispatchQuery
+  private TSQuery dispatchQuery = null;
+  private TSPredicateHandler[][][] dispatchTable = null;
 
   protected TSQueryCursor() {
     this(Native.newCursor());
@@ -84,6 +120,11 @@ public class TSQueryCursor extends TSNativeObject implements Iterable<TSQueryMat
   /**
    * Add the given predicate handler. Predicate handlers are applied to every query match while
    * iterating.
+   * <p>
+   * Each predicate is dispatched only to the handlers which declare it in
+   * {@link TSPredicateHandler#getSupportedPredicates()}, in the order in which they were added.
+   * Handlers which do not declare any supported predicates are tried for every predicate, after the
+   * handlers which declare it.
    *
    * @param handler The predicate handler to add.
    */
@@ -92,7 +133,10 @@ public class TSQueryCursor extends TSNativeObject implements Iterable<TSQueryMat
       return;
     }
 
-    predicateHandlers.add(handler);
+    if (predicateHandlers.add(handler)) {
+      indexPredicateHandler(handler);
+      invalidatePredicateDispatch();
+    }
   }
 
   /**
@@ -105,13 +149,115 @@ public class TSQueryCursor extends TSNativeObject implements Iterable<TSQueryMat
       return;
     }
 
-    predicateHandlers.remove(handler);
+    if (predicateHandlers.remove(handler)) {
+      predicateHandlersByName.clear();
+      genericPredicateHandlers.clear();
+      for (final var predicateHandler : predicateHandlers) {
+        indexPredicateHandler(predicateHandler);
+      }
+      invalidatePredicateDispatch();
+    }
+  }
+
+  private void indexPredicateHandler(TSPredicateHandler handler) {
+    final var names = handler.getSupportedPredicates();
+    if (names == null || names.length == 0) {
+      genericPredicateHandlers.add(handler);
+      return;
+    }
+
+    for (final var name : names) {
+      predicateHandlersByName.computeIfAbsent(name, key -> new ArrayList<>(1)).add(handler);
+    }
+  }
+
+  private void invalidatePredicateDispatch() {
+    captureMatchPatterns = null;
+    dispatchQuery = null;
+    dispatchTable = null;
+  }
+
+  /**
+   * Get the predicate handlers for the given predicate of the currently executing query. The
+   * handlers are resolved once for each pattern of the query.
+   */
+  private TSPredicateHandler[] getPredicateHandlers(int pattern, int predicate) {
+    if (dispatchTable == null || dispatchQuery != execQuery) {
+      dispatchQuery = execQuery;
+      dispatchTable = new TSPredicateHandler[execQuery.getPatternCount()][][];
+    }
+
+    var handlers = dispatchTable[pattern];
+    if (handlers == null) {
+      final var predicates = execQuery.getPredicates(pattern);
+      handlers = new TSPredicateHandler[predicates.size()][];
+      for (int i = 0; i < handlers.length; i++) {
+        final var named = predicateHandlersByName.get(predicates.get(i).getName());
+        final var resolved = new ArrayList<TSPredicateHandler>();
+        if (named != null) {
+          resolved.addAll(named);
+        }
+        resolved.addAll(genericPredicateHandlers);
+        handlers[i] = resolved.toArray(new TSPredicateHandler[0]);
+      }
+      dispatchTable[pattern] = handlers;
+    }
+
+    return handlers[predicate];
+  }
+
+  /**
+   * Reset this cursor so that it can be reused. The execution state, the byte and point ranges, the
+   * match limit, the maximum start depth, the time budget and the profile are reset to their
+   * defaults, and changed nodes are no longer allowed. The predicate handlers are retained.
+   *
+   * @see TSQueryCursorPool
+   */
+  public void reset() {
+    checkAccess();
+    Native.reset(getNativeObject());
+
+    isExecuted = false;
+    allowChangedNodes = false;
+    targetNode = null;
+    execQuery = null;
+    execSource = null;
+    execTextPredicates = 0;
+    invalidatePredicateDispatch();
+    Arrays.fill(captureState, 0);
+    captureEvaluatedMatches[0] = 0;
+    captureMatch[0] = null;
+    timeoutMicros = 0;
+    deadlineNanos = 0;
+    exceededTimeout = false;
+    maxStartDepth = -1;
+    profile = null;
+    matchLimitRecorded = false;
   }
 
   /**
    * Start running the given query on the given node.
    */
   public void exec(TSQuery query, TSNode node) {
+    exec(query, node, null);
+  }
+
+  /**
+   * Start running the given query on the given node. The <code>#eq?</code>, <code>#any-of?</code>
+   * and <code>#match?</code> predicates (and their negations) of the query are evaluated natively
+   * against the given source text, and the matches which do not satisfy them are dropped before
+   * they are returned to Java. Regular expressions which use syntax that cannot be evaluated
+   * natively are left to the predicate handlers (see
+   * {@link com.itsaky.androidide.treesitter.predicate.TextPredicateHandler}). Matches with
+   * captures outside the bounds of the source text are dropped as well. The source text must stay
+   * accessible until the query is exhausted.
+   *
+   * @param query  The query to run.
+   * @param node   The node to run the query on.
+   * @param source The source text of the syntax tree of the node, or <code>null</code> if the text
+   *               predicates should not be evaluated natively.
+   */
+  public void exec(TSQuery query, TSNode node, UTF16String source) {
     Objects.requireNonNull(node, "TSNode cannot be null");
     checkAccess();
     if (query == null || !query.canAccess()) {
@@ -126,11 +272,21 @@ public class TSQueryCursor extends TSNativeObject implements Iterable<TSQueryMat
       throw new IllegalArgumentException(msg);
     }
 
+    if (source != null && !source.canAccess()) {
+      throw new IllegalArgumentException("Cannot execute query with an inaccessible source");
+    }
+
     Native.exec(getNativeObject(), query.getNativeObject(), node);
 
     isExecuted = true;
     targetNode = node;
     execQuery = query;
+    execSource = source;
+    execTextPredicates = source != null ? query.getTextPredicates() : 0;
+    captureMatchPatterns = null;
+    captureEvaluatedMatches[0] = 0;
+    matchLimitRecorded = false;
+    restartTimeout();
   }
 
   /**
@@ -145,14 +301,7 @@ public class TSQueryCursor extends TSNativeObject implements Iterable<TSQueryMat
 
       @Override
       public boolean hasNext() {
-        boolean shouldFetchNextMatch = canAccess() // query cursor must be accessible
-          && isExecuted // at least one query should have been executed
-          && targetNode != null // query should have been executed on a non-null node
-
-          // the target node's tree should not have been changed since query execution
-          // if the user has explicitly opted to allow changed nodes, allow those changes
-          && (isAllowChangedNodes() || !targetNode.hasChanges());
-        nextMatch = shouldFetchNextMatch ? nextMatch() : null;
+        nextMatch = canFetchNext() ? nextMatch() : null;
         return nextMatch != null;
       }
 
@@ -167,6 +316,49 @@ public class TSQueryCursor extends TSNativeObject implements Iterable<TSQueryMat
     };
   }
 
+  /**
+   * Get an {@link Iterable} view of the captures of this cursor. The captures are returned in the
+   * order in which they appear in the document.
+   *
+   * @return The captures.
+   * @see #nextCapture()
+   */
+  public Iterable<TSQueryCapture> captures() {
+    return () -> new Iterator<>() {
+
+      private TSQueryCapture nextCapture = null;
+
+      @Override
+      public boolean hasNext() {
+        if (nextCapture == null && canFetchNext()) {
+          nextCapture = nextCapture();
+        }
+        return nextCapture != null;
+      }
+
+      @Override
+      public TSQueryCapture next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+
+        final var capture = nextCapture;
+        nextCapture = null;
+        return capture;
+      }
+    };
+  }
+
+  private boolean canFetchNext() {
+    return canAccess() // query cursor must be accessible
+      && isExecuted // at least one query should have been executed
+      && targetNode != null // query should have been executed on a non-null node
+
+      // the target node's tree should not have been changed since query execution
+      // if the user has explicitly opted to allow changed nodes, allow those changes
+      && (isAllowChangedNodes() || !targetNode.hasChanges());
+  }
+
   /**
    * Whether the maximum number of in-progress matches allowed by this query cursor has been
    * exceeded or not.
@@ -204,6 +396,84 @@ public class TSQueryCursor extends TSNativeObject implements Iterable<TSQueryMat
     Native.setMatchLimit(getNativeObject(), newLimit);
   }
 
+  /**
+   * Set the time budget for running the query, in microseconds. The budget starts when the query is
+   * executed, or when this method is called. Once the budget is exhausted, {@link #nextMatch()},
+   * {@link #nextCapture()} and the other methods which fetch the matches stop returning results and
+   * {@link #didExceedTimeout()} returns <code>true</code>. The state of the cursor is retained, so
+   * the query can be resumed later by calling this method again to start a new budget.
+   * <p>
+   * The budget is checked only between the matches. A single match which takes very long to find
+   * is not interrupted and can exceed the budget by an unbounded amount.
+   *
+   * @param timeoutMicros The time budget in microseconds, or <code>0</code> for no budget.
+   */
+  public void setTimeoutMicros(long timeoutMicros) {
+    if (timeoutMicros < 0) {
+      throw new IllegalArgumentException("timeoutMicros must be >= 0");
+    }
+    checkAccess();
+    this.timeoutMicros = timeoutMicros;
+    restartTimeout();
+  }
+
+  /**
+   * @return The time budget in microseconds, or <code>0</code> if there is no budget.
+   * @see #setTimeoutMicros(long)
+   */
+  public long getTimeoutMicros() {
+    return timeoutMicros;
+  }
+
+  /**
+   * Whether the time budget set with {@link #setTimeoutMicros(long)} was exhausted while fetching
+   * the matches. This can also be <code>true</code> when the query finished just as the budget ran
+   * out, in which case resuming the query does not return any more matches.
+   */
+  public boolean didExceedTimeout() {
+    return exceededTimeout;
+  }
+
+  /**
+   * Set the maximum depth (relative to the node on which the query is executed) at which the
+   * matches can start. For example, a depth of <code>0</code> only matches the patterns against the
+   * node itself, and a depth of <code>1</code> also matches them against its direct children. This
+   * must be set before the query is executed.
+   *
+   * @param maxStartDepth The maximum start depth, or a negative value for no limit.
+   */
+  public void setMaxStartDepth(int maxStartDepth) {
+    checkAccess();
+    this.maxStartDepth = maxStartDepth < 0 ? -1 : maxStartDepth;
+    Native.setMaxStartDepth(getNativeObject(), this.maxStartDepth);
+  }
+
+  /**
+   * @return The maximum start depth, or <code>-1</code> if there is no limit.
+   * @see #setMaxStartDepth(int)
+   */
+  public int getMaxStartDepth() {
+    return maxStartDepth;
+  }
+
+  /**
+   * Set the profile in which the statistics of the matches are recorded. The statistics are
+   * recorded only while the query of the profile is executed with this cursor. Profiling adds some
+   * overhead to each match, so it should be used only to tune the queries.
+   *
+   * @param profile The profile, or <code>null</code> to disable profiling.
+   */
+  public void setProfile(TSQueryProfile profile) {
+    this.profile = profile;
+  }
+
+  /**
+   * @return The profile set with {@link #setProfile(TSQueryProfile)}, or <code>null</code>.
+   */
+  public TSQueryProfile getProfile() {
+    return profile;
+  }
+
   public void setByteRange(int start, int end) {
     checkAccess();
     Native.setByteRange(getNativeObject(), start, end);
@@ -217,45 +487,303 @@ public class TSQueryCursor extends TSNativeObject implements Iterable<TSQueryMat
   public TSQueryMatch nextMatch() {
     checkAccess();
     checkExecuted("nextMatch");
-    final var match = Native.nextMatch(getNativeObject());
-    if (match != null) {
-      applyPredicates(match);
+    final var profile = activeProfile();
+    final var start = profile != null ? System.nanoTime() : 0;
+    TSQueryMatch match;
+    while (!checkTimeout() && (match = fetchNextMatch()) != null) {
+      if (applyPredicates(match)) {
+        if (profile != null) {
+          recordMatch(profile, match.getPatternIndex(), System.nanoTime() - start);
+        }
+        return match;
+      }
+
+      // the match was rejected by one of the predicates
+      if (profile != null) {
+        profile.recordRejection(match.getPatternIndex());
+      }
+      Native.removeMatch(getNativeObject(), match.getId());
+    }
+    checkTimeout();
+    if (profile != null) {
+      profile.recordUnattributed(System.nanoTime() - start);
     }
-    return match;
+    return null;
   }
 
-  private void applyPredicates(TSQueryMatch match) {
-    if (match == null || execQuery == null) {
-      return;
+  /**
+   * Advance to the next capture of the currently running query. Unlike {@link #nextMatch()}, the
+   * captures are returned in the order in which they appear in the document, which makes this
+   * suitable for syntax highlighting. Use {@link #setByteRange(int, int)} to limit the captures to
+   * a range.
+   * <p>
+   * Matches which are rejected by the predicates are removed, and none of their captures are
+   * returned. Captures of matches which have not been completely matched yet might be returned
+   * before the match is rejected. The predicates of a match are evaluated when its first capture
+   * is returned, and not again for each of its remaining captures.
+   * <p>
+   * When profiling (see {@link #setProfile(TSQueryProfile)}), a match is counted when its first
+   * capture is returned.
+   *
+   * @return The next capture, or <code>null</code> if there are no more captures.
+   * @see #getCapturePatternIndex()
+   */
+  public TSQueryCapture nextCapture() {
+    checkAccess();
+    checkExecuted("nextCapture");
+
+    final var matchPatterns = getCaptureMatchPatterns();
+    final var profile = activeProfile();
+    final var start = profile != null ? System.nanoTime() : 0;
+    TSQueryCapture capture;
+    while (!checkTimeout() && (capture = Native.nextCapture(getNativeObject(), execTextPredicates,
+      getSourcePointer(), captureState, captureEvaluatedMatches, matchPatterns,
+      captureMatch, deadlineNanos, profile != null ? profile.nativeRejections : null)) != null) {
+
+      final var match = captureMatch[0];
+      captureMatch[0] = null;
+      if (match == null || applyPredicates(match)) {
+        if (profile != null) {
+          final var nanos = System.nanoTime() - start;
+          if (captureState[2] == 0) {
+            recordMatch(profile, captureState[1], nanos);
+          } else {
+            profile.recordTime(captureState[1], nanos);
+          }
+        }
+        return capture;
+      }
+
+      // the match was rejected by one of the predicates
+      if (profile != null) {
+        profile.recordRejection(match.getPatternIndex());
+      }
+      Native.removeMatch(getNativeObject(), match.getId());
+    }
+    checkTimeout();
+    if (profile != null) {
+      profile.recordUnattributed(System.nanoTime() - start);
     }
+    return null;
+  }
 
-    final var predicates = execQuery.getPredicatesForPattern(match.getPatternIndex());
-    final var steps = new ArrayList<PredicateStep>(predicates.length);
+  /**
+   * Fetch up to <code>max</code> matches into the given buffer with a single JNI call. The buffer
+   * is cleared before it is filled. This avoids creating a {@link TSQueryMatch},
+   * {@link TSQueryCapture} and {@link TSNode} objects for the matches.
+   * <p>
+   * The text predicates are evaluated natively if the query was executed with a source text (see
+   * {@link #exec(TSQuery, TSNode, com.itsaky.androidide.treesitter.string.UTF16String)}). The
+   * predicate handlers cannot be applied to the matches in the buffer, so this method throws an
+   * {@link IllegalStateException} if any pattern of the query has predicates which must be handled
+   * by the predicate handlers of this cursor.
+   *
+   * @param buffer The buffer to fill.
+   * @param max    The maximum number of matches to fetch.
+   * @return The number of matches fetched. A return value less than <code>max</code> indicates
+   * that there are no more matches.
+   */
+  public int nextMatches(TSQueryMatchBuffer buffer, int max) {
+    Objects.requireNonNull(buffer, "TSQueryMatchBuffer cannot be null");
+    if (max <= 0) {
+      throw new IllegalArgumentException("max must be > 0");
+    }
 
-    for (final var predicate : predicates) {
-      final PredicateStep step;
-      switch (predicate.getType()) {
-        case Capture:
-          step = new PredicateStep(predicate.getType(),
-            execQuery.getCaptureNameForId(predicate.getValueId()));
-          break;
-        case String:
-          step = new PredicateStep(predicate.getType(),
-            execQuery.getStringValueForId(predicate.getValueId()));
-          break;
-        default:
-          step = new PredicateStep(predicate.getType(), "");
+    checkAccess();
+    checkExecuted("nextMatches");
+
+    final var matchPatterns = getCaptureMatchPatterns();
+    if (matchPatterns != null) {
+      for (final var needsHandlers : matchPatterns) {
+        if (needsHandlers) {
+          throw new IllegalStateException(
+            "Cannot fetch matches into a buffer when the predicate handlers must be applied");
+        }
+      }
+    }
+
+    buffer.clear();
+    if (checkTimeout()) {
+      return 0;
+    }
+
+    final var profile = activeProfile();
+    final var start = profile != null ? System.nanoTime() : 0;
+    final var count = Native.nextMatches(getNativeObject(), execTextPredicates,
+      getSourcePointer(), buffer, max, deadlineNanos,
+      profile != null ? profile.nativeRejections : null);
+    if (count < max) {
+      checkTimeout();
+    }
+
+    if (profile != null) {
+      // the time is split evenly between the matches of the batch
+      final var nanos = System.nanoTime() - start;
+      for (int i = 0; i < count; i++) {
+        recordMatch(profile, buffer.getPatternIndex(i), nanos / count);
+      }
+      if (count == 0) {
+        profile.recordUnattributed(nanos);
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Run the given query on the given node and visit all of its matches with a single JNI call. The
+   * captures are passed to the visitor as primitive values, so this avoids creating a
+   * {@link TSQueryMatch}, {@link TSQueryCapture} and {@link TSNode} objects for each match.
+   *
+   * @param query   The query to run.
+   * @param node    The node to run the query on.
+   * @param visitor The visitor.
+   * @see #forEachMatch(TSQuery, TSNode, UTF16String, TSQueryMatchVisitor)
+   */
+  public void forEachMatch(TSQuery query, TSNode node, TSQueryMatchVisitor visitor) {
+    forEachMatch(query, node, null, visitor);
+  }
+
+  /**
+   * Run the given query on the given node and visit all of its matches with a single JNI call. The
+   * text predicates are evaluated natively against the given source text (see
+   * {@link #exec(TSQuery, TSNode, UTF16String)}). The predicate handlers of this cursor are still
+   * applied, but the matches are marshalled only for the patterns which need them.
+   *
+   * @param query   The query to run.
+   * @param node    The node to run the query on.
+   * @param source  The source text of the syntax tree of the node, or <code>null</code>.
+   * @param visitor The visitor. The visitor can stop the query early.
+   */
+  public void forEachMatch(TSQuery query, TSNode node, UTF16String source,
+                           TSQueryMatchVisitor visitor
+  ) {
+    Objects.requireNonNull(visitor, "TSQueryMatchVisitor cannot be null");
+    exec(query, node, source);
+    final var profile = activeProfile();
+    Native.forEachMatch(getNativeObject(), execTextPredicates,
+      getSourcePointer(), getCaptureMatchPatterns(),
+      new TSQueryMatchVisitor.Match(this, visitor, profile), deadlineNanos,
+      profile != null ? profile.nativeRejections : null);
+    checkTimeout();
+  }
+
+  /**
+   * @return The index of the pattern which produced the capture last returned by
+   * {@link #nextCapture()}.
+   */
+  public int getCapturePatternIndex() {
+    return captureState[1];
+  }
+
+  /**
+   * @return The ID of the match of the capture last returned by {@link #nextCapture()}.
+   */
+  public int getCaptureMatchId() {
+    return captureState[0];
+  }
+
+  /**
+   * Get the patterns for which the matches must be marshalled when fetching captures, so that the
+   * predicate handlers can be applied.
+   */
+  private boolean[] getCaptureMatchPatterns() {
+    if (predicateHandlers.isEmpty()) {
+      return null;
+    }
+
+    if (captureMatchPatterns != null) {
+      return captureMatchPatterns;
+    }
+
+    final var patternCount = execQuery.getPatternCount();
+    final var patterns = new boolean[patternCount];
+    for (int pattern = 0; pattern < patternCount; pattern++) {
+      final var predicates = execQuery.getPredicates(pattern);
+      for (int i = 0; i < predicates.size(); i++) {
+        if ((execTextPredicates == 0 || !execQuery.isEvaluatedNatively(pattern, i))
+          && getPredicateHandlers(pattern, i).length > 0) {
+          patterns[pattern] = true;
           break;
+        }
       }
+    }
+
+    return captureMatchPatterns = patterns;
+  }
+
+  private TSQueryMatch fetchNextMatch() {
+    if (execTextPredicates != 0) {
+      final var profile = activeProfile();
+      return Native.nextMatchWithText(getNativeObject(), execTextPredicates,
+        getSourcePointer(), deadlineNanos,
+        profile != null ? profile.nativeRejections : null);
+    }
+    return Native.nextMatch(getNativeObject());
+  }
+
+  /**
+   * @return The profile in which the statistics of the current execution must be recorded, or
+   * <code>null</code>.
+   */
+  private TSQueryProfile activeProfile() {
+    return profile != null && profile.getQuery() == execQuery ? profile : null;
+  }
+
+  void recordMatch(TSQueryProfile profile, int pattern, long nanos) {
+    profile.recordMatch(pattern, nanos);
+    if (!matchLimitRecorded && Native.exceededMatchLimit(getNativeObject())) {
+      matchLimitRecorded = true;
+      profile.recordMatchLimitExceeded(pattern);
+    }
+  }
+
+  private void restartTimeout() {
+    deadlineNanos = timeoutMicros == 0 ? 0 : System.nanoTime() + timeoutMicros * 1000;
+    exceededTimeout = false;
+  }
+
+  /**
+   * @return Whether the time budget has been exhausted.
+   */
+  private boolean checkTimeout() {
+    if (deadlineNanos != 0 && System.nanoTime() - deadlineNanos >= 0) {
+      exceededTimeout = true;
+    }
+    return exceededTimeout;
+  }
 
-      steps.add(step);
+  boolean applyPredicates(TSQueryMatch match) {
+    if (match == null || execQuery == null || predicateHandlers.isEmpty()) {
+      return true;
     }
 
-    for (final var handler : predicateHandlers) {
-      if (handler.handle(execQuery, match, steps) == Result.OK) {
-        break;
+    final var pattern = match.getPatternIndex();
+    final var predicates = execQuery.getPredicates(pattern);
+    for (int i = 0; i < predicates.size(); i++) {
+      if (execTextPredicates != 0 && execQuery.isEvaluatedNatively(pattern, i)) {
+        // already evaluated in nextMatchWithText
+        continue;
+      }
+
+      final var handlers = getPredicateHandlers(pattern, i);
+      if (handlers.length == 0) {
+        continue;
+      }
+
+      final var steps = predicates.get(i).getSteps();
+      for (final var handler : handlers) {
+        final var result = handler.handle(execQuery, match, steps);
+        if (result == Result.REJECTED) {
+          return false;
+        }
+
+        if (result == Result.OK) {
+          break;
+        }
       }
     }
+
+    return true;
   }
 
   public void removeMatch(int id) {
@@ -268,6 +796,8 @@ public class TSQueryCursor extends TSNativeObject implements Iterable<TSQueryMat
   public void close() {
     isExecuted = false;
     targetNode = null;
+    execSource = null;
+    execTextPredicates = 0;
     super.close();
   }
 
@@ -276,6 +806,21 @@ public class TSQueryCursor extends TSNativeObject implements Iterable<TSQueryMat
     Native.delete(getNativeObject());
   }
 
+  /**
+   * @return The pointer to the source text against which the text predicates are evaluated
+   * natively, or <code>0</code> if the text predicates are not evaluated natively.
+   * @throws IllegalStateException If the source text has been closed.
+   */
+  private long getSourcePointer() {
+    if (execTextPredicates == 0) {
+      return 0;
+    }
+    if (!execSource.canAccess()) {
+      throw new IllegalStateException("The source text of the query has been closed");
+    }
+    return execSource.getNativeObject();
+  }
+
   protected void checkExecuted(String name) {
     if (!isExecuted) {
       throw new IllegalStateException(
@@ -292,6 +837,9 @@ public class TSQueryCursor extends TSNativeObject implements Iterable<TSQueryMat
     @FastNative
     static native void delete(long cursor);
 
+    @FastNative
+    static native void reset(long cursor);
+
     @FastNative
     static native void exec(long cursor, long query, TSNode node);
 
@@ -304,6 +852,9 @@ public class TSQueryCursor extends TSNativeObject implements Iterable<TSQueryMat
     @FastNative
     static native int getMatchLimit(long cursor);
 
+    @FastNative
+    static native void setMaxStartDepth(long cursor, int depth);
+
     @FastNative
     static native void setByteRange(long cursor, int start, int end);
 
@@ -313,7 +864,34 @@ public class TSQueryCursor extends TSNativeObject implements Iterable<TSQueryMat
     @FastNative
     static native TSQueryMatch nextMatch(long cursor);
 
+    // not @FastNative, this skips the matches which do not satisfy the text predicates and may run
+    // for long
+    static native TSQueryMatch nextMatchWithText(long cursor, long predicates, long source,
+                                                 long deadline, int[] rejections
+    );
+
     @FastNative
     static native void removeMatch(long cursor, int id);
+
+    // not @FastNative, this may evaluate the text predicates of many matches and calls back into
+    // Java to resize the buffer
+    static native int nextMatches(long cursor, long predicates, long source,
+                                  TSQueryMatchBuffer buffer, int max, long deadline,
+                                  int[] rejections
+    );
+
+    // not @FastNative, this calls back into Java and may run for long
+    static native void forEachMatch(long cursor, long predicates, long source,
+                                    boolean[] matchPatterns, TSQueryMatchVisitor.Match match,
+                                    long deadline, int[] rejections
+    );
+
+    // not @FastNative, this skips the captures of the rejected matches and may run for long
+    static native TSQueryCapture nextCapture(long cursor, long predicates, long source,
+                                             int[] state, int[] evaluatedMatches,
+                                             boolean[] matchPatterns,
+                                             TSQueryMatch[] match, long deadline,
+                                             int[] rejections
+    );
   }
 }
\ No newline at end of file
@@ -0,0 +1,281 @@
+/*
+ *  This file is part of android-tree-sitter.
+ *
+ *  android-tree-sitter library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  android-tree-sitter library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *  along with android-tree-sitter.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.itsaky.androidide.treesitter;
+
+import com.itsaky.androidide.treesitter.predicate.TSPredicateHandler;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Supplier;
+
+/**
+ * A pool of reusable {@link TSQueryCursor} instances. Creating a query cursor allocates a native
+ * cursor, so components which run queries frequently (for example, on every keystroke) should
+ * acquire the cursors from a pool.
+ * <p>
+ * The cursors are pre-configured with the predicate handlers added to the pool. When a cursor is
+ * released, it is reset with {@link TSQueryCursor#reset()} and its predicate handlers are restored,
+ * so the changes made by one user are not visible to the next one.
+ * <p>
+ * This class is thread safe. The acquired cursors are not.
+ *
+ * @author Akash Yadav
+ */
+public class TSQueryCursorPool implements TSClosable {
+
+  private final int maxIdle;
+  private final List<Supplier<? extends TSPredicateHandler>> predicateHandlers = new ArrayList<>();
+  private final ArrayDeque<Entry> idle = new ArrayDeque<>();
+
+  private long created = 0;
+  private long acquisitions = 0;
+  private int inUse = 0;
+  private int peakInUse = 0;
+  private boolean isClosed = false;
+
+  /**
+   * Create a new cursor pool.
+   *
+   * @param maxIdle The maximum number of idle cursors kept in the pool. Released cursors beyond
+   *                this limit are closed.
+   */
+  public TSQueryCursorPool(int maxIdle) {
+    if (maxIdle < 0) {
+      throw new IllegalArgumentException("maxIdle must be >= 0");
+    }
+    this.maxIdle = maxIdle;
+  }
+
+  /**
+   * Add a predicate handler. As the predicate handlers are not required to be thread safe, the
+   * given factory is used to create a new handler for each cursor.
+   *
+   * @param handlerFactory The factory for the predicate handler.
+   */
+  public synchronized void addPredicateHandler(
+    Supplier<? extends TSPredicateHandler> handlerFactory
+  ) {
+    predicateHandlers.add(Objects.requireNonNull(handlerFactory, "Handler factory cannot be null"));
+  }
+
+  /**
+   * Acquire a cursor from this pool, creating a new cursor if there are no idle cursors.
+   *
+   * @return The reference to the cursor. This must be closed to release the cursor back to the
+   * pool.
+   */
+  public Ref acquire() {
+    Entry entry;
+    List<Supplier<? extends TSPredicateHandler>> handlerFactories;
+    synchronized (this) {
+      if (isClosed) {
+        throw new IllegalStateException("TSQueryCursorPool has already been closed");
+      }
+
+      entry = idle.pollLast();
+      if (entry == null) {
+        ++created;
+      }
+
+      ++acquisitions;
+      peakInUse = Math.max(peakInUse, ++inUse);
+      handlerFactories = new ArrayList<>(predicateHandlers);
+    }
+
+    try {
+      if (entry == null) {
+        entry = new Entry(TSQueryCursor.create());
+      }
+
+      // create the handlers which were added after the cursor was created
+      for (int i = entry.handlers.size(); i < handlerFactories.size(); i++) {
+        final var handler = handlerFactories.get(i).get();
+        entry.handlers.add(handler);
+        entry.cursor.addPredicateHandler(handler);
+      }
+    } catch (RuntimeException | Error err) {
+      synchronized (this) {
+        --acquisitions;
+        if (entry == null) {
+          // the cursor could not be created
+          --created;
+          --inUse;
+        }
+      }
+
+      // the handlers created so far are kept, the remaining ones are created by the next acquire
+      if (entry != null) {
+        release(entry);
+      }
+      throw err;
+    }
+
+    return new Ref(this, entry);
+  }
+
+  /**
+   * @return The statistics of this pool.
+   */
+  public synchronized Stats getStats() {
+    return new Stats(created, acquisitions, inUse, idle.size(), peakInUse);
+  }
+
+  private void release(Entry entry) {
+    final var cursor = entry.cursor;
+    if (cursor.canAccess()) {
+      cursor.reset();
+
+      // restore the predicate handlers
+      for (final var handler : new ArrayList<>(cursor.predicateHandlers)) {
+        if (!entry.handlers.contains(handler)) {
+          cursor.removePredicateHandler(handler);
+        }
+      }
+      for (final var handler : entry.handlers) {
+        if (!cursor.predicateHandlers.contains(handler)) {
+          cursor.addPredicateHandler(handler);
+        }
+      }
+    }
+
+    synchronized (this) {
+      --inUse;
+      if (!isClosed && idle.size() < maxIdle && cursor.canAccess()) {
+        idle.addLast(entry);
+        return;
+      }
+    }
+
+    cursor.close();
+  }
+
+  /**
+   * Close this pool and all the idle cursors. The cursors which are in use are closed when they
+   * are released.
+   */
+  @Override
+  public void close() {
+    final List<Entry> entries;
+    synchronized (this) {
+      isClosed = true;
+      entries = new ArrayList<>(idle);
+      idle.clear();
+    }
+
+    for (final var entry : entries) {
+      entry.cursor.close();
+    }
+  }
+
+  /**
+   * A reference to a cursor acquired from {@link TSQueryCursorPool}. Closing the reference releases
+   * the cursor back to the pool. A reference can be closed only once.
+   */
+  public static final class Ref implements TSClosable {
+
+    private final TSQueryCursorPool pool;
+    private final Entry entry;
+    private boolean isClosed = false;
+
+    private Ref(TSQueryCursorPool pool, Entry entry) {
+      this.pool = pool;
+      this.entry = entry;
+    }
+
+    /**
+     * @return The cursor. The cursor must not be closed.
+     */
+    public TSQueryCursor getCursor() {
+      if (isClosed) {
+        throw new IllegalStateException("Query cursor has already been released");
+      }
+      return entry.cursor;
+    }
+
+    @Override
+    public synchronized void close() {
+      if (!isClosed) {
+        isClosed = true;
+        pool.release(entry);
+      }
+    }
+  }
+
+  /**
+   * Statistics of a {@link TSQueryCursorPool}.
+   */
+  public static final class Stats {
+
+    /**
+     * The number of cursors created by the pool.
+     */
+    public final long created;
+
+    /**
+     * The number of times a cursor was acquired from the pool.
+     */
+    public final long acquisitions;
+
+    /**
+     * The number of cursors which are currently in use.
+     */
+    public final int inUse;
+
+    /**
+     * The number of idle cursors in the pool.
+     */
+    public final int idle;
+
+    /**
+     * The maximum number of cursors which were in use at the same time.
+     */
+    public final int peakInUse;
+
+    private Stats(long created, long acquisitions, int inUse, int idle, int peakInUse) {
+      this.created = created;
+      this.acquisitions = acquisitions;
+      this.inUse = inUse;
+      this.idle = idle;
+      this.peakInUse = peakInUse;
+    }
+
+    /**
+     * @return The fraction of the acquisitions which reused an existing cursor.
+     */
+    public double getReuseRatio() {
+      return acquisitions == 0 ? 0 : (double) (acquisitions - created) / acquisitions;
+    }
+
+    @Override
+    public String toString() {
+      return "Stats{" + "created=" + created + ", acquisitions=" + acquisitions + ", inUse=" +
+        inUse + ", idle=" + idle + ", peakInUse=" + peakInUse + '}';
+    }
+  }
+
+  private static final class Entry {
+
+    private final TSQueryCursor cursor;
+    private final List<TSPredicateHandler> handlers = new ArrayList<>();
+
+    private Entry(TSQueryCursor cursor) {
+      this.cursor = cursor;
+    }
+  }
+}
@@ -0,0 +1,205 @@
+/*
+ *  This file is part of android-tree-sitter.
+ *
+ *  android-tree-sitter library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  android-tree-sitter library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *  along with android-tree-sitter.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.itsaky.androidide.treesitter;
+
+import java.util.Arrays;
+
+/**
+ * An immutable snapshot of the metadata of a {@link TSQuery}: the capture names, the string
+ * values, the capture quantifiers, the rooted and non-local flags and the predicate steps of the
+ * patterns. The snapshot is read in a single native call when the query is created, so reading the
+ * metadata afterwards does not cross the JNI boundary.
+ * <p>
+ * The metadata does not change when patterns or captures are disabled in the query (see
+ * {@link TSQuery#disablePattern(int)} and {@link TSQuery#disableCapture(String)}).
+ *
+ * @author Akash Yadav
+ */
+public final class TSQueryInfo {
+
+  // all the fields are set natively in TSQuery.Native.fillInfo
+  private String[] captureNames;
+  private String[] stringValues;
+  private int[] patternStartBytes;
+  private boolean[] rootedPatterns;
+  private boolean[] nonLocalPatterns;
+
+  // quantifier ids, patternCount * captureCount
+  private byte[] captureQuantifiers;
+
+  // the predicate steps of pattern i are predicateSteps[predicateOffsets[i], predicateOffsets[i + 1])
+  // as (type, valueId) pairs
+  private int[] predicateOffsets;
+  private int[] predicateSteps;
+
+  TSQueryInfo() {
+  }
+
+  /**
+   * @return The number of captures in the query.
+   */
+  public int getCaptureCount() {
+    return captureNames.length;
+  }
+
+  /**
+   * @return The number of patterns in the query.
+   */
+  public int getPatternCount() {
+    return patternStartBytes.length;
+  }
+
+  /**
+   * @return The number of string literals in the query.
+   */
+  public int getStringCount() {
+    return stringValues.length;
+  }
+
+  /**
+   * @return A copy of the names of the captures, indexed by the capture id.
+   */
+  public String[] getCaptureNames() {
+    return captureNames.clone();
+  }
+
+  /**
+   * @param id The id of the capture.
+   * @return The name of the capture.
+   */
+  public String getCaptureName(int id) {
+    checkIndex(id, captureNames.length);
+    return captureNames[id];
+  }
+
+  /**
+   * @param id The id of the string literal.
+   * @return The value of the string literal.
+   */
+  public String getStringValue(int id) {
+    checkIndex(id, stringValues.length);
+    return stringValues[id];
+  }
+
+  /**
+   * @param pattern The index of the pattern.
+   * @return The byte offset where the pattern starts in the query source.
+   */
+  public int getStartByteForPattern(int pattern) {
+    checkPattern(pattern);
+    return patternStartBytes[pattern];
+  }
+
+  /**
+   * @param pattern The index of the pattern.
+   * @return Whether the pattern has a single root node.
+   */
+  public boolean isPatternRooted(int pattern) {
+    checkPattern(pattern);
+    return rootedPatterns[pattern];
+  }
+
+  /**
+   * @param pattern The index of the pattern.
+   * @return Whether the pattern is non-local.
+   */
+  public boolean isPatternNonLocal(int pattern) {
+    checkPattern(pattern);
+    return nonLocalPatterns[pattern];
+  }
+
+  /**
+   * @param pattern The index of the pattern.
+   * @param capture The id of the capture.
+   * @return The quantifier of the capture in the pattern. This is {@link TSQuantifier#Zero} if the
+   * capture id is invalid.
+   */
+  public TSQuantifier getCaptureQuantifier(int pattern, int capture) {
+    checkPattern(pattern);
+    if (capture < 0 || capture >= captureNames.length) {
+      return TSQuantifier.Zero;
+    }
+    return TSQuantifier.forId(captureQuantifiers[pattern * captureNames.length + capture]);
+  }
+
+  /**
+   * @param pattern The index of the pattern.
+   * @return The number of predicate steps in the pattern.
+   */
+  public int getPredicateStepCount(int pattern) {
+    checkPattern(pattern);
+    return (predicateOffsets[pattern + 1] - predicateOffsets[pattern]) / 2;
+  }
+
+  /**
+   * @param pattern The index of the pattern.
+   * @param step    The index of the predicate step in the pattern.
+   * @return The type of the predicate step.
+   */
+  public TSQueryPredicateStep.Type getPredicateStepType(int pattern, int step) {
+    return TSQueryPredicateStep.Type.forId(predicateSteps[predicateStepOffset(pattern, step)]);
+  }
+
+  /**
+   * @param pattern The index of the pattern.
+   * @param step    The index of the predicate step in the pattern.
+   * @return The value id (capture id or string id) of the predicate step.
+   */
+  public int getPredicateStepValueId(int pattern, int step) {
+    return predicateSteps[predicateStepOffset(pattern, step) + 1];
+  }
+
+  /**
+   * @param pattern The index of the pattern.
+   * @return The predicate steps of the pattern.
+   */
+  public TSQueryPredicateStep[] getPredicateSteps(int pattern) {
+    final var count = getPredicateStepCount(pattern);
+    final var offset = predicateOffsets[pattern];
+    final var steps = new TSQueryPredicateStep[count];
+    for (int i = 0; i < count; i++) {
+      steps[i] = TSQueryPredicateStep.create(predicateSteps[offset + 2 * i],
+        predicateSteps[offset + 2 * i + 1]);
+    }
+    return steps;
+  }
+
+  private int predicateStepOffset(int pattern, int step) {
+    checkIndex(step, getPredicateStepCount(pattern));
+    return predicateOffsets[pattern] + 2 * step;
+  }
+
+  private void checkPattern(int pattern) {
+    if (pattern < 0 || pattern >= patternStartBytes.length) {
+      throw new IndexOutOfBoundsException(
+        "pattern count: " + patternStartBytes.length + ", pattern: " + pattern);
+    }
+  }
+
+  private static void checkIndex(int index, int count) {
+    if (index < 0 || index >= count) {
+      throw new IndexOutOfBoundsException("count=" + count + ", index=" + index);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "TSQueryInfo{" + "captureNames=" + Arrays.toString(captureNames) + ", stringValues=" +
+      Arrays.toString(stringValues) + ", patternCount=" + patternStartBytes.length + '}';
+  }
+}
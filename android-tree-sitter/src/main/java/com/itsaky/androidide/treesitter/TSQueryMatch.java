@@ -18,6 +18,7 @@
 package com.itsaky.androidide.treesitter;
 
 import com.itsaky.androidide.treesitter.util.TSObjectFactoryProvider;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -30,21 +31,17 @@ public class TSQueryMatch {
   protected int patternIndex;
   protected TSQueryCapture[] captures;
 
-  protected final Metadata metadata;
+  // allocated lazily, most matches do not have any metadata
+  protected Metadata metadata;
 
   protected TSQueryMatch() {
-    this.metadata = new Metadata();
+    this.metadata = null;
   }
 
   protected TSQueryMatch(int id, int patternIndex, TSQueryCapture[] captures, Metadata metadata) {
     this.id = id;
     this.patternIndex = patternIndex;
     this.captures = captures;
-
-    if (metadata == null) {
-      metadata = new Metadata();
-    }
-
     this.metadata = metadata;
   }
 
@@ -68,16 +65,48 @@ public class TSQueryMatch {
     return captures[index];
   }
 
+  /**
+   * Get the metadata of this match. The metadata is allocated on first access, use
+   * {@link #hasMetadata()} to check for metadata without allocating it.
+   *
+   * @return The metadata.
+   */
   public Metadata getMetadata() {
+    if (metadata == null) {
+      metadata = new Metadata();
+    }
     return metadata;
   }
 
+  /**
+   * @return Whether this match has any metadata.
+   */
+  public boolean hasMetadata() {
+    return metadata != null && !metadata.isEmpty();
+  }
+
   /**
    * Metadata associated with a {@link TSQueryMatch}.
+   * <p>
+   * The metadata of the captures can be stored by capture ID (see
+   * {@link #putCaptureMetadata(int, String, Metadata)}), which is stored in small arrays instead of
+   * the map. Such metadata is still accessible by the name of the capture.
    */
   public static class Metadata {
 
-    private final Map<Object, Object> data = new HashMap<>(0);
+    private Map<Object, Object> data = null;
+
+    private int captureCount = 0;
+    private int[] captureIds = null;
+    private String[] captureNames = null;
+    private Metadata[] captureMetadata = null;
+
+    /**
+     * @return Whether this metadata is empty.
+     */
+    public boolean isEmpty() {
+      return (data == null || data.isEmpty()) && captureCount == 0;
+    }
 
     /**
      * Check if the map contains the given key.
@@ -86,21 +115,30 @@ public class TSQueryMatch {
      * @return <code>true</code> if the map contains the key, <code>false</code> otherwise.
      */
     public boolean containsKey(Object key) {
-      return data.containsKey(key);
+      return (data != null && data.containsKey(key)) || indexOfCapture(key) != -1;
     }
 
     /**
      * Generic getter for the given key.
      */
     public <T> T get(Object key) {
+      if (data != null && data.containsKey(key)) {
+        //noinspection unchecked
+        return (T) data.get(key);
+      }
+
+      final var index = indexOfCapture(key);
       //noinspection unchecked
-      return (T) data.get(key);
+      return index == -1 ? null : (T) captureMetadata[index];
     }
 
     /**
      * Generic setter for the given key.
      */
     public <T> T put(Object key, T value) {
+      if (data == null) {
+        data = new HashMap<>(2);
+      }
       //noinspection unchecked
       return (T) data.put(key, value);
     }
@@ -146,5 +184,70 @@ public class TSQueryMatch {
     public Metadata putCaptureMetadata(String captureId, Metadata metadata) {
       return put(captureId, metadata);
     }
+
+    /**
+     * Get the metadata specific to the capture with the given index.
+     *
+     * @param captureIndex The index of the capture name (see
+     *                     {@link TSQuery#getCaptureNameForId(int)}).
+     * @return The metadata associated with the capture, or <code>null</code>.
+     */
+    public Metadata getCaptureMetadata(int captureIndex) {
+      for (int i = 0; i < captureCount; i++) {
+        if (captureIds[i] == captureIndex) {
+          return captureMetadata[i];
+        }
+      }
+      return null;
+    }
+
+    /**
+     * Put the metadata specific to the capture with the given index.
+     *
+     * @param captureIndex The index of the capture name (see
+     *                     {@link TSQuery#getCaptureNameForId(int)}).
+     * @param captureName  The name of the capture, used to look up the metadata by name.
+     * @param metadata     The metadata.
+     * @return The previous metadata associated with the capture, or <code>null</code>.
+     */
+    public Metadata putCaptureMetadata(int captureIndex, String captureName, Metadata metadata) {
+      for (int i = 0; i < captureCount; i++) {
+        if (captureIds[i] == captureIndex) {
+          final var previous = captureMetadata[i];
+          captureNames[i] = captureName;
+          captureMetadata[i] = metadata;
+          return previous;
+        }
+      }
+
+      if (captureIds == null) {
+        captureIds = new int[2];
+        captureNames = new String[2];
+        captureMetadata = new Metadata[2];
+      } else if (captureCount == captureIds.length) {
+        captureIds = Arrays.copyOf(captureIds, captureCount * 2);
+        captureNames = Arrays.copyOf(captureNames, captureCount * 2);
+        captureMetadata = Arrays.copyOf(captureMetadata, captureCount * 2);
+      }
+
+      captureIds[captureCount] = captureIndex;
+      captureNames[captureCount] = captureName;
+      captureMetadata[captureCount] = metadata;
+      ++captureCount;
+      return null;
+    }
+
+    private int indexOfCapture(Object name) {
+      if (!(name instanceof String)) {
+        return -1;
+      }
+
+      for (int i = 0; i < captureCount; i++) {
+        if (name.equals(captureNames[i])) {
+          return i;
+        }
+      }
+      return -1;
+    }
   }
-}
\ No newline at end of file
+}
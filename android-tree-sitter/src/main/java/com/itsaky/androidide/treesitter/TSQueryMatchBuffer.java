@@ -0,0 +1,218 @@
+/*
+ *  This file is part of android-tree-sitter.
+ *
+ *  android-tree-sitter library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  android-tree-sitter library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *  along with android-tree-sitter.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.itsaky.androidide.treesitter;
+
+import java.util.Arrays;
+
+/**
+ * A reusable buffer of query matches stored in flat primitive arrays. The buffer is filled
+ * natively with {@link TSQueryCursor#nextMatches(TSQueryMatchBuffer, int)}, without creating a
+ * {@link TSQueryMatch}, {@link TSQueryCapture} or {@link TSNode} for the matches.
+ * <p>
+ * The captures of all the matches are stored contiguously. The captures of the match at index
+ * <code>m</code> are at indices <code>[getMatchCaptureStart(m), getMatchCaptureStart(m) +
+ * getMatchCaptureCount(m))</code>.
+ *
+ * @author Akash Yadav
+ */
+public class TSQueryMatchBuffer {
+
+  // the array fields are written natively in ts_query_cursor.cc
+  protected int matchCount = 0;
+  protected int captureCount = 0;
+
+  protected int[] matchIds;
+  protected int[] patternIndices;
+  protected int[] matchCaptureStarts;
+  protected int[] matchCaptureCounts;
+
+  protected int[] captureIndices;
+  protected int[] symbols;
+  protected int[] startBytes;
+  protected int[] endBytes;
+  protected int[] startRows;
+  protected int[] startColumns;
+  protected int[] endRows;
+  protected int[] endColumns;
+
+  public TSQueryMatchBuffer() {
+    this(64, 128);
+  }
+
+  /**
+   * Create a new match buffer with the given initial capacities. The buffer grows as required.
+   *
+   * @param matchCapacity   The initial number of matches that can be stored in the buffer.
+   * @param captureCapacity The initial number of captures that can be stored in the buffer.
+   */
+  public TSQueryMatchBuffer(int matchCapacity, int captureCapacity) {
+    if (matchCapacity < 0 || captureCapacity < 0) {
+      throw new IllegalArgumentException("Capacity must be >= 0");
+    }
+
+    matchIds = new int[matchCapacity];
+    patternIndices = new int[matchCapacity];
+    matchCaptureStarts = new int[matchCapacity];
+    matchCaptureCounts = new int[matchCapacity];
+
+    captureIndices = new int[captureCapacity];
+    symbols = new int[captureCapacity];
+    startBytes = new int[captureCapacity];
+    endBytes = new int[captureCapacity];
+    startRows = new int[captureCapacity];
+    startColumns = new int[captureCapacity];
+    endRows = new int[captureCapacity];
+    endColumns = new int[captureCapacity];
+  }
+
+  /**
+   * @return The number of matches in this buffer.
+   */
+  public int getMatchCount() {
+    return matchCount;
+  }
+
+  /**
+   * @return The total number of captures of all the matches in this buffer.
+   */
+  public int getCaptureCount() {
+    return captureCount;
+  }
+
+  public int getMatchId(int match) {
+    return matchIds[checkMatch(match)];
+  }
+
+  public int getPatternIndex(int match) {
+    return patternIndices[checkMatch(match)];
+  }
+
+  /**
+   * @return The index of the first capture of the given match.
+   */
+  public int getMatchCaptureStart(int match) {
+    return matchCaptureStarts[checkMatch(match)];
+  }
+
+  /**
+   * @return The number of captures of the given match.
+   */
+  public int getMatchCaptureCount(int match) {
+    return matchCaptureCounts[checkMatch(match)];
+  }
+
+  /**
+   * @return The index of the capture name (see {@link TSQuery#getCaptureNameForId(int)}) of the
+   * capture at the given index.
+   */
+  public int getCaptureIndex(int capture) {
+    return captureIndices[checkCapture(capture)];
+  }
+
+  /**
+   * @return The symbol of the captured node.
+   */
+  public short getSymbol(int capture) {
+    return (short) symbols[checkCapture(capture)];
+  }
+
+  public int getStartByte(int capture) {
+    return startBytes[checkCapture(capture)];
+  }
+
+  public int getEndByte(int capture) {
+    return endBytes[checkCapture(capture)];
+  }
+
+  public TSPoint getStartPoint(int capture) {
+    checkCapture(capture);
+    return TSPoint.create(startRows[capture], startColumns[capture]);
+  }
+
+  public TSPoint getEndPoint(int capture) {
+    checkCapture(capture);
+    return TSPoint.create(endRows[capture], endColumns[capture]);
+  }
+
+  public int getStartRow(int capture) {
+    return startRows[checkCapture(capture)];
+  }
+
+  public int getStartColumn(int capture) {
+    return startColumns[checkCapture(capture)];
+  }
+
+  public int getEndRow(int capture) {
+    return endRows[checkCapture(capture)];
+  }
+
+  public int getEndColumn(int capture) {
+    return endColumns[checkCapture(capture)];
+  }
+
+  /**
+   * Remove all the matches from this buffer. The allocated arrays are retained.
+   */
+  public void clear() {
+    matchCount = 0;
+    captureCount = 0;
+  }
+
+  /**
+   * Called from the native code to set the number of matches and captures in the buffer, before
+   * the arrays are filled.
+   */
+  private void setSize(int matchCount, int captureCount) {
+    if (matchCount > matchIds.length) {
+      final var capacity = Math.max(matchCount, matchIds.length * 2);
+      matchIds = Arrays.copyOf(matchIds, capacity);
+      patternIndices = Arrays.copyOf(patternIndices, capacity);
+      matchCaptureStarts = Arrays.copyOf(matchCaptureStarts, capacity);
+      matchCaptureCounts = Arrays.copyOf(matchCaptureCounts, capacity);
+    }
+
+    if (captureCount > captureIndices.length) {
+      final var capacity = Math.max(captureCount, captureIndices.length * 2);
+      captureIndices = Arrays.copyOf(captureIndices, capacity);
+      symbols = Arrays.copyOf(symbols, capacity);
+      startBytes = Arrays.copyOf(startBytes, capacity);
+      endBytes = Arrays.copyOf(endBytes, capacity);
+      startRows = Arrays.copyOf(startRows, capacity);
+      startColumns = Arrays.copyOf(startColumns, capacity);
+      endRows = Arrays.copyOf(endRows, capacity);
+      endColumns = Arrays.copyOf(endColumns, capacity);
+    }
+
+    this.matchCount = matchCount;
+    this.captureCount = captureCount;
+  }
+
+  private int checkMatch(int index) {
+    if (index < 0 || index >= matchCount) {
+      throw new IndexOutOfBoundsException("count=" + matchCount + ", index=" + index);
+    }
+    return index;
+  }
+
+  private int checkCapture(int index) {
+    if (index < 0 || index >= captureCount) {
+      throw new IndexOutOfBoundsException("count=" + captureCount + ", index=" + index);
+    }
+    return index;
+  }
+}
@@ -0,0 +1,129 @@
+/*
+ *  This file is part of android-tree-sitter.
+ *
+ *  android-tree-sitter library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  android-tree-sitter library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *  along with android-tree-sitter.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.itsaky.androidide.treesitter;
+
+/**
+ * Visits the matches of a query with
+ * {@link TSQueryCursor#forEachMatch(TSQuery, TSNode, TSQueryMatchVisitor)}. The captures of each
+ * match are passed as primitive values, so no {@link TSQueryMatch}, {@link TSQueryCapture} or
+ * {@link TSNode} objects are created for the matches.
+ *
+ * @author Akash Yadav
+ */
+public interface TSQueryMatchVisitor {
+
+  /**
+   * Visit a capture of the current match. The captures of a match are visited in order.
+   *
+   * @param match        The current match. This object is reused for all the matches and must
+   *                     not be retained by the visitor.
+   * @param captureIndex The index of the capture in the match.
+   * @param captureId    The index of the capture name (see
+   *                     {@link TSQuery#getCaptureNameForId(int)}).
+   * @param symbol       The symbol of the captured node.
+   * @param startByte    The start byte of the captured node.
+   * @param endByte      The end byte of the captured node.
+   * @return <code>true</code> to continue visiting, <code>false</code> to stop the query.
+   */
+  boolean visitCapture(Match match, int captureIndex, int captureId, int symbol, int startByte,
+                       int endByte
+  );
+
+  /**
+   * Called after all the captures of the current match have been visited.
+   *
+   * @param match The current match.
+   * @return <code>true</code> to continue visiting, <code>false</code> to stop the query.
+   */
+  default boolean visitMatchEnd(Match match) {
+    return true;
+  }
+
+  /**
+   * The match which is currently being visited.
+   */
+  final class Match {
+
+    private final TSQueryCursor cursor;
+    private final TSQueryMatchVisitor visitor;
+    private final TSQueryProfile profile;
+    private long profileStart;
+    private int id;
+    private int patternIndex;
+    private int captureCount;
+
+    Match(TSQueryCursor cursor, TSQueryMatchVisitor visitor, TSQueryProfile profile) {
+      this.cursor = cursor;
+      this.visitor = visitor;
+      this.profile = profile;
+      this.profileStart = profile != null ? System.nanoTime() : 0;
+    }
+
+    public int getId() {
+      return id;
+    }
+
+    public int getPatternIndex() {
+      return patternIndex;
+    }
+
+    public int getCaptureCount() {
+      return captureCount;
+    }
+
+    // the following methods are called natively in ts_query_cursor.cc
+
+    private boolean onMatch(int id, int patternIndex, int captureCount, TSQueryMatch match) {
+      this.id = id;
+      this.patternIndex = patternIndex;
+      this.captureCount = captureCount;
+
+      // the match is marshalled only if the predicate handlers must be applied
+      final var accepted = match == null || cursor.applyPredicates(match);
+      if (profile != null) {
+        // the time spent in the visitor is not attributed to the pattern
+        if (accepted) {
+          cursor.recordMatch(profile, patternIndex, System.nanoTime() - profileStart);
+        } else {
+          profile.recordRejection(patternIndex);
+        }
+      }
+      return accepted;
+    }
+
+    private boolean onCapture(int captureIndex, int captureId, int symbol, int startByte,
+                              int endByte
+    ) {
+      return visitor.visitCapture(this, captureIndex, captureId, symbol, startByte, endByte);
+    }
+
+    private boolean onMatchEnd() {
+      final var result = visitor.visitMatchEnd(this);
+      if (profile != null) {
+        profileStart = System.nanoTime();
+      }
+      return result;
+    }
+
+    @Override
+    public String toString() {
+      return "Match{" + "id=" + id + ", patternIndex=" + patternIndex + ", captureCount=" +
+        captureCount + '}';
+    }
+  }
+}
@@ -0,0 +1,71 @@
+/*
+ *  This file is part of android-tree-sitter.
+ *
+ *  android-tree-sitter library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  android-tree-sitter library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *  along with android-tree-sitter.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.itsaky.androidide.treesitter;
+
+import com.itsaky.androidide.treesitter.predicate.TSPredicateHandler.PredicateStep;
+import java.util.List;
+
+/**
+ * A predicate (or a directive) in a query pattern. Instances of this class are compiled once per
+ * {@link TSQuery} and are immutable. The capture names and string values of the predicate steps
+ * are resolved at the time of compilation.
+ *
+ * @author Akash Yadav
+ * @see TSQuery#getPredicates(int)
+ */
+public class TSQueryPredicate {
+
+  protected final int patternIndex;
+  protected final String name;
+  protected final List<PredicateStep> steps;
+
+  protected TSQueryPredicate(int patternIndex, String name, List<PredicateStep> steps) {
+    this.patternIndex = patternIndex;
+    this.name = name;
+    this.steps = steps;
+  }
+
+  /**
+   * @return The index of the pattern which contains this predicate.
+   */
+  public int getPatternIndex() {
+    return patternIndex;
+  }
+
+  /**
+   * @return The name of the predicate (for example, <code>eq?</code> or <code>set!</code>), or
+   * <code>null</code> if the first step of the predicate is not a string.
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * @return The (unmodifiable) steps of this predicate. The first step is the name of the
+   * predicate and the last step is always a {@link TSQueryPredicateStep.Type#Done} step.
+   */
+  public List<PredicateStep> getSteps() {
+    return steps;
+  }
+
+  @Override
+  public String toString() {
+    return "TSQueryPredicate{" + "patternIndex=" + patternIndex + ", name='" + name + '\'' +
+      ", steps=" + steps.size() + '}';
+  }
+}
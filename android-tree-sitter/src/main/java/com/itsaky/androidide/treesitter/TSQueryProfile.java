@@ -0,0 +1,203 @@
+/*
+ *  This file is part of android-tree-sitter.
+ *
+ *  android-tree-sitter library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  android-tree-sitter library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *  along with android-tree-sitter.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.itsaky.androidide.treesitter;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Objects;
+
+/**
+ * Per-pattern statistics of the matches of a query, recorded by a {@link TSQueryCursor} when the
+ * profile is set with {@link TSQueryCursor#setProfile(TSQueryProfile)}. A profile can be shared
+ * between multiple executions of the same query (for example, over multiple files), but not
+ * between threads.
+ * <p>
+ * Tree-sitter matches all the patterns of a query in a single pass, so the time spent is
+ * attributed to the pattern of the match which was returned. It includes the time spent in finding
+ * the match (and in dropping the rejected matches before it) and in evaluating its predicates.
+ *
+ * @author Akash Yadav
+ */
+public class TSQueryProfile {
+
+  private final TSQuery query;
+  private final long[] matchCounts;
+  private final long[] rejectionCounts;
+  private final long[] timeNanos;
+  private final long[] matchLimitEvents;
+  private long unattributedTimeNanos = 0;
+
+  // rejections by the text predicates which are evaluated natively, written in ts_query_cursor.cc
+  final int[] nativeRejections;
+
+  /**
+   * Create a new profile for the given query.
+   *
+   * @param query The query to profile.
+   */
+  public TSQueryProfile(TSQuery query) {
+    Objects.requireNonNull(query, "TSQuery cannot be null");
+    if (!query.canAccess()) {
+      throw new IllegalArgumentException("Cannot profile an invalid query");
+    }
+
+    final var patternCount = query.getPatternCount();
+    this.query = query;
+    this.matchCounts = new long[patternCount];
+    this.rejectionCounts = new long[patternCount];
+    this.timeNanos = new long[patternCount];
+    this.matchLimitEvents = new long[patternCount];
+    this.nativeRejections = new int[patternCount];
+  }
+
+  /**
+   * @return The profiled query.
+   */
+  public TSQuery getQuery() {
+    return query;
+  }
+
+  public int getPatternCount() {
+    return matchCounts.length;
+  }
+
+  /**
+   * @return The number of matches of the given pattern which were returned by the cursor.
+   */
+  public long getMatchCount(int pattern) {
+    return matchCounts[checkPattern(pattern)];
+  }
+
+  /**
+   * @return The number of matches of the given pattern which were rejected by the predicates.
+   */
+  public long getRejectionCount(int pattern) {
+    checkPattern(pattern);
+    return rejectionCounts[pattern] + nativeRejections[pattern];
+  }
+
+  /**
+   * @return The time (in nanoseconds) attributed to the given pattern.
+   */
+  public long getTimeNanos(int pattern) {
+    return timeNanos[checkPattern(pattern)];
+  }
+
+  /**
+   * @return The number of times the match limit of the cursor (see
+   * {@link TSQueryCursor#didExceedMatchLimit()}) was first exceeded while finding a match of the
+   * given pattern.
+   */
+  public long getMatchLimitExceededCount(int pattern) {
+    return matchLimitEvents[checkPattern(pattern)];
+  }
+
+  /**
+   * @return The time (in nanoseconds) spent in the calls which did not return a match, for example,
+   * when the query reached the end of the node.
+   */
+  public long getUnattributedTimeNanos() {
+    return unattributedTimeNanos;
+  }
+
+  /**
+   * Reset all the statistics.
+   */
+  public void reset() {
+    Arrays.fill(matchCounts, 0);
+    Arrays.fill(rejectionCounts, 0);
+    Arrays.fill(timeNanos, 0);
+    Arrays.fill(matchLimitEvents, 0);
+    Arrays.fill(nativeRejections, 0);
+    unattributedTimeNanos = 0;
+  }
+
+  /**
+   * Write a report of this profile to the given {@link Appendable}. The patterns are listed in the
+   * descending order of the time attributed to them, along with their byte offset in the query
+   * source (see {@link TSQuery#getStartByteForPattern(int)}). Patterns which have no matches and no
+   * rejections are omitted.
+   *
+   * @param out The output.
+   */
+  public void writeReport(Appendable out) {
+    Objects.requireNonNull(out, "Appendable cannot be null");
+    final var patterns = new ArrayList<Integer>(getPatternCount());
+    for (int i = 0; i < getPatternCount(); i++) {
+      if (matchCounts[i] != 0 || getRejectionCount(i) != 0) {
+        patterns.add(i);
+      }
+    }
+    patterns.sort(Comparator.comparingLong((Integer pattern) -> timeNanos[pattern]).reversed());
+
+    try {
+      out.append(String.format("%8s %10s %10s %10s %12s %6s%n", "pattern", "offset", "matches",
+        "rejected", "time(us)", "limit"));
+      for (final int pattern : patterns) {
+        out.append(String.format("%8d %10d %10d %10d %12d %6d%n", pattern,
+          query.getStartByteForPattern(pattern), matchCounts[pattern], getRejectionCount(pattern),
+          timeNanos[pattern] / 1000, matchLimitEvents[pattern]));
+      }
+      out.append(String.format("unattributed time: %dus%n", unattributedTimeNanos / 1000));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * @return The report of this profile.
+   * @see #writeReport(Appendable)
+   */
+  public String getReport() {
+    final var report = new StringBuilder();
+    writeReport(report);
+    return report.toString();
+  }
+
+  void recordMatch(int pattern, long nanos) {
+    ++matchCounts[pattern];
+    timeNanos[pattern] += nanos;
+  }
+
+  void recordTime(int pattern, long nanos) {
+    timeNanos[pattern] += nanos;
+  }
+
+  void recordRejection(int pattern) {
+    ++rejectionCounts[pattern];
+  }
+
+  void recordMatchLimitExceeded(int pattern) {
+    ++matchLimitEvents[pattern];
+  }
+
+  void recordUnattributed(long nanos) {
+    unattributedTimeNanos += nanos;
+  }
+
+  private int checkPattern(int pattern) {
+    if (pattern < 0 || pattern >= matchCounts.length) {
+      throw new IndexOutOfBoundsException(
+        "pattern count: " + matchCounts.length + ", pattern: " + pattern);
+    }
+    return pattern;
+  }
+}
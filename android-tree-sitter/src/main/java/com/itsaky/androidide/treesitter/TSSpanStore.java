@@ -0,0 +1,399 @@
+/*
+ *  This file is part of android-tree-sitter.
+ *
+ *  android-tree-sitter library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  android-tree-sitter library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *  along with android-tree-sitter.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.itsaky.androidide.treesitter;
+
+import java.util.Arrays;
+
+/**
+ * A compact store of spans (for example, highlight spans), stored in sorted primitive arrays. Each
+ * span has a start byte, an end byte, a capture index and a pattern index. This needs about 20
+ * bytes per span, compared to the {@link TSQueryCapture} and {@link TSNode} objects that would be
+ * needed otherwise.
+ * <p>
+ * The spans are ordered by their start byte. A segment tree over the end bytes of the spans is
+ * maintained to find the spans which intersect a byte range (for example, the viewport) in
+ * <code>O(log n + k)</code> time, including long spans which start before the range. Edits are
+ * handled with {@link #shift(int, int)}, {@link #removeIntersecting(int, int)} and
+ * {@link #addAll(TSSpanStore)}, which only move the spans after the edit.
+ * <p>
+ * The capture index and the pattern index must be less than <code>65536</code>. Instances of this
+ * class are not thread safe.
+ *
+ * @author Akash Yadav
+ */
+public class TSSpanStore {
+
+  private static final int MIN_CAPACITY = 16;
+
+  private int[] starts;
+  private int[] ends;
+  private int[] ids; // patternIndex << 16 | captureIndex
+  private int size = 0;
+
+  // segment tree of the maximum end byte, the leaves are at [leafBase, 2 * leafBase)
+  private int[] maxEnds = new int[0];
+  private int leafBase = 0;
+  private int builtSize = 0;
+  private int dirtyFrom = 0;
+
+  private int[] scratch = new int[MIN_CAPACITY];
+
+  public TSSpanStore() {
+    this(256);
+  }
+
+  /**
+   * Create a new span store with the given initial capacity. The store grows as required.
+   *
+   * @param capacity The initial capacity.
+   */
+  public TSSpanStore(int capacity) {
+    capacity = Math.max(MIN_CAPACITY, capacity);
+    starts = new int[capacity];
+    ends = new int[capacity];
+    ids = new int[capacity];
+  }
+
+  /**
+   * @return The number of spans in this store.
+   */
+  public int size() {
+    return size;
+  }
+
+  public int getStartByte(int index) {
+    return starts[checkIndex(index)];
+  }
+
+  public int getEndByte(int index) {
+    return ends[checkIndex(index)];
+  }
+
+  /**
+   * @return The index of the capture name (see {@link TSQuery#getCaptureNameForId(int)}) of the
+   * span at the given index.
+   */
+  public int getCaptureIndex(int index) {
+    return ids[checkIndex(index)] & 0xFFFF;
+  }
+
+  /**
+   * @return The index of the pattern which produced the span at the given index.
+   */
+  public int getPatternIndex(int index) {
+    return ids[checkIndex(index)] >>> 16;
+  }
+
+  /**
+   * Remove all the spans. The allocated arrays are retained.
+   */
+  public void clear() {
+    size = 0;
+    markDirty(0);
+  }
+
+  /**
+   * Add a span to this store. Adding spans in the order of their start bytes is the fastest.
+   *
+   * @param startByte    The start byte of the span.
+   * @param endByte      The end byte of the span.
+   * @param captureIndex The capture index.
+   * @param patternIndex The pattern index.
+   */
+  public void add(int startByte, int endByte, int captureIndex, int patternIndex) {
+    if (captureIndex < 0 || captureIndex > 0xFFFF || patternIndex < 0 || patternIndex > 0xFFFF) {
+      throw new IllegalArgumentException(
+        "Invalid capture or pattern index. captureIndex=" + captureIndex + ", patternIndex=" +
+          patternIndex);
+    }
+
+    ensureCapacity(size + 1);
+    final var index = upperBound(startByte);
+    final var count = size - index;
+    if (count > 0) {
+      System.arraycopy(starts, index, starts, index + 1, count);
+      System.arraycopy(ends, index, ends, index + 1, count);
+      System.arraycopy(ids, index, ids, index + 1, count);
+    }
+
+    starts[index] = startByte;
+    ends[index] = endByte;
+    ids[index] = (patternIndex << 16) | captureIndex;
+    ++size;
+    markDirty(index);
+  }
+
+  /**
+   * Add all the spans from the given store. Only the spans in this store which start after the
+   * first span of the given store are moved.
+   *
+   * @param other The store to add the spans from.
+   */
+  public void addAll(TSSpanStore other) {
+    final var count = other.size;
+    if (count == 0) {
+      return;
+    }
+
+    ensureCapacity(size + count);
+
+    // merge from the back
+    var i = size - 1;
+    var j = count - 1;
+    var k = size + count - 1;
+    while (j >= 0) {
+      if (i >= 0 && starts[i] > other.starts[j]) {
+        starts[k] = starts[i];
+        ends[k] = ends[i];
+        ids[k] = ids[i];
+        --i;
+      } else {
+        starts[k] = other.starts[j];
+        ends[k] = other.ends[j];
+        ids[k] = other.ids[j];
+        --j;
+      }
+      --k;
+    }
+
+    size += count;
+    markDirty(k + 1);
+  }
+
+  /**
+   * Shift the spans which start at or after the given byte by the given delta. The spans which
+   * intersect the edited range must be removed before they are shifted, so that the spans remain
+   * ordered.
+   *
+   * @param fromByte The byte from which the spans are shifted.
+   * @param delta    The number of bytes to shift the spans by.
+   */
+  public void shift(int fromByte, int delta) {
+    if (delta == 0) {
+      return;
+    }
+
+    final var from = lowerBound(fromByte);
+    for (int i = from; i < size; i++) {
+      starts[i] += delta;
+      ends[i] += delta;
+    }
+    markDirty(from);
+  }
+
+  /**
+   * Find the index of the given span.
+   *
+   * @return The index of the span, or <code>-1</code> if the span is not found.
+   */
+  public int indexOf(int startByte, int endByte, int captureIndex, int patternIndex) {
+    final var id = (patternIndex << 16) | captureIndex;
+    for (int i = lowerBound(startByte); i < size && starts[i] == startByte; i++) {
+      if (ends[i] == endByte && ids[i] == id) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Visit the spans which intersect the given byte range, in the order of their start bytes. A
+   * span intersects the range if it starts before the end of the range and ends after the start of
+   * the range. If the range is empty, the spans which contain the start of the range are visited.
+   * The store must not be modified while visiting the spans.
+   *
+   * @param startByte The start byte of the range.
+   * @param endByte   The end byte of the range.
+   * @param visitor   The visitor.
+   */
+  public void forEach(int startByte, int endByte, Visitor visitor) {
+    if (size == 0) {
+      return;
+    }
+
+    ensureTree();
+    visit(1, 0, leafBase, lowerBound(endByte), startByte, visitor);
+  }
+
+  /**
+   * Remove the spans which intersect the given range (see {@link #forEach(int, int, Visitor)}).
+   *
+   * @param startByte The start byte of the range.
+   * @param endByte   The end byte of the range.
+   * @return The number of removed spans.
+   */
+  public int removeIntersecting(int startByte, int endByte) {
+    final var removed = new int[]{0};
+    forEach(startByte, endByte, (index, start, end, captureIndex, patternIndex) -> {
+      if (removed[0] == scratch.length) {
+        scratch = Arrays.copyOf(scratch, scratch.length * 2);
+      }
+      scratch[removed[0]++] = index;
+      return true;
+    });
+
+    final var count = removed[0];
+    if (count == 0) {
+      return 0;
+    }
+
+    // compact the arrays, the removed indices are sorted
+    final var first = scratch[0];
+    var write = first;
+    var next = 0;
+    for (int read = first; read < size; read++) {
+      if (next < count && scratch[next] == read) {
+        ++next;
+        continue;
+      }
+      starts[write] = starts[read];
+      ends[write] = ends[read];
+      ids[write] = ids[read];
+      ++write;
+    }
+
+    size = write;
+    markDirty(first);
+    return count;
+  }
+
+  private boolean visit(int node, int nodeStart, int nodeEnd, int limit, int startByte,
+                        Visitor visitor
+  ) {
+    if (nodeStart >= limit || maxEnds[node] <= startByte) {
+      return true;
+    }
+
+    if (node >= leafBase) {
+      final var index = node - leafBase;
+      return visitor.visit(index, starts[index], ends[index], ids[index] & 0xFFFF,
+        ids[index] >>> 16);
+    }
+
+    final var mid = (nodeStart + nodeEnd) >>> 1;
+    return visit(2 * node, nodeStart, mid, limit, startByte, visitor) &&
+      visit(2 * node + 1, mid, nodeEnd, limit, startByte, visitor);
+  }
+
+  private void ensureTree() {
+    if (leafBase < starts.length) {
+      leafBase = Integer.highestOneBit(starts.length - 1) << 1;
+      maxEnds = new int[2 * leafBase];
+      Arrays.fill(maxEnds, Integer.MIN_VALUE);
+      builtSize = 0;
+      dirtyFrom = 0;
+    }
+
+    final var limit = Math.max(size, builtSize);
+    if (dirtyFrom >= limit) {
+      builtSize = size;
+      return;
+    }
+
+    for (int i = dirtyFrom; i < limit; i++) {
+      maxEnds[leafBase + i] = i < size ? ends[i] : Integer.MIN_VALUE;
+    }
+
+    var lo = (leafBase + dirtyFrom) >>> 1;
+    var hi = (leafBase + limit - 1) >>> 1;
+    while (true) {
+      for (int node = lo; node <= hi; node++) {
+        maxEnds[node] = Math.max(maxEnds[2 * node], maxEnds[2 * node + 1]);
+      }
+
+      if (lo == 1) {
+        break;
+      }
+
+      lo >>>= 1;
+      hi >>>= 1;
+    }
+
+    builtSize = size;
+    dirtyFrom = Integer.MAX_VALUE;
+  }
+
+  private void markDirty(int index) {
+    dirtyFrom = Math.min(dirtyFrom, index);
+  }
+
+  /**
+   * @return The index of the first span which starts at or after the given byte.
+   */
+  private int lowerBound(int startByte) {
+    var lo = 0;
+    var hi = size;
+    while (lo < hi) {
+      final var mid = (lo + hi) >>> 1;
+      if (starts[mid] < startByte) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+
+  /**
+   * @return The index of the first span which starts after the given byte.
+   */
+  private int upperBound(int startByte) {
+    var lo = 0;
+    var hi = size;
+    while (lo < hi) {
+      final var mid = (lo + hi) >>> 1;
+      if (starts[mid] <= startByte) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+
+  private void ensureCapacity(int capacity) {
+    if (capacity <= starts.length) {
+      return;
+    }
+
+    final var newCapacity = Math.max(capacity, starts.length * 2);
+    starts = Arrays.copyOf(starts, newCapacity);
+    ends = Arrays.copyOf(ends, newCapacity);
+    ids = Arrays.copyOf(ids, newCapacity);
+  }
+
+  private int checkIndex(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("count=" + size + ", index=" + index);
+    }
+    return index;
+  }
+
+  /**
+   * Visits the spans in a {@link TSSpanStore}.
+   */
+  public interface Visitor {
+
+    /**
+     * Visit a span.
+     *
+     * @return <code>true</code> to continue visiting the spans, <code>false</code> to stop.
+     */
+    boolean visit(int index, int startByte, int endByte, int captureIndex, int patternIndex);
+  }
+}
@@ -0,0 +1,728 @@
+/*
+ *  This file is part of android-tree-sitter.
+ *
+ *  android-tree-sitter library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  android-tree-sitter library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *  along with android-tree-sitter.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.itsaky.androidide.treesitter;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A persistent, memory-mapped index of the symbols (tags) of a workspace.
+ * <p>
+ * The index stores the name, kind, file and byte ranges of each symbol, and the content hash of
+ * each file. An index is written with a {@link Writer}, which can be used as the
+ * {@link TSWorkspaceIndexer.Listener} of a {@link TSWorkspaceIndexer}. When the writer is created
+ * with a previous index, the files whose content hashes have not changed are not parsed again;
+ * their symbols are copied from the previous index instead.
+ * <p>
+ * An index file is opened with {@link #open(Path)}, which maps the file into memory. The symbols
+ * are sorted by their names (in UTF-8 byte order), so lookups by name prefix (see
+ * {@link #findByPrefix(String, int)}) are binary searches over the mapped file, and only the
+ * symbols which are returned are read into the heap.
+ * <p>
+ * Opened indices are immutable and thread safe.
+ *
+ * @author Akash Yadav
+ */
+public class TSSymbolIndex implements TSClosable {
+
+  private static final int MAGIC = 0x54535349; // TSSI
+  private static final int VERSION = 1;
+
+  private static final int HEADER_SIZE = 40;
+  private static final int FILE_ENTRY_SIZE = 24;
+  private static final int SYMBOL_ENTRY_SIZE = 28;
+  private static final int KIND_ENTRY_SIZE = 8;
+
+  private static final int FLAG_DEFINITION = 1;
+
+  private ByteBuffer buffer;
+  private final int fileCount;
+  private final int symbolCount;
+  private final int kindCount;
+  private final int filesOffset;
+  private final int fileSymbolsOffset;
+  private final int symbolsOffset;
+  private final String[] kinds;
+
+  private TSSymbolIndex(ByteBuffer buffer) throws IOException {
+    if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+      throw new IOException("Not a symbol index");
+    }
+    if (buffer.getInt(4) != VERSION) {
+      throw new IOException("Unsupported symbol index version: " + buffer.getInt(4));
+    }
+
+    this.buffer = buffer;
+    this.fileCount = buffer.getInt(8);
+    this.symbolCount = buffer.getInt(12);
+    this.kindCount = buffer.getInt(16);
+    this.filesOffset = buffer.getInt(20);
+    this.fileSymbolsOffset = buffer.getInt(24);
+    this.symbolsOffset = buffer.getInt(28);
+    final var kindsOffset = buffer.getInt(32);
+    final var stringsEnd = buffer.getInt(36);
+    if (fileCount < 0 || symbolCount < 0 || kindCount < 0 || stringsEnd > buffer.capacity()
+      || (long) filesOffset + (long) fileCount * FILE_ENTRY_SIZE > buffer.capacity()
+      || (long) fileSymbolsOffset + (long) symbolCount * 4 > buffer.capacity()
+      || (long) symbolsOffset + (long) symbolCount * SYMBOL_ENTRY_SIZE > buffer.capacity()
+      || (long) kindsOffset + (long) kindCount * KIND_ENTRY_SIZE > buffer.capacity()) {
+      throw new IOException("Corrupted symbol index");
+    }
+
+    // the kinds are few and are read for every symbol
+    this.kinds = new String[kindCount];
+    for (int i = 0; i < kindCount; i++) {
+      final var entry = kindsOffset + i * KIND_ENTRY_SIZE;
+      kinds[i] = readString(buffer.getInt(entry), buffer.getInt(entry + 4));
+    }
+  }
+
+  /**
+   * Open the symbol index in the given file.
+   *
+   * @param file The index file, written with {@link Writer#write(Path)}.
+   * @return The symbol index. This must be closed when the index is no longer needed.
+   * @throws IOException If the file cannot be read or is not a valid symbol index.
+   */
+  public static TSSymbolIndex open(Path file) throws IOException {
+    Objects.requireNonNull(file, "File cannot be null");
+    try (final var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      final var size = channel.size();
+      if (size > Integer.MAX_VALUE) {
+        throw new IOException("Symbol index is too large: " + size);
+      }
+      return new TSSymbolIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+    }
+  }
+
+  /**
+   * @return The number of files in the index.
+   */
+  public int getFileCount() {
+    return fileCount;
+  }
+
+  /**
+   * @return The number of symbols in the index.
+   */
+  public int getSymbolCount() {
+    return symbolCount;
+  }
+
+  /**
+   * Find the ID of the given file.
+   *
+   * @param path The path of the file, as it was written to the index.
+   * @return The ID of the file, or <code>-1</code> if the file is not in the index.
+   */
+  public int findFile(String path) {
+    Objects.requireNonNull(path, "Path cannot be null");
+    final var buffer = buffer();
+    final var key = path.getBytes(StandardCharsets.UTF_8);
+    var low = 0;
+    var high = fileCount - 1;
+    while (low <= high) {
+      final var mid = (low + high) >>> 1;
+      final var entry = filesOffset + mid * FILE_ENTRY_SIZE;
+      final var cmp = compare(buffer, buffer.getInt(entry), buffer.getInt(entry + 4), key, false);
+      if (cmp < 0) {
+        low = mid + 1;
+      } else if (cmp > 0) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @param fileId The ID of the file.
+   * @return The path of the file.
+   */
+  public String getFilePath(int fileId) {
+    final var entry = fileEntry(fileId);
+    return readString(buffer().getInt(entry), buffer().getInt(entry + 4));
+  }
+
+  /**
+   * @param fileId The ID of the file.
+   * @return The content hash of the file.
+   */
+  public long getContentHash(int fileId) {
+    return buffer().getLong(fileEntry(fileId) + 8);
+  }
+
+  /**
+   * Check whether the given file is in the index with the given content hash.
+   *
+   * @param path        The path of the file.
+   * @param contentHash The current content hash of the file.
+   * @return <code>true</code> if the symbols of the file in the index are up-to-date.
+   */
+  public boolean isUpToDate(String path, long contentHash) {
+    final var fileId = findFile(path);
+    return fileId != -1 && getContentHash(fileId) == contentHash;
+  }
+
+  /**
+   * @param fileId The ID of the file.
+   * @return The symbols of the file, in document order.
+   */
+  public List<Symbol> getSymbolsInFile(int fileId) {
+    final var buffer = buffer();
+    final var entry = fileEntry(fileId);
+    final var start = buffer.getInt(entry + 16);
+    final var count = buffer.getInt(entry + 20);
+    final var result = new ArrayList<Symbol>(count);
+    for (int i = 0; i < count; i++) {
+      result.add(getSymbol(buffer.getInt(fileSymbolsOffset + (start + i) * 4)));
+    }
+    return result;
+  }
+
+  /**
+   * @param index The index of the symbol, in <code>[0, getSymbolCount())</code>. The symbols are
+   *              ordered by their names.
+   * @return The symbol.
+   */
+  public Symbol getSymbol(int index) {
+    if (index < 0 || index >= symbolCount) {
+      throw new IndexOutOfBoundsException("count=" + symbolCount + ", index=" + index);
+    }
+    final var buffer = buffer();
+    final var entry = symbolsOffset + index * SYMBOL_ENTRY_SIZE;
+    final var kindAndFlags = buffer.getInt(entry + 8);
+    final var kind = kindAndFlags >>> 8;
+    if (kind >= kindCount) {
+      throw new IllegalStateException(
+        "Corrupted symbol index. kindCount=" + kindCount + ", kind=" + kind + ", symbol=" + index);
+    }
+    return new Symbol(readString(buffer.getInt(entry), buffer.getInt(entry + 4)), kinds[kind],
+      (kindAndFlags & FLAG_DEFINITION) != 0, buffer.getInt(entry + 12), buffer.getInt(entry + 16),
+      buffer.getInt(entry + 20), buffer.getInt(entry + 24));
+  }
+
+  /**
+   * Find the symbols whose names start with the given prefix.
+   *
+   * @param prefix The prefix of the names.
+   * @param limit  The maximum number of symbols to return. Must be positive.
+   * @return The symbols, ordered by their names.
+   * @throws IllegalArgumentException If the limit is not positive.
+   */
+  public List<Symbol> findByPrefix(String prefix, int limit) {
+    Objects.requireNonNull(prefix, "Prefix cannot be null");
+    if (limit <= 0) {
+      throw new IllegalArgumentException("The limit must be positive. limit=" + limit);
+    }
+    final var buffer = buffer();
+    final var key = prefix.getBytes(StandardCharsets.UTF_8);
+
+    // the first symbol whose name is >= prefix
+    var low = 0;
+    var high = symbolCount;
+    while (low < high) {
+      final var mid = (low + high) >>> 1;
+      final var entry = symbolsOffset + mid * SYMBOL_ENTRY_SIZE;
+      if (compare(buffer, buffer.getInt(entry), buffer.getInt(entry + 4), key, false) < 0) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+
+    final var result = new ArrayList<Symbol>(Math.min(limit, 16));
+    for (int i = low; i < symbolCount && result.size() < limit; i++) {
+      final var entry = symbolsOffset + i * SYMBOL_ENTRY_SIZE;
+      if (compare(buffer, buffer.getInt(entry), buffer.getInt(entry + 4), key, true) != 0) {
+        break;
+      }
+      result.add(getSymbol(i));
+    }
+    return result;
+  }
+
+  private ByteBuffer buffer() {
+    final var buffer = this.buffer;
+    if (buffer == null) {
+      throw new IllegalStateException("Symbol index has been closed");
+    }
+    return buffer;
+  }
+
+  private int fileEntry(int fileId) {
+    if (fileId < 0 || fileId >= fileCount) {
+      throw new IndexOutOfBoundsException("count=" + fileCount + ", index=" + fileId);
+    }
+    return filesOffset + fileId * FILE_ENTRY_SIZE;
+  }
+
+  private String readString(int offset, int length) {
+    final var bytes = new byte[length];
+    final var buffer = buffer();
+    for (int i = 0; i < length; i++) {
+      bytes[i] = buffer.get(offset + i);
+    }
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Compare the bytes in the buffer with the given key, as unsigned bytes.
+   *
+   * @param prefix Whether to compare only the first <code>key.length</code> bytes.
+   */
+  private static int compare(ByteBuffer buffer, int offset, int length, byte[] key,
+                             boolean prefix
+  ) {
+    final var count = Math.min(length, key.length);
+    for (int i = 0; i < count; i++) {
+      final var cmp = (buffer.get(offset + i) & 0xFF) - (key[i] & 0xFF);
+      if (cmp != 0) {
+        return cmp;
+      }
+    }
+    if (prefix && length >= key.length) {
+      return 0;
+    }
+    return length - key.length;
+  }
+
+  private static int compare(byte[] a, byte[] b) {
+    final var count = Math.min(a.length, b.length);
+    for (int i = 0; i < count; i++) {
+      final var cmp = (a[i] & 0xFF) - (b[i] & 0xFF);
+      if (cmp != 0) {
+        return cmp;
+      }
+    }
+    return a.length - b.length;
+  }
+
+  /**
+   * Unmaps the index (once the mapped buffer is garbage collected). The index must not be used
+   * after it is closed.
+   */
+  @Override
+  public void close() {
+    buffer = null;
+  }
+
+  /**
+   * A symbol in a {@link TSSymbolIndex}.
+   */
+  public static final class Symbol {
+
+    private final String name;
+    private final String kind;
+    private final boolean isDefinition;
+    private final int fileId;
+    private final int startByte;
+    private final int endByte;
+    private final int nameStartByte;
+
+    private Symbol(String name, String kind, boolean isDefinition, int fileId, int startByte,
+                   int endByte, int nameStartByte
+    ) {
+      this.name = name;
+      this.kind = kind;
+      this.isDefinition = isDefinition;
+      this.fileId = fileId;
+      this.startByte = startByte;
+      this.endByte = endByte;
+      this.nameStartByte = nameStartByte;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    /**
+     * @return The kind of the symbol (see {@link TSTag#getKind()}).
+     */
+    public String getKind() {
+      return kind;
+    }
+
+    public boolean isDefinition() {
+      return isDefinition;
+    }
+
+    /**
+     * @return The ID of the file which contains the symbol (see
+     * {@link TSSymbolIndex#getFilePath(int)}).
+     */
+    public int getFileId() {
+      return fileId;
+    }
+
+    public int getStartByte() {
+      return startByte;
+    }
+
+    public int getEndByte() {
+      return endByte;
+    }
+
+    public int getNameStartByte() {
+      return nameStartByte;
+    }
+
+    @Override
+    public String toString() {
+      return "Symbol{" + "name='" + name + '\'' + ", kind='" + kind + '\'' + ", isDefinition=" +
+        isDefinition + ", fileId=" + fileId + ", startByte=" + startByte + ", endByte=" + endByte +
+        ", nameStartByte=" + nameStartByte + '}';
+    }
+  }
+
+  /**
+   * Writes a {@link TSSymbolIndex}. The symbols are collected in memory and written to a file with
+   * {@link #write(Path)}.
+   * <p>
+   * A writer can be used as the listener of a {@link TSWorkspaceIndexer}. If a previous index is
+   * given, the files which are up-to-date in the previous index are not indexed again and their
+   * symbols are copied from the previous index.
+   * <p>
+   * This class is thread safe.
+   */
+  public static final class Writer implements TSWorkspaceIndexer.Listener {
+
+    // name, kind, flags, file, startByte, endByte, nameStartByte
+    private static final int RECORD_SIZE = 7;
+
+    private final TSSymbolIndex previous;
+    private final Map<String, Integer> names = new HashMap<>();
+    private final List<String> nameList = new ArrayList<>();
+    private final Map<String, Integer> kinds = new HashMap<>();
+    private final List<String> kindList = new ArrayList<>();
+    private final Map<String, Integer> filesByPath = new HashMap<>();
+    private final List<String> filePaths = new ArrayList<>();
+    private long[] fileHashes = new long[16];
+    private int[] records = new int[RECORD_SIZE * 64];
+    private int recordCount = 0;
+
+    /**
+     * Create a writer for a new index.
+     */
+    public Writer() {
+      this(null);
+    }
+
+    /**
+     * Create a writer which updates the given index.
+     *
+     * @param previous The previous index, or <code>null</code>. The previous index must not be
+     *                 closed until the writer has been written.
+     */
+    public Writer(TSSymbolIndex previous) {
+      this.previous = previous;
+    }
+
+    /**
+     * Add the tags of a file. If the file has already been added, the file is skipped.
+     *
+     * @param path        The path of the file.
+     * @param contentHash The content hash of the file.
+     * @param tags        The tags of the file.
+     * @return Whether the file was added.
+     */
+    public synchronized boolean addFile(String path, long contentHash, List<TSTag> tags) {
+      Objects.requireNonNull(path, "Path cannot be null");
+      Objects.requireNonNull(tags, "Tags cannot be null");
+      final var file = newFile(path, contentHash);
+      if (file == -1) {
+        return false;
+      }
+      for (final var tag : tags) {
+        addRecord(tag.getName(), tag.getKind(), tag.isDefinition() ? FLAG_DEFINITION : 0, file,
+          tag.getStartByte(), tag.getEndByte(), tag.getNameStartByte());
+      }
+      return true;
+    }
+
+    /**
+     * Copy the symbols of a file from the given index. If the file has already been added, the file
+     * is skipped.
+     *
+     * @param index The index to copy the symbols from.
+     * @param path  The path of the file.
+     * @return Whether the file was copied.
+     */
+    public synchronized boolean copyFile(TSSymbolIndex index, String path) {
+      Objects.requireNonNull(index, "TSSymbolIndex cannot be null");
+      final var fileId = index.findFile(path);
+      if (fileId == -1) {
+        return false;
+      }
+      final var file = newFile(path, index.getContentHash(fileId));
+      if (file == -1) {
+        return false;
+      }
+      for (final var symbol : index.getSymbolsInFile(fileId)) {
+        addRecord(symbol.name, symbol.kind, symbol.isDefinition ? FLAG_DEFINITION : 0, file,
+          symbol.startByte, symbol.endByte, symbol.nameStartByte);
+      }
+      return true;
+    }
+
+    @Override
+    public boolean shouldIndex(Path file, long contentHash) {
+      return previous == null || !previous.isUpToDate(file.toString(), contentHash);
+    }
+
+    @Override
+    public void onFileUnchanged(Path file, long contentHash) {
+      copyFile(previous, file.toString());
+    }
+
+    @Override
+    public void onFileIndexed(TSWorkspaceIndexer.FileTags tags) {
+      addFile(tags.getFile().toString(), tags.getContentHash(), tags.getTags());
+    }
+
+    private int newFile(String path, long contentHash) {
+      if (filesByPath.containsKey(path)) {
+        return -1;
+      }
+      final var file = filePaths.size();
+      filesByPath.put(path, file);
+      filePaths.add(path);
+      if (file == fileHashes.length) {
+        fileHashes = Arrays.copyOf(fileHashes, file * 2);
+      }
+      fileHashes[file] = contentHash;
+      return file;
+    }
+
+    private void addRecord(String name, String kind, int flags, int file, int startByte,
+                           int endByte, int nameStartByte
+    ) {
+      if ((recordCount + 1) * RECORD_SIZE > records.length) {
+        records = Arrays.copyOf(records, records.length * 2);
+      }
+      final var record = recordCount++ * RECORD_SIZE;
+      records[record] = intern(names, nameList, name);
+      records[record + 1] = intern(kinds, kindList, kind);
+      records[record + 2] = flags;
+      records[record + 3] = file;
+      records[record + 4] = startByte;
+      records[record + 5] = endByte;
+      records[record + 6] = nameStartByte;
+    }
+
+    private static int intern(Map<String, Integer> ids, List<String> values, String value) {
+      var id = ids.get(value);
+      if (id == null) {
+        id = values.size();
+        ids.put(value, id);
+        values.add(value);
+      }
+      return id;
+    }
+
+    /**
+     * Write the index to the given file. The index is first written to a temporary file which then
+     * replaces the given file, so an index which is open is not affected.
+     *
+     * @param file The index file.
+     * @throws IOException If the index cannot be written.
+     */
+    public synchronized void write(Path file) throws IOException {
+      Objects.requireNonNull(file, "File cannot be null");
+
+      // sort the names and the files in UTF-8 byte order
+      final var nameBytes = encode(nameList);
+      final var nameOrder = sortedOrder(nameBytes);
+      final var nameRanks = inverse(nameOrder);
+      final var pathBytes = encode(filePaths);
+      final var fileOrder = sortedOrder(pathBytes);
+      final var fileIds = inverse(fileOrder);
+      final var kindBytes = encode(kindList);
+
+      // sort the records by name (stable)
+      final var keys = new long[recordCount];
+      for (int i = 0; i < recordCount; i++) {
+        keys[i] = ((long) nameRanks[records[i * RECORD_SIZE]] << 32) | i;
+      }
+      Arrays.sort(keys);
+
+      // the symbols of each file, grouped by file ID
+      final var fileCount = filePaths.size();
+      final var fileSymbolStarts = new int[fileCount + 1];
+      for (int i = 0; i < recordCount; i++) {
+        ++fileSymbolStarts[fileIds[records[i * RECORD_SIZE + 3]] + 1];
+      }
+      for (int i = 0; i < fileCount; i++) {
+        fileSymbolStarts[i + 1] += fileSymbolStarts[i];
+      }
+      final var fileSymbols = new int[recordCount];
+      final var fill = Arrays.copyOf(fileSymbolStarts, fileCount);
+      for (int symbol = 0; symbol < recordCount; symbol++) {
+        final var record = (int) keys[symbol];
+        fileSymbols[fill[fileIds[records[record * RECORD_SIZE + 3]]]++] = symbol;
+      }
+      // document order within each file (the symbols are added in name order)
+      for (int i = 0; i < fileCount; i++) {
+        sortByStartByte(fileSymbols, fileSymbolStarts[i], fileSymbolStarts[i + 1], keys);
+      }
+
+      // layout
+      final var filesOffset = HEADER_SIZE;
+      final var fileSymbolsOffset = filesOffset + fileCount * FILE_ENTRY_SIZE;
+      final var symbolsOffset = fileSymbolsOffset + recordCount * 4;
+      final var kindsOffset = symbolsOffset + recordCount * SYMBOL_ENTRY_SIZE;
+      final var stringsOffset = kindsOffset + kindList.size() * KIND_ENTRY_SIZE;
+      final var nameOffsets = new int[nameBytes.length];
+      final var pathOffsets = new int[pathBytes.length];
+      final var kindOffsets = new int[kindBytes.length];
+      var offset = stringsOffset;
+      for (final var name : nameOrder) {
+        nameOffsets[name] = offset;
+        offset += nameBytes[name].length;
+      }
+      for (int i = 0; i < pathBytes.length; i++) {
+        pathOffsets[i] = offset;
+        offset += pathBytes[i].length;
+      }
+      for (int i = 0; i < kindBytes.length; i++) {
+        kindOffsets[i] = offset;
+        offset += kindBytes[i].length;
+      }
+      final var stringsEnd = offset;
+
+      final var dir = file.toAbsolutePath().getParent();
+      final var temp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+      try {
+        try (final var out = new DataOutputStream(
+          new BufferedOutputStream(Files.newOutputStream(temp), 64 * 1024))) {
+          out.writeInt(MAGIC);
+          out.writeInt(VERSION);
+          out.writeInt(fileCount);
+          out.writeInt(recordCount);
+          out.writeInt(kindList.size());
+          out.writeInt(filesOffset);
+          out.writeInt(fileSymbolsOffset);
+          out.writeInt(symbolsOffset);
+          out.writeInt(kindsOffset);
+          out.writeInt(stringsEnd);
+
+          for (final var path : fileOrder) {
+            final var fileId = fileIds[path];
+            out.writeInt(pathOffsets[path]);
+            out.writeInt(pathBytes[path].length);
+            out.writeLong(fileHashes[path]);
+            out.writeInt(fileSymbolStarts[fileId]);
+            out.writeInt(fileSymbolStarts[fileId + 1] - fileSymbolStarts[fileId]);
+          }
+
+          for (final var symbol : fileSymbols) {
+            out.writeInt(symbol);
+          }
+
+          for (final var key : keys) {
+            final var record = (int) key * RECORD_SIZE;
+            final var name = records[record];
+            out.writeInt(nameOffsets[name]);
+            out.writeInt(nameBytes[name].length);
+            out.writeInt((records[record + 1] << 8) | records[record + 2]);
+            out.writeInt(fileIds[records[record + 3]]);
+            out.writeInt(records[record + 4]);
+            out.writeInt(records[record + 5]);
+            out.writeInt(records[record + 6]);
+          }
+
+          for (int i = 0; i < kindBytes.length; i++) {
+            out.writeInt(kindOffsets[i]);
+            out.writeInt(kindBytes[i].length);
+          }
+
+          for (final var name : nameOrder) {
+            out.write(nameBytes[name]);
+          }
+          for (final var path : pathBytes) {
+            out.write(path);
+          }
+          for (final var kind : kindBytes) {
+            out.write(kind);
+          }
+        }
+
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+      } finally {
+        Files.deleteIfExists(temp);
+      }
+    }
+
+    private void sortByStartByte(int[] symbols, int from, int to, long[] keys) {
+      final var sorted = new long[to - from];
+      for (int i = from; i < to; i++) {
+        final var start = records[(int) keys[symbols[i]] * RECORD_SIZE + 4];
+        sorted[i - from] = ((long) start << 32) | symbols[i];
+      }
+      Arrays.sort(sorted);
+      for (int i = from; i < to; i++) {
+        symbols[i] = (int) sorted[i - from];
+      }
+    }
+
+    private static byte[][] encode(List<String> values) {
+      final var result = new byte[values.size()][];
+      for (int i = 0; i < result.length; i++) {
+        result[i] = values.get(i).getBytes(StandardCharsets.UTF_8);
+      }
+      return result;
+    }
+
+    private static int[] sortedOrder(byte[][] values) {
+      final var order = new Integer[values.length];
+      for (int i = 0; i < order.length; i++) {
+        order[i] = i;
+      }
+      Arrays.sort(order, (a, b) -> compare(values[a], values[b]));
+      final var result = new int[order.length];
+      for (int i = 0; i < order.length; i++) {
+        result[i] = order[i];
+      }
+      return result;
+    }
+
+    private static int[] inverse(int[] order) {
+      final var result = new int[order.length];
+      for (int i = 0; i < order.length; i++) {
+        result[order[i]] = i;
+      }
+      return result;
+    }
+  }
+}
@@ -0,0 +1,114 @@
+/*
+ *  This file is part of android-tree-sitter.
+ *
+ *  android-tree-sitter library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  android-tree-sitter library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *  along with android-tree-sitter.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.itsaky.androidide.treesitter;
+
+import java.util.Objects;
+
+/**
+ * An <code>ERROR</code> or <code>MISSING</code> node collected with
+ * {@link TSTree#collectErrors(int)}.
+ *
+ * @author Akash Yadav
+ */
+public class TSSyntaxError {
+
+  protected final boolean isMissing;
+  protected final short symbol;
+  protected final short parseState;
+  protected final int startByte;
+  protected final int endByte;
+  protected final TSPoint startPoint;
+  protected final TSPoint endPoint;
+
+  protected TSSyntaxError(boolean isMissing, short symbol, short parseState, int startByte,
+                          int endByte, TSPoint startPoint, TSPoint endPoint
+  ) {
+    this.isMissing = isMissing;
+    this.symbol = symbol;
+    this.parseState = parseState;
+    this.startByte = startByte;
+    this.endByte = endByte;
+    this.startPoint = startPoint;
+    this.endPoint = endPoint;
+  }
+
+  /**
+   * @return <code>true</code> if this is a <code>MISSING</code> node inserted by the parser,
+   * <code>false</code> if this is an <code>ERROR</code> node.
+   */
+  public boolean isMissing() {
+    return isMissing;
+  }
+
+  /**
+   * @return The symbol of the node. For <code>MISSING</code> nodes, this is the symbol that the
+   * parser expected.
+   */
+  public short getSymbol() {
+    return symbol;
+  }
+
+  /**
+   * @return The parse state of the node.
+   */
+  public short getParseState() {
+    return parseState;
+  }
+
+  public int getStartByte() {
+    return startByte;
+  }
+
+  public int getEndByte() {
+    return endByte;
+  }
+
+  public TSPoint getStartPoint() {
+    return startPoint;
+  }
+
+  public TSPoint getEndPoint() {
+    return endPoint;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof TSSyntaxError)) {
+      return false;
+    }
+    TSSyntaxError that = (TSSyntaxError) o;
+    return isMissing == that.isMissing && symbol == that.symbol && parseState == that.parseState &&
+      startByte == that.startByte && endByte == that.endByte &&
+      Objects.equals(startPoint, that.startPoint) && Objects.equals(endPoint, that.endPoint);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(isMissing, symbol, parseState, startByte, endByte, startPoint, endPoint);
+  }
+
+  @Override
+  public String toString() {
+    return "TSSyntaxError{" + "isMissing=" + isMissing + ", symbol=" + symbol + ", parseState=" +
+      parseState + ", startByte=" + startByte + ", endByte=" + endByte + ", startPoint=" +
+      startPoint + ", endPoint=" + endPoint + '}';
+  }
+}
@@ -0,0 +1,164 @@
+/*
+ *  This file is part of android-tree-sitter.
+ *
+ *  android-tree-sitter library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  android-tree-sitter library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *  along with android-tree-sitter.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.itsaky.androidide.treesitter;
+
+import java.util.Objects;
+
+/**
+ * A definition or a reference tag extracted with a {@link TSTagsExtractor}.
+ *
+ * @author Akash Yadav
+ */
+public class TSTag {
+
+  protected final String name;
+  protected final String kind;
+  protected final boolean isDefinition;
+  protected final int startByte;
+  protected final int endByte;
+  protected final TSPoint startPoint;
+  protected final TSPoint endPoint;
+  protected final int nameStartByte;
+  protected final int nameEndByte;
+  protected final int docsStartByte;
+  protected final int docsEndByte;
+  protected final String docs;
+
+  protected TSTag(String name, String kind, boolean isDefinition, int startByte, int endByte,
+                  TSPoint startPoint, TSPoint endPoint, int nameStartByte, int nameEndByte,
+                  int docsStartByte, int docsEndByte, String docs
+  ) {
+    this.name = name;
+    this.kind = kind;
+    this.isDefinition = isDefinition;
+    this.startByte = startByte;
+    this.endByte = endByte;
+    this.startPoint = startPoint;
+    this.endPoint = endPoint;
+    this.nameStartByte = nameStartByte;
+    this.nameEndByte = nameEndByte;
+    this.docsStartByte = docsStartByte;
+    this.docsEndByte = docsEndByte;
+    this.docs = docs;
+  }
+
+  /**
+   * @return The name of the tagged symbol (the text of the <code>@name</code> capture).
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * @return The kind of the tag, for example <code>class</code> for a
+   * <code>@definition.class</code> capture.
+   */
+  public String getKind() {
+    return kind;
+  }
+
+  /**
+   * @return <code>true</code> if this is a definition, <code>false</code> if this is a reference.
+   */
+  public boolean isDefinition() {
+    return isDefinition;
+  }
+
+  /**
+   * @return The start byte of the tagged node.
+   */
+  public int getStartByte() {
+    return startByte;
+  }
+
+  /**
+   * @return The end byte of the tagged node.
+   */
+  public int getEndByte() {
+    return endByte;
+  }
+
+  public TSPoint getStartPoint() {
+    return startPoint;
+  }
+
+  public TSPoint getEndPoint() {
+    return endPoint;
+  }
+
+  public int getNameStartByte() {
+    return nameStartByte;
+  }
+
+  public int getNameEndByte() {
+    return nameEndByte;
+  }
+
+  /**
+   * @return The start byte of the documentation of the tag, or <code>-1</code> if the tag does not
+   * have documentation.
+   */
+  public int getDocsStartByte() {
+    return docsStartByte;
+  }
+
+  /**
+   * @return The end byte of the documentation of the tag, or <code>-1</code> if the tag does not
+   * have documentation.
+   */
+  public int getDocsEndByte() {
+    return docsEndByte;
+  }
+
+  /**
+   * @return The documentation of the tag (the text of the <code>@doc</code> captures, with the
+   * <code>#strip!</code> directive applied), or <code>null</code>.
+   */
+  public String getDocs() {
+    return docs;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof TSTag)) {
+      return false;
+    }
+    TSTag tag = (TSTag) o;
+    return isDefinition == tag.isDefinition && startByte == tag.startByte &&
+      endByte == tag.endByte && nameStartByte == tag.nameStartByte &&
+      nameEndByte == tag.nameEndByte && docsStartByte == tag.docsStartByte &&
+      docsEndByte == tag.docsEndByte && Objects.equals(name, tag.name) &&
+      Objects.equals(kind, tag.kind) && Objects.equals(docs, tag.docs);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(name, kind, isDefinition, startByte, endByte, nameStartByte, nameEndByte);
+  }
+
+  @Override
+  public String toString() {
+    return "TSTag{" + "name='" + name + '\'' + ", kind='" + kind + '\'' + ", isDefinition=" +
+      isDefinition + ", startByte=" + startByte + ", endByte=" + endByte + ", nameStartByte=" +
+      nameStartByte + ", nameEndByte=" + nameEndByte + ", docsStartByte=" + docsStartByte +
+      ", docsEndByte=" + docsEndByte + '}';
+  }
+}
@@ -0,0 +1,262 @@
+/*
+ *  This file is part of android-tree-sitter.
+ *
+ *  android-tree-sitter library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  android-tree-sitter library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *  along with android-tree-sitter.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.itsaky.androidide.treesitter;
+
+import com.itsaky.androidide.treesitter.predicate.TSPredicateHandler;
+import com.itsaky.androidide.treesitter.string.UTF16String;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.regex.Pattern;
+
+/**
+ * Extracts definition and reference tags from a syntax tree using a tags query (the
+ * <code>tags.scm</code> query of a grammar).
+ * <p>
+ * The query uses the following captures:
+ * <ul>
+ *   <li><code>@definition.&lt;kind&gt;</code> and <code>@reference.&lt;kind&gt;</code> - the node
+ *   which is tagged.</li>
+ *   <li><code>@name</code> - the node whose text is the name of the tag.</li>
+ *   <li><code>@doc</code> - the documentation of the tag. If the pattern has a
+ *   <code>(#select-adjacent! @doc @definition.kind)</code> directive, only the documentation nodes
+ *   immediately preceding the tagged node are used. A <code>(#strip! @doc "regex")</code>
+ *   directive removes the matches of the regex from each documentation node.</li>
+ * </ul>
+ * If a node is tagged by multiple patterns, only one tag is extracted for the node, preferring
+ * definitions over references and tags with documentation over tags without documentation.
+ * <p>
+ * Instances of this class are not thread safe. A query can be shared between multiple extractors.
+ *
+ * @author Akash Yadav
+ */
+public class TSTagsExtractor implements TSClosable {
+
+  private static final int CAPTURE_NONE = 0;
+  private static final int CAPTURE_NAME = 1;
+  private static final int CAPTURE_DOC = 2;
+  private static final int CAPTURE_DEFINITION = 3;
+  private static final int CAPTURE_REFERENCE = 4;
+
+  private final TSQuery query;
+  private final TSQueryCursor cursor;
+  private final int[] captureTypes;
+  private final String[] captureKinds;
+
+  // per pattern
+  private final boolean[] selectAdjacentDocs;
+  private final Pattern[] stripDocs;
+
+  /**
+   * Create a new tags extractor.
+   *
+   * @param query The tags query. The query is not closed by the extractor.
+   */
+  public TSTagsExtractor(TSQuery query) {
+    if (query == null || !query.canAccess()) {
+      throw new IllegalArgumentException("Cannot extract tags with an invalid query");
+    }
+    this.query = query;
+    this.cursor = TSQueryCursor.create();
+
+    final var captureNames = query.getCaptureNames();
+    this.captureTypes = new int[captureNames.length];
+    this.captureKinds = new String[captureNames.length];
+    for (int i = 0; i < captureNames.length; i++) {
+      final var name = captureNames[i];
+      if (name.equals("name")) {
+        captureTypes[i] = CAPTURE_NAME;
+      } else if (name.equals("doc")) {
+        captureTypes[i] = CAPTURE_DOC;
+      } else if (name.startsWith("definition.")) {
+        captureTypes[i] = CAPTURE_DEFINITION;
+        captureKinds[i] = name.substring("definition.".length());
+      } else if (name.startsWith("reference.")) {
+        captureTypes[i] = CAPTURE_REFERENCE;
+        captureKinds[i] = name.substring("reference.".length());
+      } else {
+        captureTypes[i] = CAPTURE_NONE;
+      }
+    }
+
+    final var patternCount = query.getPatternCount();
+    this.selectAdjacentDocs = new boolean[patternCount];
+    this.stripDocs = new Pattern[patternCount];
+    for (int i = 0; i < patternCount; i++) {
+      for (final var predicate : query.getPredicates(i)) {
+        final var steps = predicate.getSteps();
+        if ("select-adjacent!".equals(predicate.getName())) {
+          selectAdjacentDocs[i] = true;
+        } else if ("strip!".equals(predicate.getName()) && steps.size() >= 3
+          && steps.get(2).type == TSQueryPredicateStep.Type.String) {
+          stripDocs[i] = Pattern.compile(steps.get(2).value);
+        }
+      }
+    }
+  }
+
+  /**
+   * Add a predicate handler which is applied to the tags query.
+   *
+   * @param handler The predicate handler.
+   * @see TSQueryCursor#addPredicateHandler(TSPredicateHandler)
+   */
+  public void addPredicateHandler(TSPredicateHandler handler) {
+    cursor.addPredicateHandler(handler);
+  }
+
+  /**
+   * Extract the tags from the given syntax tree.
+   *
+   * @param tree   The syntax tree.
+   * @param source The source text of the tree. Used to read the names of the tags and to evaluate
+   *               the text predicates natively.
+   * @return The tags, in document order.
+   */
+  public List<TSTag> extract(TSTree tree, UTF16String source) {
+    Objects.requireNonNull(tree, "TSTree cannot be null");
+    Objects.requireNonNull(source, "Source cannot be null");
+
+    final var root = tree.getRootNode();
+    cursor.setByteRange(root.getStartByte(), root.getEndByte());
+    cursor.exec(query, root, source);
+
+    final var tags = new ArrayList<TSTag>();
+    final var tagsByName = new HashMap<Long, Integer>();
+    final var docs = new ArrayList<TSNode>(2);
+
+    TSQueryMatch match;
+    while ((match = cursor.nextMatch()) != null) {
+      TSNode nameNode = null;
+      TSNode tagNode = null;
+      int tagCapture = -1;
+      docs.clear();
+      for (final var capture : match.getCaptures()) {
+        final var index = capture.getIndex();
+        switch (captureTypes[index]) {
+          case CAPTURE_NAME:
+            if (nameNode == null) {
+              nameNode = capture.getNode();
+            }
+            break;
+          case CAPTURE_DOC:
+            docs.add(capture.getNode());
+            break;
+          case CAPTURE_DEFINITION:
+          case CAPTURE_REFERENCE:
+            if (tagNode == null) {
+              tagNode = capture.getNode();
+              tagCapture = index;
+            }
+            break;
+          default:
+            break;
+        }
+      }
+
+      if (nameNode == null || tagNode == null) {
+        continue;
+      }
+
+      final var tag = createTag(match.getPatternIndex(), source, nameNode, tagNode, tagCapture,
+        docs);
+      final var nameRange = ((long) tag.nameStartByte << 32) | (tag.nameEndByte & 0xFFFFFFFFL);
+      final var existing = tagsByName.get(nameRange);
+      if (existing == null) {
+        tagsByName.put(nameRange, tags.size());
+        tags.add(tag);
+      } else if (isPreferred(tag, tags.get(existing))) {
+        tags.set(existing, tag);
+      }
+    }
+
+    tags.sort(Comparator.comparingInt(TSTag::getStartByte));
+    return tags;
+  }
+
+  private static boolean isPreferred(TSTag tag, TSTag existing) {
+    if (tag.isDefinition != existing.isDefinition) {
+      return tag.isDefinition;
+    }
+    // quantified @doc captures may produce matches with and without the documentation
+    return existing.docs == null && tag.docs != null;
+  }
+
+  private TSTag createTag(int pattern, UTF16String source, TSNode nameNode, TSNode tagNode,
+                          int tagCapture, List<TSNode> docNodes
+  ) {
+    final var nameStart = nameNode.getStartByte();
+    final var nameEnd = nameNode.getEndByte();
+    final var tagStart = tagNode.getStartByte();
+    final var startPoint = tagNode.getStartPoint();
+
+    var docsStart = -1;
+    var docsEnd = -1;
+    String docs = null;
+    if (!docNodes.isEmpty()) {
+      final var nodes = docNodes.toArray(new TSNode[0]);
+      Arrays.sort(nodes, Comparator.comparingInt(TSNode::getStartByte));
+
+      var first = 0;
+      if (selectAdjacentDocs[pattern]) {
+        // the documentation nodes which immediately precede the tagged node
+        first = nodes.length;
+        var row = startPoint.getRow();
+        for (int i = nodes.length - 1; i >= 0; i--) {
+          final var node = nodes[i];
+          if (node.getEndByte() > tagStart || node.getEndPoint().getRow() + 1 < row) {
+            break;
+          }
+          row = node.getStartPoint().getRow();
+          first = i;
+        }
+      }
+
+      if (first < nodes.length) {
+        docsStart = nodes[first].getStartByte();
+        docsEnd = nodes[nodes.length - 1].getEndByte();
+
+        final var strip = stripDocs[pattern];
+        final var sb = new StringBuilder();
+        for (int i = first; i < nodes.length; i++) {
+          var text = source.substringBytes(nodes[i].getStartByte(), nodes[i].getEndByte());
+          if (strip != null) {
+            text = strip.matcher(text).replaceAll("");
+          }
+          if (sb.length() > 0) {
+            sb.append('\n');
+          }
+          sb.append(text);
+        }
+        docs = sb.toString();
+      }
+    }
+
+    return new TSTag(source.substringBytes(nameStart, nameEnd), captureKinds[tagCapture],
+      captureTypes[tagCapture] == CAPTURE_DEFINITION, tagStart, tagNode.getEndByte(), startPoint,
+      tagNode.getEndPoint(), nameStart, nameEnd, docsStart, docsEnd, docs);
+  }
+
+  @Override
+  public void close() {
+    cursor.close();
+  }
+}
@@ -20,6 +20,8 @@ package com.itsaky.androidide.treesitter;
 import com.itsaky.androidide.treesitter.annotations.GenerateNativeHeaders;
 import com.itsaky.androidide.treesitter.util.TSObjectFactoryProvider;
 import dalvik.annotation.optimization.FastNative;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Objects;
 
 public class TSTree extends TSNativeObject {
@@ -76,6 +78,96 @@ public class TSTree extends TSNativeObject {
     return ranges;
   }
 
+  /**
+   * Compare an old edited syntax tree to this syntax tree, returning the nodes which were reused,
+   * inserted and removed by the parser. The trees are walked together natively and nodes are
+   * matched by the identity of their underlying subtree, so unlike
+   * {@link #getChangedRanges(TSTree)}, this can be used to update caches which are keyed by nodes
+   * instead of invalidating everything inside the changed ranges.
+   * <p>
+   * The same requirements as for {@link #getChangedRanges(TSTree)} apply to the old tree. As the old
+   * tree has already been edited, the old positions in the diff are the positions in the edited old
+   * tree, not in the source text before the edit (see {@link TSTreeDiff}).
+   *
+   * @param oldTree The old syntax tree which was passed to the parser.
+   * @return The diff.
+   */
+  public TSTreeDiff diff(TSTree oldTree) {
+    Objects.requireNonNull(oldTree, "Old TSTree cannot be null");
+    checkAccess();
+    oldTree.checkAccess();
+    return new TSTreeDiff(Native.diff(getNativeObject(), oldTree.getNativeObject()));
+  }
+
+  /**
+   * Collect the <code>ERROR</code> and <code>MISSING</code> nodes in this tree. The tree is walked
+   * natively and only the subtrees which contain errors are visited.
+   *
+   * @param limit The maximum number of errors to collect. Values <code>&lt;= 0</code> collect all
+   *              the errors.
+   * @return The collected errors, in document order.
+   */
+  public TSSyntaxError[] collectErrors(int limit) {
+    return collectErrors(limit, null);
+  }
+
+  /**
+   * Collect the <code>ERROR</code> and <code>MISSING</code> nodes in this tree which intersect the
+   * given ranges. This can be used with the ranges returned by {@link #getChangedRanges(TSTree)}
+   * to update diagnostics incrementally after an edit.
+   *
+   * @param limit  The maximum number of errors to collect. Values <code>&lt;= 0</code> collect all
+   *               the errors.
+   * @param ranges The ranges to collect the errors from, or <code>null</code> to collect errors
+   *               from the whole tree.
+   * @return The collected errors, in document order.
+   * @see #collectErrors(int)
+   */
+  public TSSyntaxError[] collectErrors(int limit, TSRange[] ranges) {
+    checkAccess();
+
+    int[] byteRanges = null;
+    if (ranges != null) {
+      byteRanges = new int[ranges.length * 2];
+      for (int i = 0; i < ranges.length; i++) {
+        byteRanges[i * 2] = ranges[i].getStartByte();
+        byteRanges[i * 2 + 1] = ranges[i].getEndByte();
+      }
+    }
+
+    final var errors = Native.collectErrors(getNativeObject(), limit, byteRanges);
+    final var stride = 9; // must be kept in sync with ts_tree.cc
+    final var result = new TSSyntaxError[errors.length / stride];
+    for (int i = 0; i < result.length; i++) {
+      final var offset = i * stride;
+      result[i] = new TSSyntaxError(errors[offset] != 0, (short) errors[offset + 1],
+        (short) errors[offset + 2], errors[offset + 3], errors[offset + 4],
+        TSPoint.create(errors[offset + 5], errors[offset + 6]),
+        TSPoint.create(errors[offset + 7], errors[offset + 8]));
+    }
+
+    return result;
+  }
+
+  /**
+   * Write this tree to the given output stream in the binary format of {@link TSFlatTree}. The
+   * written tree can be read back with {@link TSFlatTree#readFrom(java.io.InputStream)}.
+   *
+   * @param out The output stream to write to.
+   * @throws IOException If an I/O error occurs.
+   */
+  public void writeTo(OutputStream out) throws IOException {
+    TSFlatTree.from(this).writeTo(out);
+  }
+
+  /**
+   * Get the nodes of this tree in pre-order as a flat array. See {@link TSFlatTree}.
+   */
+  int[] flatten() {
+    checkAccess();
+    return Native.flatten(getNativeObject());
+  }
+
   /**
    * Get the array of included ranges that was used to parse the syntax tree.
    */
@@ -152,5 +244,14 @@ public class TSTree extends TSNativeObject {
 
     @FastNative
     static native TSRange[] includedRanges(long nativeObject);
+
+    @FastNative
+    static native int[] diff(long tree, long oldTree);
+
+    @FastNative
+    static native int[] collectErrors(long tree, int limit, int[] byteRanges);
+
+    @FastNative
+    static native int[] flatten(long tree);
   }
 }
\ No newline at end of file
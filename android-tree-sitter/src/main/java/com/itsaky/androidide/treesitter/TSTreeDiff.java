@@ -0,0 +1,203 @@
+/*
+ *  This file is part of android-tree-sitter.
+ *
+ *  android-tree-sitter library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  android-tree-sitter library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *  along with android-tree-sitter.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.itsaky.androidide.treesitter;
+
+/**
+ * Structural difference between an old (edited) syntax tree and a new syntax tree, computed with
+ * {@link TSTree#diff(TSTree)}.
+ * <p>
+ * Each entry in the diff describes a node which was either reused from the old tree, inserted in
+ * the new tree or removed from the old tree. When a node is reused, all of its descendants are
+ * reused as well and are not reported separately. Entries for reused and inserted nodes are
+ * interleaved in document order of the new tree, followed by the entries for removed nodes in
+ * document order of the old tree.
+ * <p>
+ * Leaf nodes which are stored inline by tree-sitter cannot be identified across trees. Such nodes
+ * are reported as reused only as a part of a reused parent node.
+ * <p>
+ * The old tree must have been edited with {@link TSTree#edit(TSInputEdit)} before it was passed to
+ * the parser, so the "old" positions are the positions in the <em>edited</em> old tree. The nodes
+ * after an edit have already been shifted by the edit, and the nodes which overlap an edit have
+ * positions which are only approximations. The old positions are therefore coordinates in the new
+ * source text, not in the source text before the edit. Use the old positions only to identify
+ * nodes of the edited old tree (for example, to look up cached nodes), not to address the old
+ * source text.
+ *
+ * @author Akash Yadav
+ */
+public class TSTreeDiff {
+
+  // must be kept in sync with ts_tree.cc
+  private static final int STRIDE = 15;
+  private static final int OFF_KIND = 0;
+  private static final int OFF_SYMBOL = 1;
+  private static final int OFF_NAMED = 2;
+  private static final int OFF_OLD = 3;
+  private static final int OFF_NEW = 9;
+
+  private final int[] entries;
+
+  protected TSTreeDiff(int[] entries) {
+    this.entries = entries == null ? new int[0] : entries;
+  }
+
+  /**
+   * @return The number of entries in this diff.
+   */
+  public int getCount() {
+    return entries.length / STRIDE;
+  }
+
+  /**
+   * Get the kind of the entry at the given index.
+   *
+   * @param index The index of the entry.
+   * @return The kind of the entry.
+   */
+  public Kind getKind(int index) {
+    return Kind.forId(get(index, OFF_KIND));
+  }
+
+  /**
+   * @return The symbol of the node described by the entry at the given index.
+   */
+  public short getSymbol(int index) {
+    return (short) get(index, OFF_SYMBOL);
+  }
+
+  /**
+   * @return Whether the node described by the entry at the given index is a named node.
+   */
+  public boolean isNamed(int index) {
+    return get(index, OFF_NAMED) != 0;
+  }
+
+  /**
+   * @return The start byte of the node in the edited old tree, or <code>-1</code> if the node was
+   * inserted.
+   */
+  public int getOldStartByte(int index) {
+    return get(index, OFF_OLD);
+  }
+
+  /**
+   * @return The end byte of the node in the edited old tree, or <code>-1</code> if the node was inserted.
+   */
+  public int getOldEndByte(int index) {
+    return get(index, OFF_OLD + 1);
+  }
+
+  /**
+   * @return The start point of the node in the edited old tree, or <code>null</code> if the node was
+   * inserted.
+   */
+  public TSPoint getOldStartPoint(int index) {
+    return getPoint(index, OFF_OLD + 2);
+  }
+
+  /**
+   * @return The end point of the node in the edited old tree, or <code>null</code> if the node was
+   * inserted.
+   */
+  public TSPoint getOldEndPoint(int index) {
+    return getPoint(index, OFF_OLD + 4);
+  }
+
+  /**
+   * @return The start byte of the node in the new tree, or <code>-1</code> if the node was
+   * removed.
+   */
+  public int getNewStartByte(int index) {
+    return get(index, OFF_NEW);
+  }
+
+  /**
+   * @return The end byte of the node in the new tree, or <code>-1</code> if the node was removed.
+   */
+  public int getNewEndByte(int index) {
+    return get(index, OFF_NEW + 1);
+  }
+
+  /**
+   * @return The start point of the node in the new tree, or <code>null</code> if the node was
+   * removed.
+   */
+  public TSPoint getNewStartPoint(int index) {
+    return getPoint(index, OFF_NEW + 2);
+  }
+
+  /**
+   * @return The end point of the node in the new tree, or <code>null</code> if the node was
+   * removed.
+   */
+  public TSPoint getNewEndPoint(int index) {
+    return getPoint(index, OFF_NEW + 4);
+  }
+
+  private TSPoint getPoint(int index, int offset) {
+    final var row = get(index, offset);
+    if (row == -1) {
+      return null;
+    }
+    return TSPoint.create(row, get(index, offset + 1));
+  }
+
+  private int get(int index, int offset) {
+    final var count = getCount();
+    if (index < 0 || index >= count) {
+      throw new IndexOutOfBoundsException("count=" + count + ", index=" + index);
+    }
+    return entries[index * STRIDE + offset];
+  }
+
+  /**
+   * The kind of a {@link TSTreeDiff} entry.
+   */
+  public enum Kind {
+
+    /**
+     * The node (and its descendants) was reused from the old tree.
+     */
+    Reused(0),
+
+    /**
+     * The node is present only in the new tree.
+     */
+    Inserted(1),
+
+    /**
+     * The node is present only in the old tree.
+     */
+    Removed(2);
+
+    private final int id;
+
+    Kind(int id) {
+      this.id = id;
+    }
+
+    public static Kind forId(int id) {
+      for (final var kind : values()) {
+        if (kind.id == id) {
+          return kind;
+        }
+      }
+      throw new IllegalArgumentException("Invalid diff kind id: " + id);
+    }
+  }
+}
@@ -0,0 +1,430 @@
+/*
+ *  This file is part of android-tree-sitter.
+ *
+ *  android-tree-sitter library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  android-tree-sitter library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *  along with android-tree-sitter.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.itsaky.androidide.treesitter;
+
+import com.itsaky.androidide.treesitter.string.UTF16StringFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Parses files and extracts their tags (see {@link TSTagsExtractor}) on multiple threads. The
+ * language of a file is selected by its extension (see
+ * {@link #addLanguage(TSLanguage, TSQuery, String...)}). Files with unknown extensions are
+ * skipped.
+ * <p>
+ * Each worker thread owns a {@link TSParser} and a {@link TSTagsExtractor} for each language, which
+ * are reused for all the files indexed by the worker. The tags of each file are reported to the
+ * {@link Listener} as soon as the file is indexed, so the tags of the whole workspace are never
+ * held in memory at once. Files whose contents have not changed since they were last indexed can be
+ * skipped with {@link Listener#shouldIndex(Path, long)}.
+ * <p>
+ * The languages must be added before indexing. Indexing can be run multiple times.
+ *
+ * @author Akash Yadav
+ */
+public class TSWorkspaceIndexer {
+
+  private final Executor executor;
+  private final int parallelism;
+  private final Map<String, LanguageEntry> languages = new HashMap<>();
+
+  /**
+   * Create a new workspace indexer.
+   *
+   * @param executor    The executor to run the workers on.
+   * @param parallelism The maximum number of files to index at the same time.
+   */
+  public TSWorkspaceIndexer(Executor executor, int parallelism) {
+    this.executor = Objects.requireNonNull(executor, "Executor cannot be null");
+    if (parallelism <= 0) {
+      throw new IllegalArgumentException("parallelism must be > 0");
+    }
+    this.parallelism = parallelism;
+  }
+
+  /**
+   * Add a language to index.
+   *
+   * @param language   The language.
+   * @param tagsQuery  The tags query for the language. The query is shared between the worker
+   *                   threads and is not closed by the indexer.
+   * @param extensions The extensions (without the leading dot) of the files in the language.
+   */
+  public synchronized void addLanguage(TSLanguage language, TSQuery tagsQuery,
+                                       String... extensions
+  ) {
+    Objects.requireNonNull(language, "TSLanguage cannot be null");
+    if (tagsQuery == null || !tagsQuery.canAccess()) {
+      throw new IllegalArgumentException("Cannot index with an invalid query");
+    }
+    if (extensions.length == 0) {
+      throw new IllegalArgumentException("At least one file extension is required");
+    }
+
+    // compile the predicates before the query is shared between threads
+    if (tagsQuery.getPatternCount() > 0) {
+      tagsQuery.getPredicates(0);
+    }
+    tagsQuery.getTextPredicates();
+
+    final var entry = new LanguageEntry(language, tagsQuery);
+    for (final var extension : extensions) {
+      languages.put(extension.toLowerCase(Locale.ROOT), entry);
+    }
+  }
+
+  /**
+   * Index the given files and wait for all the files to be indexed. The listener is called on the
+   * worker threads (including the calling thread), so it must be thread safe.
+   *
+   * @param files    The files to index.
+   * @param listener The listener to report the tags to.
+   * @return The statistics of the indexing.
+   * @throws InterruptedException If the current thread is interrupted while waiting for the
+   *                              workers.
+   */
+  public Stats index(Collection<Path> files, Listener listener) throws InterruptedException {
+    Objects.requireNonNull(files, "Files cannot be null");
+    Objects.requireNonNull(listener, "Listener cannot be null");
+
+    final Map<String, LanguageEntry> languages;
+    synchronized (this) {
+      languages = new HashMap<>(this.languages);
+    }
+
+    final var start = System.nanoTime();
+    final var run = new Run(new ArrayList<>(files), languages, listener);
+    final var count = Math.max(1, Math.min(parallelism, run.files.size()));
+    final var latch = new CountDownLatch(count);
+    final var errors = new Throwable[count];
+
+    for (int i = 0; i < count; i++) {
+      final var index = i;
+      final Runnable task = () -> {
+        try {
+          run.work();
+        } catch (Throwable err) {
+          errors[index] = err;
+          run.next.set(run.files.size());
+        } finally {
+          latch.countDown();
+        }
+      };
+
+      if (i == count - 1) {
+        // run the last worker on the calling thread
+        task.run();
+      } else {
+        executor.execute(task);
+      }
+    }
+
+    latch.await();
+
+    for (final var error : errors) {
+      if (error != null) {
+        if (error instanceof RuntimeException) {
+          throw (RuntimeException) error;
+        }
+        throw new IllegalStateException("Failed to index files", error);
+      }
+    }
+
+    return new Stats(run.indexed.get(), run.failed.get(), run.skipped.get(), run.unchanged.get(),
+      run.tags.get(), System.nanoTime() - start);
+  }
+
+  /**
+   * Compute the hash of the given file contents (64-bit FNV-1a), as reported by
+   * {@link FileTags#getContentHash()}.
+   *
+   * @param bytes The contents of the file.
+   * @return The hash.
+   */
+  public static long contentHash(byte[] bytes) {
+    var hash = 0xcbf29ce484222325L;
+    for (final var b : bytes) {
+      hash ^= b & 0xFF;
+      hash *= 0x100000001b3L;
+    }
+    return hash;
+  }
+
+  private static String extensionOf(Path file) {
+    final var name = String.valueOf(file.getFileName());
+    final var dot = name.lastIndexOf('.');
+    return dot == -1 ? "" : name.substring(dot + 1).toLowerCase(Locale.ROOT);
+  }
+
+  /**
+   * Receives the results of a {@link TSWorkspaceIndexer}.
+   */
+  public interface Listener {
+
+    /**
+     * Called when a file has been indexed.
+     *
+     * @param tags The tags of the file.
+     */
+    void onFileIndexed(FileTags tags);
+
+    /**
+     * Called before a file is parsed, to check whether the file must be indexed.
+     *
+     * @param file        The file.
+     * @param contentHash The hash of the contents of the file (see
+     *                    {@link TSWorkspaceIndexer#contentHash(byte[])}).
+     * @return <code>true</code> to index the file, <code>false</code> if the file has not changed
+     * since it was last indexed. In the latter case, {@link #onFileUnchanged(Path, long)} is
+     * called instead of {@link #onFileIndexed(FileTags)}.
+     */
+    default boolean shouldIndex(Path file, long contentHash) {
+      return true;
+    }
+
+    /**
+     * Called when a file is not indexed as {@link #shouldIndex(Path, long)} returned
+     * <code>false</code>.
+     *
+     * @param file        The file.
+     * @param contentHash The hash of the contents of the file.
+     */
+    default void onFileUnchanged(Path file, long contentHash) {
+    }
+
+    /**
+     * Called when a file could not be read or parsed.
+     *
+     * @param file  The file.
+     * @param error The error.
+     */
+    default void onFileFailed(Path file, Exception error) {
+    }
+  }
+
+  /**
+   * The tags of an indexed file.
+   */
+  public static final class FileTags {
+
+    private final Path file;
+    private final long contentHash;
+    private final TSLanguage language;
+    private final List<TSTag> tags;
+
+    private FileTags(Path file, long contentHash, TSLanguage language, List<TSTag> tags) {
+      this.file = file;
+      this.contentHash = contentHash;
+      this.language = language;
+      this.tags = Collections.unmodifiableList(tags);
+    }
+
+    public Path getFile() {
+      return file;
+    }
+
+    /**
+     * @return The hash of the contents of the file (see
+     * {@link TSWorkspaceIndexer#contentHash(byte[])}).
+     */
+    public long getContentHash() {
+      return contentHash;
+    }
+
+    public TSLanguage getLanguage() {
+      return language;
+    }
+
+    /**
+     * @return The tags of the file, in document order.
+     */
+    public List<TSTag> getTags() {
+      return tags;
+    }
+  }
+
+  /**
+   * Statistics of an indexing run.
+   */
+  public static final class Stats {
+
+    /**
+     * The number of files which were indexed.
+     */
+    public final int indexedFiles;
+
+    /**
+     * The number of files which could not be read or parsed.
+     */
+    public final int failedFiles;
+
+    /**
+     * The number of files which were skipped as their language is unknown.
+     */
+    public final int skippedFiles;
+
+    /**
+     * The number of files which were not indexed as they have not changed (see
+     * {@link Listener#shouldIndex(Path, long)}).
+     */
+    public final int unchangedFiles;
+
+    /**
+     * The total number of tags extracted.
+     */
+    public final long tags;
+
+    /**
+     * The time (in nanoseconds) taken to index the files.
+     */
+    public final long timeNanos;
+
+    private Stats(int indexedFiles, int failedFiles, int skippedFiles, int unchangedFiles,
+                  long tags, long timeNanos
+    ) {
+      this.indexedFiles = indexedFiles;
+      this.failedFiles = failedFiles;
+      this.skippedFiles = skippedFiles;
+      this.unchangedFiles = unchangedFiles;
+      this.tags = tags;
+      this.timeNanos = timeNanos;
+    }
+
+    @Override
+    public String toString() {
+      return "Stats{" + "indexedFiles=" + indexedFiles + ", failedFiles=" + failedFiles +
+        ", skippedFiles=" + skippedFiles + ", unchangedFiles=" + unchangedFiles + ", tags=" + tags +
+        ", timeNanos=" + timeNanos + '}';
+    }
+  }
+
+  private static final class LanguageEntry {
+
+    private final TSLanguage language;
+    private final TSQuery query;
+
+    private LanguageEntry(TSLanguage language, TSQuery query) {
+      this.language = language;
+      this.query = query;
+    }
+  }
+
+  /**
+   * The state of an indexing run, shared between the workers.
+   */
+  private static final class Run {
+
+    private final List<Path> files;
+    private final Map<String, LanguageEntry> languages;
+    private final Listener listener;
+    private final AtomicInteger next = new AtomicInteger();
+    private final AtomicInteger indexed = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicInteger skipped = new AtomicInteger();
+    private final AtomicInteger unchanged = new AtomicInteger();
+    private final AtomicLong tags = new AtomicLong();
+
+    private Run(List<Path> files, Map<String, LanguageEntry> languages, Listener listener) {
+      this.files = files;
+      this.languages = languages;
+      this.listener = listener;
+    }
+
+    private void work() {
+      final var extractors = new HashMap<LanguageEntry, TSTagsExtractor>();
+      try (final var parser = TSParser.create()) {
+        int index;
+        while ((index = next.getAndIncrement()) < files.size()) {
+          final var file = files.get(index);
+          final var entry = languages.get(extensionOf(file));
+          if (entry == null) {
+            skipped.incrementAndGet();
+            continue;
+          }
+
+          final var extractor = extractors.computeIfAbsent(entry,
+            e -> new TSTagsExtractor(e.query));
+
+          final byte[] bytes;
+          try {
+            bytes = Files.readAllBytes(file);
+          } catch (Exception err) {
+            failed.incrementAndGet();
+            listener.onFileFailed(file, err);
+            continue;
+          }
+
+          final var hash = contentHash(bytes);
+          if (!listener.shouldIndex(file, hash)) {
+            unchanged.incrementAndGet();
+            listener.onFileUnchanged(file, hash);
+            continue;
+          }
+
+          final List<TSTag> fileTags;
+          try {
+            fileTags = extractTags(parser, extractor, entry.language, file, bytes);
+          } catch (Exception err) {
+            failed.incrementAndGet();
+            listener.onFileFailed(file, err);
+            continue;
+          }
+
+          indexed.incrementAndGet();
+          tags.addAndGet(fileTags.size());
+          listener.onFileIndexed(new FileTags(file, hash, entry.language, fileTags));
+        }
+      } finally {
+        for (final var extractor : extractors.values()) {
+          extractor.close();
+        }
+      }
+    }
+
+    private static List<TSTag> extractTags(TSParser parser, TSTagsExtractor extractor,
+                                           TSLanguage language, Path file, byte[] bytes
+    ) {
+      final var text = new String(bytes, StandardCharsets.UTF_8);
+      final var source = UTF16StringFactory.newString(text);
+      try {
+        parser.setLanguage(language);
+        try (final var tree = parser.parseString(source)) {
+          if (tree == null) {
+            throw new IllegalStateException("Failed to parse " + file);
+          }
+          return extractor.extract(tree, source);
+        }
+      } finally {
+        source.close();
+      }
+    }
+  }
+}
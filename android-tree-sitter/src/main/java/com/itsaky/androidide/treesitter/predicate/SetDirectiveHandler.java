@@ -76,6 +76,7 @@ public class SetDirectiveHandler implements TSPredicateHandler {
 
     if (PredicateUtils.matchesArgTypes(PARAMETERS_2, args)) {
       final var capture = args.get(1).value;
+      final var captureId = args.get(1).valueId;
       final var key = args.get(2).value;
       final var value = args.get(3).value;
       if (capture != null && key != null) {
@@ -84,7 +85,11 @@ public class SetDirectiveHandler implements TSPredicateHandler {
           captureMeta = new Metadata();
         }
         captureMeta.putString(key, value);
-        matchMetadata.putCaptureMetadata(capture, captureMeta);
+        if (captureId >= 0) {
+          matchMetadata.putCaptureMetadata(captureId, capture, captureMeta);
+        } else {
+          matchMetadata.putCaptureMetadata(capture, captureMeta);
+        }
         return Result.OK;
       }
 
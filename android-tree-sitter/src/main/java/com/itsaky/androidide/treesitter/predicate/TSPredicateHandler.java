@@ -40,7 +40,9 @@ public interface TSPredicateHandler {
    * @param query The tree sitter query.
    * @param match The query match.
    * @param args  The arguments provided to the predicate (the first element is always name of the
-   *              predicate).
+   *              predicate and the last element is always a
+   *              {@link TSQueryPredicateStep.Type#Done} step). The list is shared between matches
+   *              and must not be modified.
    * @return Whether the predicate was handled.
    */
   Result handle(
@@ -65,9 +67,20 @@ public interface TSPredicateHandler {
      */
     public final String value;
 
+    /**
+     * The ID of the capture or the string value of this predicate step, or <code>-1</code> if the
+     * ID is not known. See {@link TSQueryPredicateStep#getValueId()}.
+     */
+    public final int valueId;
+
     public PredicateStep(Type type, String value) {
+      this(type, value, -1);
+    }
+
+    public PredicateStep(Type type, String value, int valueId) {
       this.type = type;
       this.value = value;
+      this.valueId = valueId;
     }
   }
 
@@ -75,6 +88,12 @@ public interface TSPredicateHandler {
    * Result of a predicate.
    */
   enum Result {
-    OK, ERR, UNHANDLED
+    OK, ERR, UNHANDLED,
+
+    /**
+     * The predicate was handled and the match does not satisfy it. The match is removed from the
+     * query cursor and is not returned to the caller.
+     */
+    REJECTED
   }
 }
@@ -0,0 +1,292 @@
+/*
+ *  This file is part of android-tree-sitter.
+ *
+ *  android-tree-sitter library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  android-tree-sitter library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *  along with android-tree-sitter.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.itsaky.androidide.treesitter.predicate;
+
+import com.itsaky.androidide.treesitter.TSNode;
+import com.itsaky.androidide.treesitter.TSQuery;
+import com.itsaky.androidide.treesitter.TSQueryMatch;
+import com.itsaky.androidide.treesitter.TSQueryPredicateStep.Type;
+import com.itsaky.androidide.treesitter.string.UTF16String;
+import java.nio.CharBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.WeakHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Handles the text predicates <code>#eq?</code>, <code>#not-eq?</code>, <code>#match?</code>,
+ * <code>#not-match?</code>, <code>#any-of?</code> and <code>#not-any-of?</code>. Matches which do
+ * not satisfy the predicates are rejected (see {@link Result#REJECTED}).
+ * <p>
+ * The text of the captured nodes is read directly from the {@link UTF16String} source into a
+ * reusable buffer, so no {@link String} is allocated for the captured text. The regular
+ * expressions used in <code>#match?</code> predicates are compiled once per query. Like nvim,
+ * <code>#match?</code> searches for the pattern in the captured text (see
+ * {@link Matcher#find()}). When a capture is quantified, the predicate must be satisfied by every
+ * captured node.
+ * <p>
+ * Instances of this class are not thread safe and must not be shared between query cursors which
+ * are used from multiple threads.
+ *
+ * @author Akash Yadav
+ */
+public class TextPredicateHandler implements TSPredicateHandler {
+
+  public static final String EQ = "eq?";
+  public static final String NOT_EQ = "not-eq?";
+  public static final String MATCH = "match?";
+  public static final String NOT_MATCH = "not-match?";
+  public static final String ANY_OF = "any-of?";
+  public static final String NOT_ANY_OF = "not-any-of?";
+  public static final String[] SUPPORTED_PREDICATES = {EQ, NOT_EQ, MATCH, NOT_MATCH, ANY_OF,
+    NOT_ANY_OF};
+
+  private final Map<TSQuery, Matcher[]> matchers = new WeakHashMap<>();
+  private UTF16String source;
+  private char[] buffer = new char[64];
+  private CharBuffer bufferView = CharBuffer.wrap(buffer);
+
+  /**
+   * Create a new text predicate handler.
+   *
+   * @param source The source which was parsed to create the syntax tree that is being queried.
+   */
+  public TextPredicateHandler(UTF16String source) {
+    setSource(source);
+  }
+
+  /**
+   * @return The source text.
+   */
+  public UTF16String getSource() {
+    return source;
+  }
+
+  /**
+   * Set the source which was parsed to create the syntax tree that is being queried.
+   *
+   * @param source The source text.
+   */
+  public void setSource(UTF16String source) {
+    this.source = Objects.requireNonNull(source, "Source cannot be null");
+  }
+
+  @Override
+  public String[] getSupportedPredicates() {
+    return SUPPORTED_PREDICATES;
+  }
+
+  @Override
+  public Result handle(TSQuery query, TSQueryMatch match, List<PredicateStep> args) {
+    if (args.size() < 3 || args.get(0).type != Type.String || args.get(1).type != Type.Capture) {
+      return Result.UNHANDLED;
+    }
+
+    final var name = args.get(0).value;
+    final boolean negate;
+    final Kind kind;
+    switch (name) {
+      case EQ:
+        negate = false;
+        kind = Kind.EQ;
+        break;
+      case NOT_EQ:
+        negate = true;
+        kind = Kind.EQ;
+        break;
+      case MATCH:
+        negate = false;
+        kind = Kind.MATCH;
+        break;
+      case NOT_MATCH:
+        negate = true;
+        kind = Kind.MATCH;
+        break;
+      case ANY_OF:
+        negate = false;
+        kind = Kind.ANY_OF;
+        break;
+      case NOT_ANY_OF:
+        negate = true;
+        kind = Kind.ANY_OF;
+        break;
+      default:
+        return Result.UNHANDLED;
+    }
+
+    final var captureId = args.get(1).valueId;
+    final var captures = match.getCaptures();
+    if (kind == Kind.EQ && args.size() != 4) {
+      return Result.ERR;
+    }
+
+    if (kind == Kind.MATCH && (args.size() != 4 || args.get(2).type != Type.String)) {
+      return Result.ERR;
+    }
+
+    Matcher matcher = null;
+    if (kind == Kind.MATCH) {
+      try {
+        matcher = getMatcher(query, args.get(2));
+      } catch (PatternSyntaxException e) {
+        return Result.ERR;
+      }
+    }
+
+    // when comparing two captures, the first node of the second capture is compared
+    TSNode other = null;
+    if (kind == Kind.EQ && args.get(2).type == Type.Capture) {
+      for (final var capture : captures) {
+        if (capture.getIndex() == args.get(2).valueId) {
+          other = capture.getNode();
+          break;
+        }
+      }
+
+      if (other == null) {
+        return Result.OK;
+      }
+    }
+
+    for (final var capture : captures) {
+      if (capture.getIndex() != captureId) {
+        continue;
+      }
+
+      // like the natively evaluated predicates, reject the match if the source is out of sync
+      final var length = readText(capture.getNode(), 0);
+      if (length == -1) {
+        return Result.REJECTED;
+      }
+
+      final boolean satisfied;
+      if (kind == Kind.EQ && other != null) {
+        final var otherLength = readText(other, length);
+        if (otherLength == -1) {
+          return Result.REJECTED;
+        }
+        satisfied = equals(length, otherLength);
+      } else if (kind == Kind.EQ) {
+        satisfied = equals(length, args.get(2).value);
+      } else if (kind == Kind.MATCH) {
+        bufferView.clear();
+        bufferView.limit(length);
+        satisfied = matcher.reset(bufferView).find();
+      } else {
+        satisfied = isAnyOf(length, args);
+      }
+
+      if (satisfied == negate) {
+        return Result.REJECTED;
+      }
+    }
+
+    return Result.OK;
+  }
+
+  private Matcher getMatcher(TSQuery query, PredicateStep regex) {
+    var queryMatchers = matchers.get(query);
+    if (queryMatchers == null) {
+      queryMatchers = new Matcher[query.getStringCount()];
+      matchers.put(query, queryMatchers);
+    }
+
+    var matcher = queryMatchers[regex.valueId];
+    if (matcher == null) {
+      matcher = Pattern.compile(regex.value).matcher("");
+      queryMatchers[regex.valueId] = matcher;
+    }
+
+    return matcher;
+  }
+
+  private boolean isAnyOf(int length, List<PredicateStep> args) {
+    // the last step is always Type.Done
+    for (int i = 2; i < args.size() - 1; i++) {
+      final var arg = args.get(i);
+      if (arg.type == Type.String && equals(length, arg.value)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private boolean equals(int length, String str) {
+    if (length != str.length()) {
+      return false;
+    }
+
+    for (int i = 0; i < length; i++) {
+      if (buffer[i] != str.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private boolean equals(int length, int otherLength) {
+    if (length != otherLength) {
+      return false;
+    }
+
+    for (int i = 0; i < length; i++) {
+      if (buffer[i] != buffer[length + i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Reads the text of the given node into the buffer at the given offset.
+   *
+   * @return The length of the text, or <code>-1</code> if the node is out of the bounds of the
+   * source text (for example, if the source has been edited after it was parsed).
+   */
+  private int readText(TSNode node, int offset) {
+    // byte offsets in the syntax tree are UTF-16 based
+    final var start = node.getStartByte() / 2;
+    final var end = node.getEndByte() / 2;
+    if (start > end || end > source.length()) {
+      return -1;
+    }
+
+    final var length = end - start;
+    ensureCapacity(offset + length);
+    source.getChars(start, end, buffer, offset);
+    return length;
+  }
+
+  private void ensureCapacity(int capacity) {
+    if (buffer.length >= capacity) {
+      return;
+    }
+
+    final var newBuffer = new char[Math.max(capacity, buffer.length * 2)];
+    System.arraycopy(buffer, 0, newBuffer, 0, buffer.length);
+    buffer = newBuffer;
+    bufferView = CharBuffer.wrap(buffer);
+  }
+
+  private enum Kind {
+    EQ, MATCH, ANY_OF
+  }
+}
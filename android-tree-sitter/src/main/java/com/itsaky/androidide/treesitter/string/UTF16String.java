@@ -75,6 +75,37 @@ public class UTF16String extends TSNativeObject implements CharSequence {
     return Native.chatAt(getNativeObject(), index);
   }
 
+  /**
+   * Copy the characters between the given indices to the given destination array. This copies the
+   * characters with a single JNI call, so it should be preferred over calling
+   * {@link #charAt(int)} for each character.
+   *
+   * @param srcBegin The index of the first character to copy.
+   * @param srcEnd   The index after the last character to copy.
+   * @param dst      The destination array.
+   * @param dstBegin The start offset in the destination array.
+   * @see String#getChars(int, int, char[], int)
+   */
+  public void getChars(int srcBegin, int srcEnd, char[] dst, int dstBegin) {
+    final var size = length();
+    if (srcBegin < 0 || srcBegin > srcEnd) {
+      throw new IndexOutOfBoundsException("srcBegin: " + srcBegin + ", srcEnd: " + srcEnd);
+    }
+    checkUpperBound(srcEnd, size);
+    if (dstBegin < 0 || dstBegin + (srcEnd - srcBegin) > dst.length) {
+      throw new IndexOutOfBoundsException(
+        "dstBegin: " + dstBegin + ", count: " + (srcEnd - srcBegin) + ", dst.length: " +
+          dst.length);
+    }
+
+    if (srcBegin == srcEnd) {
+      return;
+    }
+
+    checkAccess();
+    Native.getChars(getNativeObject(), srcBegin, srcEnd, dst, dstBegin);
+  }
+
   /**
    * Set the char at the given index.
    *
@@ -464,6 +495,9 @@ public class UTF16String extends TSNativeObject implements CharSequence {
     @FastNative
     static native void setCharAt(long pointer, int index, char c);
 
+    @FastNative
+    static native void getChars(long pointer, int start, int end, char[] dst, int dstBegin);
+
     @FastNative
     static native void append(long pointer, String str);
 
@@ -0,0 +1,81 @@
+/*
+ *  This file is part of AndroidIDE.
+ *
+ *  AndroidIDE is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  AndroidIDE is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *   along with AndroidIDE.  If not, see <https://www.gnu.org/licenses/\>.
+ */
+
+package com.itsaky.androidide.treesitter;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.itsaky.androidide.treesitter.TestUtils.readString;
+
+import com.itsaky.androidide.treesitter.java.TSLanguageJava;
+import com.itsaky.androidide.treesitter.string.UTF16StringFactory;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/**
+ * @author Akash Yadav
+ */
+@RunWith(RobolectricTestRunner.class)
+public class HighlighterTest extends TreeSitterTest {
+
+  @Test
+  public void testIncrementalHighlighting() throws Exception {
+    final var lang = TSLanguageJava.getInstance();
+    final var source = UTF16StringFactory.newString(
+      "class Main {\n  void main() {}\n  int x = 1;\n}\n");
+    try (final var parser = TSParser.create(); final var query = TSQuery.create(lang,
+      readString(Paths.get("./src/test/resources/highlights-java.scm")));
+         final var highlighter = new TSHighlighter(query);
+         final var expected = new TSHighlighter(query)) {
+      parser.setLanguage(lang);
+
+      try (final var oldTree = parser.parseString(source)) {
+        highlighter.highlight(oldTree, source);
+        assertThat(highlighter.getSpans().size()).isGreaterThan(0);
+
+        // insert a method after 'void main() {}'
+        final var text = " void a() { return; }";
+        source.insert(29, text);
+        final var edit = TSInputEdit.create(58, 58, 58 + text.length() * 2, TSPoint.create(1, 32),
+          TSPoint.create(1, 32), TSPoint.create(1, 32 + text.length() * 2));
+        oldTree.edit(edit);
+
+        try (final var newTree = parser.parseString(oldTree, source)) {
+          highlighter.update(oldTree, newTree, edit, source);
+          expected.highlight(newTree, source);
+
+          assertThat(spansOf(highlighter, 0, Integer.MAX_VALUE)).containsExactlyElementsIn(
+            spansOf(expected, 0, Integer.MAX_VALUE));
+          assertThat(spansOf(highlighter, 58, 58 + text.length() * 2)).isNotEmpty();
+        }
+      }
+    } finally {
+      source.close();
+    }
+  }
+
+  private static List<String> spansOf(TSHighlighter highlighter, int startByte, int endByte) {
+    final var spans = new ArrayList<String>();
+    highlighter.forEachSpan(startByte, endByte,
+      (index, start, end, captureIndex, patternIndex) -> spans.add(
+        start + ".." + end + ":" + captureIndex + ":" + patternIndex));
+    return spans;
+  }
+}
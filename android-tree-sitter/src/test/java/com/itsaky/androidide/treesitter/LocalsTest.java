@@ -0,0 +1,136 @@
+/*
+ *  This file is part of AndroidIDE.
+ *
+ *  AndroidIDE is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  AndroidIDE is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *   along with AndroidIDE.  If not, see <https://www.gnu.org/licenses/\>.
+ */
+
+package com.itsaky.androidide.treesitter;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.itsaky.androidide.treesitter.java.TSLanguageJava;
+import com.itsaky.androidide.treesitter.string.UTF16StringFactory;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/**
+ * @author Akash Yadav
+ */
+@RunWith(RobolectricTestRunner.class)
+public class LocalsTest extends TreeSitterTest {
+
+  private static final String LOCALS_QUERY = "(method_declaration) @local.scope\n" +
+    "(block) @local.scope\n" +
+    "(formal_parameter name: (identifier) @local.definition.parameter)\n" +
+    "(variable_declarator name: (identifier) @local.definition.var)\n" +
+    "(identifier) @local.reference";
+
+  @Test
+  public void testResolveReferences() {
+    final var lang = TSLanguageJava.getInstance();
+    final var text = "class A { void f(int x) { int y = x; { int x = 2; y = x; } } }";
+    final var source = UTF16StringFactory.newString(text);
+    try (final var parser = TSParser.create(); final var query = TSQuery.create(lang,
+      LOCALS_QUERY); final var locals = new TSLocals(query)) {
+      parser.setLanguage(lang);
+      try (final var tree = parser.parseString(source)) {
+        locals.compute(tree, source);
+
+        final var parameter = locals.findDefinition(byteOf(text, "x)"));
+        assertThat(parameter).isNotNull();
+        assertThat(parameter.getKind()).isEqualTo("parameter");
+        assertThat(locals.findDefinition(byteOf(text, "x;"))).isSameInstanceAs(parameter);
+
+        final var inner = locals.getDefinitionAt(byteOf(text, "x = 2"));
+        assertThat(inner).isNotNull();
+        assertThat(inner.getKind()).isEqualTo("var");
+        assertThat(inner).isNotSameInstanceAs(parameter);
+        assertThat(locals.findDefinition(text.lastIndexOf("x;") * 2)).isSameInstanceAs(inner);
+
+        final var y = locals.findDefinition(byteOf(text, "y = x;"));
+        assertThat(y.getName()).isEqualTo("y");
+        assertThat(locals.findReferences(y)).hasSize(1);
+        assertThat(locals.findReferences(parameter)).hasSize(1);
+
+        // class and method names are not defined in the query
+        assertThat(locals.findDefinition(byteOf(text, "A"))).isNull();
+        assertThat(locals.getReferenceAt(byteOf(text, "A"))).isNotNull();
+      }
+    } finally {
+      source.close();
+    }
+  }
+
+  @Test
+  public void testIncrementalUpdate() {
+    final var lang = TSLanguageJava.getInstance();
+    final var text = "class A { void f(int x) { int y = x; { int x = 2; y = x; } } }";
+    final var source = UTF16StringFactory.newString(text);
+    try (final var parser = TSParser.create(); final var query = TSQuery.create(lang,
+      LOCALS_QUERY); final var locals = new TSLocals(query);
+         final var expected = new TSLocals(query)) {
+      parser.setLanguage(lang);
+      try (final var oldTree = parser.parseString(source)) {
+        locals.compute(oldTree, source);
+
+        // rename the inner 'x' to 'z'
+        final var index = text.indexOf("x = 2");
+        source.replaceChars(index, index + 1, "z");
+        final var edit = TSInputEdit.create(index * 2, index * 2 + 2, index * 2 + 2,
+          TSPoint.create(0, index * 2), TSPoint.create(0, index * 2 + 2),
+          TSPoint.create(0, index * 2 + 2));
+        oldTree.edit(edit);
+
+        try (final var newTree = parser.parseString(oldTree, source)) {
+          locals.update(oldTree, newTree, edit, source);
+          expected.compute(newTree, source);
+
+          // the last 'x' now refers to the parameter
+          final var lastX = text.lastIndexOf("x;") * 2;
+          final var parameter = locals.findDefinition(lastX);
+          assertThat(parameter).isNotNull();
+          assertThat(parameter.getKind()).isEqualTo("parameter");
+          assertThat(locals.findReferences(parameter)).hasSize(2);
+          assertThat(locals.getDefinitionAt(index * 2).getName()).isEqualTo("z");
+
+          assertThat(describe(locals.getRootScope())).isEqualTo(describe(expected.getRootScope()));
+        }
+      }
+    } finally {
+      source.close();
+    }
+  }
+
+  private static int byteOf(String text, String str) {
+    return text.indexOf(str) * 2;
+  }
+
+  private static String describe(TSLocals.Scope scope) {
+    final var sb = new StringBuilder();
+    sb.append('[').append(scope.getStartByte()).append(',').append(scope.getEndByte());
+    for (final var definition : scope.getDefinitions()) {
+      sb.append(" def:").append(definition.getName()).append('@').append(definition.getStartByte());
+    }
+    for (final var reference : scope.getReferences()) {
+      final var definition = reference.getDefinition();
+      sb.append(" ref:").append(reference.getName()).append('@').append(reference.getStartByte())
+        .append("->").append(definition == null ? -1 : definition.getStartByte());
+    }
+    for (final var child : scope.getChildren()) {
+      sb.append(' ').append(describe(child));
+    }
+    return sb.append(']').toString();
+  }
+}
@@ -20,7 +20,9 @@ package com.itsaky.androidide.treesitter;
 import static com.google.common.truth.Truth.assertThat;
 import static com.itsaky.androidide.treesitter.string.UTF16StringFactory.newString;
 
+import com.itsaky.androidide.treesitter.java.TSLanguageJava;
 import com.itsaky.androidide.treesitter.python.TSLanguagePython;
+import java.io.IOException;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.robolectric.RobolectricTestRunner;
@@ -130,4 +132,43 @@ public class NodeTest extends TreeSitterTest {
       }
     }
   }
+
+  @Test
+  public void testWriteSExpression() throws IOException {
+    try (TSParser parser = TSParser.create()) {
+      parser.setLanguage(TSLanguagePython.getInstance());
+      try (TSTree tree = parser.parseString("def foo(bar, baz):\n  print(bar)\n  print(baz)")) {
+        final var root = tree.getRootNode();
+
+        var out = new StringBuilder();
+        root.writeSExpression(out, new TSNode.SExpressionOptions().setChunkSize(16));
+        assertThat(out.toString()).isEqualTo(root.getNodeString());
+
+        out = new StringBuilder();
+        root.writeSExpression(out, new TSNode.SExpressionOptions().setMaxDepth(1));
+        assertThat(out.toString()).isEqualTo("(module (function_definition ...))");
+
+        out = new StringBuilder();
+        root.writeSExpression(out,
+          new TSNode.SExpressionOptions().setMaxDepth(0).setIncludePositions(true));
+        assertThat(out.toString()).isEqualTo("(module [0, 0] - [2, 24] ...)");
+      }
+    }
+  }
+
+  @Test
+  public void testWriteSExpressionWithMissingNode() throws IOException {
+    try (TSParser parser = TSParser.create()) {
+      parser.setLanguage(TSLanguageJava.getInstance());
+      try (TSTree tree = parser.parseString("class Main { int x = 1 }")) {
+        final var root = tree.getRootNode();
+        assertThat(root.hasErrors()).isTrue();
+
+        final var out = new StringBuilder();
+        root.writeSExpression(out, null);
+        assertThat(out.toString()).isEqualTo(root.getNodeString());
+        assertThat(out.toString()).contains("(MISSING \";\")");
+      }
+    }
+  }
 }
@@ -0,0 +1,129 @@
+/*
+ *  This file is part of AndroidIDE.
+ *
+ *  AndroidIDE is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  AndroidIDE is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *   along with AndroidIDE.  If not, see <https://www.gnu.org/licenses/\>.
+ */
+
+package com.itsaky.androidide.treesitter;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.itsaky.androidide.treesitter.TestUtils.readString;
+
+import com.itsaky.androidide.treesitter.java.TSLanguageJava;
+import com.itsaky.androidide.treesitter.predicate.TextPredicateHandler;
+import com.itsaky.androidide.treesitter.string.UTF16StringFactory;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/**
+ * @author Akash Yadav
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ParallelQueryTest extends TreeSitterTest {
+
+  @Test
+  public void testParallelQueryMatchesSequentialQuery() throws Exception {
+    final var executor = Executors.newFixedThreadPool(4);
+    try (final var parser = TSParser.create()) {
+      parser.setLanguage(TSLanguageJava.getInstance());
+      final var source = "class A { void a() {} }\nclass B { int b; void c() {} }\n"
+        + "class C { void d() {} }\ninterface D { void e(); }\n";
+      try (final var tree = parser.parseString(source); final var query = TSQuery.create(
+        parser.getLanguage(), readString(Paths.get("./src/test/resources/highlights-java.scm")))) {
+
+        final var expected = new ArrayList<String>();
+        try (final var cursor = TSQueryCursor.create()) {
+          cursor.exec(query, tree.getRootNode());
+          for (final var match : cursor) {
+            expected.add(describe(match));
+          }
+        }
+
+        try (final var parallelQuery = new TSParallelQuery(executor, 4);
+             final var result = parallelQuery.exec(query, tree, null)) {
+          final var matches = result.getMatches();
+          final var actual = new ArrayList<String>();
+          var lastStart = -1;
+          for (final var match : matches) {
+            var start = Integer.MAX_VALUE;
+            for (final var capture : match.getCaptures()) {
+              start = Math.min(start, capture.getNode().getStartByte());
+            }
+            assertThat(start).isAtLeast(lastStart);
+            lastStart = start;
+            actual.add(describe(match));
+          }
+
+          assertThat(actual).containsExactlyElementsIn(expected);
+        }
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testPredicateHandlersAreCreatedForEachExecution() throws Exception {
+    final var executor = Executors.newFixedThreadPool(2);
+    try (final var parser = TSParser.create()) {
+      parser.setLanguage(TSLanguageJava.getInstance());
+
+      // groups are not supported by the native regex engine, so the handler evaluates the predicate
+      try (final var query = TSQuery.create(parser.getLanguage(),
+        "((class_declaration name: (identifier) @name) (#match? @name \"^(A|B)$\"))");
+           final var parallelQuery = new TSParallelQuery(executor, 2)) {
+        parallelQuery.addPredicateHandler(TextPredicateHandler::new);
+        assertThat(classNames(parser, parallelQuery, query, "class A {}\nclass X {}\n"))
+          .containsExactly("A");
+        assertThat(classNames(parser, parallelQuery, query, "class X {}\nclass B {}\n"))
+          .containsExactly("B");
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  private static List<String> classNames(TSParser parser, TSParallelQuery parallelQuery,
+                                         TSQuery query, String text
+  ) throws InterruptedException {
+    final var names = new ArrayList<String>();
+    // the source is closed before the next execution
+    final var source = UTF16StringFactory.newString(text);
+    try (final var tree = parser.parseString(source);
+         final var result = parallelQuery.exec(query, tree, source)) {
+      for (final var match : result.getMatches()) {
+        final var node = match.getCaptures()[0].getNode();
+        names.add(source.substringBytes(node.getStartByte(), node.getEndByte()));
+      }
+    } finally {
+      source.close();
+    }
+    return names;
+  }
+
+  private static String describe(TSQueryMatch match) {
+    final var sb = new StringBuilder().append(match.getPatternIndex());
+    for (final var capture : match.getCaptures()) {
+      final var node = capture.getNode();
+      sb.append(' ').append(capture.getIndex()).append('@').append(node.getStartByte()).append('-')
+        .append(node.getEndByte());
+    }
+    return sb.toString();
+  }
+}
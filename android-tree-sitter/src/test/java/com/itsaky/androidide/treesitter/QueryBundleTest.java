@@ -0,0 +1,138 @@
+/*
+ *  This file is part of AndroidIDE.
+ *
+ *  AndroidIDE is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  AndroidIDE is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *   along with AndroidIDE.  If not, see <https://www.gnu.org/licenses/\>.
+ */
+
+package com.itsaky.androidide.treesitter;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.itsaky.androidide.treesitter.TestUtils.readString;
+
+import com.itsaky.androidide.treesitter.java.TSLanguageJava;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/**
+ * @author Akash Yadav
+ */
+@RunWith(RobolectricTestRunner.class)
+public class QueryBundleTest extends TreeSitterTest {
+
+  private static final String LOCALS_QUERY = "(method_declaration) @local.scope\n" +
+    "; a comment with an @ sign\n" +
+    "((identifier) @local.reference (#not-eq? @local.reference \"@x\"))";
+
+  @Test
+  public void testNamespaceCaptures() {
+    assertThat(TSQueryBundle.namespaceCaptures(LOCALS_QUERY, "locals")).isEqualTo(
+      "(method_declaration) @locals.local.scope\n" + "; a comment with an @ sign\n" +
+        "((identifier) @locals.local.reference (#not-eq? @locals.local.reference \"@x\"))");
+  }
+
+  @Test
+  public void testBundleRoutesMatchesToSources() throws Exception {
+    final var lang = TSLanguageJava.getInstance();
+    final var highlights = readString(Paths.get("./src/test/resources/highlights-java.scm"));
+    final var sources = new LinkedHashMap<String, String>();
+    sources.put("highlights", highlights);
+    sources.put("locals", LOCALS_QUERY);
+
+    try (final var parser = TSParser.create(); final var bundle = TSQueryBundle.create(lang,
+      sources); final var highlightsQuery = TSQuery.create(lang, highlights);
+         final var localsQuery = TSQuery.create(lang, LOCALS_QUERY);
+         final var cursor = TSQueryCursor.create()) {
+      parser.setLanguage(lang);
+      assertThat(bundle.getQuery().canAccess()).isTrue();
+      assertThat(bundle.getErrorSource()).isEqualTo(-1);
+      assertThat(bundle.getSourceCount()).isEqualTo(2);
+      assertThat(bundle.getSourceIndex("locals")).isEqualTo(1);
+      assertThat(bundle.getPatternOffset(0)).isEqualTo(0);
+      assertThat(bundle.getPatternCount(0)).isEqualTo(highlightsQuery.getPatternCount());
+      assertThat(bundle.getPatternOffset(1)).isEqualTo(highlightsQuery.getPatternCount());
+      assertThat(bundle.getPatternCount(1)).isEqualTo(2);
+
+      final var captureNames = bundle.getQuery().getCaptureNames();
+      for (int i = 0; i < captureNames.length; i++) {
+        final var namespace = bundle.getNamespace(bundle.getSourceForCapture(i));
+        assertThat(captureNames[i]).isEqualTo(namespace + "." + bundle.getLocalCaptureName(i));
+      }
+
+      try (final var tree = parser.parseString("class Main { void a() { b(); } }")) {
+        final var counts = new int[2];
+        bundle.forEachMatch(cursor, tree.getRootNode(), null, (source, pattern, match) -> {
+          assertThat(pattern).isLessThan(bundle.getPatternCount(source));
+          for (final var capture : match.getCaptures()) {
+            assertThat(bundle.getSourceForCapture(capture.getIndex())).isEqualTo(source);
+          }
+          ++counts[source];
+          return true;
+        });
+
+        assertThat(counts[0]).isEqualTo(countMatches(cursor, highlightsQuery, tree));
+        assertThat(counts[1]).isEqualTo(countMatches(cursor, localsQuery, tree));
+      }
+    }
+  }
+
+  @Test
+  public void testErrorIsReportedInItsSource() {
+    final var lang = TSLanguageJava.getInstance();
+    final Map<String, String> sources = new LinkedHashMap<>();
+    sources.put("a", "(identifier) @id");
+    sources.put("b", "(identifier @id");
+    try (final var bundle = TSQueryBundle.create(lang, sources)) {
+      assertThat(bundle.getQuery().canAccess()).isFalse();
+      assertThat(bundle.getErrorSource()).isEqualTo(1);
+      assertThat(bundle.getErrorOffset()).isAtLeast(0);
+    }
+  }
+
+  @Test
+  public void testSupplementaryCharactersInSources() {
+    final var lang = TSLanguageJava.getInstance();
+    final Map<String, String> sources = new LinkedHashMap<>();
+    sources.put("a", "; \uD83D\uDE00\uD83D\uDE00 a comment\n" +
+      "((string_literal) @str (#not-eq? @str \"\\\"\uD83D\uDE00\\\"\"))");
+    sources.put("b", "(class_declaration) @class\n(method_declaration) @method");
+    try (final var bundle = TSQueryBundle.create(lang, sources)) {
+      assertThat(bundle.getQuery().canAccess()).isTrue();
+      assertThat(bundle.getPatternCount(0)).isEqualTo(1);
+      assertThat(bundle.getPatternCount(1)).isEqualTo(2);
+      assertThat(bundle.getSourceForPattern(0)).isEqualTo(0);
+      assertThat(bundle.getSourceForPattern(1)).isEqualTo(1);
+      assertThat(bundle.getSourceForPattern(2)).isEqualTo(1);
+    }
+
+    sources.put("b", "(identifier @id");
+    try (final var bundle = TSQueryBundle.create(lang, sources)) {
+      assertThat(bundle.getQuery().canAccess()).isFalse();
+      assertThat(bundle.getErrorSource()).isEqualTo(1);
+      assertThat(bundle.getErrorOffset()).isAtLeast(0);
+    }
+  }
+
+  private static int countMatches(TSQueryCursor cursor, TSQuery query, TSTree tree) {
+    cursor.exec(query, tree.getRootNode());
+    var count = 0;
+    while (cursor.nextMatch() != null) {
+      ++count;
+    }
+    return count;
+  }
+}
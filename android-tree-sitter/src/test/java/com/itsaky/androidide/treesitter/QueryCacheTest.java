@@ -0,0 +1,168 @@
+/*
+ *  This file is part of android-tree-sitter.
+ *
+ *  android-tree-sitter library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  android-tree-sitter library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *  along with android-tree-sitter.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.itsaky.androidide.treesitter;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.itsaky.androidide.treesitter.java.TSLanguageJava;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/**
+ * @author Akash Yadav
+ */
+
+@RunWith(RobolectricTestRunner.class)
+public class QueryCacheTest extends TreeSitterTest {
+
+  @Test
+  public void testSharedQuery() {
+    final var cache = new TSQueryCache(4);
+    final var lang = TSLanguageJava.getInstance();
+    try (final var first = cache.acquire(lang, "(class_declaration) @class");
+         final var second = cache.acquire(lang, "(class_declaration) @class")) {
+      assertThat(first.getQuery().canAccess()).isTrue();
+      assertThat(second.getQuery()).isSameInstanceAs(first.getQuery());
+
+      final var stats = cache.getStats();
+      assertThat(stats.hits).isEqualTo(1);
+      assertThat(stats.misses).isEqualTo(1);
+      assertThat(stats.size).isEqualTo(1);
+      assertThat(stats.referenced).isEqualTo(1);
+    }
+
+    assertThat(cache.getStats().referenced).isEqualTo(0);
+    assertThat(cache.getStats().size).isEqualTo(1);
+  }
+
+  @Test
+  public void testEvictUnreferenced() {
+    final var cache = new TSQueryCache(1);
+    final var lang = TSLanguageJava.getInstance();
+    final var first = cache.acquire(lang, "(class_declaration) @class");
+    final var second = cache.acquire(lang, "(method_declaration) @method");
+    final var firstQuery = first.getQuery();
+    final var secondQuery = second.getQuery();
+
+    first.close();
+    assertThat(firstQuery.canAccess()).isTrue();
+
+    second.close();
+    assertThat(firstQuery.canAccess()).isFalse();
+    assertThat(secondQuery.canAccess()).isTrue();
+    assertThat(cache.getStats().evictions).isEqualTo(1);
+
+    cache.trim();
+    assertThat(secondQuery.canAccess()).isFalse();
+    assertThat(cache.getStats().size).isEqualTo(0);
+  }
+
+  @Test
+  public void testInvalidQueryIsNotCached() {
+    final var cache = new TSQueryCache(4);
+    final var lang = TSLanguageJava.getInstance();
+    try (final var ref = cache.acquire(lang, "(class_declaration")) {
+      assertThat(ref.getQuery().canAccess()).isFalse();
+      assertThat(cache.getStats().size).isEqualTo(0);
+    }
+  }
+
+  @Test
+  public void testQueryVariantWithDisabledPatterns() {
+    final var cache = new TSQueryCache(4);
+    final var lang = TSLanguageJava.getInstance();
+    final var source = "(class_declaration name: (identifier) @class)\n" +
+      "(method_declaration name: (identifier) @method)";
+    try (final var parser = TSParser.create();
+         final var full = cache.acquire(lang, source);
+         final var noMethods = cache.acquire(lang, source, Set.of(1), Collections.emptySet());
+         final var noClasses = cache.acquire(lang, source, Collections.emptySet(), Set.of("class"));
+         final var again = cache.acquire(lang, source, Set.of(1), Collections.emptySet())) {
+      assertThat(noMethods.getQuery()).isNotSameInstanceAs(full.getQuery());
+      assertThat(again.getQuery()).isSameInstanceAs(noMethods.getQuery());
+      assertThat(cache.getStats().size).isEqualTo(3);
+
+      parser.setLanguage(lang);
+      try (final var tree = parser.parseString("class Main { void main() {} }")) {
+        assertThat(captureNames(noMethods.getQuery(), tree)).containsExactly("class");
+        assertThat(captureNames(noClasses.getQuery(), tree)).containsExactly("method");
+        assertThat(captureNames(full.getQuery(), tree)).containsExactly("class", "method");
+      }
+    }
+  }
+
+  @Test
+  public void testConcurrentAcquireCompilesOnce() throws InterruptedException {
+    final var cache = new TSQueryCache(4);
+    final var lang = TSLanguageJava.getInstance();
+    final var key = new TSQueryCache.Key(lang.getNativeObject(), "(class_declaration) @class");
+    final var compiling = new CountDownLatch(1);
+    final var release = new CountDownLatch(1);
+    final var compiles = new AtomicInteger();
+    final TSQueryCache.QueryCompiler compiler = () -> {
+      compiles.incrementAndGet();
+      compiling.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      return TSQuery.create(lang, "(class_declaration) @class");
+    };
+
+    final var refs = new TSQueryCache.Ref[2];
+    final var first = new Thread(() -> refs[0] = cache.acquire(key, compiler));
+    final var second = new Thread(() -> refs[1] = cache.acquire(key, compiler));
+    first.start();
+    compiling.await();
+    second.start();
+
+    // other queries can be acquired while the query is being compiled
+    try (final var other = cache.acquire(lang, "(method_declaration) @method")) {
+      assertThat(other.getQuery().canAccess()).isTrue();
+    }
+
+    release.countDown();
+    first.join();
+    second.join();
+
+    assertThat(compiles.get()).isEqualTo(1);
+    assertThat(refs[1].getQuery()).isSameInstanceAs(refs[0].getQuery());
+    refs[0].close();
+    refs[1].close();
+  }
+
+  private static ArrayList<String> captureNames(TSQuery query, TSTree tree) {
+    final var names = new ArrayList<String>();
+    try (final var cursor = TSQueryCursor.create()) {
+      cursor.exec(query, tree.getRootNode());
+      for (final var match : cursor) {
+        for (final var capture : match.getCaptures()) {
+          names.add(query.getCaptureNameForId(capture.getIndex()));
+        }
+      }
+    }
+    return names;
+  }
+}
@@ -0,0 +1,146 @@
+/*
+ *  This file is part of AndroidIDE.
+ *
+ *  AndroidIDE is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  AndroidIDE is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *   along with AndroidIDE.  If not, see <https://www.gnu.org/licenses/\>.
+ */
+
+package com.itsaky.androidide.treesitter;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import com.itsaky.androidide.treesitter.java.TSLanguageJava;
+import com.itsaky.androidide.treesitter.predicate.SetDirectiveHandler;
+import com.itsaky.androidide.treesitter.predicate.TSPredicateHandler;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/**
+ * @author Akash Yadav
+ */
+@RunWith(RobolectricTestRunner.class)
+public class QueryCursorPoolTest extends TreeSitterTest {
+
+  @Test
+  public void testCursorsAreReusedAndReset() {
+    final var lang = TSLanguageJava.getInstance();
+    final var handlers = new ArrayList<TSPredicateHandler>();
+    try (final var pool = new TSQueryCursorPool(2); final var parser = TSParser.create();
+         final var query = TSQuery.create(lang, "(method_declaration) @method")) {
+      pool.addPredicateHandler(() -> {
+        final var handler = new SetDirectiveHandler();
+        handlers.add(handler);
+        return handler;
+      });
+
+      parser.setLanguage(lang);
+      try (final var tree = parser.parseString("class Main { void a() {} void b() {} }")) {
+        final TSQueryCursor first;
+        try (final var ref = pool.acquire()) {
+          first = ref.getCursor();
+          assertThat(first.predicateHandlers).containsExactlyElementsIn(handlers);
+
+          // the methods are at the bytes [26, 48) and [50, 72)
+          first.setByteRange(40, 48);
+          first.addPredicateHandler(new SetDirectiveHandler());
+          first.exec(query, tree.getRootNode());
+          assertThat(collect(first)).hasSize(1);
+        }
+
+        try (final var ref = pool.acquire()) {
+          assertThat(ref.getCursor()).isSameInstanceAs(first);
+          assertThat(first.predicateHandlers).containsExactlyElementsIn(handlers);
+          assertThat(first.getMaxStartDepth()).isEqualTo(-1);
+
+          // the byte range has been reset
+          first.exec(query, tree.getRootNode());
+          assertThat(collect(first)).hasSize(2);
+        }
+
+        final var stats = pool.getStats();
+        assertThat(stats.created).isEqualTo(1);
+        assertThat(stats.acquisitions).isEqualTo(2);
+        assertThat(stats.inUse).isEqualTo(0);
+        assertThat(stats.idle).isEqualTo(1);
+        assertThat(stats.peakInUse).isEqualTo(1);
+        assertThat(stats.getReuseRatio()).isEqualTo(0.5);
+      }
+    }
+  }
+
+  @Test
+  public void testCursorsBeyondMaxIdleAreClosed() {
+    try (final var pool = new TSQueryCursorPool(1)) {
+      final var first = pool.acquire();
+      final var second = pool.acquire();
+      final var firstCursor = first.getCursor();
+      final var secondCursor = second.getCursor();
+      assertThat(pool.getStats().peakInUse).isEqualTo(2);
+
+      first.close();
+      second.close();
+      assertThat(firstCursor.canAccess()).isTrue();
+      assertThat(secondCursor.canAccess()).isFalse();
+
+      pool.close();
+      assertThat(firstCursor.canAccess()).isFalse();
+    }
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testReleasedRefCannotBeUsed() {
+    try (final var pool = new TSQueryCursorPool(1)) {
+      final var ref = pool.acquire();
+      ref.close();
+      ref.getCursor();
+    }
+  }
+
+  @Test
+  public void testFailingHandlerFactoryDoesNotLeakCursors() {
+    try (final var pool = new TSQueryCursorPool(1)) {
+      final var fail = new boolean[]{true};
+      pool.addPredicateHandler(() -> {
+        if (fail[0]) {
+          throw new IllegalStateException("Cannot create handler");
+        }
+        return new SetDirectiveHandler();
+      });
+
+      assertThrows(IllegalStateException.class, pool::acquire);
+      final var stats = pool.getStats();
+      assertThat(stats.inUse).isEqualTo(0);
+      assertThat(stats.acquisitions).isEqualTo(0);
+      assertThat(stats.idle).isEqualTo(1);
+
+      // the cursor is reused and the handler is created when the factory succeeds
+      fail[0] = false;
+      try (final var ref = pool.acquire()) {
+        assertThat(ref.getCursor().predicateHandlers).hasSize(1);
+      }
+      assertThat(pool.getStats().created).isEqualTo(1);
+    }
+  }
+
+  private static List<TSQueryMatch> collect(TSQueryCursor cursor) {
+    final var matches = new ArrayList<TSQueryMatch>();
+    for (final var match : cursor) {
+      matches.add(match);
+    }
+    return matches;
+  }
+}
@@ -25,6 +25,7 @@ import com.itsaky.androidide.treesitter.java.TSLanguageJava;
 import com.itsaky.androidide.treesitter.string.UTF16StringFactory;
 import com.itsaky.androidide.treesitter.xml.TSLanguageXml;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.NoSuchElementException;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -417,6 +418,252 @@ public class QueryTest extends TreeSitterTest {
     }
   }
 
+  @Test
+  public void testQueryCursorCaptures() {
+    final var lang = TSLanguageJava.getInstance();
+    try (final var parser = TSParser.create()) {
+      parser.setLanguage(lang);
+      String javaSource = "public class Main { void a() {} class Inner { void b() {} } void c() {} }";
+      String querySource = "(method_declaration name: (identifier) @method)\n(class_declaration name: (identifier) @class)";
+
+      try (final var tree = parser.parseString(javaSource); final var query = TSQuery.create(lang,
+        querySource); final var cursor = TSQueryCursor.create()) {
+
+        assertThat(query.canAccess()).isTrue();
+        cursor.exec(query, tree.getRootNode());
+
+        final var names = new ArrayList<String>();
+        final var patterns = new ArrayList<Integer>();
+        var lastStart = -1;
+        for (final var capture : cursor.captures()) {
+          final var node = capture.getNode();
+          assertThat(node.getStartByte()).isAtLeast(lastStart);
+          lastStart = node.getStartByte();
+          names.add(javaSource.substring(node.getStartByte() / 2, node.getEndByte() / 2));
+          patterns.add(cursor.getCapturePatternIndex());
+        }
+
+        // captures are returned in document order, not in the order of the patterns
+        assertThat(names).containsExactly("Main", "a", "Inner", "b", "c").inOrder();
+        assertThat(patterns).containsExactly(1, 0, 1, 0, 0).inOrder();
+        assertThat(cursor.nextCapture()).isNull();
+      }
+    }
+  }
+
+  @Test
+  public void testNextMatchesIntoBuffer() {
+    final var lang = TSLanguageJava.getInstance();
+    try (final var parser = TSParser.create()) {
+      parser.setLanguage(lang);
+      String javaSource = "public class Main { void a() {} void b() {} void c() {} void d() {} void e() {} }";
+      String querySource = "(method_declaration name: (identifier) @method_name)";
+
+      try (final var tree = parser.parseString(javaSource); final var query = TSQuery.create(lang,
+        querySource); final var cursor = TSQueryCursor.create()) {
+
+        assertThat(query.canAccess()).isTrue();
+        cursor.exec(query, tree.getRootNode());
+
+        // start with a small buffer so that it has to grow
+        final var buffer = new TSQueryMatchBuffer(1, 1);
+        assertThat(cursor.nextMatches(buffer, 3)).isEqualTo(3);
+        assertThat(buffer.getMatchCount()).isEqualTo(3);
+        assertThat(buffer.getCaptureCount()).isEqualTo(3);
+
+        final var names = new ArrayList<String>();
+        for (int i = 0; i < buffer.getMatchCount(); i++) {
+          assertThat(buffer.getPatternIndex(i)).isEqualTo(0);
+          assertThat(buffer.getMatchCaptureCount(i)).isEqualTo(1);
+          final var capture = buffer.getMatchCaptureStart(i);
+          assertThat(buffer.getCaptureIndex(capture)).isEqualTo(0);
+          assertThat(buffer.getStartPoint(capture).getRow()).isEqualTo(0);
+          names.add(javaSource.substring(buffer.getStartByte(capture) / 2,
+            buffer.getEndByte(capture) / 2));
+        }
+        assertThat(names).containsExactly("a", "b", "c").inOrder();
+
+        assertThat(cursor.nextMatches(buffer, 3)).isEqualTo(2);
+        assertThat(buffer.getMatchCount()).isEqualTo(2);
+        assertThat(cursor.nextMatches(buffer, 3)).isEqualTo(0);
+        assertThat(buffer.getMatchCount()).isEqualTo(0);
+      }
+    }
+  }
+
+  @Test
+  public void testForEachMatch() {
+    final var lang = TSLanguageJava.getInstance();
+    try (final var parser = TSParser.create()) {
+      parser.setLanguage(lang);
+      String javaSource = "public class Main { void a() {} void b() {} void c() {} }";
+      String querySource = "(method_declaration name: (identifier) @method_name)";
+
+      try (final var tree = parser.parseString(javaSource); final var query = TSQuery.create(lang,
+        querySource); final var cursor = TSQueryCursor.create()) {
+
+        final var names = new ArrayList<String>();
+        final var matches = new int[1];
+        cursor.forEachMatch(query, tree.getRootNode(), new TSQueryMatchVisitor() {
+          @Override
+          public boolean visitCapture(Match match, int captureIndex, int captureId, int symbol,
+                                      int startByte, int endByte
+          ) {
+            assertThat(match.getPatternIndex()).isEqualTo(0);
+            assertThat(match.getCaptureCount()).isEqualTo(1);
+            assertThat(query.getCaptureNameForId(captureId)).isEqualTo("method_name");
+            assertThat(lang.getSymbolName(symbol)).isEqualTo("identifier");
+            names.add(javaSource.substring(startByte / 2, endByte / 2));
+            return true;
+          }
+
+          @Override
+          public boolean visitMatchEnd(Match match) {
+            ++matches[0];
+            return true;
+          }
+        });
+
+        assertThat(names).containsExactly("a", "b", "c").inOrder();
+        assertThat(matches[0]).isEqualTo(3);
+
+        // stop early
+        names.clear();
+        cursor.forEachMatch(query, tree.getRootNode(),
+          (match, captureIndex, captureId, symbol, startByte, endByte) -> {
+            names.add(javaSource.substring(startByte / 2, endByte / 2));
+            return names.size() < 2;
+          });
+        assertThat(names).containsExactly("a", "b").inOrder();
+      }
+    }
+  }
+
+  @Test
+  public void testMaxStartDepth() {
+    final var lang = TSLanguageJava.getInstance();
+    try (final var parser = TSParser.create()) {
+      parser.setLanguage(lang);
+      try (final var tree = parser.parseString("class A { class B { class C {} } }");
+           final var query = TSQuery.create(lang, "(class_declaration) @class");
+           final var cursor = TSQueryCursor.create()) {
+        assertThat(cursor.getMaxStartDepth()).isEqualTo(-1);
+
+        // program > class_declaration (A) > class_body > class_declaration (B)
+        cursor.setMaxStartDepth(1);
+        cursor.exec(query, tree.getRootNode());
+        assertThat(countMatches(cursor)).isEqualTo(1);
+
+        cursor.setMaxStartDepth(3);
+        cursor.exec(query, tree.getRootNode());
+        assertThat(countMatches(cursor)).isEqualTo(2);
+
+        cursor.setMaxStartDepth(-5);
+        assertThat(cursor.getMaxStartDepth()).isEqualTo(-1);
+        cursor.exec(query, tree.getRootNode());
+        assertThat(countMatches(cursor)).isEqualTo(3);
+      }
+    }
+  }
+
+  @Test
+  public void testTimeoutCanBeResumed() throws InterruptedException {
+    final var lang = TSLanguageJava.getInstance();
+    try (final var parser = TSParser.create()) {
+      parser.setLanguage(lang);
+      try (final var tree = parser.parseString("class Main { void a() {} void b() {} }");
+           final var query = TSQuery.create(lang, "(method_declaration) @method");
+           final var cursor = TSQueryCursor.create()) {
+        cursor.setTimeoutMicros(1);
+        cursor.exec(query, tree.getRootNode());
+        Thread.sleep(1);
+
+        assertThat(cursor.nextMatch()).isNull();
+        assertThat(cursor.didExceedTimeout()).isTrue();
+
+        // resume without a budget
+        cursor.setTimeoutMicros(0);
+        assertThat(cursor.didExceedTimeout()).isFalse();
+        assertThat(countMatches(cursor)).isEqualTo(2);
+        assertThat(cursor.didExceedTimeout()).isFalse();
+      }
+    }
+  }
+
+  @Test
+  public void testQueryProfile() {
+    final var lang = TSLanguageJava.getInstance();
+    final var source = UTF16StringFactory.newString("class Main { void a() {} void b() {} }");
+    try (final var parser = TSParser.create(); final var query = TSQuery.create(lang,
+      "((method_declaration name: (identifier) @name) (#eq? @name \"a\"))\n" +
+        "(class_declaration) @class"); final var cursor = TSQueryCursor.create()) {
+      parser.setLanguage(lang);
+      try (final var tree = parser.parseString(source)) {
+        final var profile = new TSQueryProfile(query);
+        cursor.setProfile(profile);
+        cursor.exec(query, tree.getRootNode(), source);
+        assertThat(countMatches(cursor)).isEqualTo(2);
+
+        assertThat(profile.getPatternCount()).isEqualTo(2);
+        assertThat(profile.getMatchCount(0)).isEqualTo(1);
+        assertThat(profile.getRejectionCount(0)).isEqualTo(1);
+        assertThat(profile.getMatchCount(1)).isEqualTo(1);
+        assertThat(profile.getRejectionCount(1)).isEqualTo(0);
+        assertThat(profile.getMatchLimitExceededCount(0)).isEqualTo(0);
+
+        final var report = profile.getReport();
+        assertThat(report).contains("matches");
+        assertThat(report.split(System.lineSeparator())).hasLength(4);
+
+        profile.reset();
+        assertThat(profile.getMatchCount(0)).isEqualTo(0);
+        assertThat(profile.getRejectionCount(0)).isEqualTo(0);
+      }
+    } finally {
+      source.close();
+    }
+  }
+
+  @Test
+  public void testQueryInfo() {
+    final var lang = TSLanguageJava.getInstance();
+    try (final var query = TSQuery.create(lang,
+      "((method_declaration name: (identifier) @name) (#eq? @name \"a\"))\n" +
+        "(class_declaration name: (identifier)? @class) @decl")) {
+      final var info = query.getInfo();
+      assertThat(info).isSameInstanceAs(query.getInfo());
+      assertThat(info.getPatternCount()).isEqualTo(2);
+      assertThat(info.getCaptureCount()).isEqualTo(3);
+      assertThat(info.getCaptureNames()).asList().containsExactly("name", "class", "decl").inOrder();
+      assertThat(info.getStringCount()).isEqualTo(query.getStringCount());
+      assertThat(info.getStartByteForPattern(0)).isEqualTo(0);
+      assertThat(info.getStartByteForPattern(1)).isGreaterThan(0);
+      assertThat(info.isPatternRooted(0)).isTrue();
+      assertThat(info.getCaptureQuantifier(0, 0)).isEqualTo(TSQuantifier.One);
+      assertThat(info.getCaptureQuantifier(0, 1)).isEqualTo(TSQuantifier.Zero);
+      assertThat(info.getCaptureQuantifier(1, 1)).isEqualTo(TSQuantifier.ZeroOrOne);
+
+      // #eq? @name "a" -> String, Capture, String, Done
+      assertThat(info.getPredicateStepCount(0)).isEqualTo(4);
+      assertThat(info.getPredicateStepCount(1)).isEqualTo(0);
+      assertThat(info.getPredicateStepType(0, 0)).isEqualTo(TSQueryPredicateStep.Type.String);
+      assertThat(info.getStringValue(info.getPredicateStepValueId(0, 0))).isEqualTo("eq?");
+      assertThat(info.getPredicateStepType(0, 1)).isEqualTo(TSQueryPredicateStep.Type.Capture);
+      assertThat(info.getCaptureName(info.getPredicateStepValueId(0, 1))).isEqualTo("name");
+      assertThat(info.getPredicateStepType(0, 3)).isEqualTo(TSQueryPredicateStep.Type.Done);
+      assertThat(query.getPredicatesForPattern(0)).hasLength(4);
+      assertThat(query.getPredicates(0)).hasSize(1);
+    }
+  }
+
+  private static int countMatches(TSQueryCursor cursor) {
+    var count = 0;
+    while (cursor.nextMatch() != null) {
+      ++count;
+    }
+    return count;
+  }
+
   @Test(expected = NullPointerException.class)
   public void cursorShouldFailOnNullNode() {
     final var lang = TSLanguageJava.getInstance();
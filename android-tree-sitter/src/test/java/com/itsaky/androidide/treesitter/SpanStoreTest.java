@@ -0,0 +1,109 @@
+/*
+ *  This file is part of AndroidIDE.
+ *
+ *  AndroidIDE is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  AndroidIDE is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *   along with AndroidIDE.  If not, see <https://www.gnu.org/licenses/\>.
+ */
+
+package com.itsaky.androidide.treesitter;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/**
+ * @author Akash Yadav
+ */
+@RunWith(RobolectricTestRunner.class)
+public class SpanStoreTest extends TreeSitterTest {
+
+  @Test
+  public void testSpansAreOrderedByStartByte() {
+    final var store = new TSSpanStore();
+    store.add(10, 20, 1, 0);
+    store.add(0, 5, 2, 0);
+    store.add(5, 8, 3, 1);
+
+    assertThat(store.size()).isEqualTo(3);
+    assertThat(store.getStartByte(0)).isEqualTo(0);
+    assertThat(store.getStartByte(1)).isEqualTo(5);
+    assertThat(store.getStartByte(2)).isEqualTo(10);
+    assertThat(store.getCaptureIndex(1)).isEqualTo(3);
+    assertThat(store.getPatternIndex(1)).isEqualTo(1);
+    assertThat(store.indexOf(10, 20, 1, 0)).isEqualTo(2);
+    assertThat(store.indexOf(10, 20, 1, 1)).isEqualTo(-1);
+  }
+
+  @Test
+  public void testForEachFindsLongSpansStartingBeforeTheRange() {
+    final var store = new TSSpanStore();
+    // a long span (e.g. a block comment) followed by many short spans
+    store.add(0, 10000, 0, 0);
+    for (int i = 1; i < 1000; i++) {
+      store.add(i * 10, i * 10 + 5, 1, 0);
+    }
+
+    assertThat(spansOf(store, 5000, 5010)).containsExactly("0..10000", "5000..5005").inOrder();
+    assertThat(spansOf(store, 5006, 5010)).containsExactly("0..10000");
+    assertThat(spansOf(store, 10000, 10010)).containsExactly("10000..10005");
+
+    // empty range, spans containing the byte
+    assertThat(spansOf(store, 5003, 5003)).containsExactly("0..10000", "5000..5005").inOrder();
+  }
+
+  @Test
+  public void testEditShiftsAndReplacesSpans() {
+    final var store = new TSSpanStore();
+    store.add(0, 4, 0, 0);
+    store.add(6, 10, 1, 0);
+    store.add(12, 16, 2, 0);
+    store.add(20, 30, 3, 0);
+
+    // replace [6, 16) with 4 bytes
+    assertThat(store.removeIntersecting(6, 16)).isEqualTo(2);
+    store.shift(16, -6);
+    assertThat(spansOf(store, 0, 100)).containsExactly("0..4", "14..24").inOrder();
+
+    final var replacement = new TSSpanStore();
+    replacement.add(6, 8, 4, 0);
+    replacement.add(8, 10, 5, 0);
+    store.addAll(replacement);
+
+    assertThat(spansOf(store, 0, 100)).containsExactly("0..4", "6..8", "8..10", "14..24")
+      .inOrder();
+    assertThat(spansOf(store, 7, 9)).containsExactly("6..8", "8..10").inOrder();
+    assertThat(store.getCaptureIndex(2)).isEqualTo(5);
+
+    store.clear();
+    assertThat(store.size()).isEqualTo(0);
+    assertThat(spansOf(store, 0, 100)).isEmpty();
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void testInvalidIndex() {
+    new TSSpanStore().getStartByte(0);
+  }
+
+  private static List<String> spansOf(TSSpanStore store, int startByte, int endByte) {
+    final var spans = new ArrayList<String>();
+    store.forEach(startByte, endByte, (index, start, end, captureIndex, patternIndex) -> {
+      assertThat(store.getStartByte(index)).isEqualTo(start);
+      return spans.add(start + ".." + end);
+    });
+    return spans;
+  }
+}
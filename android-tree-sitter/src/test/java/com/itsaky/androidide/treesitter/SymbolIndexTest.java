@@ -0,0 +1,132 @@
+/*
+ *  This file is part of AndroidIDE.
+ *
+ *  AndroidIDE is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  AndroidIDE is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *   along with AndroidIDE.  If not, see <https://www.gnu.org/licenses/\>.
+ */
+
+package com.itsaky.androidide.treesitter;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import com.itsaky.androidide.treesitter.java.TSLanguageJava;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/**
+ * @author Akash Yadav
+ */
+@RunWith(RobolectricTestRunner.class)
+public class SymbolIndexTest extends TreeSitterTest {
+
+  private static final String TAGS_QUERY =
+    "((class_declaration name: (identifier) @name) @definition.class)\n" +
+      "((method_declaration name: (identifier) @name) @definition.method)";
+
+  @Test
+  public void testIndexIsUpdatedForChangedFiles() throws Exception {
+    final var lang = TSLanguageJava.getInstance();
+    final var dir = Files.createTempDirectory("symbols");
+    final var files = new ArrayList<Path>();
+    for (int i = 0; i < 10; i++) {
+      files.add(write(dir.resolve("File" + i + ".java"),
+        "class File" + i + " { void method" + i + "() {} }"));
+    }
+    final var indexFile = dir.resolve("symbols.idx");
+
+    final var executor = Executors.newFixedThreadPool(2);
+    try (final var query = TSQuery.create(lang, TAGS_QUERY)) {
+      final var indexer = new TSWorkspaceIndexer(executor, 2);
+      indexer.addLanguage(lang, query, "java");
+
+      final var writer = new TSSymbolIndex.Writer();
+      assertThat(indexer.index(files, writer).indexedFiles).isEqualTo(10);
+      writer.write(indexFile);
+
+      try (final var index = TSSymbolIndex.open(indexFile)) {
+        assertThat(index.getFileCount()).isEqualTo(10);
+        assertThat(index.getSymbolCount()).isEqualTo(20);
+
+        final var symbols = index.findByPrefix("method", 100);
+        assertThat(symbols).hasSize(10);
+        assertThat(symbols.get(0).getName()).isEqualTo("method0");
+        assertThat(symbols.get(0).getKind()).isEqualTo("method");
+        assertThat(symbols.get(0).isDefinition()).isTrue();
+        assertThat(index.getFilePath(symbols.get(0).getFileId()))
+          .isEqualTo(files.get(0).toString());
+        assertThat(index.findByPrefix("File1", 100)).hasSize(1);
+        assertThat(index.findByPrefix("method", 3)).hasSize(3);
+        assertThat(index.findByPrefix("missing", 100)).isEmpty();
+
+        // only the changed file is parsed again
+        write(files.get(3), "class Renamed { void other() {} }");
+        final var updater = new TSSymbolIndex.Writer(index);
+        final var stats = indexer.index(files, updater);
+        assertThat(stats.indexedFiles).isEqualTo(1);
+        assertThat(stats.unchangedFiles).isEqualTo(9);
+        updater.write(indexFile);
+      }
+
+      try (final var index = TSSymbolIndex.open(indexFile)) {
+        assertThat(index.getSymbolCount()).isEqualTo(20);
+        assertThat(index.findByPrefix("File3", 100)).isEmpty();
+        assertThat(index.findByPrefix("Renamed", 100)).hasSize(1);
+        assertThat(index.findByPrefix("method", 100)).hasSize(9);
+
+        final var fileId = index.findFile(files.get(3).toString());
+        assertThat(index.getSymbolsInFile(fileId)).hasSize(2);
+        assertThat(index.getSymbolsInFile(fileId).get(0).getName()).isEqualTo("Renamed");
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testInvalidLimitAndCorruptedKind() throws Exception {
+    final var indexFile = Files.createTempDirectory("symbols").resolve("symbols.idx");
+    final var writer = new TSSymbolIndex.Writer();
+    final var tag = new TSTag("Main", "class", true, 0, 20, TSPoint.create(0, 0),
+      TSPoint.create(0, 20), 12, 20, -1, -1, null);
+    writer.addFile("Main.java", 1, List.of(tag));
+    writer.write(indexFile);
+
+    try (final var index = TSSymbolIndex.open(indexFile)) {
+      assertThrows(IllegalArgumentException.class, () -> index.findByPrefix("Main", 0));
+      assertThat(index.findByPrefix("Main", 1)).hasSize(1);
+    }
+
+    // point the symbol to a kind which is not in the index
+    final var bytes = ByteBuffer.wrap(Files.readAllBytes(indexFile));
+    final var symbolsOffset = bytes.getInt(28);
+    bytes.putInt(symbolsOffset + 8, 5 << 8);
+    Files.write(indexFile, bytes.array());
+
+    try (final var index = TSSymbolIndex.open(indexFile)) {
+      assertThrows(IllegalStateException.class, () -> index.getSymbol(0));
+    }
+  }
+
+  private static Path write(Path file, String content) throws Exception {
+    return Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+  }
+}
@@ -0,0 +1,121 @@
+/*
+ *  This file is part of AndroidIDE.
+ *
+ *  AndroidIDE is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  AndroidIDE is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *   along with AndroidIDE.  If not, see <https://www.gnu.org/licenses/\>.
+ */
+
+package com.itsaky.androidide.treesitter;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.itsaky.androidide.treesitter.java.TSLanguageJava;
+import com.itsaky.androidide.treesitter.string.UTF16StringFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/**
+ * @author Akash Yadav
+ */
+@RunWith(RobolectricTestRunner.class)
+public class TagsTest extends TreeSitterTest {
+
+  private static final String TAGS_QUERY =
+    "((class_declaration name: (identifier) @name) @definition.class)\n" +
+      "((line_comment)* @doc . (method_declaration name: (identifier) @name) @definition.method " +
+      "(#select-adjacent! @doc @definition.method) (#strip! @doc \"^//\\\\s*\"))\n" +
+      "((method_invocation name: (identifier) @name) @reference.call)";
+
+  @Test
+  public void testExtractTags() {
+    final var lang = TSLanguageJava.getInstance();
+    final var text = "class Main {\n  // Runs a.\n  void a() { b(); }\n\n  void b() {}\n}\n";
+    final var source = UTF16StringFactory.newString(text);
+    try (final var parser = TSParser.create(); final var query = TSQuery.create(lang, TAGS_QUERY);
+         final var extractor = new TSTagsExtractor(query)) {
+      parser.setLanguage(lang);
+      try (final var tree = parser.parseString(source)) {
+        final var tags = extractor.extract(tree, source);
+        final var described = new ArrayList<String>();
+        for (final var tag : tags) {
+          described.add((tag.isDefinition() ? "def:" : "ref:") + tag.getKind() + ":" + tag.getName());
+        }
+        assertThat(described).containsExactly("def:class:Main", "def:method:a", "ref:call:b",
+          "def:method:b").inOrder();
+
+        final var a = tags.get(1);
+        assertThat(a.getNameStartByte()).isEqualTo(text.indexOf("a()") * 2);
+        assertThat(a.getDocs()).isEqualTo("Runs a.");
+        assertThat(a.getDocsStartByte()).isEqualTo(text.indexOf("//") * 2);
+        assertThat(tags.get(3).getDocs()).isNull();
+        assertThat(tags.get(3).getDocsStartByte()).isEqualTo(-1);
+      }
+    } finally {
+      source.close();
+    }
+  }
+
+  @Test
+  public void testWorkspaceIndexer() throws Exception {
+    final var lang = TSLanguageJava.getInstance();
+    final var dir = Files.createTempDirectory("tags");
+    final var files = new ArrayList<Path>();
+    for (int i = 0; i < 20; i++) {
+      final var file = dir.resolve("C" + i + ".java");
+      Files.write(file, ("class C" + i + " { void m" + i + "() { m" + i + "(); } }")
+        .getBytes(StandardCharsets.UTF_8));
+      files.add(file);
+    }
+    files.add(Files.write(dir.resolve("README.md"), new byte[0]));
+    files.add(dir.resolve("Missing.java"));
+
+    final var executor = Executors.newFixedThreadPool(4);
+    try (final var query = TSQuery.create(lang, TAGS_QUERY)) {
+      final var indexer = new TSWorkspaceIndexer(executor, 4);
+      indexer.addLanguage(lang, query, "java");
+
+      final List<String> names = Collections.synchronizedList(new ArrayList<>());
+      final List<Path> failed = Collections.synchronizedList(new ArrayList<>());
+      final var stats = indexer.index(files, new TSWorkspaceIndexer.Listener() {
+        @Override
+        public void onFileIndexed(TSWorkspaceIndexer.FileTags tags) {
+          for (final var tag : tags.getTags()) {
+            names.add(tag.getName());
+          }
+        }
+
+        @Override
+        public void onFileFailed(Path file, Exception error) {
+          failed.add(file);
+        }
+      });
+
+      assertThat(stats.indexedFiles).isEqualTo(20);
+      assertThat(stats.skippedFiles).isEqualTo(1);
+      assertThat(stats.failedFiles).isEqualTo(1);
+      assertThat(stats.tags).isEqualTo(60);
+      assertThat(names).contains("C7");
+      assertThat(failed).containsExactly(dir.resolve("Missing.java"));
+    } finally {
+      executor.shutdown();
+    }
+  }
+}
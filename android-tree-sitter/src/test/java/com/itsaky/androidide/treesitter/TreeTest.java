@@ -18,9 +18,15 @@
 package com.itsaky.androidide.treesitter;
 
 import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
 
 import com.itsaky.androidide.treesitter.java.TSLanguageJava;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.robolectric.RobolectricTestRunner;
@@ -118,4 +124,165 @@ public class TreeTest extends TreeSitterTest {
       }
     }
   }
+
+  @Test
+  public void testTreeDiffAfterEdit() {
+    try (final var parser = TSParser.create()) {
+      parser.setLanguage(TSLanguageJava.getInstance());
+      try (final var oldTree = parser.parseString("class Main { void main() {} }")) {
+        oldTree.edit(TSInputEdit.create(54, 54, 78, TSPoint.create(0, 54), TSPoint.create(0, 54),
+          TSPoint.create(0, 78)));
+
+        try (final var newTree = parser.parseString(oldTree,
+          "class Main { void main() {} void a() {} }")) {
+          final var methodDecl = (short) TSLanguageJava.getInstance()
+            .getSymbolForTypeString("method_declaration", true);
+
+          final var diff = newTree.diff(oldTree);
+          assertThat(diff.getCount()).isGreaterThan(0);
+
+          var reusedMethods = 0;
+          var insertedMethods = 0;
+          for (int i = 0; i < diff.getCount(); i++) {
+            if (diff.getSymbol(i) != methodDecl) {
+              continue;
+            }
+
+            if (diff.getKind(i) == TSTreeDiff.Kind.Reused) {
+              ++reusedMethods;
+              assertThat(diff.getOldStartByte(i)).isEqualTo(diff.getNewStartByte(i));
+            } else if (diff.getKind(i) == TSTreeDiff.Kind.Inserted) {
+              ++insertedMethods;
+              assertThat(diff.getOldStartByte(i)).isEqualTo(-1);
+              assertThat(diff.getOldStartPoint(i)).isNull();
+              assertThat(diff.getNewStartByte(i)).isEqualTo(56);
+            }
+          }
+
+          assertThat(reusedMethods).isEqualTo(1);
+          assertThat(insertedMethods).isEqualTo(1);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testCollectErrors() {
+    try (final var parser = TSParser.create()) {
+      parser.setLanguage(TSLanguageJava.getInstance());
+      final var source = "class Main { void main() { int x = 0 } }";
+      try (final var tree = parser.parseString(source)) {
+        assertThat(tree.getRootNode().hasErrors()).isTrue();
+
+        final var errors = tree.collectErrors(0);
+        assertThat(errors).isNotEmpty();
+        for (final var error : errors) {
+          assertThat(error.getStartByte()).isAtMost(error.getEndByte());
+        }
+
+        // the missing ';' is inserted right after '0'
+        final var semicolon = TSLanguageJava.getInstance().getSymbolForTypeString(";", false);
+        final var missingByte = (source.indexOf('0') + 1) * 2;
+        final var missing = errors[0];
+        assertThat(missing.isMissing()).isTrue();
+        assertThat((int) missing.getSymbol()).isEqualTo(semicolon);
+        assertThat(missing.getStartByte()).isEqualTo(missingByte);
+        assertThat(missing.getEndByte()).isEqualTo(missingByte);
+        assertThat(missing.getStartPoint()).isEqualTo(TSPoint.create(0, missingByte));
+        assertThat(missing.getEndPoint()).isEqualTo(TSPoint.create(0, missingByte));
+
+        assertThat(tree.collectErrors(1)).hasLength(1);
+        assertThat(tree.collectErrors(0, new TSRange[0])).isEmpty();
+      }
+
+      try (final var tree = parser.parseString("class Main { void main() {} }")) {
+        assertThat(tree.collectErrors(0)).isEmpty();
+      }
+    }
+  }
+
+  @Test
+  public void testFlatTreeRoundTrip() throws IOException {
+    try (final var parser = TSParser.create()) {
+      parser.setLanguage(TSLanguageJava.getInstance());
+      try (final var tree = parser.parseString("class Main { void main() { int x = 0; } }")) {
+        final var out = new ByteArrayOutputStream();
+        tree.writeTo(out);
+
+        final var flat = TSFlatTree.readFrom(new ByteArrayInputStream(out.toByteArray()));
+        final var root = tree.getRootNode();
+        assertThat(flat.getNodeCount()).isEqualTo(root.getDescendantCount());
+        assertThat(flat.getType(0)).isEqualTo(root.getType());
+        assertThat(flat.getEndByte(0)).isEqualTo(root.getEndByte());
+        assertThat(flat.getEndPoint(0)).isEqualTo(root.getEndPoint());
+        assertThat(flat.getParent(0)).isEqualTo(-1);
+        assertThat(flat.getChildCount(0)).isEqualTo(root.getChildCount());
+
+        final var classDecl = flat.getFirstChild(0);
+        assertThat(flat.getType(classDecl)).isEqualTo("class_declaration");
+        assertThat(flat.getParent(classDecl)).isEqualTo(0);
+        assertThat(flat.getNextSibling(classDecl)).isEqualTo(-1);
+
+        final var node = root.getDescendantForByteRange(40, 42);
+        final var flatNode = flat.getDescendantForByteRange(0, 40, 42);
+        assertThat(flat.getType(flatNode)).isEqualTo(node.getType());
+        assertThat(flat.getStartByte(flatNode)).isEqualTo(node.getStartByte());
+      }
+    }
+  }
+
+  @Test
+  public void testReadCorruptedFlatTree() throws IOException {
+    try (final var parser = TSParser.create()) {
+      parser.setLanguage(TSLanguageJava.getInstance());
+      try (final var tree = parser.parseString("class Main { void main() { int x = 0; } }")) {
+        final var out = new ByteArrayOutputStream();
+        tree.writeTo(out);
+
+        final var bytes = out.toByteArray();
+        final var truncated = Arrays.copyOf(bytes, bytes.length / 2);
+        assertThrows(IOException.class,
+          () -> TSFlatTree.readFrom(new ByteArrayInputStream(truncated)));
+      }
+    }
+
+    // node count too large
+    assertThrows(IOException.class,
+      () -> TSFlatTree.readFrom(flatTree(0xFF, 0xFF, 0xFF, 0xFF, 0x07)));
+
+    // node count larger than the data, must not be allocated upfront
+    assertThrows(IOException.class, () -> TSFlatTree.readFrom(flatTree(0xC0, 0x84, 0x3D)));
+
+    // symbol out of bounds
+    assertThrows(IOException.class,
+      () -> TSFlatTree.readFrom(flatTree(1, 5, 0, 0, 0, 0, 0, 0, 0, 0)));
+
+    // child count larger than the number of nodes
+    assertThrows(IOException.class,
+      () -> TSFlatTree.readFrom(flatTree(1, 0, 0, 1, 0, 0, 0, 0, 0, 0)));
+
+    // two root nodes
+    assertThrows(IOException.class,
+      () -> TSFlatTree.readFrom(flatTree(2, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0)));
+
+    final var flat =
+      TSFlatTree.readFrom(flatTree(2, 0, 0, 1, 0, 4, 0, 0, 0, 4, 0, 0, 0, 0, 2, 0, 0, 0, 2));
+    assertThat(flat.getNodeCount()).isEqualTo(2);
+    assertThat(flat.getParent(1)).isEqualTo(0);
+    assertThat(flat.getEndByte(1)).isEqualTo(2);
+  }
+
+  private static ByteArrayInputStream flatTree(int... nodes) throws IOException {
+    final var out = new ByteArrayOutputStream();
+    final var data = new DataOutputStream(out);
+    data.writeInt(TSFlatTree.MAGIC);
+    data.writeByte(TSFlatTree.VERSION);
+    data.writeBoolean(false); // language name
+    data.writeByte(1); // symbol count
+    data.writeByte(0); // named symbol count
+    for (final var b : nodes) {
+      data.writeByte(b);
+    }
+    return new ByteArrayInputStream(out.toByteArray());
+  }
 }
@@ -23,8 +23,10 @@ import com.itsaky.androidide.treesitter.TSParser;
 import com.itsaky.androidide.treesitter.TSQuery;
 import com.itsaky.androidide.treesitter.TSQueryCursor;
 import com.itsaky.androidide.treesitter.TSQueryError;
+import com.itsaky.androidide.treesitter.TSQueryMatch;
 import com.itsaky.androidide.treesitter.TreeSitterTest;
 import com.itsaky.androidide.treesitter.java.TSLanguageJava;
+import java.util.List;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.robolectric.RobolectricTestRunner;
@@ -92,6 +94,9 @@ public class SetDirectivePredicateTest extends TreeSitterTest {
         final var captureMeta = metadata.getCaptureMetadata("method_name");
         assertThat(captureMeta).isNotNull();
         assertThat(captureMeta.getString("a")).isEqualTo("b");
+
+        // the capture metadata is stored by capture ID
+        assertThat(metadata.getCaptureMetadata(0)).isSameInstanceAs(captureMeta);
       }
     }
   }
@@ -182,4 +187,144 @@ public class SetDirectivePredicateTest extends TreeSitterTest {
       }
     }
   }
+
+  @Test
+  public void test_multiple_set_directives_in_pattern() {
+    final var lang = TSLanguageJava.getInstance();
+    try (final var parser = TSParser.create()) {
+      parser.setLanguage(lang);
+      String javaSource = "public class Main { void a() {} }";
+      String querySource = "(method_declaration name: (identifier) @method_name (#set! \"a\" \"b\") (#set! @method_name \"c\" \"d\"))";
+
+      try (final var tree = parser.parseString(javaSource); final var query = TSQuery.create(lang,
+        querySource); final var cursor = TSQueryCursor.create()) {
+
+        assertThat(query.canAccess()).isTrue();
+
+        final var predicates = query.getPredicates(0);
+        assertThat(predicates).hasSize(2);
+        assertThat(predicates.get(0).getName()).isEqualTo("set!");
+        assertThat(predicates.get(0).getSteps()).hasSize(4);
+        assertThat(predicates.get(1).getSteps()).hasSize(5);
+        assertThat(predicates.get(1).getSteps().get(1).value).isEqualTo("method_name");
+        assertThat(query.getPredicates(0)).isSameInstanceAs(predicates);
+
+        cursor.addPredicateHandler(new SetDirectiveHandler());
+        cursor.exec(query, tree.getRootNode());
+
+        final var match = cursor.nextMatch();
+        assertThat(cursor.nextMatch()).isNull();
+
+        final var metadata = match.getMetadata();
+        assertThat(metadata.getString("a")).isEqualTo("b");
+        assertThat(metadata.getCaptureMetadata("method_name").getString("c")).isEqualTo("d");
+      }
+    }
+  }
+
+  @Test
+  public void test_predicates_are_dispatched_by_name() {
+    final var lang = TSLanguageJava.getInstance();
+    try (final var parser = TSParser.create()) {
+      parser.setLanguage(lang);
+      String javaSource = "public class Main { void a() {} void b() {} }";
+      String querySource = "(method_declaration name: (identifier) @method_name (#set! \"a\" \"b\"))";
+
+      try (final var tree = parser.parseString(javaSource); final var query = TSQuery.create(lang,
+        querySource); final var cursor = TSQueryCursor.create()) {
+
+        final var other = new CountingHandler(new String[]{"other?"});
+        final var generic = new CountingHandler(new String[0]);
+        cursor.addPredicateHandler(other);
+        cursor.addPredicateHandler(generic);
+        cursor.addPredicateHandler(new SetDirectiveHandler());
+        cursor.exec(query, tree.getRootNode());
+
+        var count = 0;
+        for (final var match : cursor) {
+          assertThat(match.getMetadata().getString("a")).isEqualTo("b");
+          ++count;
+        }
+
+        assertThat(count).isEqualTo(2);
+        assertThat(other.calls).isEqualTo(0);
+
+        // the named handler handles the predicate, so the generic handler is never reached
+        assertThat(generic.calls).isEqualTo(0);
+      }
+    }
+  }
+
+  @Test
+  public void test_metadata_is_allocated_lazily() {
+    final var lang = TSLanguageJava.getInstance();
+    try (final var parser = TSParser.create()) {
+      parser.setLanguage(lang);
+      String javaSource = "public class Main { void a() {} }";
+      String querySource = "(method_declaration name: (identifier) @method_name)";
+
+      try (final var tree = parser.parseString(javaSource); final var query = TSQuery.create(lang,
+        querySource); final var cursor = TSQueryCursor.create()) {
+        cursor.addPredicateHandler(new SetDirectiveHandler());
+        cursor.exec(query, tree.getRootNode());
+
+        final var match = cursor.nextMatch();
+        assertThat(match.hasMetadata()).isFalse();
+        assertThat(match.getMetadata().isEmpty()).isTrue();
+        assertThat(match.getMetadata().containsKey("method_name")).isFalse();
+        assertThat(match.getMetadata().getCaptureMetadata(0)).isNull();
+        assertThat(match.hasMetadata()).isFalse();
+
+        match.getMetadata().putString("a", "b");
+        assertThat(match.hasMetadata()).isTrue();
+      }
+    }
+  }
+
+  @Test
+  public void test_predicates_are_applied_once_per_match_for_captures() {
+    final var lang = TSLanguageJava.getInstance();
+    try (final var parser = TSParser.create()) {
+      parser.setLanguage(lang);
+      String javaSource = "public class Main { void a() {} int b() { return 0; } }";
+      String querySource = "((method_declaration type: (_) @type name: (identifier) @name) (#count! @name))";
+
+      try (final var tree = parser.parseString(javaSource); final var query = TSQuery.create(lang,
+        querySource); final var cursor = TSQueryCursor.create()) {
+        final var counting = new CountingHandler(new String[]{"count!"});
+        cursor.addPredicateHandler(counting);
+        cursor.exec(query, tree.getRootNode());
+
+        var captures = 0;
+        while (cursor.nextCapture() != null) {
+          ++captures;
+        }
+
+        // 2 matches with 2 captures each, the predicate is applied once for each match
+        assertThat(captures).isEqualTo(4);
+        assertThat(counting.calls).isEqualTo(2);
+      }
+    }
+  }
+
+  private static final class CountingHandler implements TSPredicateHandler {
+
+    private final String[] supportedPredicates;
+    private int calls = 0;
+
+    private CountingHandler(String[] supportedPredicates) {
+      this.supportedPredicates = supportedPredicates;
+    }
+
+    @Override
+    public String[] getSupportedPredicates() {
+      return supportedPredicates;
+    }
+
+    @Override
+    public Result handle(TSQuery query, TSQueryMatch match, List<PredicateStep> args) {
+      ++calls;
+      return Result.UNHANDLED;
+    }
+  }
 }
@@ -0,0 +1,220 @@
+/*
+ *  This file is part of AndroidIDE.
+ *
+ *  AndroidIDE is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  AndroidIDE is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *   along with AndroidIDE.  If not, see <https://www.gnu.org/licenses/\>.
+ */
+
+package com.itsaky.androidide.treesitter.predicate;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import com.itsaky.androidide.treesitter.TSParser;
+import com.itsaky.androidide.treesitter.TSQuery;
+import com.itsaky.androidide.treesitter.TSQueryCursor;
+import com.itsaky.androidide.treesitter.TSQueryMatch;
+import com.itsaky.androidide.treesitter.TreeSitterTest;
+import com.itsaky.androidide.treesitter.java.TSLanguageJava;
+import com.itsaky.androidide.treesitter.string.UTF16StringFactory;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/**
+ * @author Akash Yadav
+ */
+@RunWith(RobolectricTestRunner.class)
+public class TextPredicateTest extends TreeSitterTest {
+
+  private static final String SOURCE = "class Main { int CONSTANT; int field; int other; void field() {} }";
+
+  @Test
+  public void test_eq_predicate() {
+    assertThat(matchedText("((identifier) @id (#eq? @id \"field\"))")).containsExactly("field",
+      "field");
+    assertThat(matchedText("((identifier) @id (#not-eq? @id \"field\"))")).containsExactly("Main",
+      "CONSTANT", "other");
+  }
+
+  @Test
+  public void test_eq_predicate_with_captures() {
+    assertThat(matchedText(
+      "(class_body (field_declaration declarator: (variable_declarator name: (identifier) @a)) (method_declaration name: (identifier) @b) (#eq? @a @b))")).containsExactly(
+      "field");
+  }
+
+  @Test
+  public void test_match_predicate() {
+    assertThat(matchedText("((identifier) @id (#match? @id \"^[A-Z][A-Z_]+$\"))")).containsExactly(
+      "CONSTANT");
+    assertThat(matchedText("((identifier) @id (#not-match? @id \"^[A-Z]\"))")).containsExactly(
+      "field", "other", "field");
+  }
+
+  @Test
+  public void test_any_of_predicate() {
+    assertThat(
+      matchedText("((identifier) @id (#any-of? @id \"other\" \"Main\"))")).containsExactly("Main",
+      "other");
+    assertThat(matchedText(
+      "((identifier) @id (#not-any-of? @id \"other\" \"Main\" \"field\"))")).containsExactly(
+      "CONSTANT");
+  }
+
+  @Test
+  public void test_native_text_predicates() {
+    assertThat(nativeMatchedText("((identifier) @id (#eq? @id \"field\"))", false)).containsExactly(
+      "field", "field");
+    assertThat(nativeMatchedText("((identifier) @id (#match? @id \"^[A-Z][A-Z_]+$\"))",
+      false)).containsExactly("CONSTANT");
+    assertThat(nativeMatchedText("((identifier) @id (#not-match? @id \"^[A-Z]\"))",
+      false)).containsExactly("field", "other", "field");
+    assertThat(nativeMatchedText("((identifier) @id (#any-of? @id \"other\" \"Main\"))",
+      false)).containsExactly("Main", "other");
+  }
+
+  @Test
+  public void test_unsupported_native_regex_falls_back_to_handler() {
+    final var query = "((identifier) @id (#match? @id \"^(CONSTANT|other)$\"))";
+    assertThat(nativeMatchedText(query, true)).containsExactly("CONSTANT", "other");
+  }
+
+  @Test
+  public void test_native_text_predicates_with_out_of_sync_source() {
+    final var lang = TSLanguageJava.getInstance();
+    final var source = UTF16StringFactory.newString(SOURCE);
+    final var shortSource = UTF16StringFactory.newString("class Main {}");
+    final var result = new ArrayList<String>();
+    try (final var parser = TSParser.create()) {
+      parser.setLanguage(lang);
+      try (final var tree = parser.parseString(source); final var query = TSQuery.create(lang,
+        "((identifier) @id (#not-eq? @id \"x\"))"); final var cursor = TSQueryCursor.create()) {
+
+        // captures outside the bounds of the source text must be rejected, not accepted unchecked
+        cursor.exec(query, tree.getRootNode(), shortSource);
+        TSQueryMatch match;
+        while ((match = cursor.nextMatch()) != null) {
+          final var node = match.getCaptures()[0].getNode();
+          result.add(source.substringBytes(node.getStartByte(), node.getEndByte()));
+        }
+        assertThat(result).containsExactly("Main");
+
+        cursor.exec(query, tree.getRootNode(), shortSource);
+        shortSource.close();
+        assertThrows(IllegalStateException.class, cursor::nextMatch);
+      }
+    } finally {
+      source.close();
+      if (shortSource.canAccess()) {
+        shortSource.close();
+      }
+    }
+  }
+
+  @Test
+  public void test_text_predicate_handler_with_out_of_sync_source() {
+    final var lang = TSLanguageJava.getInstance();
+    final var source = UTF16StringFactory.newString(SOURCE);
+    final var shortSource = UTF16StringFactory.newString("class Main {}");
+    final var result = new ArrayList<String>();
+    try (final var parser = TSParser.create()) {
+      parser.setLanguage(lang);
+      try (final var tree = parser.parseString(source); final var query = TSQuery.create(lang,
+        "((identifier) @id (#not-eq? @id \"x\"))"); final var cursor = TSQueryCursor.create()) {
+
+        // like the native predicates, the handler rejects the captures outside the source text
+        cursor.addPredicateHandler(new TextPredicateHandler(shortSource));
+        cursor.exec(query, tree.getRootNode());
+        TSQueryMatch match;
+        while ((match = cursor.nextMatch()) != null) {
+          final var node = match.getCaptures()[0].getNode();
+          result.add(source.substringBytes(node.getStartByte(), node.getEndByte()));
+        }
+        assertThat(result).containsExactly("Main");
+      }
+    } finally {
+      source.close();
+      shortSource.close();
+    }
+  }
+
+  @Test
+  public void test_native_regex_matches_java_regex() {
+    // line terminators, a surrogate pair and line comments which end with '\r'
+    final var text = "class Main {\r\n  // a\u2028b\r\n  // c\r\n  /* \uD83D\uDE00 */\r\n}\r\n";
+    final var regexes = new String[]{"b$", "c$", "a.b", "^/\\* . \\*/$", "^/\\* [^x] \\*/$",
+      "^// .+$", "\\S+$"};
+    for (final var regex : regexes) {
+      final var query = "([(line_comment) (block_comment)] @c (#match? @c \"" + regex + "\"))";
+
+      // without a handler, the predicates which are not evaluated natively are ignored
+      final var javaResult = matchedText(text, query, false, true);
+      assertThat(matchedText(text, query, true, false)).containsExactlyElementsIn(javaResult)
+        .inOrder();
+    }
+
+    assertThat(matchedText(text, "((block_comment) @c (#match? @c \"^/\\* . \\*/$\"))", true,
+      false)).containsExactly("/* \uD83D\uDE00 */");
+  }
+
+  private List<String> matchedText(String querySource) {
+    return matchedText(querySource, false, true);
+  }
+
+  private List<String> nativeMatchedText(String querySource, boolean withHandler) {
+    return matchedText(querySource, true, withHandler);
+  }
+
+  private List<String> matchedText(String querySource, boolean evaluateNatively,
+                                   boolean withHandler
+  ) {
+    return matchedText(SOURCE, querySource, evaluateNatively, withHandler);
+  }
+
+  private List<String> matchedText(String text, String querySource, boolean evaluateNatively,
+                                   boolean withHandler
+  ) {
+    final var lang = TSLanguageJava.getInstance();
+    final var source = UTF16StringFactory.newString(text);
+    final var result = new ArrayList<String>();
+    try (final var parser = TSParser.create()) {
+      parser.setLanguage(lang);
+      try (final var tree = parser.parseString(source); final var query = TSQuery.create(lang,
+        querySource); final var cursor = TSQueryCursor.create()) {
+        assertThat(query.canAccess()).isTrue();
+
+        if (withHandler) {
+          cursor.addPredicateHandler(new TextPredicateHandler(source));
+        }
+
+        if (evaluateNatively) {
+          cursor.exec(query, tree.getRootNode(), source);
+        } else {
+          cursor.exec(query, tree.getRootNode());
+        }
+
+        TSQueryMatch match;
+        while ((match = cursor.nextMatch()) != null) {
+          final var node = match.getCaptures()[0].getNode();
+          result.add(source.substringBytes(node.getStartByte(), node.getEndByte()));
+        }
+      }
+    } finally {
+      source.close();
+    }
+    return result;
+  }
+}